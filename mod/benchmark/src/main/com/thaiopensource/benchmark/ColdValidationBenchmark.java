@@ -0,0 +1,79 @@
+package com.thaiopensource.benchmark;
+
+import com.thaiopensource.util.PropertyMapBuilder;
+import com.thaiopensource.validate.SchemaReader;
+import com.thaiopensource.validate.ValidateProperty;
+import com.thaiopensource.validate.ValidationDriver;
+import com.thaiopensource.validate.auto.AutoSchemaReader;
+import com.thaiopensource.validate.prop.rng.RngProperty;
+import com.thaiopensource.validate.rng.CompactSchemaReader;
+import com.thaiopensource.xml.sax.DraconianErrorHandler;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the time to load a schema and validate a single document with it in a freshly
+ * started JVM, as the command line tools do.  Each fork makes a single measurement, so the time
+ * includes class loading and interpretation of cold code.  The setup only writes files, so that
+ * it does not warm up any of the code measured.
+ *
+ * @see ValidationBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 0)
+@Measurement(iterations = 1)
+@Fork(20)
+public class ColdValidationBenchmark {
+  @Param({ "rng", "rnc", "nvdl", "sch" })
+  public String syntax;
+
+  @Param({ "100", "10000" })
+  public int records;
+
+  @Param({ "20" })
+  public int extensions;
+
+  private Workspace workspace;
+
+  @Setup
+  public void setup() throws IOException {
+    workspace = new Workspace();
+    DocumentGenerator generator = new DocumentGenerator(1, extensions);
+    workspace.writeSchemas(generator);
+    DocumentGenerator.write(generator.getDocument(0, records), workspace.getFile("document.xml"));
+  }
+
+  @TearDown
+  public void tearDown() {
+    workspace.delete();
+  }
+
+  @Benchmark
+  public boolean cold() throws Exception {
+    PropertyMapBuilder builder = new PropertyMapBuilder();
+    builder.put(ValidateProperty.ERROR_HANDLER, new DraconianErrorHandler());
+    RngProperty.CHECK_ID_IDREF.add(builder);
+    SchemaReader sr = syntax.equals("rnc") ? CompactSchemaReader.getInstance() : new AutoSchemaReader();
+    ValidationDriver driver = new ValidationDriver(builder.toPropertyMap(), sr);
+    if (!driver.loadSchema(ValidationDriver.uriOrFileInputSource(workspace.getUri("schema." + syntax))))
+      throw new IllegalStateException("incorrect schema");
+    if (!driver.validate(ValidationDriver.uriOrFileInputSource(workspace.getUri("document.xml"))))
+      throw new IllegalStateException("invalid document");
+    return true;
+  }
+}
@@ -0,0 +1,142 @@
+package com.thaiopensource.benchmark;
+
+import com.thaiopensource.relaxng.edit.SchemaCollection;
+import com.thaiopensource.relaxng.input.parse.compact.CompactParseInputFormat;
+import com.thaiopensource.relaxng.input.xml.XmlInputFormat;
+import com.thaiopensource.relaxng.output.OutputDirectory;
+import com.thaiopensource.relaxng.output.rng.RngOutputFormat;
+import com.thaiopensource.relaxng.output.xsd.XsdOutputFormat;
+import com.thaiopensource.xml.out.CharRepertoire;
+import com.thaiopensource.xml.sax.DraconianErrorHandler;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.xml.sax.ErrorHandler;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the time for the conversions trang does most: from the compact syntax to
+ * W3C XML Schema, and inference of a schema in the XML syntax from example documents.
+ * The input is read from files; the output is written to memory.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ConvertBenchmark {
+  private static final int DOCUMENTS = 5;
+  private static final String[] NO_PARAMS = new String[0];
+
+  @Param({ "10", "100" })
+  public int extensions;
+
+  @Param({ "100" })
+  public int records;
+
+  private Workspace workspace;
+  private String rncUri;
+  private String[] documentUris;
+  private final ErrorHandler eh = new DraconianErrorHandler();
+
+  @Setup
+  public void setup() throws IOException {
+    workspace = new Workspace();
+    DocumentGenerator generator = new DocumentGenerator(1, extensions);
+    workspace.writeSchemas(generator);
+    rncUri = workspace.getUri("schema.rnc");
+    documentUris = new String[DOCUMENTS];
+    for (int i = 0; i < DOCUMENTS; i++) {
+      String name = "document" + i + ".xml";
+      DocumentGenerator.write(generator.getDocument(i, records), workspace.getFile(name));
+      documentUris[i] = workspace.getUri(name);
+    }
+  }
+
+  @TearDown
+  public void tearDown() {
+    workspace.delete();
+  }
+
+  @Benchmark
+  public Map<String, String> rncToXsd() throws Exception {
+    SchemaCollection sc = new CompactParseInputFormat().load(rncUri, NO_PARAMS, "xsd", eh, null);
+    MemoryOutputDirectory od = new MemoryOutputDirectory(".xsd");
+    new XsdOutputFormat().output(sc, od, NO_PARAMS, "rnc", eh);
+    return od.getOutput();
+  }
+
+  @Benchmark
+  public Map<String, String> xmlToRng() throws Exception {
+    SchemaCollection sc = new XmlInputFormat().load(documentUris, NO_PARAMS, "rng", eh, null);
+    MemoryOutputDirectory od = new MemoryOutputDirectory(".rng");
+    new RngOutputFormat().output(sc, od, NO_PARAMS, "xml", eh);
+    return od.getOutput();
+  }
+
+  /**
+   * An OutputDirectory that keeps what is written to it in memory.
+   */
+  private static class MemoryOutputDirectory implements OutputDirectory {
+    private static final String ENCODING = "UTF-8";
+    private final String extension;
+    private final Map<String, StringWriter> writers = new HashMap<String, StringWriter>();
+    private int lineLength = 72;
+    private int indent = 2;
+
+    MemoryOutputDirectory(String extension) {
+      this.extension = extension;
+    }
+
+    public Stream open(String sourceUri, String encoding) throws IOException {
+      StringWriter writer = new StringWriter();
+      writers.put(reference(null, sourceUri), writer);
+      return new Stream(writer, ENCODING, CharRepertoire.getInstance(ENCODING));
+    }
+
+    public String reference(String fromSourceUri, String toSourceUri) {
+      String name = toSourceUri.substring(toSourceUri.lastIndexOf('/') + 1);
+      int dot = name.lastIndexOf('.');
+      return (dot > 0 ? name.substring(0, dot) : name) + extension;
+    }
+
+    public String getLineSeparator() {
+      return "\n";
+    }
+
+    public int getLineLength() {
+      return lineLength;
+    }
+
+    public void setLineLength(int lineLength) {
+      this.lineLength = lineLength;
+    }
+
+    public int getIndent() {
+      return indent;
+    }
+
+    public void setIndent(int indent) {
+      this.indent = indent;
+    }
+
+    public void setEncoding(String encoding) {
+    }
+
+    Map<String, String> getOutput() {
+      Map<String, String> output = new HashMap<String, String>();
+      for (Map.Entry<String, StringWriter> entry : writers.entrySet())
+        output.put(entry.getKey(), entry.getValue().toString());
+      return output;
+    }
+  }
+}
@@ -0,0 +1,77 @@
+package com.thaiopensource.benchmark;
+
+import com.thaiopensource.datatype.xsd.DatatypeLibraryFactoryImpl;
+import com.thaiopensource.xml.util.WellKnownNamespaces;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.relaxng.datatype.Datatype;
+import org.relaxng.datatype.DatatypeException;
+import org.relaxng.datatype.ValidationContext;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the rate at which values are checked against each of a selection of the XML Schema datatypes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class DatatypeBenchmark {
+  private static final int VALUES = 1000;
+
+  @Param({ "boolean", "integer", "int", "decimal", "double", "float", "date", "dateTime", "time",
+           "duration", "gYear", "NCName", "QName", "token", "anyURI", "language", "hexBinary",
+           "base64Binary" })
+  public String type;
+
+  private Datatype datatype;
+  private String[] values;
+
+  private static final ValidationContext context = new ValidationContext() {
+    public String resolveNamespacePrefix(String prefix) {
+      return prefix.equals("b") ? DocumentGenerator.NAMESPACE : null;
+    }
+
+    public String getBaseUri() {
+      return null;
+    }
+
+    public boolean isUnparsedEntity(String entityName) {
+      return false;
+    }
+
+    public boolean isNotation(String notationName) {
+      return false;
+    }
+  };
+
+  @Setup
+  public void setup() throws DatatypeException {
+    datatype = new DatatypeLibraryFactoryImpl()
+            .createDatatypeLibrary(WellKnownNamespaces.XML_SCHEMA_DATATYPES)
+            .createDatatype(type);
+    values = new DocumentGenerator(1, 0).getValues(type, VALUES);
+    for (String value : values) {
+      if (!datatype.isValid(value, context))
+        throw new IllegalStateException("invalid " + type + " \"" + value + "\"");
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(VALUES)
+  public int isValid() {
+    int valid = 0;
+    for (String value : values) {
+      if (datatype.isValid(value, context))
+        valid++;
+    }
+    return valid;
+  }
+}
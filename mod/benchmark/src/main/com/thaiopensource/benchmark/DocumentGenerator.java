@@ -0,0 +1,391 @@
+package com.thaiopensource.benchmark;
+
+import com.thaiopensource.util.Utf8;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Random;
+
+/**
+ * Generates a synthetic schema and documents valid against it.  The output depends only on
+ * the seed and the sizes requested, so that a benchmark sees the same input on every run.
+ * <p>
+ * The schema describes a catalog of records.  Besides a fixed set of elements and attributes,
+ * a record may contain any number of extension elements, each with its own attributes of
+ * various datatypes; the number of kinds of extension element determines the size of the schema.
+ * The schema is available in the XML and compact syntaxes of RELAX NG, as an NVDL script that
+ * refers to the RELAX NG schema, and as a Schematron schema expressing some of the same constraints.
+ */
+public class DocumentGenerator {
+  public static final String NAMESPACE = "http://www.example.com/benchmark";
+
+  private static final String[] STATUS = { "active", "retired", "pending" };
+  private static final String[] CURRENCY = { "USD", "EUR", "GBP", "JPY", "CHF" };
+  private static final String[] WORDS = {
+    "alpha", "bravo", "charlie", "delta", "echo", "foxtrot", "golf", "hotel", "india", "juliet",
+    "kilo", "lima", "mike", "november", "oscar", "papa", "quebec", "romeo", "sierra", "tango",
+    "uniform", "victor", "whiskey", "xray", "yankee", "zulu"
+  };
+  // the datatypes used for the attributes of extension elements
+  private static final String[] EXTENSION_TYPES = {
+    "integer", "decimal", "double", "boolean", "date", "dateTime", "NCName", "token", "anyURI",
+    "language"
+  };
+
+  private final long seed;
+  private final int extensions;
+  // the datatype of each attribute of each extension element
+  private final String[][] extensionAttributeTypes;
+
+  /**
+   * Creates a generator.
+   *
+   * @param seed the seed from which everything generated is derived
+   * @param extensions the number of kinds of extension element in the schema
+   */
+  public DocumentGenerator(long seed, int extensions) {
+    this.seed = seed;
+    this.extensions = extensions;
+    Random random = new Random(seed);
+    extensionAttributeTypes = new String[extensions][];
+    for (int i = 0; i < extensions; i++) {
+      String[] types = new String[1 + random.nextInt(4)];
+      for (int j = 0; j < types.length; j++)
+        types[j] = EXTENSION_TYPES[random.nextInt(EXTENSION_TYPES.length)];
+      extensionAttributeTypes[i] = types;
+    }
+  }
+
+  /**
+   * Returns the schema in the XML syntax of RELAX NG.
+   */
+  public String getRngSchema() {
+    StringBuilder buf = new StringBuilder();
+    buf.append("<grammar xmlns=\"http://relaxng.org/ns/structure/1.0\"\n");
+    buf.append("         ns=\"").append(NAMESPACE).append("\"\n");
+    buf.append("         datatypeLibrary=\"http://www.w3.org/2001/XMLSchema-datatypes\">\n");
+    buf.append("  <start>\n");
+    buf.append("    <element name=\"catalog\">\n");
+    buf.append("      <zeroOrMore><ref name=\"record\"/></zeroOrMore>\n");
+    buf.append("    </element>\n");
+    buf.append("  </start>\n");
+    buf.append("  <define name=\"record\">\n");
+    buf.append("    <element name=\"record\">\n");
+    buf.append("      <attribute name=\"id\"><data type=\"ID\"/></attribute>\n");
+    buf.append("      <attribute name=\"date\"><data type=\"date\"/></attribute>\n");
+    buf.append("      <attribute name=\"status\">\n");
+    buf.append("        <choice>\n");
+    for (String status : STATUS)
+      buf.append("          <value type=\"token\">").append(status).append("</value>\n");
+    buf.append("        </choice>\n");
+    buf.append("      </attribute>\n");
+    buf.append("      <element name=\"title\"><text/></element>\n");
+    buf.append("      <element name=\"code\">\n");
+    buf.append("        <data type=\"token\"><param name=\"pattern\">[A-Z]{2}-[0-9]{4}</param></data>\n");
+    buf.append("      </element>\n");
+    buf.append("      <element name=\"amount\">\n");
+    buf.append("        <attribute name=\"currency\"><data type=\"NCName\"/></attribute>\n");
+    buf.append("        <data type=\"decimal\"><param name=\"fractionDigits\">2</param></data>\n");
+    buf.append("      </element>\n");
+    buf.append("      <zeroOrMore>\n");
+    buf.append("        <element name=\"tag\"><data type=\"NCName\"/></element>\n");
+    buf.append("      </zeroOrMore>\n");
+    buf.append("      <optional>\n");
+    buf.append("        <element name=\"note\">\n");
+    buf.append("          <mixed><zeroOrMore><element name=\"em\"><text/></element></zeroOrMore></mixed>\n");
+    buf.append("        </element>\n");
+    buf.append("      </optional>\n");
+    if (extensions > 0) {
+      buf.append("      <zeroOrMore>\n");
+      buf.append("        <choice>\n");
+      for (int i = 0; i < extensions; i++)
+        buf.append("          <ref name=\"ext").append(i).append("\"/>\n");
+      buf.append("        </choice>\n");
+      buf.append("      </zeroOrMore>\n");
+    }
+    buf.append("    </element>\n");
+    buf.append("  </define>\n");
+    for (int i = 0; i < extensions; i++) {
+      buf.append("  <define name=\"ext").append(i).append("\">\n");
+      buf.append("    <element name=\"ext").append(i).append("\">\n");
+      String[] types = extensionAttributeTypes[i];
+      for (int j = 0; j < types.length; j++) {
+        buf.append("      <attribute name=\"a").append(j).append("\"><data type=\"")
+                .append(types[j]).append("\"/></attribute>\n");
+      }
+      buf.append("      <empty/>\n");
+      buf.append("    </element>\n");
+      buf.append("  </define>\n");
+    }
+    buf.append("</grammar>\n");
+    return buf.toString();
+  }
+
+  /**
+   * Returns the schema in the compact syntax of RELAX NG.
+   */
+  public String getRncSchema() {
+    StringBuilder buf = new StringBuilder();
+    buf.append("default namespace = \"").append(NAMESPACE).append("\"\n");
+    buf.append("\n");
+    buf.append("start = element catalog { record* }\n");
+    buf.append("record =\n");
+    buf.append("  element record {\n");
+    buf.append("    attribute id { xsd:ID },\n");
+    buf.append("    attribute date { xsd:date },\n");
+    buf.append("    attribute status {");
+    for (int i = 0; i < STATUS.length; i++) {
+      if (i > 0)
+        buf.append(" |");
+      buf.append(" xsd:token \"").append(STATUS[i]).append("\"");
+    }
+    buf.append(" },\n");
+    buf.append("    element title { text },\n");
+    buf.append("    element code { xsd:token { pattern = \"[A-Z]{2}-[0-9]{4}\" } },\n");
+    buf.append("    element amount {\n");
+    buf.append("      attribute currency { xsd:NCName },\n");
+    buf.append("      xsd:decimal { fractionDigits = \"2\" }\n");
+    buf.append("    },\n");
+    buf.append("    element tag { xsd:NCName }*,\n");
+    buf.append("    element note { mixed { element em { text }* } }?");
+    if (extensions > 0) {
+      buf.append(",\n    (");
+      for (int i = 0; i < extensions; i++) {
+        if (i > 0)
+          buf.append(" | ");
+        buf.append("ext").append(i);
+      }
+      buf.append(")*");
+    }
+    buf.append("\n  }\n");
+    for (int i = 0; i < extensions; i++) {
+      buf.append("ext").append(i).append(" =\n");
+      buf.append("  element ext").append(i).append(" {\n");
+      String[] types = extensionAttributeTypes[i];
+      for (int j = 0; j < types.length; j++) {
+        buf.append("    attribute a").append(j).append(" { xsd:").append(types[j]).append(" },\n");
+      }
+      buf.append("    empty\n");
+      buf.append("  }\n");
+    }
+    return buf.toString();
+  }
+
+  /**
+   * Returns an NVDL script that validates the elements in the namespace of the schema
+   * against the schema in the XML syntax of RELAX NG.
+   *
+   * @param rngUri the URI of the schema in the XML syntax of RELAX NG, relative to the script
+   */
+  public String getNvdlSchema(String rngUri) {
+    return "<rules xmlns=\"http://purl.oclc.org/dsdl/nvdl/ns/structure/1.0\">\n"
+           + "  <namespace ns=\"" + NAMESPACE + "\">\n"
+           + "    <validate schema=\"" + rngUri + "\"/>\n"
+           + "  </namespace>\n"
+           + "</rules>\n";
+  }
+
+  /**
+   * Returns an ISO Schematron schema for some of the constraints of the schema.
+   */
+  public String getSchematronSchema() {
+    return "<schema xmlns=\"http://purl.oclc.org/dsdl/schematron\">\n"
+           + "  <ns prefix=\"b\" uri=\"" + NAMESPACE + "\"/>\n"
+           + "  <pattern>\n"
+           + "    <rule context=\"b:record\">\n"
+           + "      <assert test=\"b:title and b:code and b:amount\">A record has a title, code and amount.</assert>\n"
+           + "      <assert test=\"number(b:amount) &gt;= 0\">The amount is not negative.</assert>\n"
+           + "      <report test=\"@status = 'retired' and not(b:note)\">A retired record has no note.</report>\n"
+           + "    </rule>\n"
+           + "    <rule context=\"b:amount\">\n"
+           + "      <assert test=\"string-length(@currency) = 3\">The currency is a three letter code.</assert>\n"
+           + "    </rule>\n"
+           + "  </pattern>\n"
+           + "</schema>\n";
+  }
+
+  /**
+   * Returns a document, encoded in UTF-8, that is valid against the schema.  The same index
+   * always gives the same document; different indexes give different documents.
+   *
+   * @param index distinguishes the document from others generated with the same seed
+   * @param records the number of records in the document
+   */
+  public byte[] getDocument(int index, int records) {
+    Random random = new Random(seed * 31 + index);
+    StringBuilder buf = new StringBuilder();
+    buf.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+    buf.append("<catalog xmlns=\"").append(NAMESPACE).append("\">\n");
+    for (int i = 0; i < records; i++) {
+      buf.append("  <record id=\"r").append(i).append("\" date=\"")
+              .append(getValue("date", random)).append("\" status=\"")
+              .append(STATUS[random.nextInt(STATUS.length)]).append("\">\n");
+      buf.append("    <title>").append(getSentence(random)).append("</title>\n");
+      buf.append("    <code>").append(getValue("code", random)).append("</code>\n");
+      buf.append("    <amount currency=\"").append(CURRENCY[random.nextInt(CURRENCY.length)]).append("\">")
+              .append(random.nextInt(100000)).append('.').append(random.nextInt(10))
+              .append(random.nextInt(10)).append("</amount>\n");
+      for (int n = random.nextInt(4); n > 0; n--)
+        buf.append("    <tag>").append(WORDS[random.nextInt(WORDS.length)]).append("</tag>\n");
+      if (random.nextBoolean()) {
+        buf.append("    <note>").append(getSentence(random)).append(" <em>")
+                .append(WORDS[random.nextInt(WORDS.length)]).append("</em> ")
+                .append(getSentence(random)).append("</note>\n");
+      }
+      if (extensions > 0) {
+        for (int n = random.nextInt(4); n > 0; n--) {
+          int ext = random.nextInt(extensions);
+          buf.append("    <ext").append(ext);
+          String[] types = extensionAttributeTypes[ext];
+          for (int j = 0; j < types.length; j++)
+            buf.append(" a").append(j).append("=\"").append(getValue(types[j], random)).append('"');
+          buf.append("/>\n");
+        }
+      }
+      buf.append("  </record>\n");
+    }
+    buf.append("</catalog>\n");
+    return Utf8.encode(buf.toString());
+  }
+
+  /**
+   * Returns values in the lexical space of an XML Schema datatype.
+   *
+   * @param type the local name of a datatype supported by this method, or <code>code</code>
+   * for values matching the pattern of the <code>code</code> element
+   * @param count the number of values
+   */
+  public String[] getValues(String type, int count) {
+    Random random = new Random(seed * 31 + type.hashCode());
+    String[] values = new String[count];
+    for (int i = 0; i < count; i++)
+      values[i] = getValue(type, random);
+    return values;
+  }
+
+  /**
+   * Returns strings of which some match the patterns commonly used in schemas and others do not.
+   */
+  public String[] getStrings(int count) {
+    Random random = new Random(seed * 31 + count);
+    String[] strings = new String[count];
+    for (int i = 0; i < count; i++) {
+      switch (random.nextInt(5)) {
+      case 0:
+        strings[i] = getValue("code", random);
+        break;
+      case 1:
+        strings[i] = getValue("NCName", random);
+        break;
+      case 2:
+        strings[i] = getValue("decimal", random);
+        break;
+      case 3:
+        strings[i] = WORDS[random.nextInt(WORDS.length)] + "@" + WORDS[random.nextInt(WORDS.length)] + ".com";
+        break;
+      default:
+        strings[i] = getSentence(random);
+        break;
+      }
+    }
+    return strings;
+  }
+
+  /**
+   * Writes a string to a file in UTF-8.
+   */
+  public static void write(String str, File file) throws IOException {
+    write(Utf8.encode(str), file);
+  }
+
+  /**
+   * Writes bytes to a file.
+   */
+  public static void write(byte[] bytes, File file) throws IOException {
+    OutputStream out = new FileOutputStream(file);
+    try {
+      out.write(bytes);
+    }
+    finally {
+      out.close();
+    }
+  }
+
+  private static String getValue(String type, Random random) {
+    if (type.equals("code")) {
+      return "" + (char)('A' + random.nextInt(26)) + (char)('A' + random.nextInt(26)) + "-"
+             + (1000 + random.nextInt(9000));
+    }
+    if (type.equals("boolean"))
+      return random.nextBoolean() ? "true" : "false";
+    if (type.equals("integer"))
+      return Long.toString(random.nextLong());
+    if (type.equals("int"))
+      return Integer.toString(random.nextInt());
+    if (type.equals("decimal"))
+      return random.nextInt(1000000) + "." + random.nextInt(1000);
+    if (type.equals("double") || type.equals("float"))
+      return Double.toString(random.nextGaussian() * Math.pow(10, random.nextInt(20) - 10));
+    if (type.equals("date"))
+      return getDate(random);
+    if (type.equals("dateTime"))
+      return getDate(random) + "T" + getTime(random);
+    if (type.equals("time"))
+      return getTime(random);
+    if (type.equals("duration"))
+      return "P" + random.nextInt(10) + "Y" + random.nextInt(12) + "M" + random.nextInt(28) + "DT"
+             + random.nextInt(24) + "H" + random.nextInt(60) + "M";
+    if (type.equals("gYear"))
+      return Integer.toString(1900 + random.nextInt(200));
+    if (type.equals("NCName"))
+      return WORDS[random.nextInt(WORDS.length)] + "-" + random.nextInt(1000);
+    if (type.equals("QName"))
+      return "b:" + WORDS[random.nextInt(WORDS.length)];
+    if (type.equals("token") || type.equals("string"))
+      return getSentence(random);
+    if (type.equals("anyURI"))
+      return "http://www.example.com/" + WORDS[random.nextInt(WORDS.length)] + "/" + random.nextInt(1000);
+    if (type.equals("language"))
+      return random.nextBoolean() ? "en" : "en-" + (random.nextBoolean() ? "GB" : "US");
+    if (type.equals("hexBinary")) {
+      StringBuilder buf = new StringBuilder();
+      for (int n = 2 + random.nextInt(30); n > 0; n--)
+        buf.append(Integer.toHexString(0x100 + random.nextInt(0x100)).substring(1));
+      return buf.toString().toUpperCase();
+    }
+    if (type.equals("base64Binary")) {
+      final String digits = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+      StringBuilder buf = new StringBuilder();
+      for (int n = 4 * (1 + random.nextInt(16)); n > 0; n--)
+        buf.append(digits.charAt(random.nextInt(64)));
+      return buf.toString();
+    }
+    throw new IllegalArgumentException("unsupported datatype \"" + type + "\"");
+  }
+
+  private static String getDate(Random random) {
+    return (1900 + random.nextInt(200)) + "-" + twoDigits(1 + random.nextInt(12)) + "-"
+           + twoDigits(1 + random.nextInt(28));
+  }
+
+  private static String getTime(Random random) {
+    return twoDigits(random.nextInt(24)) + ":" + twoDigits(random.nextInt(60)) + ":"
+           + twoDigits(random.nextInt(60)) + (random.nextBoolean() ? "Z" : "");
+  }
+
+  private static String twoDigits(int n) {
+    return n < 10 ? "0" + n : Integer.toString(n);
+  }
+
+  private static String getSentence(Random random) {
+    StringBuilder buf = new StringBuilder();
+    for (int n = 2 + random.nextInt(8); n > 0; n--) {
+      if (buf.length() > 0)
+        buf.append(' ');
+      buf.append(WORDS[random.nextInt(WORDS.length)]);
+    }
+    return buf.toString();
+  }
+}
@@ -0,0 +1,69 @@
+package com.thaiopensource.benchmark;
+
+import com.thaiopensource.datatype.xsd.regex.Regex;
+import com.thaiopensource.datatype.xsd.regex.RegexEngine;
+import com.thaiopensource.datatype.xsd.regex.RegexSyntaxException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the time to compile XML Schema regular expressions and the rate at which they are
+ * matched, with each of the regular expression engines.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class RegexBenchmark {
+  private static final int STRINGS = 1000;
+
+  @Param({ "java", "xerces2" })
+  public String engine;
+
+  @Param({ "[A-Z]{2}-[0-9]{4}",
+           "\\i\\c*",
+           "[\\i-[:]][\\c-[:]]*",
+           "(\\+|-)?([0-9]+(\\.[0-9]*)?|\\.[0-9]+)",
+           "[a-z]+(\\.[a-z]+)*@[a-z]+(\\.[a-z]+)+",
+           "\\p{L}+(\\s\\p{L}+)*",
+           "\\p{IsBasicLatin}*" })
+  public String pattern;
+
+  private RegexEngine regexEngine;
+  private Regex regex;
+  private String[] strings;
+
+  @Setup
+  public void setup() throws RegexSyntaxException {
+    if (engine.equals("java"))
+      regexEngine = new com.thaiopensource.datatype.xsd.regex.java.RegexEngineImpl();
+    else
+      regexEngine = new com.thaiopensource.datatype.xsd.regex.xerces2.RegexEngineImpl();
+    regex = regexEngine.compile(pattern);
+    strings = new DocumentGenerator(1, 0).getStrings(STRINGS);
+  }
+
+  @Benchmark
+  public Regex compile() throws RegexSyntaxException {
+    return regexEngine.compile(pattern);
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(STRINGS)
+  public int match() {
+    int matched = 0;
+    for (String str : strings) {
+      if (regex.matches(str))
+        matched++;
+    }
+    return matched;
+  }
+}
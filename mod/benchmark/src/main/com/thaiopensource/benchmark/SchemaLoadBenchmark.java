@@ -0,0 +1,67 @@
+package com.thaiopensource.benchmark;
+
+import com.thaiopensource.util.PropertyMap;
+import com.thaiopensource.util.PropertyMapBuilder;
+import com.thaiopensource.validate.Schema;
+import com.thaiopensource.validate.SchemaReader;
+import com.thaiopensource.validate.ValidateProperty;
+import com.thaiopensource.validate.auto.AutoSchemaReader;
+import com.thaiopensource.validate.prop.rng.RngProperty;
+import com.thaiopensource.validate.rng.CompactSchemaReader;
+import com.thaiopensource.xml.sax.DraconianErrorHandler;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.xml.sax.InputSource;
+
+import javax.xml.transform.sax.SAXSource;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the time to load a schema in each of the schema languages, from a file.
+ * The Schematron schema does not depend on the number of extensions.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class SchemaLoadBenchmark {
+  @Param({ "rng", "rnc", "nvdl", "sch" })
+  public String syntax;
+
+  @Param({ "10", "100" })
+  public int extensions;
+
+  private Workspace workspace;
+  private SchemaReader schemaReader;
+  private String uri;
+  private PropertyMap properties;
+
+  @Setup
+  public void setup() throws IOException {
+    workspace = new Workspace();
+    workspace.writeSchemas(new DocumentGenerator(1, extensions));
+    schemaReader = syntax.equals("rnc") ? CompactSchemaReader.getInstance() : new AutoSchemaReader();
+    uri = workspace.getUri("schema." + syntax);
+    PropertyMapBuilder builder = new PropertyMapBuilder();
+    builder.put(ValidateProperty.ERROR_HANDLER, new DraconianErrorHandler());
+    RngProperty.CHECK_ID_IDREF.add(builder);
+    properties = builder.toPropertyMap();
+  }
+
+  @TearDown
+  public void tearDown() {
+    workspace.delete();
+  }
+
+  @Benchmark
+  public Schema load() throws Exception {
+    return schemaReader.createSchema(new SAXSource(new InputSource(uri)), properties);
+  }
+}
@@ -0,0 +1,138 @@
+package com.thaiopensource.benchmark;
+
+import com.thaiopensource.util.PropertyMap;
+import com.thaiopensource.util.PropertyMapBuilder;
+import com.thaiopensource.validate.ResolverFactory;
+import com.thaiopensource.validate.Schema;
+import com.thaiopensource.validate.SchemaReader;
+import com.thaiopensource.validate.ValidateProperty;
+import com.thaiopensource.validate.Validator;
+import com.thaiopensource.validate.auto.AutoSchemaReader;
+import com.thaiopensource.validate.prop.rng.RngProperty;
+import com.thaiopensource.validate.rng.CompactSchemaReader;
+import com.thaiopensource.xml.sax.DraconianErrorHandler;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.xml.sax.Attributes;
+import org.xml.sax.DTDHandler;
+import org.xml.sax.InputSource;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.DefaultHandler;
+
+import javax.xml.transform.sax.SAXSource;
+import java.io.ByteArrayInputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the steady-state rate of validation: the schema is loaded, and the Validator and
+ * XMLReader created, once; the document is validated from memory.  Besides documents per second,
+ * the rate is reported in SAX events (start tags, end tags and chunks of characters) per second,
+ * which can be compared across document sizes.
+ *
+ * @see ColdValidationBenchmark
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class ValidationBenchmark {
+  @Param({ "rng", "rnc", "nvdl", "sch" })
+  public String syntax;
+
+  @Param({ "100", "10000" })
+  public int records;
+
+  @Param({ "20" })
+  public int extensions;
+
+  private Workspace workspace;
+  private byte[] document;
+  private long eventCount;
+  private Validator validator;
+  private XMLReader xr;
+
+  /**
+   * Counts the SAX events of the documents validated.
+   */
+  @State(Scope.Thread)
+  @AuxCounters(AuxCounters.Type.OPERATIONS)
+  public static class Events {
+    public long events;
+
+    @Setup(Level.Iteration)
+    public void clear() {
+      events = 0;
+    }
+  }
+
+  @Setup
+  public void setup() throws Exception {
+    workspace = new Workspace();
+    DocumentGenerator generator = new DocumentGenerator(1, extensions);
+    workspace.writeSchemas(generator);
+    document = generator.getDocument(0, records);
+    PropertyMapBuilder builder = new PropertyMapBuilder();
+    builder.put(ValidateProperty.ERROR_HANDLER, new DraconianErrorHandler());
+    RngProperty.CHECK_ID_IDREF.add(builder);
+    PropertyMap properties = builder.toPropertyMap();
+    SchemaReader sr = syntax.equals("rnc") ? CompactSchemaReader.getInstance() : new AutoSchemaReader();
+    Schema schema = sr.createSchema(new SAXSource(new InputSource(workspace.getUri("schema." + syntax))),
+                                    properties);
+    validator = schema.createValidator(properties);
+    xr = ResolverFactory.createResolver(properties).createXMLReader();
+    EventCounter counter = new EventCounter();
+    xr.setContentHandler(counter);
+    xr.parse(new InputSource(new ByteArrayInputStream(document)));
+    eventCount = counter.count;
+    xr.setContentHandler(validator.getContentHandler());
+    DTDHandler dh = validator.getDTDHandler();
+    if (dh != null)
+      xr.setDTDHandler(dh);
+    // the DraconianErrorHandler makes this fail if the generator has gone wrong
+    validate();
+  }
+
+  @TearDown
+  public void tearDown() {
+    workspace.delete();
+  }
+
+  @Benchmark
+  public void steadyState(Events events) throws Exception {
+    validate();
+    events.events += eventCount;
+  }
+
+  private void validate() throws Exception {
+    try {
+      xr.parse(new InputSource(new ByteArrayInputStream(document)));
+    }
+    finally {
+      validator.reset();
+    }
+  }
+
+  private static class EventCounter extends DefaultHandler {
+    private long count;
+
+    public void startElement(String uri, String localName, String qName, Attributes attributes) {
+      count++;
+    }
+
+    public void endElement(String uri, String localName, String qName) {
+      count++;
+    }
+
+    public void characters(char[] ch, int start, int length) {
+      count++;
+    }
+  }
+}
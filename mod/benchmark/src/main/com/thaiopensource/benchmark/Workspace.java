@@ -0,0 +1,49 @@
+package com.thaiopensource.benchmark;
+
+import com.thaiopensource.util.UriOrFile;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * A temporary directory holding the files a benchmark reads, so that schemas and documents
+ * are read through the resolver as they would be in use.
+ */
+class Workspace {
+  private final File dir;
+
+  Workspace() throws IOException {
+    File file = File.createTempFile("benchmark", "");
+    if (!file.delete() || !file.mkdir())
+      throw new IOException("could not create directory " + file);
+    dir = file;
+  }
+
+  /**
+   * Writes the schemas of generator to files named <code>schema.rng</code>, <code>schema.rnc</code>,
+   * <code>schema.nvdl</code> and <code>schema.sch</code>.
+   */
+  void writeSchemas(DocumentGenerator generator) throws IOException {
+    DocumentGenerator.write(generator.getRngSchema(), getFile("schema.rng"));
+    DocumentGenerator.write(generator.getRncSchema(), getFile("schema.rnc"));
+    DocumentGenerator.write(generator.getNvdlSchema("schema.rng"), getFile("schema.nvdl"));
+    DocumentGenerator.write(generator.getSchematronSchema(), getFile("schema.sch"));
+  }
+
+  File getFile(String name) {
+    return new File(dir, name);
+  }
+
+  String getUri(String name) {
+    return UriOrFile.fileToUri(getFile(name));
+  }
+
+  void delete() {
+    File[] files = dir.listFiles();
+    if (files != null) {
+      for (File file : files)
+        file.delete();
+    }
+    dir.delete();
+  }
+}
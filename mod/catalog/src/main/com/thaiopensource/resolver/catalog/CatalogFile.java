@@ -0,0 +1,121 @@
+package com.thaiopensource.resolver.catalog;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The entries of a catalog entry file, indexed for lookup.  Identifiers and URIs are normalized
+ * and the URIs of entries made absolute when they are added.  Where more than one entry matches
+ * the same identifier, the first is kept.  Suffixes are kept reversed, so that the longest
+ * matching suffix is found with a PrefixTrie.  Once a CatalogFile has been built, it is not
+ * changed.
+ */
+final class CatalogFile implements Serializable {
+  private static final long serialVersionUID = 1L;
+
+  /**
+   * The target of an entry that applies to public identifiers, with the value of the prefer
+   * attribute in effect for it.
+   */
+  static final class PublicEntry implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    final String uri;
+    final boolean preferPublic;
+
+    PublicEntry(String uri, boolean preferPublic) {
+      this.uri = uri;
+      this.preferPublic = preferPublic;
+    }
+  }
+
+  final Map<String, String> system = new HashMap<String, String>();
+  final PrefixTrie<String> rewriteSystem = new PrefixTrie<String>();
+  final PrefixTrie<String> systemSuffix = new PrefixTrie<String>();
+  final PrefixTrie<List<String>> delegateSystem = new PrefixTrie<List<String>>();
+  final Map<String, PublicEntry> publicIds = new HashMap<String, PublicEntry>();
+  final PrefixTrie<List<PublicEntry>> delegatePublic = new PrefixTrie<List<PublicEntry>>();
+  final Map<String, String> uri = new HashMap<String, String>();
+  final PrefixTrie<String> rewriteUri = new PrefixTrie<String>();
+  final PrefixTrie<String> uriSuffix = new PrefixTrie<String>();
+  final PrefixTrie<List<String>> delegateUri = new PrefixTrie<List<String>>();
+  final Map<String, PublicEntry> doctype = new HashMap<String, PublicEntry>();
+  final Map<String, PublicEntry> entity = new HashMap<String, PublicEntry>();
+  final List<String> nextCatalogs = new ArrayList<String>();
+
+  void addSystem(String systemId, String uri) {
+    putFirst(system, systemId, uri);
+  }
+
+  void addRewriteSystem(String startString, String rewritePrefix) {
+    rewriteSystem.put(startString, rewritePrefix);
+  }
+
+  void addSystemSuffix(String suffix, String uri) {
+    systemSuffix.put(reverse(suffix), uri);
+  }
+
+  void addDelegateSystem(String startString, String catalog) {
+    addDelegate(delegateSystem, startString, catalog);
+  }
+
+  void addPublic(String publicId, String uri, boolean preferPublic) {
+    putFirst(publicIds, publicId, new PublicEntry(uri, preferPublic));
+  }
+
+  void addDelegatePublic(String startString, String catalog, boolean preferPublic) {
+    addDelegate(delegatePublic, startString, new PublicEntry(catalog, preferPublic));
+  }
+
+  void addUri(String name, String uri) {
+    putFirst(this.uri, name, uri);
+  }
+
+  void addRewriteUri(String startString, String rewritePrefix) {
+    rewriteUri.put(startString, rewritePrefix);
+  }
+
+  void addUriSuffix(String suffix, String uri) {
+    uriSuffix.put(reverse(suffix), uri);
+  }
+
+  void addDelegateUri(String startString, String catalog) {
+    addDelegate(delegateUri, startString, catalog);
+  }
+
+  void addDoctype(String name, String uri, boolean preferPublic) {
+    putFirst(doctype, name, new PublicEntry(uri, preferPublic));
+  }
+
+  void addEntity(String name, String uri, boolean preferPublic) {
+    putFirst(entity, name, new PublicEntry(uri, preferPublic));
+  }
+
+  void addNextCatalog(String catalog) {
+    nextCatalogs.add(catalog);
+  }
+
+  /**
+   * Returns the URIs of the catalog entry files to which this refers.
+   */
+  private static <V> void putFirst(Map<String, V> map, String key, V value) {
+    if (!map.containsKey(key))
+      map.put(key, value);
+  }
+
+  private static <V> void addDelegate(PrefixTrie<List<V>> trie, String startString, V value) {
+    List<V> list = trie.get(startString);
+    if (list == null) {
+      list = new ArrayList<V>();
+      trie.put(startString, list);
+    }
+    list.add(value);
+  }
+
+  static String reverse(String str) {
+    return new StringBuilder(str).reverse().toString();
+  }
+}
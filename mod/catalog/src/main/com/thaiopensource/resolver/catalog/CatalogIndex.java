@@ -0,0 +1,439 @@
+package com.thaiopensource.resolver.catalog;
+
+import com.thaiopensource.resolver.ResolverException;
+import com.thaiopensource.resolver.xml.XMLDocumentIdentifier;
+import com.thaiopensource.resolver.xml.sax.SAXResolver;
+import com.thaiopensource.util.Utf8;
+import com.thaiopensource.xml.sax.DraconianErrorHandler;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+
+import javax.xml.transform.sax.SAXSource;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * OASIS XML catalogs loaded into memory and indexed for lookup.  The catalog entry files reachable
+ * from the catalogs through nextCatalog entries are loaded at once; a catalog that a delegate entry
+ * refers to is loaded, with the files reachable from it through nextCatalog entries, when the
+ * entry is first used.  Entries are kept in hash tables, and the entries that match by prefix or
+ * suffix in tries.  Resolution follows the OASIS XML Catalogs 1.1 specification.  A catalog entry
+ * file that cannot be read is treated as if it had no entries; so is one that is not well-formed,
+ * unless it is one of the catalogs from which the index is loaded.
+ * <p>
+ * A CatalogIndex can be used by multiple threads; only loading a delegate catalog takes a lock.
+ * It can be written to a stream and read back, so that catalogs that are expensive to load need
+ * not be parsed by every process that uses them.
+ */
+public final class CatalogIndex implements CatalogLookup, Serializable {
+  private static final long serialVersionUID = 1L;
+  private static final String URN_PUBLICID_PREFIX = "urn:publicid:";
+  // the escapes in a publicid URN, each two hex digits, and the characters they stand for
+  private static final String URN_ESCAPES = "2B3A2F3B273F2325";
+  private static final String URN_ESCAPED_CHARS = "+:/;'?#%";
+  // guards against delegation loops
+  private static final int MAX_DELEGATION_DEPTH = 16;
+
+  private final List<String> catalogUris;
+  // the catalog entry files, keyed by URI, each with the files that follow it through nextCatalog
+  private final Map<String, List<CatalogFile>> closures = new ConcurrentHashMap<String, List<CatalogFile>>();
+  // the rest is used only for loading, with the lock held once the index has been loaded;
+  // after the index has been read from a stream, delegate catalogs are read with a default SAXResolver
+  private transient SAXResolver saxResolver;
+  private transient Map<String, CatalogFile> files;
+
+  private CatalogIndex(List<String> catalogUris, SAXResolver saxResolver) {
+    this.catalogUris = new ArrayList<String>(catalogUris);
+    this.saxResolver = saxResolver;
+  }
+
+  /**
+   * Loads the catalog entry files reachable from the specified catalogs through nextCatalog entries.
+   *
+   * @param catalogUris the absolute URIs of the catalogs
+   * @param saxResolver the SAXResolver with which to read the catalog entry files
+   * @return the CatalogIndex; never null
+   * @throws ResolverException if one of the specified catalogs is not well-formed
+   */
+  public static CatalogIndex load(List<String> catalogUris, SAXResolver saxResolver) throws ResolverException {
+    CatalogIndex index = new CatalogIndex(catalogUris, saxResolver);
+    index.files = new HashMap<String, CatalogFile>();
+    for (String uri : catalogUris) {
+      if (!index.files.containsKey(uri))
+        index.files.put(uri, parse(uri, saxResolver));
+    }
+    for (String uri : catalogUris)
+      index.closures.put(uri, index.loadClosure(uri));
+    return index;
+  }
+
+  /**
+   * Returns the catalog entry file with the specified URI, followed by the files that
+   * its nextCatalog entries refer to, in the order in which they are consulted, loading
+   * any that have not been loaded.
+   */
+  private List<CatalogFile> loadClosure(String uri) {
+    List<CatalogFile> closure = new ArrayList<CatalogFile>();
+    addClosure(uri, new HashSet<String>(), closure);
+    return closure;
+  }
+
+  private void addClosure(String uri, Set<String> visited, List<CatalogFile> closure) {
+    if (!visited.add(uri))
+      return;
+    CatalogFile file = files.get(uri);
+    if (file == null) {
+      try {
+        file = parse(uri, saxResolver);
+      }
+      catch (ResolverException e) {
+        file = new CatalogFile();
+      }
+      files.put(uri, file);
+    }
+    closure.add(file);
+    for (String next : file.nextCatalogs)
+      addClosure(next, visited, closure);
+  }
+
+  /**
+   * Returns the closure of the catalog with the specified URI, loading it if it is a delegate
+   * catalog that has not yet been used.
+   */
+  private List<CatalogFile> getClosure(String uri) {
+    List<CatalogFile> closure = closures.get(uri);
+    if (closure == null) {
+      synchronized (this) {
+        closure = closures.get(uri);
+        if (closure == null) {
+          if (saxResolver == null)
+            saxResolver = new SAXResolver();
+          if (files == null)
+            files = new HashMap<String, CatalogFile>();
+          closure = loadClosure(uri);
+          closures.put(uri, closure);
+        }
+      }
+    }
+    return closure;
+  }
+
+  private static CatalogFile parse(String uri, SAXResolver saxResolver) throws ResolverException {
+    try {
+      SAXSource source = saxResolver.resolve(new XMLDocumentIdentifier(uri, null, CatalogParser.CATALOG_NAMESPACE));
+      String systemId = source.getInputSource().getSystemId();
+      // prefer public, as SimpleCatalogManager does
+      CatalogParser parser = new CatalogParser(systemId == null ? uri : systemId, true);
+      XMLReader xmlReader = source.getXMLReader();
+      xmlReader.setEntityResolver(new CatalogEntityResolver(xmlReader.getEntityResolver()));
+      xmlReader.setContentHandler(parser);
+      xmlReader.setErrorHandler(new DraconianErrorHandler());
+      xmlReader.parse(source.getInputSource());
+      return parser.getCatalogFile();
+    }
+    catch (SAXException e) {
+      Exception wrapped = e.getException();
+      throw wrapped instanceof ResolverException ? (ResolverException)wrapped : new ResolverException(e);
+    }
+    catch (IOException e) {
+      return new CatalogFile();
+    }
+  }
+
+  /**
+   * Writes this CatalogIndex to a stream, from which it can be read by <code>read</code>.
+   */
+  public void write(OutputStream out) throws IOException {
+    ObjectOutputStream objOut = new ObjectOutputStream(out);
+    objOut.writeObject(this);
+    objOut.flush();
+  }
+
+  /**
+   * Reads a CatalogIndex written by <code>write</code>.
+   *
+   * @throws IOException if the stream does not contain a CatalogIndex
+   */
+  public static CatalogIndex read(InputStream in) throws IOException {
+    try {
+      Object obj = new ObjectInputStream(in).readObject();
+      if (obj instanceof CatalogIndex)
+        return (CatalogIndex)obj;
+    }
+    catch (ClassNotFoundException e) {
+      // fall through
+    }
+    throw new IOException("not a catalog index");
+  }
+
+  /**
+   * Returns the URIs of the catalogs from which this was loaded.
+   */
+  public List<String> getCatalogUris() {
+    return Collections.unmodifiableList(catalogUris);
+  }
+
+  /**
+   * Returns the URI to which the catalogs map a system identifier, or null if they do not.
+   */
+  public String resolveSystem(String systemId) {
+    return resolveExternal(catalogUris, null, null, null, systemId, 0);
+  }
+
+  /**
+   * Returns the URI to which the catalogs map an external identifier, or null if they do not.
+   *
+   * @param publicId the public identifier; must not be null
+   * @param systemId the system identifier; may be null
+   */
+  public String resolvePublic(String publicId, String systemId) {
+    return resolveExternal(catalogUris, null, null, publicId, systemId, 0);
+  }
+
+  /**
+   * Returns the URI to which the catalogs map the external identifier of the external subset of a
+   * document type declaration, or null if they do not.  Besides the public and system identifiers,
+   * the name of the document type is matched against doctype entries.  Any argument may be null.
+   */
+  public String resolveDoctype(String name, String publicId, String systemId) {
+    return resolveExternal(catalogUris, name, null, publicId, systemId, 0);
+  }
+
+  /**
+   * Returns the URI to which the catalogs map the external identifier of an external entity,
+   * or null if they do not.  Besides the public and system identifiers, the name of the entity
+   * is matched against entity entries.  Any argument may be null.
+   */
+  public String resolveEntity(String name, String publicId, String systemId) {
+    return resolveExternal(catalogUris, null, name, publicId, systemId, 0);
+  }
+
+  /**
+   * Returns the URI to which the catalogs map a URI, or null if they do not.
+   */
+  public String resolveURI(String uri) {
+    if (uri.startsWith(URN_PUBLICID_PREFIX))
+      return resolvePublic(uri, null);
+    return resolveUri(catalogUris, normalizeUri(uri), 0);
+  }
+
+  private String resolveExternal(List<String> catalogs, String doctypeName, String entityName,
+                                 String publicId, String systemId, int depth) {
+    if (publicId != null) {
+      if (publicId.startsWith(URN_PUBLICID_PREFIX))
+        publicId = unwrapUrn(publicId);
+      publicId = normalizePublicId(publicId);
+    }
+    if (systemId != null) {
+      if (systemId.startsWith(URN_PUBLICID_PREFIX)) {
+        String unwrapped = normalizePublicId(unwrapUrn(systemId));
+        if (publicId == null)
+          publicId = unwrapped;
+        systemId = null;
+      }
+      else
+        systemId = normalizeUri(systemId);
+    }
+    for (String catalog : catalogs) {
+      for (CatalogFile file : getClosure(catalog)) {
+        if (systemId != null) {
+          String resolved = file.system.get(systemId);
+          if (resolved != null)
+            return resolved;
+          int len = file.rewriteSystem.getLongestPrefixLength(systemId);
+          if (len >= 0)
+            return file.rewriteSystem.getLongestPrefixValue(systemId) + systemId.substring(len);
+          resolved = file.systemSuffix.getLongestPrefixValue(CatalogFile.reverse(systemId));
+          if (resolved != null)
+            return resolved;
+          List<String> delegates = new ArrayList<String>();
+          for (List<String> list : file.delegateSystem.getPrefixValues(systemId))
+            addDelegates(list, delegates);
+          if (!delegates.isEmpty())
+            return depth < MAX_DELEGATION_DEPTH
+                   ? resolveExternal(delegates, null, null, null, systemId, depth + 1)
+                   : null;
+        }
+        if (publicId != null) {
+          CatalogFile.PublicEntry entry = file.publicIds.get(publicId);
+          if (entry != null && (systemId == null || entry.preferPublic))
+            return entry.uri;
+          List<String> delegates = new ArrayList<String>();
+          for (List<CatalogFile.PublicEntry> list : file.delegatePublic.getPrefixValues(publicId)) {
+            for (CatalogFile.PublicEntry delegate : list) {
+              if ((systemId == null || delegate.preferPublic) && !delegates.contains(delegate.uri))
+                delegates.add(delegate.uri);
+            }
+          }
+          if (!delegates.isEmpty())
+            return depth < MAX_DELEGATION_DEPTH
+                   ? resolveExternal(delegates, null, null, publicId, null, depth + 1)
+                   : null;
+        }
+        CatalogFile.PublicEntry entry = null;
+        if (doctypeName != null)
+          entry = file.doctype.get(doctypeName);
+        else if (entityName != null)
+          entry = file.entity.get(entityName);
+        if (entry != null && (systemId == null || entry.preferPublic))
+          return entry.uri;
+      }
+    }
+    return null;
+  }
+
+  private String resolveUri(List<String> catalogs, String uri, int depth) {
+    for (String catalog : catalogs) {
+      for (CatalogFile file : getClosure(catalog)) {
+        String resolved = file.uri.get(uri);
+        if (resolved != null)
+          return resolved;
+        int len = file.rewriteUri.getLongestPrefixLength(uri);
+        if (len >= 0)
+          return file.rewriteUri.getLongestPrefixValue(uri) + uri.substring(len);
+        resolved = file.uriSuffix.getLongestPrefixValue(CatalogFile.reverse(uri));
+        if (resolved != null)
+          return resolved;
+        List<String> delegates = new ArrayList<String>();
+        for (List<String> list : file.delegateUri.getPrefixValues(uri))
+          addDelegates(list, delegates);
+        if (!delegates.isEmpty())
+          return depth < MAX_DELEGATION_DEPTH ? resolveUri(delegates, uri, depth + 1) : null;
+      }
+    }
+    return null;
+  }
+
+  private static void addDelegates(List<String> list, List<String> delegates) {
+    for (String delegate : list) {
+      if (!delegates.contains(delegate))
+        delegates.add(delegate);
+    }
+  }
+
+  /**
+   * Normalizes a public identifier by collapsing white space.
+   */
+  static String normalizePublicId(String publicId) {
+    StringBuilder buf = new StringBuilder();
+    boolean space = false;
+    for (int i = 0, len = publicId.length(); i < len; i++) {
+      char c = publicId.charAt(i);
+      switch (c) {
+      case ' ':
+      case '\t':
+      case '\r':
+      case '\n':
+        space = buf.length() > 0;
+        break;
+      default:
+        if (space) {
+          buf.append(' ');
+          space = false;
+        }
+        buf.append(c);
+        break;
+      }
+    }
+    return buf.toString();
+  }
+
+  /**
+   * Normalizes a system identifier or URI by percent-encoding the characters that are not
+   * allowed in a URI, as specified in section 6.3 of the OASIS XML Catalogs specification.
+   */
+  static String normalizeUri(String uri) {
+    int i = 0;
+    for (int len = uri.length(); i < len; i++) {
+      if (mustEncode(uri.charAt(i)))
+        break;
+    }
+    if (i == uri.length())
+      return uri;
+    StringBuilder buf = new StringBuilder(uri.substring(0, i));
+    for (int len = uri.length(); i < len; i++) {
+      char c = uri.charAt(i);
+      if (!mustEncode(c))
+        buf.append(c);
+      else {
+        int end = i + 1;
+        if (Character.isHighSurrogate(c) && end < len && Character.isLowSurrogate(uri.charAt(end)))
+          end++;
+        for (byte b : Utf8.encode(uri.substring(i, end))) {
+          buf.append('%');
+          buf.append(Character.toUpperCase(Character.forDigit((b >> 4) & 0xF, 16)));
+          buf.append(Character.toUpperCase(Character.forDigit(b & 0xF, 16)));
+        }
+        i = end - 1;
+      }
+    }
+    return buf.toString();
+  }
+
+  private static boolean mustEncode(char c) {
+    if (c <= 0x20 || c >= 0x7F)
+      return true;
+    switch (c) {
+    case '"':
+    case '<':
+    case '>':
+    case '\\':
+    case '^':
+    case '`':
+    case '{':
+    case '|':
+    case '}':
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * Unwraps a URN in the publicid namespace, as specified by RFC 3151.
+   */
+  static String unwrapUrn(String urn) {
+    StringBuilder buf = new StringBuilder();
+    for (int i = URN_PUBLICID_PREFIX.length(), len = urn.length(); i < len; i++) {
+      char c = urn.charAt(i);
+      switch (c) {
+      case '+':
+        buf.append(' ');
+        break;
+      case ':':
+        buf.append("//");
+        break;
+      case ';':
+        buf.append("::");
+        break;
+      case '%':
+        if (i + 2 < len) {
+          String escape = urn.substring(i + 1, i + 3).toUpperCase();
+          int index = URN_ESCAPES.indexOf(escape);
+          if (index >= 0 && index % 2 == 0) {
+            buf.append(URN_ESCAPED_CHARS.charAt(index / 2));
+            i += 2;
+            break;
+          }
+        }
+        buf.append(c);
+        break;
+      default:
+        buf.append(c);
+        break;
+      }
+    }
+    return buf.toString();
+  }
+}
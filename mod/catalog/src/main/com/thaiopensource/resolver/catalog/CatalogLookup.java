@@ -0,0 +1,15 @@
+package com.thaiopensource.resolver.catalog;
+
+import java.io.IOException;
+
+/**
+ * The lookups that CatalogResolver makes in catalogs.  Each method returns the resolved URI,
+ * or null if the catalogs have no matching entry.
+ */
+interface CatalogLookup {
+  String resolveSystem(String systemId) throws IOException;
+  String resolvePublic(String publicId, String systemId) throws IOException;
+  String resolveDoctype(String name, String publicId, String systemId) throws IOException;
+  String resolveEntity(String name, String publicId, String systemId) throws IOException;
+  String resolveURI(String uri) throws IOException;
+}
@@ -0,0 +1,172 @@
+package com.thaiopensource.resolver.catalog;
+
+import com.thaiopensource.xml.util.WellKnownNamespaces;
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Builds a CatalogFile from the SAX events of an OASIS XML catalog entry file.  The elements of
+ * the TR9401 extension namespace that matter to XML, doctype and entity, are supported as well.
+ * Elements in other namespaces are ignored together with their content, as are entries lacking
+ * a required attribute.
+ */
+class CatalogParser extends DefaultHandler {
+  static final String CATALOG_NAMESPACE = "urn:oasis:names:tc:entity:xmlns:xml:catalog";
+  static final String TR9401_NAMESPACE = "urn:oasis:names:tc:entity:xmlns:tr9401:catalog";
+
+  private final CatalogFile catalogFile = new CatalogFile();
+  // the base URI and the preference of each open element
+  private final List<String> baseStack = new ArrayList<String>();
+  private final List<Boolean> preferPublicStack = new ArrayList<Boolean>();
+  private int depth = 0;
+  // the depth of the outermost element being ignored, or -1 if none
+  private int ignoreDepth = -1;
+
+  CatalogParser(String baseUri, boolean preferPublic) {
+    baseStack.add(baseUri);
+    preferPublicStack.add(preferPublic);
+  }
+
+  CatalogFile getCatalogFile() {
+    return catalogFile;
+  }
+
+  public void startElement(String ns, String localName, String qName, Attributes atts) throws SAXException {
+    depth++;
+    if (ignoreDepth >= 0)
+      return;
+    if (depth == 1 ? !(ns.equals(CATALOG_NAMESPACE) && localName.equals("catalog"))
+                   : !(ns.equals(CATALOG_NAMESPACE) || ns.equals(TR9401_NAMESPACE))) {
+      ignoreDepth = depth;
+      return;
+    }
+    String base = top(baseStack);
+    String xmlBase = atts.getValue(WellKnownNamespaces.XML, "base");
+    if (xmlBase != null)
+      base = makeAbsolute(base, xmlBase);
+    boolean preferPublic = top(preferPublicStack);
+    String prefer = atts.getValue("", "prefer");
+    if ("public".equals(prefer))
+      preferPublic = true;
+    else if ("system".equals(prefer))
+      preferPublic = false;
+    baseStack.add(base);
+    preferPublicStack.add(preferPublic);
+    if (ns.equals(TR9401_NAMESPACE)) {
+      String name = atts.getValue("", "name");
+      String uri = uriValue(base, atts, "uri");
+      if (name == null || uri == null)
+        return;
+      if (localName.equals("doctype"))
+        catalogFile.addDoctype(name, uri, preferPublic);
+      else if (localName.equals("entity"))
+        catalogFile.addEntity(name, uri, preferPublic);
+    }
+    else if (localName.equals("public")) {
+      String publicId = atts.getValue("", "publicId");
+      String uri = uriValue(base, atts, "uri");
+      if (publicId != null && uri != null)
+        catalogFile.addPublic(CatalogIndex.normalizePublicId(publicId), uri, preferPublic);
+    }
+    else if (localName.equals("system")) {
+      String systemId = atts.getValue("", "systemId");
+      String uri = uriValue(base, atts, "uri");
+      if (systemId != null && uri != null)
+        catalogFile.addSystem(CatalogIndex.normalizeUri(systemId), uri);
+    }
+    else if (localName.equals("rewriteSystem")) {
+      String startString = atts.getValue("", "systemIdStartString");
+      String prefix = uriValue(base, atts, "rewritePrefix");
+      if (startString != null && prefix != null)
+        catalogFile.addRewriteSystem(CatalogIndex.normalizeUri(startString), prefix);
+    }
+    else if (localName.equals("systemSuffix")) {
+      String suffix = atts.getValue("", "systemIdSuffix");
+      String uri = uriValue(base, atts, "uri");
+      if (suffix != null && uri != null)
+        catalogFile.addSystemSuffix(CatalogIndex.normalizeUri(suffix), uri);
+    }
+    else if (localName.equals("delegatePublic")) {
+      String startString = atts.getValue("", "publicIdStartString");
+      String catalog = uriValue(base, atts, "catalog");
+      if (startString != null && catalog != null)
+        catalogFile.addDelegatePublic(CatalogIndex.normalizePublicId(startString), catalog, preferPublic);
+    }
+    else if (localName.equals("delegateSystem")) {
+      String startString = atts.getValue("", "systemIdStartString");
+      String catalog = uriValue(base, atts, "catalog");
+      if (startString != null && catalog != null)
+        catalogFile.addDelegateSystem(CatalogIndex.normalizeUri(startString), catalog);
+    }
+    else if (localName.equals("uri")) {
+      String name = atts.getValue("", "name");
+      String uri = uriValue(base, atts, "uri");
+      if (name != null && uri != null)
+        catalogFile.addUri(CatalogIndex.normalizeUri(name), uri);
+    }
+    else if (localName.equals("rewriteURI")) {
+      String startString = atts.getValue("", "uriStartString");
+      String prefix = uriValue(base, atts, "rewritePrefix");
+      if (startString != null && prefix != null)
+        catalogFile.addRewriteUri(CatalogIndex.normalizeUri(startString), prefix);
+    }
+    else if (localName.equals("uriSuffix")) {
+      String suffix = atts.getValue("", "uriSuffix");
+      String uri = uriValue(base, atts, "uri");
+      if (suffix != null && uri != null)
+        catalogFile.addUriSuffix(CatalogIndex.normalizeUri(suffix), uri);
+    }
+    else if (localName.equals("delegateURI")) {
+      String startString = atts.getValue("", "uriStartString");
+      String catalog = uriValue(base, atts, "catalog");
+      if (startString != null && catalog != null)
+        catalogFile.addDelegateUri(CatalogIndex.normalizeUri(startString), catalog);
+    }
+    else if (localName.equals("nextCatalog")) {
+      String catalog = uriValue(base, atts, "catalog");
+      if (catalog != null)
+        catalogFile.addNextCatalog(catalog);
+    }
+  }
+
+  public void endElement(String ns, String localName, String qName) throws SAXException {
+    if (ignoreDepth >= 0) {
+      if (ignoreDepth == depth)
+        ignoreDepth = -1;
+    }
+    else {
+      baseStack.remove(baseStack.size() - 1);
+      preferPublicStack.remove(preferPublicStack.size() - 1);
+    }
+    depth--;
+  }
+
+  private static String uriValue(String base, Attributes atts, String localName) {
+    String value = atts.getValue("", localName);
+    if (value == null)
+      return null;
+    return makeAbsolute(base, CatalogIndex.normalizeUri(value));
+  }
+
+  private static <T> T top(List<T> stack) {
+    return stack.get(stack.size() - 1);
+  }
+
+  static String makeAbsolute(String base, String uri) {
+    if (base == null)
+      return uri;
+    try {
+      return new URL(new URL(base), uri).toString();
+    }
+    catch (MalformedURLException e) {
+      // for example, a URN
+      return uri;
+    }
+  }
+}
@@ -16,16 +16,25 @@ import java.io.IOException;
 import java.util.List;
 
 /**
- * A Resolver that uses OASIS XML catalogs.
+ * A Resolver that uses OASIS XML catalogs.  When constructed from a CatalogIndex, resolution takes
+ * no locks, so a single CatalogResolver can be shared by many threads; otherwise, the catalogs are
+ * loaded on first use and calls to resolve are serialized.
  */
 public class CatalogResolver extends AbstractResolver {
   private final Catalog catalog;
+  private final CatalogIndex index;
   private boolean catalogLoaded = false;
   private boolean hadCatalogError = false;
 
   // Allow somebody to customize in a different way, but still use our resolve logic.
   public CatalogResolver(Catalog catalog) {
     this.catalog = catalog;
+    this.index = null;
+  }
+
+  public CatalogResolver(CatalogIndex index) {
+    this.catalog = null;
+    this.index = index;
   }
 
   public CatalogResolver(List<String> catalogUris, SAXResolver resolver) {
@@ -40,11 +49,9 @@ public class CatalogResolver extends AbstractResolver {
     this(catalogUris, new SAXResolver());
   }
   
-  public synchronized void resolve(Identifier id, Input input) throws IOException, ResolverException {
+  public void resolve(Identifier id, Input input) throws IOException, ResolverException {
     if (input.isResolved())
       return;
-    if (hadCatalogError)
-      return;
     String absoluteUri = null;
     try {
       absoluteUri = BasicResolver.resolveUri(id);
@@ -54,40 +61,82 @@ public class CatalogResolver extends AbstractResolver {
     catch (ResolverException e) {
       // ignore
     }
-    String resolved = null;
-    boolean isExternalIdentifier = (id instanceof ExternalIdentifier);
-    try {
-      if (!catalogLoaded) {
-        catalogLoaded = true;
-        catalog.loadSystemCatalogs();
-      }
-      if (absoluteUri != null)
-        resolved = isExternalIdentifier ? catalog.resolveSystem(absoluteUri) : catalog.resolveURI(absoluteUri);
-      if (resolved == null) {
-        if (!isExternalIdentifier)
-          resolved = catalog.resolveURI(id.getUriReference());
-        else if (id instanceof ExternalEntityIdentifier) {
-          ExternalEntityIdentifier xid = (ExternalEntityIdentifier)id;
-          resolved = catalog.resolveEntity(xid.getEntityName(), xid.getPublicId(), xid.getUriReference());
-        }
-        else if (id instanceof ExternalDTDSubsetIdentifier) {
-          ExternalDTDSubsetIdentifier xid = (ExternalDTDSubsetIdentifier)id;
-          resolved = catalog.resolveDoctype(xid.getDoctypeName(), xid.getPublicId(), xid.getUriReference());
+    String resolved;
+    if (index != null)
+      resolved = resolve(index, id, absoluteUri);
+    else {
+      synchronized (this) {
+        if (hadCatalogError)
+          return;
+        try {
+          if (!catalogLoaded) {
+            catalogLoaded = true;
+            catalog.loadSystemCatalogs();
+          }
+          resolved = resolve(new ApacheCatalogLookup(catalog), id, absoluteUri);
         }
-        else {
-          ExternalIdentifier xid = (ExternalIdentifier)id;
-          String publicId = xid.getPublicId();
-          resolved = publicId == null
-              ? catalog.resolveSystem(xid.getUriReference())
-              : catalog.resolvePublic(xid.getPublicId(), xid.getUriReference());
+        catch (ResolverIOException e) {
+          hadCatalogError = true;
+          throw e.getResolverException();
         }
       }
     }
-    catch (ResolverIOException e) {
-      hadCatalogError = true;
-      throw e.getResolverException();
-    }
     if (resolved != null)
       input.setUri(resolved);
   }
+
+  private static String resolve(CatalogLookup lookup, Identifier id, String absoluteUri) throws IOException {
+    String resolved = null;
+    boolean isExternalIdentifier = (id instanceof ExternalIdentifier);
+    if (absoluteUri != null)
+      resolved = isExternalIdentifier ? lookup.resolveSystem(absoluteUri) : lookup.resolveURI(absoluteUri);
+    if (resolved == null) {
+      if (!isExternalIdentifier)
+        resolved = lookup.resolveURI(id.getUriReference());
+      else if (id instanceof ExternalEntityIdentifier) {
+        ExternalEntityIdentifier xid = (ExternalEntityIdentifier)id;
+        resolved = lookup.resolveEntity(xid.getEntityName(), xid.getPublicId(), xid.getUriReference());
+      }
+      else if (id instanceof ExternalDTDSubsetIdentifier) {
+        ExternalDTDSubsetIdentifier xid = (ExternalDTDSubsetIdentifier)id;
+        resolved = lookup.resolveDoctype(xid.getDoctypeName(), xid.getPublicId(), xid.getUriReference());
+      }
+      else {
+        ExternalIdentifier xid = (ExternalIdentifier)id;
+        String publicId = xid.getPublicId();
+        resolved = publicId == null
+            ? lookup.resolveSystem(xid.getUriReference())
+            : lookup.resolvePublic(xid.getPublicId(), xid.getUriReference());
+      }
+    }
+    return resolved;
+  }
+
+  private static class ApacheCatalogLookup implements CatalogLookup {
+    private final Catalog catalog;
+
+    ApacheCatalogLookup(Catalog catalog) {
+      this.catalog = catalog;
+    }
+
+    public String resolveSystem(String systemId) throws IOException {
+      return catalog.resolveSystem(systemId);
+    }
+
+    public String resolvePublic(String publicId, String systemId) throws IOException {
+      return catalog.resolvePublic(publicId, systemId);
+    }
+
+    public String resolveDoctype(String name, String publicId, String systemId) throws IOException {
+      return catalog.resolveDoctype(name, publicId, systemId);
+    }
+
+    public String resolveEntity(String name, String publicId, String systemId) throws IOException {
+      return catalog.resolveEntity(name, publicId, systemId);
+    }
+
+    public String resolveURI(String uri) throws IOException {
+      return catalog.resolveURI(uri);
+    }
+  }
 }
@@ -0,0 +1,109 @@
+package com.thaiopensource.resolver.catalog;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A trie mapping strings to values, for finding the values of the keys that are prefixes of
+ * a string.  When a key is added more than once, the first value is kept.
+ */
+final class PrefixTrie<V> implements Serializable {
+  private static final long serialVersionUID = 1L;
+
+  private final Node<V> root = new Node<V>();
+
+  private static final class Node<V> implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private Map<Character, Node<V>> children;
+    private V value;
+    // the length of the key ending at this node
+    private int length;
+  }
+
+  void put(String key, V value) {
+    Node<V> node = root;
+    for (int i = 0, len = key.length(); i < len; i++) {
+      if (node.children == null)
+        node.children = new HashMap<Character, Node<V>>();
+      Character c = key.charAt(i);
+      Node<V> child = node.children.get(c);
+      if (child == null) {
+        child = new Node<V>();
+        node.children.put(c, child);
+      }
+      node = child;
+    }
+    if (node.value == null) {
+      node.value = value;
+      node.length = key.length();
+    }
+  }
+
+  /**
+   * Returns the value of key, or null if it has none.
+   */
+  V get(String key) {
+    Node<V> node = root;
+    for (int i = 0, len = key.length(); i < len; i++) {
+      if (node.children == null)
+        return null;
+      node = node.children.get(key.charAt(i));
+      if (node == null)
+        return null;
+    }
+    return node.value;
+  }
+
+  /**
+   * Returns the values of the keys that are prefixes of str, longest first.
+   */
+  List<V> getPrefixValues(String str) {
+    List<V> values = new ArrayList<V>();
+    Node<V> node = root;
+    for (int i = 0;; i++) {
+      if (node.value != null)
+        values.add(0, node.value);
+      if (i == str.length() || node.children == null)
+        break;
+      node = node.children.get(str.charAt(i));
+      if (node == null)
+        break;
+    }
+    return values;
+  }
+
+  /**
+   * Returns the length of the longest key that is a prefix of str, or -1 if there is none.
+   * The value of this key is returned by <code>getLongestPrefixValue</code>.
+   */
+  int getLongestPrefixLength(String str) {
+    Node<V> node = longestPrefixNode(str);
+    return node == null ? -1 : node.length;
+  }
+
+  /**
+   * Returns the value of the longest key that is a prefix of str, or null if there is none.
+   */
+  V getLongestPrefixValue(String str) {
+    Node<V> node = longestPrefixNode(str);
+    return node == null ? null : node.value;
+  }
+
+  private Node<V> longestPrefixNode(String str) {
+    Node<V> found = null;
+    Node<V> node = root;
+    for (int i = 0;; i++) {
+      if (node.value != null)
+        found = node;
+      if (i == str.length() || node.children == null)
+        return found;
+      node = node.children.get(str.charAt(i));
+      if (node == null)
+        return found;
+    }
+  }
+}
@@ -1,5 +1,6 @@
 package com.thaiopensource.resolver.catalog;
 
+import com.thaiopensource.resolver.Identifier;
 import com.thaiopensource.resolver.Input;
 import com.thaiopensource.resolver.Resolver;
 import com.thaiopensource.resolver.ResolverException;
@@ -8,6 +9,8 @@ import com.thaiopensource.resolver.xml.sax.SAXResolver;
 import org.testng.Assert;
 import org.testng.annotations.Test;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
@@ -27,6 +30,98 @@ public class CatalogResolverTest {
     Assert.assertEquals(input.getUri(), "http://www.example.com/bar.xml");
   }
 
+  @Test
+  public void testIndex() throws IOException, ResolverException {
+    List<String> catalogs = new ArrayList<String>();
+    catalogs.add(resourceUri("catalog3.xml"));
+    CatalogIndex index = CatalogIndex.load(catalogs, new SAXResolver(null));
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    index.write(out);
+    index = CatalogIndex.read(new ByteArrayInputStream(out.toByteArray()));
+    Resolver resolver = new CatalogResolver(index);
+    assertResolves(resolver, new ExternalIdentifier("http://www.example.com/schemas/foo.dtd", null, null),
+                   "http://schemas.example.com/foo.dtd");
+    assertResolves(resolver, new ExternalIdentifier("http://www.example.com/foo.dtd", null, null),
+                   "http://mirror.example.com/foo.dtd");
+    assertResolves(resolver, new ExternalIdentifier("http://www.example.net/dtds/baz.dtd", null, null),
+                   "http://www.example.org/baz.dtd");
+    assertResolves(resolver, new Identifier("http://www.example.com/schema.rng"),
+                   "http://www.example.org/schema.rng");
+    assertResolves(resolver, new Identifier("http://www.example.net/other.rng"), null);
+  }
+
+  @Test
+  public void testDelegate() throws IOException, ResolverException {
+    Resolver resolver = new CatalogResolver(loadIndex("catalog4.xml"));
+    assertResolves(resolver, new ExternalIdentifier("http://www.example.com/delegated/a.dtd", null, null),
+                   "http://www.example.org/a.dtd");
+    assertResolves(resolver,
+                   new ExternalIdentifier("http://www.example.com/other.dtd", null, "-//Example//DTD Delegated A//EN"),
+                   "http://www.example.org/public-a.dtd");
+    // a delegate catalog that is not well-formed has no entries, and the other entries still apply
+    assertResolves(resolver, new ExternalIdentifier("http://www.example.com/broken/x.dtd", null, null), null);
+    assertResolves(resolver, new ExternalIdentifier("http://www.example.com/direct.dtd", null, null),
+                   "http://www.example.org/direct.dtd");
+  }
+
+  @Test
+  public void testDelegateAfterRead() throws IOException, ResolverException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    loadIndex("catalog4.xml").write(out);
+    CatalogIndex index = CatalogIndex.read(new ByteArrayInputStream(out.toByteArray()));
+    Assert.assertEquals(index.resolveSystem("http://www.example.com/delegated/a.dtd"), "http://www.example.org/a.dtd");
+  }
+
+  @Test
+  public void testPrefer() throws IOException, ResolverException {
+    Resolver resolver = new CatalogResolver(loadIndex("catalog4.xml"));
+    assertResolves(resolver,
+                   new ExternalIdentifier("http://www.example.com/p.dtd", null, "-//Example//DTD Prefer Public//EN"),
+                   "http://www.example.org/prefer-public.dtd");
+    // with prefer="system", a public entry is not used when there is a system identifier
+    assertResolves(resolver,
+                   new ExternalIdentifier("http://www.example.com/s.dtd", null, "-//Example//DTD Prefer System//EN"),
+                   null);
+    CatalogIndex index = loadIndex("catalog4.xml");
+    Assert.assertEquals(index.resolvePublic("-//Example//DTD Prefer System//EN", null),
+                        "http://www.example.org/prefer-system.dtd");
+  }
+
+  @Test
+  public void testNextCatalog() throws IOException, ResolverException {
+    Resolver resolver = new CatalogResolver(loadIndex("catalog4.xml"));
+    assertResolves(resolver, new ExternalIdentifier("http://www.example.com/next.dtd", null, null),
+                   "http://www.example.org/next.dtd");
+  }
+
+  @Test
+  public void testUrnPublicId() throws IOException, ResolverException {
+    Resolver resolver = new CatalogResolver(loadIndex("catalog4.xml"));
+    // a system identifier that is a urn:publicid: URN is treated as the public identifier it encodes
+    assertResolves(resolver, new ExternalIdentifier("urn:publicid:-:Example:DTD+Prefer+System:EN", null, null),
+                   "http://www.example.org/prefer-system.dtd");
+    assertResolves(resolver, new Identifier("urn:publicid:-:Example:DTD+Prefer+Public:EN"),
+                   "http://www.example.org/prefer-public.dtd");
+  }
+
+  @Test(expectedExceptions = ResolverException.class)
+  public void testBadCatalog() throws ResolverException {
+    loadIndex("broken.xml");
+  }
+
+  private static CatalogIndex loadIndex(String fileName) throws ResolverException {
+    List<String> catalogs = new ArrayList<String>();
+    catalogs.add(resourceUri(fileName));
+    return CatalogIndex.load(catalogs, new SAXResolver(null));
+  }
+
+  private static void assertResolves(Resolver resolver, Identifier id, String expectedUri)
+          throws IOException, ResolverException {
+    Input input = new Input();
+    resolver.resolve(id, input);
+    Assert.assertEquals(input.getUri(), expectedUri);
+  }
+
   static String resourceUri(String fileName) {
     String className = CatalogResolverTest.class.getName();
     int dotIndex = className.lastIndexOf('.');
@@ -1,13 +1,17 @@
 package com.thaiopensource.validation;
 
 import org.xml.sax.DTDHandler;
+import org.xml.sax.SAXException;
 
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 import javax.xml.validation.ValidatorHandler;
 
 /**
  * Extension to ValidatorHandler. This implements DTDHandler because some schema language
  * datatypes need to know whether a name is the name of a notation or an unparsed entity.
- * It also provides a reset() method.
+ * It also provides a reset() method, and allows an implementation to validate an XMLStreamReader
+ * without going through SAX.
  */
 public abstract class ValidatorHandler2 extends ValidatorHandler implements DTDHandler {
   abstract public void reset();
@@ -23,4 +27,16 @@ public abstract class ValidatorHandler2 extends ValidatorHandler implements DTDH
    * @return the DTDHandler
    */
   abstract public DTDHandler getDTDHandler();
+
+  /**
+   * Validates the document or element at the current event of an XMLStreamReader, reading
+   * events up to its end.  Errors are reported to the error handler; the content handler and
+   * DTD handler are not used.
+   * This implementation returns false, which tells the caller to convert the events to SAX.
+   * @param reader the XMLStreamReader, at a START_DOCUMENT or START_ELEMENT event
+   * @return true if the events were validated, false if nothing was read from reader
+   */
+  public boolean validate(XMLStreamReader reader) throws SAXException, XMLStreamException {
+    return false;
+  }
 }
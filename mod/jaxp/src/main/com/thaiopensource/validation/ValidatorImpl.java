@@ -14,8 +14,11 @@ import org.xml.sax.SAXNotSupportedException;
 import org.xml.sax.XMLReader;
 import org.xml.sax.ext.LexicalHandler;
 
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 import javax.xml.transform.Result;
 import javax.xml.transform.Source;
+import javax.xml.transform.Transformer;
 import javax.xml.transform.TransformerConfigurationException;
 import javax.xml.transform.TransformerException;
 import javax.xml.transform.TransformerFactory;
@@ -25,6 +28,8 @@ import javax.xml.transform.sax.SAXResult;
 import javax.xml.transform.sax.SAXSource;
 import javax.xml.transform.sax.SAXTransformerFactory;
 import javax.xml.transform.sax.TransformerHandler;
+import javax.xml.transform.stax.StAXResult;
+import javax.xml.transform.stax.StAXSource;
 import javax.xml.transform.stream.StreamResult;
 import javax.xml.transform.stream.StreamSource;
 import java.io.IOException;
@@ -36,6 +41,7 @@ class ValidatorImpl extends Validator2 {
   private final ValidatorHandler2 handler;
   private XMLReader cachedXMLReader = null;
   private LSResourceResolver cachedResourceResolver = null;
+  private TransformerFactory cachedTransformerFactory = null;
   private boolean needReset = false;
 
   private static final String LEXICAL_HANDLER_PROPERTY = "http://xml.org/sax/properties/lexical-handler";
@@ -71,11 +77,11 @@ class ValidatorImpl extends Validator2 {
           throw new IllegalArgumentException();
         doValidate((DOMSource)source, (DOMResult)result);
       }
-//      else if (source instanceof StAXSource) {
-//        if (result != null && !(result instanceof StAXResult))
-//          throw new IllegalArgumentException();
-//        doValidate((StAXSource)source, (StAXResult)result);
-//      }
+      else if (source instanceof StAXSource) {
+        if (result != null && !(result instanceof StAXResult))
+          throw new IllegalArgumentException();
+        doValidate((StAXSource)source, (StAXResult)result);
+      }
       else
         throw new IllegalArgumentException("unsupported type of Source: " + source.getClass().getName());
     }
@@ -85,11 +91,51 @@ class ValidatorImpl extends Validator2 {
     }
   }
 
-//  private void doValidate(StAXSource source, StAXResult result)
-//          throws SAXException, IOException, TransformerException {
-//    // XXX transform source and result
-//    throw new IllegalArgumentException();
-//  }
+  private void doValidate(StAXSource source, StAXResult result)
+          throws SAXException, IOException, TransformerException {
+    XMLStreamReader reader = source.getXMLStreamReader();
+    if (result == null && reader != null) {
+      handler.setContentHandler(null);
+      handler.setDTDHandler(null);
+      startValidation();
+      try {
+        if (handler.validate(reader))
+          return;
+      }
+      catch (XMLStreamException e) {
+        throw new SAXException(e);
+      }
+    }
+    // feed the events to the handler through an identity transformation
+    TransformerFactory transformerFactory = getTransformerFactory();
+    if (!transformerFactory.getFeature(StAXSource.FEATURE))
+      throw new IllegalArgumentException("TransformerFactory does not support StAXSource");
+    SAXResult saxResult = new SAXResult(handler);
+    if (result == null) {
+      handler.setContentHandler(null);
+      handler.setDTDHandler(null);
+    }
+    else {
+      TransformerHandler identityHandler = getIdentityTransformerHandler();
+      identityHandler.setResult(result);
+      handler.setContentHandler(identityHandler);
+      handler.setDTDHandler(identityHandler);
+      saxResult.setLexicalHandler(identityHandler);
+    }
+    Transformer transformer = transformerFactory.newTransformer();
+    startValidation();
+    try {
+      transformer.transform(source, saxResult);
+    }
+    catch (TransformerException e) {
+      // pass on an exception thrown by the error handler, which the transformer may have wrapped
+      // more than once
+      for (Throwable cause = e.getCause(); cause != null; cause = cause.getCause())
+        if (cause instanceof SAXException)
+          throw (SAXException)cause;
+      throw e;
+    }
+  }
 
   private void doValidate(DOMSource source, DOMResult result)
           throws SAXException, IOException, TransformerException {
@@ -98,12 +144,18 @@ class ValidatorImpl extends Validator2 {
   }
 
   private TransformerHandler getIdentityTransformerHandler() throws SAXException, TransformerConfigurationException {
-    TransformerFactory transformerFactory = TransformerFactory.newInstance();
+    TransformerFactory transformerFactory = getTransformerFactory();
     if (!transformerFactory.getFeature(SAXTransformerFactory.FEATURE))
       throw new SAXException("TransformerFactory must implement SAXTransformerFactory");
     return ((SAXTransformerFactory)transformerFactory).newTransformerHandler();
   }
 
+  private TransformerFactory getTransformerFactory() {
+    if (cachedTransformerFactory == null)
+      cachedTransformerFactory = TransformerFactory.newInstance();
+    return cachedTransformerFactory;
+  }
+
   private void doValidate(SAXSource source, Result result)
           throws SAXException, IOException, TransformerConfigurationException {
     if (result == null)
@@ -154,11 +206,15 @@ class ValidatorImpl extends Validator2 {
     if (eh == null)
       eh = new DraconianErrorHandler();
     xr.setErrorHandler(eh);
+    startValidation();
+    xr.parse(source.getInputSource());
+  }
+
+  private void startValidation() {
     if (needReset)
       handler.reset();
     else
       needReset = true;
-    xr.parse(source.getInputSource());
   }
 
   public void setErrorHandler(ErrorHandler errorHandler) {
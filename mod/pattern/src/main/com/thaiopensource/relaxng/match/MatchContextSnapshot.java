@@ -0,0 +1,17 @@
+package com.thaiopensource.relaxng.match;
+
+/**
+ * A MatchContext whose current namespace declarations can be captured cheaply.  A
+ * <code>Matcher</code> that keeps a MatchContext after a call has returned, for example to
+ * construct the message of an error when it is asked for, takes a snapshot if the MatchContext
+ * supports it; otherwise it has to use the MatchContext before returning.
+ */
+public interface MatchContextSnapshot extends MatchContext {
+  /**
+   * Returns a MatchContext with the namespace declarations currently in scope.  The returned
+   * MatchContext is not affected by later changes to the namespace declarations of this one.
+   *
+   * @return a non-null MatchContext
+   */
+  MatchContext snapshot();
+}
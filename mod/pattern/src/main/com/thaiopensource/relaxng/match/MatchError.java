@@ -0,0 +1,63 @@
+package com.thaiopensource.relaxng.match;
+
+import com.thaiopensource.xml.util.Name;
+
+import java.util.Set;
+
+/**
+ * Describes an error found by a <code>Matcher</code>.  The message describing the error
+ * is constructed only when <code>getMessage</code> is called, so that an application that only
+ * counts errors, or that examines their structure, does not pay for formatting messages.
+ *
+ * @see Matcher#getError
+ */
+public interface MatchError {
+  /**
+   * Returns the key identifying the kind of error, for example <code>unknown_element</code>.
+   * This is the key of the message in the resource bundle of the matcher.
+   *
+   * @return a non-null String
+   */
+  String getKey();
+
+  /**
+   * Returns the name of the element or attribute to which the error relates.
+   *
+   * @return the Name, or null if the error does not relate to a particular element or attribute
+   */
+  Name getName();
+
+  /**
+   * Returns the qName of the element or attribute to which the error relates.  If the qName
+   * was not known when the error occurred, one is constructed from the namespace declarations
+   * then in scope.
+   *
+   * @return the qName, or null if <code>getName</code> returns null
+   */
+  String getQName();
+
+  /**
+   * Returns the names of the elements or of the attributes that were possible when the error
+   * occurred; attribute names for an error relating to the attributes of an element and
+   * element names otherwise.
+   *
+   * @return a NameClass, or null if the error relates to a value
+   */
+  NameClass getExpectedNames();
+
+  /**
+   * Returns the names of the required elements or attributes that were missing.
+   *
+   * @return a non-null Set, which is empty unless the error is that required elements or
+   * attributes are missing
+   */
+  Set<Name> getMissingNames();
+
+  /**
+   * Returns a message describing the error.  This is the same as would be returned by
+   * <code>Matcher.getErrorMessage</code> immediately after the error occurred.
+   *
+   * @return a non-null String
+   */
+  String getMessage();
+}
@@ -1,6 +1,7 @@
 package com.thaiopensource.relaxng.match;
 
 import com.thaiopensource.xml.util.Name;
+import org.relaxng.datatype.DatatypeStreamingValidator;
 
 import java.util.Set;
 
@@ -45,7 +46,8 @@ import java.util.Set;
  * <p>Each method <code>match<var>E</var></code> returns false if matching
  * the event against the document resulted in an error and true otherwise.
  * If it returned false, then the error message can be obtained using
- * <code>getErrorMessage</code>.  In either case, the state of the
+ * <code>getErrorMessage</code>, and a structured description of the error
+ * using <code>getError</code>.  In either case, the state of the
  * <code>Matcher</code> changes so the <code>Matcher</code> is prepared
  * to match the next event.
  * <p/>
@@ -156,6 +158,37 @@ public interface Matcher {
    */
   boolean matchTextBeforeEndTag(String string, Name name, String qName, MatchContext context);
 
+  /**
+   * Return a validator to which the text of the current element can be passed chunk by chunk,
+   * instead of being collected together for <code>matchTextBeforeEndTag</code>.
+   * This may be used only when <code>isTextTyped</code> returns true and before any text
+   * has been matched in the current element.  The validator keeps only a bounded amount
+   * of the text.
+   *
+   * @param context a match context, which must remain valid until the text has been matched
+   * @return a <code>DatatypeStreamingValidator</code>, or null if the text must be
+   * matched with <code>matchTextBeforeEndTag</code>
+   */
+  DatatypeStreamingValidator createTextValidator(MatchContext context);
+
+  /**
+   * Match a Text event that occurs immediately before an EndTag event, where the text has been
+   * passed to a validator returned by <code>createTextValidator</code> in the current state.
+   * The text must not be empty.  If the text turns out to be followed by a StartTagOpen event,
+   * the validator must be discarded; in this case the text is not typed, so text that consists of
+   * whitespace may be ignored and text that contains non-whitespace characters may be processed using
+   * <code>matchUntypedText</code>.
+   *
+   * @param validator the validator to which the text has been passed
+   * @param name the name of the parent element (i.e. the name of the element of the following
+   * EndTag event)
+   * @param qName the qName of the parent element
+   * @param context a match context
+   * @return false if there was an error, true otherwise
+   */
+  boolean matchTextBeforeEndTag(DatatypeStreamingValidator validator, Name name, String qName,
+                                MatchContext context);
+
   /**
    * Match a Text event that occurs immediately before a StartTagOpen event.
    * All text between two tags must be collected together: consecutive
@@ -215,6 +248,17 @@ public interface Matcher {
    */
   String getErrorMessage();
 
+  /**
+   * Return the current error.
+   * This changes whenever the current error message changes.  The message is not constructed
+   * until it is asked for, so this is cheaper than <code>getErrorMessage</code> for applications
+   * that only need to know what kind of error occurred or what names were involved.
+   *
+   * @return a <code>MatchError</code> describing the current error, or null if there has not yet
+   *         been an error.
+   */
+  MatchError getError();
+
   /**
    * Return true if the document is valid so far.
    * A document is valid so far if and only if no errors have yet been
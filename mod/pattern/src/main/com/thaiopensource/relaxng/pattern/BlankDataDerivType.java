@@ -5,8 +5,8 @@ import org.relaxng.datatype.ValidationContext;
 import java.util.List;
 
 class BlankDataDerivType extends DataDerivType {
-  private PatternMemo blankMemo;
-  private PatternMemo nonBlankMemo;
+  private volatile PatternMemo blankMemo;
+  private volatile PatternMemo nonBlankMemo;
 
   BlankDataDerivType() { }
 
@@ -8,8 +8,8 @@ import java.util.List;
 
 class DataDataDerivType extends DataDerivType {
   private final DataPattern dp;
-  private PatternMemo validMemo;
-  private PatternMemo invalidMemo;
+  private volatile PatternMemo validMemo;
+  private volatile PatternMemo invalidMemo;
 
   DataDataDerivType(DataPattern dp) {
     this.dp = dp;
@@ -0,0 +1,172 @@
+package com.thaiopensource.relaxng.pattern;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts what the validators using a ValidatorPatternBuilder do with its memoized derivatives:
+ * for each kind of transition, how often the derivative was already memoized and how often it had to
+ * be computed; how many states were created and how often they were discarded; how much time was
+ * spent in data derivatives; and how often matching recovered from an error.  Statistics are
+ * collected only for a builder on which they have been enabled.  An instance of this class is safe
+ * for access from multiple threads.
+ *
+ * @see ValidatorPatternBuilder#enableStatistics
+ */
+public final class DerivativeStatistics {
+  // the names of the kinds of transition, indexed by the kinds of PatternMemo
+  static private final String[] TRANSITION_NAMES = {
+    "endAttributes",
+    "textOnly",
+    "endTagDeriv",
+    "mixedTextDeriv",
+    "ignoreMissingAttributes",
+    "recoverAfter",
+    "emptyAfter",
+    "startTagOpenDeriv",
+    "startTagOpenRecoverDeriv",
+    "startAttributeDeriv",
+    "dataDerivType"
+  };
+  // kinds of transition other than those of PatternMemo
+  static final int DATA_DERIV_TYPE = 10;
+
+  private final ValidatorPatternBuilder builder;
+  private final AtomicLongArray hits = new AtomicLongArray(TRANSITION_NAMES.length);
+  private final AtomicLongArray misses = new AtomicLongArray(TRANSITION_NAMES.length);
+  private final AtomicLong statesCreated = new AtomicLong();
+  private final AtomicLong statesDiscarded = new AtomicLong();
+  private final AtomicLong dataDerivs = new AtomicLong();
+  private final AtomicLong dataDerivNanos = new AtomicLong();
+  private final AtomicLong errorRecoveries = new AtomicLong();
+
+  DerivativeStatistics(ValidatorPatternBuilder builder) {
+    this.builder = builder;
+  }
+
+  void hit(int kind) {
+    hits.incrementAndGet(kind);
+  }
+
+  void miss(int kind) {
+    misses.incrementAndGet(kind);
+  }
+
+  void stateCreated() {
+    statesCreated.incrementAndGet();
+  }
+
+  void statesDiscarded(int count) {
+    statesDiscarded.addAndGet(count);
+  }
+
+  void dataDeriv(long nanos) {
+    dataDerivs.incrementAndGet();
+    dataDerivNanos.addAndGet(nanos);
+  }
+
+  void errorRecovery() {
+    errorRecoveries.incrementAndGet();
+  }
+
+  /**
+   * Returns the names of the kinds of transition, which are the arguments accepted
+   * by getHits and getMisses.
+   */
+  public String[] getTransitionNames() {
+    return TRANSITION_NAMES.clone();
+  }
+
+  /**
+   * Returns the number of times a transition of the named kind was found memoized.
+   *
+   * @throws IllegalArgumentException if the name is not one returned by getTransitionNames
+   */
+  public long getHits(String transitionName) {
+    return hits.get(transitionKind(transitionName));
+  }
+
+  /**
+   * Returns the number of times a transition of the named kind had to be computed.
+   *
+   * @throws IllegalArgumentException if the name is not one returned by getTransitionNames
+   */
+  public long getMisses(String transitionName) {
+    return misses.get(transitionKind(transitionName));
+  }
+
+  private static int transitionKind(String transitionName) {
+    for (int i = 0; i < TRANSITION_NAMES.length; i++)
+      if (TRANSITION_NAMES[i].equals(transitionName))
+        return i;
+    throw new IllegalArgumentException(transitionName);
+  }
+
+  /**
+   * Returns the number of states currently memoized.
+   */
+  public int getStates() {
+    return builder.getPatternMemoCount();
+  }
+
+  /**
+   * Returns the number of states that have been created, including those since discarded.
+   */
+  public long getStatesCreated() {
+    return statesCreated.get();
+  }
+
+  /**
+   * Returns the number of states that have been discarded because the limit on
+   * the number of memoized states was reached.
+   */
+  public long getStatesDiscarded() {
+    return statesDiscarded.get();
+  }
+
+  /**
+   * Returns the number of patterns interned by the builder, not counting those of the schema.
+   */
+  public int getInternedPatterns() {
+    return builder.getInternedPatternCount();
+  }
+
+  /**
+   * Returns the number of data derivatives computed for text and attribute values.
+   */
+  public long getDataDerivs() {
+    return dataDerivs.get();
+  }
+
+  /**
+   * Returns the total time in nanoseconds spent computing data derivatives for text and
+   * attribute values.
+   */
+  public long getDataDerivNanos() {
+    return dataDerivNanos.get();
+  }
+
+  /**
+   * Returns the number of times matching has recovered from an error, whether or not the error
+   * was reported.
+   */
+  public long getErrorRecoveries() {
+    return errorRecoveries.get();
+  }
+
+  /**
+   * Sets the counts to zero.  The numbers of states and interned patterns are not counts
+   * and are not affected.
+   */
+  public void reset() {
+    for (int i = 0; i < TRANSITION_NAMES.length; i++) {
+      hits.set(i, 0);
+      misses.set(i, 0);
+    }
+    statesCreated.set(0);
+    statesDiscarded.set(0);
+    dataDerivs.set(0);
+    dataDerivNanos.set(0);
+    errorRecoveries.set(0);
+  }
+}
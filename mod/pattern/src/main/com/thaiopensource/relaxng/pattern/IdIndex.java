@@ -0,0 +1,404 @@
+package com.thaiopensource.relaxng.pattern;
+
+import com.thaiopensource.util.Utf8;
+import org.xml.sax.Locator;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.LocatorImpl;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Records the IDs of a document and the IDREFs whose IDs have not yet been seen, for IdSoundnessChecker.
+ * Tokens are kept in a single char array, and locations as a line, a column and an index into a
+ * table of the distinct public/system id pairs, so that the cost of a token is a few ints besides
+ * its characters.  If a maximum is given for the number of IDREFs kept, then, when it is exceeded,
+ * the IDREFs are written to a temporary file and read back by findMissingIds; the IDs stay in memory.
+ */
+final class IdIndex {
+  interface MissingIdHandler {
+    void missingId(String token, Locator locator) throws SAXException;
+  }
+
+  private static final int NONE = -1;
+
+  private final int maxRefs;
+
+  // the characters of the tokens
+  private char[] chars = new char[1024];
+  private int charsUsed = 0;
+
+  // indexed by token; slots holds token + 1, 0 for an empty slot
+  private int[] slots = new int[16];
+  private int nTokens = 0;
+  private int[] tokenStart = new int[8];
+  private int[] tokenLength = new int[8];
+  private int[] tokenHash = new int[8];
+  // NONE unless the token has been seen as an ID
+  private int[] idSource = new int[8];
+  private int[] idLine = new int[8];
+  private int[] idColumn = new int[8];
+  private int[] refHead = new int[8];
+  private int[] refTail = new int[8];
+  private int nIds = 0;
+  // the tokens that have had IDREFs added since the last spill; some may since have become IDs
+  private int[] pendingTokens = new int[8];
+  private int nPendingTokens = 0;
+
+  // indexed by ref; refNext also links the free refs
+  private int[] refSource = new int[8];
+  private int[] refLine = new int[8];
+  private int[] refColumn = new int[8];
+  private int[] refNext = new int[8];
+  private int nRefsAllocated = 0;
+  private int freeRef = NONE;
+  private int nRefs = 0;
+
+  // the distinct pairs of public and system ids of locations
+  private final List<String[]> sources = new ArrayList<String[]>();
+  private final Map<List<String>, Integer> sourceIndexes = new HashMap<List<String>, Integer>();
+  private int lastSource = NONE;
+
+  private File spillFile = null;
+  private DataOutputStream spillOut = null;
+
+  /**
+   * maxRefs is the maximum number of IDREFs to keep in memory, 0 if there is no maximum.
+   */
+  IdIndex(int maxRefs) {
+    this.maxRefs = maxRefs;
+  }
+
+  /**
+   * Returns the token index of a string, or NONE if create is false and the string is not a token.
+   */
+  int lookup(String str, boolean create) {
+    int h = hash(str);
+    int mask = slots.length - 1;
+    int i = h & mask;
+    for (;;) {
+      int t = slots[i] - 1;
+      if (t < 0)
+        break;
+      if (tokenHash[t] == h && tokenEquals(t, str))
+        return t;
+      i = (i + 1) & mask;
+    }
+    if (!create)
+      return NONE;
+    int t = addToken(str, h);
+    slots[i] = t + 1;
+    if (nTokens * 2 > slots.length)
+      rehash(slots.length * 2);
+    return t;
+  }
+
+  boolean hasId(int t) {
+    return idSource[t] != NONE;
+  }
+
+  void setId(int t, Locator locator) {
+    if (idSource[t] == NONE)
+      nIds++;
+    idSource[t] = sourceIndex(locator);
+    idLine[t] = locator == null ? NONE : locator.getLineNumber();
+    idColumn[t] = locator == null ? NONE : locator.getColumnNumber();
+    // the IDREFs are satisfied
+    if (refHead[t] != NONE) {
+      for (int r = refHead[t]; r != NONE; r = refNext[r])
+        nRefs--;
+      refNext[refTail[t]] = freeRef;
+      freeRef = refHead[t];
+      refHead[t] = refTail[t] = NONE;
+    }
+  }
+
+  Locator getIdLocator(int t) {
+    return makeLocator(idSource[t], idLine[t], idColumn[t]);
+  }
+
+  void addRef(int t, Locator locator) throws IOException {
+    int r = allocRef();
+    refSource[r] = sourceIndex(locator);
+    refLine[r] = locator == null ? NONE : locator.getLineNumber();
+    refColumn[r] = locator == null ? NONE : locator.getColumnNumber();
+    refNext[r] = NONE;
+    if (refHead[t] == NONE) {
+      if (nPendingTokens == pendingTokens.length)
+        pendingTokens = grow(pendingTokens, nPendingTokens * 2);
+      pendingTokens[nPendingTokens++] = t;
+      refHead[t] = r;
+    }
+    else
+      refNext[refTail[t]] = r;
+    refTail[t] = r;
+    if (++nRefs > maxRefs && maxRefs > 0)
+      spill();
+  }
+
+  /**
+   * Calls the handler for each IDREF whose token has not been seen as an ID: those kept in memory
+   * in the order in which their tokens were first seen, then those written to the temporary file
+   * in the order in which they were written.
+   */
+  void findMissingIds(MissingIdHandler handler) throws SAXException, IOException {
+    for (int t = 0; t < nTokens; t++) {
+      if (hasId(t))
+        continue;
+      for (int r = refHead[t]; r != NONE; r = refNext[r])
+        handler.missingId(getToken(t), makeLocator(refSource[r], refLine[r], refColumn[r]));
+    }
+    if (spillOut == null)
+      return;
+    spillOut.close();
+    spillOut = null;
+    DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(spillFile)));
+    try {
+      for (;;) {
+        String token;
+        try {
+          token = Utf8.readString(in);
+        }
+        catch (EOFException e) {
+          break;
+        }
+        int source = in.readInt();
+        int line = in.readInt();
+        int column = in.readInt();
+        int t = lookup(token, false);
+        if (t == NONE || !hasId(t))
+          handler.missingId(token, makeLocator(source, line, column));
+      }
+    }
+    finally {
+      in.close();
+    }
+  }
+
+  void clear() {
+    charsUsed = 0;
+    Arrays.fill(slots, 0);
+    nTokens = 0;
+    nIds = 0;
+    nPendingTokens = 0;
+    nRefsAllocated = 0;
+    freeRef = NONE;
+    nRefs = 0;
+    sources.clear();
+    sourceIndexes.clear();
+    lastSource = NONE;
+    deleteSpillFile();
+  }
+
+  void deleteSpillFile() {
+    if (spillOut != null) {
+      try {
+        spillOut.close();
+      }
+      catch (IOException e) {
+        // we are discarding it anyway
+      }
+      spillOut = null;
+    }
+    if (spillFile != null) {
+      spillFile.delete();
+      spillFile = null;
+    }
+  }
+
+  /**
+   * Writes the IDREFs in memory to the temporary file.  The tokens that are not IDs are discarded
+   * once there are more of them than IDs, so that the cost of discarding them is proportional to
+   * the number discarded.
+   */
+  private void spill() throws IOException {
+    if (spillOut == null) {
+      spillFile = File.createTempFile("idrefs", null);
+      spillOut = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(spillFile)));
+    }
+    for (int i = 0; i < nPendingTokens; i++) {
+      int t = pendingTokens[i];
+      if (refHead[t] == NONE)
+        continue;
+      String token = getToken(t);
+      for (int r = refHead[t]; r != NONE; r = refNext[r]) {
+        Utf8.writeString(spillOut, token);
+        spillOut.writeInt(refSource[r]);
+        spillOut.writeInt(refLine[r]);
+        spillOut.writeInt(refColumn[r]);
+      }
+      refHead[t] = refTail[t] = NONE;
+    }
+    nPendingTokens = 0;
+    nRefsAllocated = 0;
+    freeRef = NONE;
+    nRefs = 0;
+    if (nTokens - nIds > Math.max(nIds, maxRefs))
+      discardRefTokens();
+  }
+
+  private void discardRefTokens() {
+    char[] oldChars = chars;
+    charsUsed = 0;
+    int n = 0;
+    for (int t = 0; t < nTokens; t++) {
+      if (!hasId(t))
+        continue;
+      int start = charsUsed;
+      ensureChars(tokenLength[t]);
+      System.arraycopy(oldChars, tokenStart[t], chars, start, tokenLength[t]);
+      charsUsed += tokenLength[t];
+      tokenStart[n] = start;
+      tokenLength[n] = tokenLength[t];
+      tokenHash[n] = tokenHash[t];
+      idSource[n] = idSource[t];
+      idLine[n] = idLine[t];
+      idColumn[n] = idColumn[t];
+      refHead[n] = refTail[n] = NONE;
+      n++;
+    }
+    nTokens = n;
+    int size = 16;
+    while (size < nTokens * 4)
+      size <<= 1;
+    rehash(size);
+  }
+
+  private int addToken(String str, int h) {
+    int t = nTokens++;
+    if (t == tokenStart.length) {
+      int n = t * 2;
+      tokenStart = grow(tokenStart, n);
+      tokenLength = grow(tokenLength, n);
+      tokenHash = grow(tokenHash, n);
+      idSource = grow(idSource, n);
+      idLine = grow(idLine, n);
+      idColumn = grow(idColumn, n);
+      refHead = grow(refHead, n);
+      refTail = grow(refTail, n);
+    }
+    int len = str.length();
+    ensureChars(len);
+    str.getChars(0, len, chars, charsUsed);
+    tokenStart[t] = charsUsed;
+    tokenLength[t] = len;
+    charsUsed += len;
+    tokenHash[t] = h;
+    idSource[t] = NONE;
+    refHead[t] = refTail[t] = NONE;
+    return t;
+  }
+
+  private int allocRef() {
+    if (freeRef != NONE) {
+      int r = freeRef;
+      freeRef = refNext[r];
+      return r;
+    }
+    int r = nRefsAllocated++;
+    if (r == refNext.length) {
+      int n = r * 2;
+      refSource = grow(refSource, n);
+      refLine = grow(refLine, n);
+      refColumn = grow(refColumn, n);
+      refNext = grow(refNext, n);
+    }
+    return r;
+  }
+
+  private void rehash(int size) {
+    slots = new int[size];
+    int mask = size - 1;
+    for (int t = 0; t < nTokens; t++) {
+      int i = tokenHash[t] & mask;
+      while (slots[i] != 0)
+        i = (i + 1) & mask;
+      slots[i] = t + 1;
+    }
+  }
+
+  private void ensureChars(int len) {
+    if (charsUsed + len > chars.length) {
+      char[] newChars = new char[Math.max(chars.length * 2, charsUsed + len)];
+      System.arraycopy(chars, 0, newChars, 0, charsUsed);
+      chars = newChars;
+    }
+  }
+
+  private boolean tokenEquals(int t, String str) {
+    int len = tokenLength[t];
+    if (len != str.length())
+      return false;
+    int start = tokenStart[t];
+    for (int i = 0; i < len; i++)
+      if (chars[start + i] != str.charAt(i))
+        return false;
+    return true;
+  }
+
+  private String getToken(int t) {
+    return new String(chars, tokenStart[t], tokenLength[t]);
+  }
+
+  private int sourceIndex(Locator locator) {
+    if (locator == null)
+      return NONE;
+    String publicId = locator.getPublicId();
+    String systemId = locator.getSystemId();
+    if (lastSource != NONE) {
+      String[] last = sources.get(lastSource);
+      if (equal(last[0], publicId) && equal(last[1], systemId))
+        return lastSource;
+    }
+    List<String> key = Arrays.asList(publicId, systemId);
+    Integer index = sourceIndexes.get(key);
+    if (index == null) {
+      index = sources.size();
+      sources.add(new String[] { publicId, systemId });
+      sourceIndexes.put(key, index);
+    }
+    return lastSource = index;
+  }
+
+  private Locator makeLocator(int source, int line, int column) {
+    if (source == NONE)
+      return null;
+    LocatorImpl locator = new LocatorImpl();
+    String[] ids = sources.get(source);
+    locator.setPublicId(ids[0]);
+    locator.setSystemId(ids[1]);
+    locator.setLineNumber(line);
+    locator.setColumnNumber(column);
+    return locator;
+  }
+
+  private static boolean equal(String s1, String s2) {
+    return s1 == null ? s2 == null : s1.equals(s2);
+  }
+
+  private static int hash(String str) {
+    int h = str.hashCode();
+    h ^= h >>> 16;
+    h *= 0x85ebca6b;
+    h ^= h >>> 13;
+    return h;
+  }
+
+  private static int[] grow(int[] a, int n) {
+    int[] b = new int[n];
+    System.arraycopy(a, 0, b, 0, a.length);
+    return b;
+  }
+}
@@ -7,46 +7,57 @@ import org.xml.sax.ErrorHandler;
 import org.xml.sax.Locator;
 import org.xml.sax.SAXException;
 import org.xml.sax.SAXParseException;
-import org.xml.sax.helpers.LocatorImpl;
 
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
+import java.io.IOException;
 
 public class IdSoundnessChecker {
   private final IdTypeMap idTypeMap;
   private final ErrorHandler eh;
-  private final Map<String, Entry> map = new HashMap<String, Entry>();
+  private final IdIndex index;
 
-  private static class Entry {
-    Locator idLoc;
-    List<LocatorImpl> idrefLocs;
-    boolean hadId;
+  public IdSoundnessChecker(IdTypeMap idTypeMap, ErrorHandler eh) {
+    this(idTypeMap, eh, 0);
   }
 
-  public IdSoundnessChecker(IdTypeMap idTypeMap, ErrorHandler eh) {
+  /**
+   * maxIdrefsInMemory is the maximum number of IDREFs whose IDs have not yet been seen that are
+   * kept in memory; beyond this, they are written to a temporary file.  0 means there is no maximum.
+   */
+  public IdSoundnessChecker(IdTypeMap idTypeMap, ErrorHandler eh, int maxIdrefsInMemory) {
     this.idTypeMap = idTypeMap;
     this.eh = eh;
+    this.index = new IdIndex(maxIdrefsInMemory);
   }
 
   public void reset() {
-    map.clear();
+    index.clear();
   }
 
   public void endDocument() throws SAXException {
-    for (String token : map.keySet()) {
-      Entry entry = map.get(token);
-      if (!entry.hadId) {
-        for (LocatorImpl idrefLoc : entry.idrefLocs)
-          error("missing_id", token, idrefLoc);
-      }
+    try {
+      index.findMissingIds(new IdIndex.MissingIdHandler() {
+        public void missingId(String token, Locator locator) throws SAXException {
+          error("missing_id", token, locator);
+        }
+      });
+    }
+    catch (IOException e) {
+      throw new SAXException(e);
+    }
+    finally {
+      index.deleteSpillFile();
     }
   }
 
   public void attribute(Name elementName, Name attributeName, String value, Locator locator)
           throws SAXException {
-    int idType = idTypeMap.getIdType(elementName, attributeName);
+    attribute(idTypeMap.getIdType(elementName, attributeName), value, locator);
+  }
+
+  /**
+   * Checks an attribute whose ID type has already been looked up.
+   */
+  public void attribute(int idType, String value, Locator locator) throws SAXException {
     if (idType != Datatype.ID_TYPE_NULL) {
       String[] tokens = StringSplitter.split(value);
       switch (idType) {
@@ -79,31 +90,25 @@ public class IdSoundnessChecker {
   }
 
   private void id(String token, Locator locator) throws SAXException {
-    Entry entry = map.get(token);
-    if (entry == null) {
-      entry = new Entry();
-      map.put(token, entry);
-    }
-    else if (entry.hadId) {
+    int t = index.lookup(token, true);
+    if (index.hasId(t)) {
       error("duplicate_id", token, locator);
-      error("first_id", token, entry.idLoc);
+      error("first_id", token, index.getIdLocator(t));
       return;
     }
-    entry.idLoc = new LocatorImpl(locator);
-    entry.hadId = true;
+    index.setId(t, locator);
   }
 
-  private void idref(String token, Locator locator) {
-    Entry entry = map.get(token);
-    if (entry == null) {
-      entry = new Entry();
-      map.put(token, entry);
-    }
-    if (entry.hadId)
+  private void idref(String token, Locator locator) throws SAXException {
+    int t = index.lookup(token, true);
+    if (index.hasId(t))
       return;
-    if (entry.idrefLocs == null)
-      entry.idrefLocs = new ArrayList<LocatorImpl>();
-    entry.idrefLocs.add(new LocatorImpl(locator));
+    try {
+      index.addRef(t, locator);
+    }
+    catch (IOException e) {
+      throw new SAXException(e);
+    }
   }
 
   private void error(String key, Locator locator) throws SAXException {
@@ -48,11 +48,11 @@ public class IdTypeMapBuilder {
     }
   }
 
-  private static class ScopedName {
-    private final Name elementName;
-    private final Name attributeName;
+  static class ScopedName {
+    final Name elementName;
+    final Name attributeName;
 
-    private ScopedName(Name elementName, Name attributeName) {
+    ScopedName(Name elementName, Name attributeName) {
       this.elementName = elementName;
       this.attributeName = attributeName;
     }
@@ -69,15 +69,15 @@ public class IdTypeMapBuilder {
     }
   }
 
-  private static class IdTypeMapImpl implements IdTypeMap {
-    private final Map<ScopedName, Integer> table = new HashMap<ScopedName, Integer>();
+  static class IdTypeMapImpl implements IdTypeMap {
+    final Map<ScopedName, Integer> table = new HashMap<ScopedName, Integer>();
     public int getIdType(Name elementName, Name attributeName) {
       Integer n = table.get(new ScopedName(elementName, attributeName));
       if (n == null)
         return Datatype.ID_TYPE_NULL;
       return n;
     }
-    private void add(Name elementName, Name attributeName, int idType) {
+    void add(Name elementName, Name attributeName, int idType) {
       table.put(new ScopedName(elementName, attributeName), idType);
     }
   }
@@ -0,0 +1,148 @@
+package com.thaiopensource.relaxng.pattern;
+
+import com.thaiopensource.xml.util.Name;
+import org.relaxng.datatype.Datatype;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The ID types of an IdTypeMap grouped by element name, so that a validator finds the ID types of
+ * all the attributes of an element with a single lookup, and skips the attributes of elements
+ * that have no attributes with ID types.  The Names are those of the NameTable of the schema, so
+ * that lookups of names obtained from that NameTable succeed on identity.  An IdTypeTable is
+ * immutable and so can be shared between threads.
+ */
+public final class IdTypeTable implements IdTypeMap {
+  // null if the names in the IdTypeMap are not known
+  private final Name[] elementNames;
+  private final Element[] elements;
+  private final int mask;
+  private final IdTypeMap idTypeMap;
+
+  /**
+   * The ID types of the attributes of an element.
+   */
+  public static abstract class Element {
+    private Element() { }
+
+    /**
+     * Returns the ID type of an attribute of the element, ID_TYPE_NULL if it has none.
+     */
+    public abstract int getIdType(Name attributeName);
+  }
+
+  static private final class CompiledElement extends Element {
+    private final Name[] attributeNames;
+    private final int[] idTypes;
+
+    CompiledElement(Name[] attributeNames, int[] idTypes) {
+      this.attributeNames = attributeNames;
+      this.idTypes = idTypes;
+    }
+
+    public int getIdType(Name attributeName) {
+      // an element has few attributes with ID types
+      for (int i = 0; i < attributeNames.length; i++)
+        if (attributeNames[i] == attributeName)
+          return idTypes[i];
+      for (int i = 0; i < attributeNames.length; i++)
+        if (attributeNames[i].equals(attributeName))
+          return idTypes[i];
+      return Datatype.ID_TYPE_NULL;
+    }
+  }
+
+  static private final class MapElement extends Element {
+    private final IdTypeMap idTypeMap;
+    private final Name elementName;
+
+    MapElement(IdTypeMap idTypeMap, Name elementName) {
+      this.idTypeMap = idTypeMap;
+      this.elementName = elementName;
+    }
+
+    public int getIdType(Name attributeName) {
+      return idTypeMap.getIdType(elementName, attributeName);
+    }
+  }
+
+  private IdTypeTable(IdTypeMap idTypeMap) {
+    this.idTypeMap = idTypeMap;
+    this.elementNames = null;
+    this.elements = null;
+    this.mask = 0;
+  }
+
+  private IdTypeTable(Map<Name, Map<Name, Integer>> byElement) {
+    this.idTypeMap = null;
+    int size = 4;
+    while (size < byElement.size() * 2)
+      size <<= 1;
+    elementNames = new Name[size];
+    elements = new Element[size];
+    mask = size - 1;
+    for (Map.Entry<Name, Map<Name, Integer>> entry : byElement.entrySet()) {
+      Map<Name, Integer> attributes = entry.getValue();
+      Name[] attributeNames = new Name[attributes.size()];
+      int[] idTypes = new int[attributes.size()];
+      int j = 0;
+      for (Map.Entry<Name, Integer> attribute : attributes.entrySet()) {
+        attributeNames[j] = attribute.getKey();
+        idTypes[j++] = attribute.getValue();
+      }
+      int i = entry.getKey().hashCode() & mask;
+      while (elementNames[i] != null)
+        i = (i + 1) & mask;
+      elementNames[i] = entry.getKey();
+      elements[i] = new CompiledElement(attributeNames, idTypes);
+    }
+  }
+
+  /**
+   * Returns an IdTypeTable for an IdTypeMap, using the canonical Names of a NameTable.
+   */
+  public static IdTypeTable forIdTypeMap(IdTypeMap idTypeMap, NameTable nameTable) {
+    if (!(idTypeMap instanceof IdTypeMapBuilder.IdTypeMapImpl))
+      return new IdTypeTable(idTypeMap);
+    Map<Name, Map<Name, Integer>> byElement = new LinkedHashMap<Name, Map<Name, Integer>>();
+    for (Map.Entry<IdTypeMapBuilder.ScopedName, Integer> entry
+            : ((IdTypeMapBuilder.IdTypeMapImpl)idTypeMap).table.entrySet()) {
+      if (entry.getValue() == Datatype.ID_TYPE_NULL)
+        continue;
+      Name elementName = canonicalName(nameTable, entry.getKey().elementName);
+      Map<Name, Integer> attributes = byElement.get(elementName);
+      if (attributes == null) {
+        attributes = new LinkedHashMap<Name, Integer>();
+        byElement.put(elementName, attributes);
+      }
+      attributes.put(canonicalName(nameTable, entry.getKey().attributeName), entry.getValue());
+    }
+    return new IdTypeTable(byElement);
+  }
+
+  private static Name canonicalName(NameTable nameTable, Name name) {
+    return nameTable.getName(name.getNamespaceUri(), name.getLocalName());
+  }
+
+  public int getIdType(Name elementName, Name attributeName) {
+    Element element = getElement(elementName);
+    return element == null ? Datatype.ID_TYPE_NULL : element.getIdType(attributeName);
+  }
+
+  /**
+   * Returns the ID types of the attributes of an element, or null if none of its attributes
+   * has an ID type.
+   */
+  public Element getElement(Name elementName) {
+    if (elementNames == null)
+      return new MapElement(idTypeMap, elementName);
+    for (int i = elementName.hashCode() & mask;; i = (i + 1) & mask) {
+      Name name = elementNames[i];
+      if (name == null)
+        return null;
+      if (name == elementName || name.equals(elementName))
+        return elements[i];
+    }
+  }
+}
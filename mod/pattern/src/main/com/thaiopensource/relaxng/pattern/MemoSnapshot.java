@@ -0,0 +1,311 @@
+package com.thaiopensource.relaxng.pattern;
+
+import com.thaiopensource.util.Digests;
+import com.thaiopensource.util.Utf8;
+import com.thaiopensource.xml.util.Name;
+import org.relaxng.datatype.ValidationContext;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Saves and loads the derivatives memoized by a ValidatorPatternBuilder.  The patterns of the
+ * schema are identified by the order in which they are reached from the start pattern, so the
+ * derivatives can be loaded into a builder for the same schema parsed or loaded from a
+ * PatternSnapshot in another process; a digest of the schema's PatternSnapshot is saved to
+ * check that it is the same schema.  The patterns built while computing derivatives are
+ * written like in a PatternSnapshot.  Derivatives with respect to data are saved only for
+ * choices of values of a datatype that is not context-dependent.
+ */
+final class MemoSnapshot {
+  private static final int MAGIC = 0x4A524E4D;
+  private static final int VERSION = 3;
+  private static final int DIGEST_LENGTH = 32;
+
+  // kinds of pattern built while computing derivatives
+  private static final int CHOICE = 0;
+  private static final int GROUP = 1;
+  private static final int INTERLEAVE = 2;
+  private static final int AFTER = 3;
+  private static final int ONE_OR_MORE = 4;
+  private static final int END = 5;
+
+  // entries for a PatternMemo, after the kinds defined by PatternMemo
+  private static final int VALUE = 10;
+  private static final int END_MEMO = 11;
+
+  private static final int[] KINDS = {
+    PatternMemo.END_ATTRIBUTES,
+    PatternMemo.TEXT_ONLY,
+    PatternMemo.END_TAG_DERIV,
+    PatternMemo.MIXED_TEXT_DERIV,
+    PatternMemo.IGNORE_MISSING_ATTRIBUTES,
+    PatternMemo.RECOVER_AFTER,
+    PatternMemo.EMPTY_AFTER,
+  };
+  private static final int[] NAME_KINDS = {
+    PatternMemo.START_TAG_OPEN_DERIV,
+    PatternMemo.START_TAG_OPEN_RECOVER_DERIV,
+    PatternMemo.START_ATTRIBUTE_DERIV,
+  };
+
+  private MemoSnapshot() { }
+
+  /**
+   * Must be called while holding the lock on the builder.
+   */
+  static void write(ValidatorPatternBuilder builder, Pattern start, DataOutput out) throws IOException {
+    builder.numberSchema(start);
+    SchemaNumbering numbering = new SchemaNumbering(builder, start);
+    out.writeInt(MAGIC);
+    out.writeInt(VERSION);
+    out.writeInt(numbering.size());
+    byte[] fingerprint = fingerprint(start);
+    out.write(fingerprint);
+    PatternWriter writer = new PatternWriter(numbering, out);
+    List<PatternMemo> memos = new ArrayList<PatternMemo>();
+    for (PatternMemo memo : builder.getPatternMemos()) {
+      if (writer.write(memo.getPattern()) >= 0)
+        memos.add(memo);
+    }
+    out.writeByte(END);
+    Map<Pattern, Integer> ids = writer.ids;
+    out.writeInt(memos.size());
+    for (PatternMemo memo : memos) {
+      out.writeInt(ids.get(memo.getPattern()));
+      for (int kind : KINDS) {
+        PatternMemo target = memo.getMemoized(kind);
+        if (target != null && ids.containsKey(target.getPattern())) {
+          out.writeByte(kind);
+          out.writeInt(ids.get(target.getPattern()));
+        }
+      }
+      for (int kind : NAME_KINDS) {
+        NameMemoMap map = memo.getMemoizedMap(kind);
+        if (map == null)
+          continue;
+        for (int i = 0, len = map.getCapacity(); i < len; i++) {
+          Name name = map.getName(i);
+          if (name == null)
+            continue;
+          Integer targetId = ids.get(map.getMemo(i).getPattern());
+          if (targetId != null) {
+            out.writeByte(kind);
+            Utf8.writeString(out, name.getNamespaceUri());
+            Utf8.writeString(out, name.getLocalName());
+            out.writeInt(targetId);
+          }
+        }
+      }
+      DataDerivType ddt = memo.getMemoizedDataDerivType();
+      if (ddt instanceof ValueDataDerivType) {
+        for (Map.Entry<String, PatternMemo> entry : ((ValueDataDerivType)ddt).getLexicalMap().entrySet()) {
+          Integer targetId = ids.get(entry.getValue().getPattern());
+          if (targetId != null) {
+            out.writeByte(VALUE);
+            Utf8.writeString(out, entry.getKey());
+            out.writeInt(targetId);
+          }
+        }
+      }
+      out.writeByte(END_MEMO);
+    }
+  }
+
+  /**
+   * Writes the patterns built while computing derivatives.
+   */
+  static private class PatternWriter {
+    private final Map<Pattern, Integer> ids;
+    private final DataOutput out;
+    private int nextId;
+
+    PatternWriter(SchemaNumbering numbering, DataOutput out) {
+      this.ids = new HashMap<Pattern, Integer>(numbering.getIds());
+      this.out = out;
+      this.nextId = numbering.size();
+    }
+
+    /**
+     * Writes a pattern, if it has not already been written, and returns its id, or -1 if it is
+     * not a kind of pattern that can be written.
+     */
+    int write(Pattern p) throws IOException {
+      Integer id = ids.get(p);
+      if (id != null)
+        return id;
+      int result = -1;
+      if (p instanceof OneOrMorePattern) {
+        int operandId = write(((OneOrMorePattern)p).getOperand());
+        if (operandId >= 0) {
+          out.writeByte(ONE_OR_MORE);
+          out.writeInt(operandId);
+          result = nextId++;
+        }
+      }
+      else {
+        int kind = binaryKind(p);
+        if (kind >= 0) {
+          int operand1Id = write(((BinaryPattern)p).getOperand1());
+          int operand2Id = write(((BinaryPattern)p).getOperand2());
+          if (operand1Id >= 0 && operand2Id >= 0) {
+            out.writeByte(kind);
+            out.writeInt(operand1Id);
+            out.writeInt(operand2Id);
+            result = nextId++;
+          }
+        }
+      }
+      ids.put(p, result);
+      return result;
+    }
+
+    private static int binaryKind(Pattern p) {
+      if (p instanceof ChoicePattern)
+        return CHOICE;
+      if (p instanceof GroupPattern)
+        return GROUP;
+      if (p instanceof InterleavePattern)
+        return INTERLEAVE;
+      if (p instanceof AfterPattern)
+        return AFTER;
+      return -1;
+    }
+  }
+
+  /**
+   * Returns a digest of the PatternSnapshot of the schema, which identifies the schema
+   * independently of the order in which its patterns were created, and of the scheme by which
+   * the builder orders the alternatives of choices, since choices saved in one order are not
+   * found by a builder that puts their alternatives in another.
+   */
+  private static byte[] fingerprint(Pattern start) throws IOException {
+    MessageDigest md = Digests.newMessageDigest();
+    OutputStream discard = new OutputStream() {
+      public void write(int b) { }
+      public void write(byte[] b, int off, int len) { }
+    };
+    DataOutputStream out = new DataOutputStream(new DigestOutputStream(discard, md));
+    out.writeInt(ValidatorPatternBuilder.CHOICE_ORDER);
+    PatternSnapshot.write(start, null, out);
+    out.flush();
+    return md.digest();
+  }
+
+  /**
+   * Must be called while holding the lock on the builder.
+   *
+   * @return false if the derivatives were saved for a different schema
+   */
+  static boolean read(ValidatorPatternBuilder builder, Pattern start, DataInput in) throws IOException {
+    if (in.readInt() != MAGIC || in.readInt() != VERSION)
+      throw new IOException("not a derivative cache");
+    builder.numberSchema(start);
+    SchemaNumbering numbering = new SchemaNumbering(builder, start);
+    int count = in.readInt();
+    byte[] fingerprint = new byte[DIGEST_LENGTH];
+    in.readFully(fingerprint);
+    if (count != numbering.size() || !Arrays.equals(fingerprint, fingerprint(start)))
+      return false;
+    List<Pattern> patterns = new ArrayList<Pattern>(numbering.getPatterns());
+    for (;;) {
+      int kind = in.readByte();
+      if (kind == END)
+        break;
+      Pattern p;
+      switch (kind) {
+      case CHOICE:
+        p = new ChoicePattern(pattern(patterns, in.readInt()), pattern(patterns, in.readInt()));
+        break;
+      case GROUP:
+        p = new GroupPattern(pattern(patterns, in.readInt()), pattern(patterns, in.readInt()));
+        break;
+      case INTERLEAVE:
+        p = new InterleavePattern(pattern(patterns, in.readInt()), pattern(patterns, in.readInt()));
+        break;
+      case AFTER:
+        p = new AfterPattern(pattern(patterns, in.readInt()), pattern(patterns, in.readInt()));
+        break;
+      case ONE_OR_MORE:
+        p = new OneOrMorePattern(pattern(patterns, in.readInt()));
+        break;
+      default:
+        throw new IOException("malformed derivative cache");
+      }
+      patterns.add(builder.interner.intern(p));
+    }
+    ValidationContext vc = new EmptyValidationContext();
+    for (int n = in.readInt(); n > 0; --n) {
+      PatternMemo memo = builder.getPatternMemo(pattern(patterns, in.readInt()));
+      for (;;) {
+        int kind = in.readByte();
+        if (kind == END_MEMO)
+          break;
+        switch (kind) {
+        case PatternMemo.START_TAG_OPEN_DERIV:
+        case PatternMemo.START_TAG_OPEN_RECOVER_DERIV:
+        case PatternMemo.START_ATTRIBUTE_DERIV:
+          {
+            String ns = Utf8.readString(in);
+            Name name = new Name(ns, Utf8.readString(in));
+            memo.putMemoized(kind, name, builder.getPatternMemo(pattern(patterns, in.readInt())));
+          }
+          break;
+        case VALUE:
+          {
+            String str = Utf8.readString(in);
+            PatternMemo target = builder.getPatternMemo(pattern(patterns, in.readInt()));
+            DataDerivType ddt = memo.dataDerivType();
+            if (ddt instanceof ValueDataDerivType)
+              ((ValueDataDerivType)ddt).putValue(str, vc, target);
+          }
+          break;
+        default:
+          if (kind < 0 || kind > PatternMemo.EMPTY_AFTER)
+            throw new IOException("malformed derivative cache");
+          memo.setMemoized(kind, builder.getPatternMemo(pattern(patterns, in.readInt())));
+          break;
+        }
+      }
+    }
+    return true;
+  }
+
+  private static Pattern pattern(List<Pattern> patterns, int id) throws IOException {
+    if (id < 0 || id >= patterns.size())
+      throw new IOException("malformed derivative cache");
+    return patterns.get(id);
+  }
+
+  /**
+   * The context in which the lexical forms of values are converted back to values; only
+   * datatypes that are not context-dependent are saved.
+   */
+  static private class EmptyValidationContext implements ValidationContext {
+    public String resolveNamespacePrefix(String prefix) {
+      return null;
+    }
+
+    public String getBaseUri() {
+      return null;
+    }
+
+    public boolean isUnparsedEntity(String entityName) {
+      return false;
+    }
+
+    public boolean isNotation(String notationName) {
+      return false;
+    }
+  }
+}
@@ -0,0 +1,91 @@
+package com.thaiopensource.relaxng.pattern;
+
+import com.thaiopensource.util.VoidValue;
+import com.thaiopensource.xml.util.Name;
+
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Collects the names of the elements and attributes whose name classes contain
+ * simple names, in the order in which they occur in a pattern.
+ */
+class NameCollector extends AbstractPatternFunction<VoidValue> {
+  private final Set<Name> elementNames = new LinkedHashSet<Name>();
+  private final Set<Name> attributeNames = new LinkedHashSet<Name>();
+  private final Set<Pattern> processed = new HashSet<Pattern>();
+  private Set<Name> target;
+  private final NameClassVisitor nameClassVisitor = new NameClassVisitor() {
+    public void visitChoice(NameClass nc1, NameClass nc2) {
+      nc1.accept(this);
+      nc2.accept(this);
+    }
+
+    public void visitName(Name name) {
+      target.add(name);
+    }
+
+    public void visitNsName(String ns) { }
+    public void visitNsNameExcept(String ns, NameClass nc) { }
+    public void visitAnyName() { }
+    public void visitAnyNameExcept(NameClass nc) { }
+    public void visitNull() { }
+    public void visitError() { }
+  };
+
+  public VoidValue caseElement(ElementPattern p) {
+    if (processed.add(p)) {
+      target = elementNames;
+      p.getNameClass().accept(nameClassVisitor);
+      p.getContent().apply(this);
+    }
+    return VoidValue.VOID;
+  }
+
+  public VoidValue caseAttribute(AttributePattern p) {
+    target = attributeNames;
+    p.getNameClass().accept(nameClassVisitor);
+    return VoidValue.VOID;
+  }
+
+  private VoidValue caseBinary(BinaryPattern p) {
+    if (processed.add(p)) {
+      p.getOperand1().apply(this);
+      p.getOperand2().apply(this);
+    }
+    return VoidValue.VOID;
+  }
+
+  public VoidValue caseGroup(GroupPattern p) {
+    return caseBinary(p);
+  }
+
+  public VoidValue caseInterleave(InterleavePattern p) {
+    return caseBinary(p);
+  }
+
+  public VoidValue caseChoice(ChoicePattern p) {
+    return caseBinary(p);
+  }
+
+  public VoidValue caseAfter(AfterPattern p) {
+    return caseBinary(p);
+  }
+
+  public VoidValue caseOneOrMore(OneOrMorePattern p) {
+    return p.getOperand().apply(this);
+  }
+
+  public VoidValue caseOther(Pattern p) {
+    return VoidValue.VOID;
+  }
+
+  Set<Name> getElementNames() {
+    return elementNames;
+  }
+
+  Set<Name> getAttributeNames() {
+    return attributeNames;
+  }
+}
@@ -0,0 +1,105 @@
+package com.thaiopensource.relaxng.pattern;
+
+import com.thaiopensource.xml.util.Name;
+
+/**
+ * Computes masks that over-approximate the set of names that can match a pattern: each name
+ * is hashed to one of 63 bits, and a wildcard sets them all.  If the bit of a name is not set
+ * in the mask of a pattern, the derivative of the pattern with respect to the name is
+ * notAllowed.  The mask of a pattern is computed from the masks of its operands, which are
+ * memoized in their PatternMemos, so computing the mask of a new derivative is cheap.
+ */
+final class NameMask {
+  /**
+   * Set in every mask that has been computed, so that a mask of 0 means not yet computed.
+   */
+  static final long COMPUTED = 1L << 63;
+  private static final long ALL = ~0L;
+
+  private NameMask() { }
+
+  static long bit(Name name) {
+    int h = name.hashCode();
+    h ^= h >>> 16;
+    return 1L << ((h & 0x7FFFFFFF) % 63);
+  }
+
+  static boolean mayContain(long mask, long bit) {
+    return (mask & bit) != 0;
+  }
+
+  /**
+   * Computes the mask of the names of possible start-tags, consistently with
+   * PossibleStartTagNamesFunction.
+   */
+  static long startTagNameMask(ValidatorPatternBuilder builder, Pattern p) {
+    if (p instanceof ElementPattern)
+      return nameClassMask(((ElementPattern)p).getNameClass());
+    if (p instanceof GroupPattern) {
+      GroupPattern gp = (GroupPattern)p;
+      long mask = builder.getPatternMemo(gp.getOperand1()).startTagNameMask();
+      if (gp.getOperand1().isNullable())
+        mask |= builder.getPatternMemo(gp.getOperand2()).startTagNameMask();
+      return mask;
+    }
+    if (p instanceof ChoicePattern || p instanceof InterleavePattern)
+      return builder.getPatternMemo(((BinaryPattern)p).getOperand1()).startTagNameMask()
+             | builder.getPatternMemo(((BinaryPattern)p).getOperand2()).startTagNameMask();
+    if (p instanceof AfterPattern)
+      return builder.getPatternMemo(((AfterPattern)p).getOperand1()).startTagNameMask();
+    if (p instanceof OneOrMorePattern)
+      return builder.getPatternMemo(((OneOrMorePattern)p).getOperand()).startTagNameMask();
+    return COMPUTED;
+  }
+
+  /**
+   * Computes the mask of the names of possible attributes, consistently with
+   * PossibleAttributeNamesFunction.
+   */
+  static long attributeNameMask(ValidatorPatternBuilder builder, Pattern p) {
+    if (p instanceof AttributePattern)
+      return nameClassMask(((AttributePattern)p).getNameClass());
+    if (p instanceof ChoicePattern || p instanceof InterleavePattern || p instanceof GroupPattern)
+      return builder.getPatternMemo(((BinaryPattern)p).getOperand1()).attributeNameMask()
+             | builder.getPatternMemo(((BinaryPattern)p).getOperand2()).attributeNameMask();
+    if (p instanceof AfterPattern)
+      return builder.getPatternMemo(((AfterPattern)p).getOperand1()).attributeNameMask();
+    if (p instanceof OneOrMorePattern)
+      return builder.getPatternMemo(((OneOrMorePattern)p).getOperand()).attributeNameMask();
+    return COMPUTED;
+  }
+
+  private static long nameClassMask(NameClass nc) {
+    final long[] mask = { COMPUTED };
+    nc.accept(new NameClassVisitor() {
+      public void visitChoice(NameClass nc1, NameClass nc2) {
+        nc1.accept(this);
+        nc2.accept(this);
+      }
+
+      public void visitName(Name name) {
+        mask[0] |= bit(name);
+      }
+
+      public void visitNsName(String ns) {
+        mask[0] = ALL;
+      }
+
+      public void visitNsNameExcept(String ns, NameClass nc) {
+        mask[0] = ALL;
+      }
+
+      public void visitAnyName() {
+        mask[0] = ALL;
+      }
+
+      public void visitAnyNameExcept(NameClass nc) {
+        mask[0] = ALL;
+      }
+
+      public void visitNull() { }
+      public void visitError() { }
+    });
+    return mask[0];
+  }
+}
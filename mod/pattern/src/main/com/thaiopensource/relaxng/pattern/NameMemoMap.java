@@ -0,0 +1,118 @@
+package com.thaiopensource.relaxng.pattern;
+
+import com.thaiopensource.xml.util.Name;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A map from Names to PatternMemos holding the start-tag or attribute transitions of a
+ * PatternMemo.  Names and memos are kept in a single array, alternating.  Up to INLINE_SIZE
+ * entries are kept in order and searched linearly, which is the common case; beyond that,
+ * the array is an open-addressing hash table.  Names are compared by identity before they are
+ * compared by value, so canonical Names from a NameTable are found without comparing strings.
+ * <p>
+ * Lookups do not lock.  Entries are added only while holding the lock on the PatternMemo.  The
+ * array is an AtomicReferenceArray, and the memo of an entry is stored before its name, so a
+ * lookup that sees the name of an entry also sees the memo, fully constructed; a lookup racing
+ * with the addition of an entry may not see the entry, in which case it returns null, and the
+ * caller computes the derivative and adds it, unless it finds it when it looks again while
+ * holding the lock.
+ */
+final class NameMemoMap {
+  private static final int INLINE_SIZE = 4;
+  private final AtomicReferenceArray<Object> entries;
+  // number of slots, a power of 2 if hashed
+  private final int capacity;
+  private final boolean hashed;
+  private int size;
+
+  NameMemoMap() {
+    this(INLINE_SIZE, false);
+  }
+
+  private NameMemoMap(int capacity, boolean hashed) {
+    this.entries = new AtomicReferenceArray<Object>(capacity * 2);
+    this.capacity = capacity;
+    this.hashed = hashed;
+  }
+
+  PatternMemo get(Name name) {
+    if (!hashed) {
+      for (int i = 0; i < entries.length(); i += 2) {
+        Object key = entries.get(i);
+        if (key == null)
+          return null;
+        if (key == name || key.equals(name))
+          return (PatternMemo)entries.get(i + 1);
+      }
+      return null;
+    }
+    for (int i = firstSlot(name);; i = (i + 1) & (capacity - 1)) {
+      Object key = entries.get(i * 2);
+      if (key == null)
+        return null;
+      if (key == name || key.equals(name))
+        return (PatternMemo)entries.get(i * 2 + 1);
+    }
+  }
+
+  /**
+   * Adds an entry for a name that is not in the map.  Returns the map to be used in place
+   * of this one, which is a new map if this one is full.  Must be called while holding the lock
+   * on the PatternMemo.
+   */
+  NameMemoMap put(Name name, PatternMemo memo) {
+    if (hashed ? (size + 1) * 2 > capacity : size == capacity) {
+      NameMemoMap map = new NameMemoMap(hashed ? capacity * 2 : INLINE_SIZE * 4, true);
+      for (int i = 0; i < capacity; i++) {
+        if (entries.get(i * 2) != null)
+          map.add((Name)entries.get(i * 2), (PatternMemo)entries.get(i * 2 + 1));
+      }
+      map.add(name, memo);
+      return map;
+    }
+    add(name, memo);
+    return this;
+  }
+
+  private void add(Name name, PatternMemo memo) {
+    int i;
+    if (!hashed)
+      i = size;
+    else {
+      for (i = firstSlot(name); entries.get(i * 2) != null; i = (i + 1) & (capacity - 1))
+        ;
+    }
+    // store the memo first, so that a lookup that sees the name sees the memo
+    entries.set(i * 2 + 1, memo);
+    entries.set(i * 2, name);
+    size++;
+  }
+
+  private int firstSlot(Name name) {
+    int h = name.hashCode();
+    return (h ^ (h >>> 16)) & (capacity - 1);
+  }
+
+  int size() {
+    return size;
+  }
+
+  /**
+   * Returns the number of slots; a slot holds either an entry or nothing.
+   */
+  int getCapacity() {
+    return capacity;
+  }
+
+  /**
+   * Returns the name in a slot, or null if the slot is empty.
+   */
+  Name getName(int slot) {
+    return (Name)entries.get(slot * 2);
+  }
+
+  PatternMemo getMemo(int slot) {
+    return (PatternMemo)entries.get(slot * 2 + 1);
+  }
+}
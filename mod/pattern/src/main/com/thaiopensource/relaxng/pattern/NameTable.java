@@ -0,0 +1,88 @@
+package com.thaiopensource.relaxng.pattern;
+
+import com.thaiopensource.xml.util.Name;
+
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * A table of canonical Names for the names declared in a schema, so that validating an element
+ * or attribute whose name is declared does not need to allocate a Name.  A lookup compares
+ * the namespace URI and local name by identity before comparing them by value; SAX parsers
+ * usually intern these strings, so the identity comparison usually succeeds.  A NameTable
+ * is immutable and so can be shared between threads.
+ */
+public final class NameTable {
+  private final Name[] table;
+  private final int mask;
+
+  NameTable(Collection<Name> names) {
+    int size = 4;
+    while (size < names.size() * 2)
+      size <<= 1;
+    table = new Name[size];
+    mask = size - 1;
+    for (Name name : names) {
+      int i = name.hashCode() & mask;
+      while (table[i] != null) {
+        if (table[i].equals(name))
+          break;
+        i = (i + 1) & mask;
+      }
+      table[i] = name;
+    }
+  }
+
+  /**
+   * Returns a NameTable for the names of the elements and attributes of a pattern.
+   */
+  static NameTable forPattern(Pattern start) {
+    NameCollector collector = new NameCollector();
+    start.apply(collector);
+    Set<Name> names = new LinkedHashSet<Name>(collector.getElementNames());
+    names.addAll(collector.getAttributeNames());
+    return new NameTable(names);
+  }
+
+  /**
+   * Returns a NameTable for the names of the elements and attributes of an IdTypeMap, or null
+   * if the names in the IdTypeMap are not known.  Names that are not in the table have ID type
+   * ID_TYPE_NULL.
+   */
+  public static NameTable forIdTypeMap(IdTypeMap idTypeMap) {
+    if (!(idTypeMap instanceof IdTypeMapBuilder.IdTypeMapImpl))
+      return null;
+    Set<Name> names = new LinkedHashSet<Name>();
+    for (IdTypeMapBuilder.ScopedName sn : ((IdTypeMapBuilder.IdTypeMapImpl)idTypeMap).table.keySet()) {
+      names.add(sn.elementName);
+      names.add(sn.attributeName);
+    }
+    return new NameTable(names);
+  }
+
+  /**
+   * Returns the canonical Name, or null if the name is not in the table.
+   */
+  public Name get(String namespaceUri, String localName) {
+    for (int i = (namespaceUri.hashCode() ^ localName.hashCode()) & mask;; i = (i + 1) & mask) {
+      Name name = table[i];
+      if (name == null)
+        return null;
+      if (name.getLocalName() == localName && name.getNamespaceUri() == namespaceUri)
+        return name;
+      if (name.getLocalName().equals(localName) && name.getNamespaceUri().equals(namespaceUri))
+        return name;
+    }
+  }
+
+  /**
+   * Returns the canonical Name, or a new Name if the name is not in the table.
+   */
+  public Name getName(String namespaceUri, String localName) {
+    Name name = get(namespaceUri, localName);
+    if (name == null)
+      return new Name(namespaceUri, localName);
+    return name;
+  }
+}
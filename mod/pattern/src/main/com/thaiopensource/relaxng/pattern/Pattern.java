@@ -22,12 +22,27 @@ public abstract class Pattern {
   static final int LIST_HASH_CODE = 37;
   static final int AFTER_HASH_CODE = 41;
 
+  /*
+   * The hash code of a pattern made from other patterns depends on the order of its
+   * operands and is well mixed, so that, for example, choice(a, b), choice(b, a) and
+   * group(a, b) are unlikely to collide in the PatternInterner.
+   */
   static int combineHashCode(int hc1, int hc2, int hc3) {
-    return hc1 * hc2 * hc3;
+    return mix(combineHashCode(hc1, hc2) + hc3 * 0x9E3779B9);
   }
 
   static int combineHashCode(int hc1, int hc2) {
-    return hc1 * hc2;
+    return mix(hc1 * 0x85EBCA6B + hc2);
+  }
+
+  // the finalization step of MurmurHash3
+  private static int mix(int h) {
+    h ^= h >>> 16;
+    h *= 0x85EBCA6B;
+    h ^= h >>> 13;
+    h *= 0xC2B2AE35;
+    h ^= h >>> 16;
+    return h;
   }
 
   static final int EMPTY_CONTENT_TYPE = 0;
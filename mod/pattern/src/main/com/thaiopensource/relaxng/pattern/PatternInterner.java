@@ -1,68 +1,69 @@
 package com.thaiopensource.relaxng.pattern;
 
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
+/**
+ * Maps each pattern to the canonical pattern that is the same as it.  Lookups do not
+ * lock, and concurrent interning of the same pattern yields the same canonical pattern.
+ * An interner may have a parent, whose patterns it shares rather than copies; the parent
+ * is consulted first, and patterns that it does not have are added to the child.
+ */
 final class PatternInterner {
-  private static final int INIT_SIZE = 256;
-  private static final float LOAD_FACTOR = 0.3f;
-  private Pattern[] table;
-  private int used;
-  private int usedLimit;
+  private final PatternInterner parent;
+  private volatile ConcurrentMap<Key, Pattern> table = new ConcurrentHashMap<Key, Pattern>();
+
+  /**
+   * Wraps a pattern so that keys are equal when the patterns are the same.
+   */
+  static private final class Key {
+    private final Pattern p;
+
+    Key(Pattern p) {
+      this.p = p;
+    }
+
+    public int hashCode() {
+      return p.patternHashCode();
+    }
+
+    public boolean equals(Object obj) {
+      return obj instanceof Key && p.samePattern(((Key)obj).p);
+    }
+  }
 
   PatternInterner() {
-    table = null;
-    used = 0;
-    usedLimit = 0;
+    this.parent = null;
   }
 
   PatternInterner(PatternInterner parent) {
-    table = parent.table;
-    if (table != null)
-      table = table.clone();
-    used = parent.used;
-    usedLimit = parent.usedLimit;
+    this.parent = parent;
   }
 
   Pattern intern(Pattern p) {
-    int h;
-
-    if (table == null) {
-      table = new Pattern[INIT_SIZE];
-      usedLimit = (int)(INIT_SIZE * LOAD_FACTOR);
-      h = firstIndex(p);
-    }
-    else {
-      for (h = firstIndex(p); table[h] != null; h = nextIndex(h)) {
-	if (p.samePattern(table[h]))
-	  return table[h];
-      }
-    }
-    if (used >= usedLimit) {
-      // rehash
-      Pattern[] oldTable = table;
-      table = new Pattern[table.length << 1];
-      for (int i = oldTable.length; i > 0;) {
-	--i;
-	if (oldTable[i] != null) {
-	  int j;
-	  for (j = firstIndex(oldTable[i]); table[j] != null; j = nextIndex(j))
-	    ;
-	  table[j] = oldTable[i];
-	}
-      }
-      for (h = firstIndex(p); table[h] != null; h = nextIndex(h))
-	;
-      usedLimit = (int)(table.length * LOAD_FACTOR);
+    Key key = new Key(p);
+    for (PatternInterner i = parent; i != null; i = i.parent) {
+      Pattern tem = i.table.get(key);
+      if (tem != null)
+        return tem;
     }
-    used++;
-    table[h] = p;
-    return p;
+    Pattern tem = table.putIfAbsent(key, p);
+    return tem == null ? p : tem;
   }
 
-  private int firstIndex(Pattern p) {
-    return p.patternHashCode() & (table.length - 1);
+  /**
+   * Returns the number of patterns interned by this interner, not counting those of its parent.
+   */
+  int size() {
+    return table.size();
   }
 
-  private int nextIndex(int i) {
-    return i == 0 ? table.length - 1 : i - 1;
+  /**
+   * Starts interning patterns afresh, forgetting the patterns interned by this interner, but not
+   * those of its parent.  The table of the old generation is left as it is rather than cleared,
+   * since threads may still be interning in it.
+   */
+  void startGeneration() {
+    table = new ConcurrentHashMap<Key, Pattern>();
   }
 }
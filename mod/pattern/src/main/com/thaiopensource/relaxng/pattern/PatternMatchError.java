@@ -0,0 +1,532 @@
+package com.thaiopensource.relaxng.pattern;
+
+import com.thaiopensource.datatype.Datatype2;
+import com.thaiopensource.relaxng.match.MatchContext;
+import com.thaiopensource.relaxng.match.MatchContextSnapshot;
+import com.thaiopensource.relaxng.match.MatchError;
+import com.thaiopensource.util.Equal;
+import com.thaiopensource.util.Localizer;
+import com.thaiopensource.xml.util.Name;
+import org.relaxng.datatype.Datatype;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A MatchError recorded by a PatternMatcher.  This keeps the state of the matcher at the time of
+ * the error, from which the message is constructed when it is first asked for.  The namespace
+ * declarations needed to construct the message are captured from the MatchContext if it is a
+ * MatchContextSnapshot, which is cheap; with any other MatchContext, the message is constructed
+ * immediately.  The PatternMemo is never cleared, so its derivatives can still be computed
+ * after the builder has discarded its memoized states.
+ */
+final class PatternMatchError implements MatchError {
+  // Values for argType: what follows the qName in the arguments of the message
+  static final int NO_ARG = 0;
+  static final int EXPECTED_CONTENT = 1;
+  static final int EXPECTED_ATTRIBUTES = 2;
+  static final int DATA_FAILURES = 3;
+  // the required element or attribute names that are missing; if there are none,
+  // as EXPECTED_CONTENT or EXPECTED_ATTRIBUTES
+  static final int MISSING_ELEMENTS = 4;
+  static final int MISSING_ATTRIBUTES = 5;
+
+  // the key if there are no missing names
+  private final String key;
+  // for MISSING_ELEMENTS and MISSING_ATTRIBUTES, the keys if one or more than one name is missing
+  private final String[] missingKeys;
+  private final int argType;
+  private final PatternMemo memo;
+  private final ValidatorPatternBuilder builder;
+  private final Name name;
+  // the qName supplied by the caller, if any
+  private final String givenQName;
+  private final boolean isAttribute;
+  private final MatchContext context;
+  // for DATA_FAILURES
+  private final String value;
+  private final List<DataDerivFailure> dataDerivFailureList;
+  private String qName;
+  private Set<Name> missingNames;
+  private String message;
+
+  PatternMatchError(String key, String[] missingKeys, int argType, PatternMemo memo,
+                    ValidatorPatternBuilder builder, Name name, String qName, boolean isAttribute,
+                    MatchContext context, String value, List<DataDerivFailure> dataDerivFailureList) {
+    this.key = key;
+    this.missingKeys = missingKeys;
+    this.argType = argType;
+    this.memo = memo;
+    this.builder = builder;
+    this.name = name;
+    this.givenQName = qName == null || qName.length() == 0 ? null : qName;
+    this.qName = givenQName;
+    this.isAttribute = isAttribute;
+    this.value = value;
+    this.dataDerivFailureList = dataDerivFailureList;
+    if (context instanceof MatchContextSnapshot)
+      this.context = ((MatchContextSnapshot)context).snapshot();
+    else {
+      this.context = context;
+      if (context != null)
+        message = formatMessage();
+    }
+  }
+
+  public String getKey() {
+    switch (argType) {
+    case MISSING_ELEMENTS:
+    case MISSING_ATTRIBUTES:
+      Set<Name> missing = getMissingNames();
+      if (!missing.isEmpty())
+        return missingKeys[missing.size() == 1 ? 0 : 1];
+      break;
+    }
+    return key;
+  }
+
+  public Name getName() {
+    return name;
+  }
+
+  public String getQName() {
+    if (qName == null && name != null) {
+      final String ns = name.getNamespaceUri();
+      final String localName = name.getLocalName();
+      if (ns.length() == 0 || (!isAttribute && ns.equals(context.resolveNamespacePrefix(""))))
+        qName = localName;
+      else {
+        String prefix = context.getPrefix(ns);
+        if (prefix != null)
+          qName = prefix + ":" + localName;
+        // this shouldn't happen unless the parser isn't supplying prefixes properly
+        else
+          qName = "{" + ns + "}" + localName;
+      }
+    }
+    return qName;
+  }
+
+  public com.thaiopensource.relaxng.match.NameClass getExpectedNames() {
+    switch (argType) {
+    case EXPECTED_CONTENT:
+    case MISSING_ELEMENTS:
+      return memo.possibleStartTagNames();
+    case EXPECTED_ATTRIBUTES:
+    case MISSING_ATTRIBUTES:
+      return memo.possibleAttributeNames();
+    }
+    return null;
+  }
+
+  public Set<Name> getMissingNames() {
+    if (missingNames == null) {
+      switch (argType) {
+      case MISSING_ELEMENTS:
+        missingNames = memo.getPattern().apply(builder.getRequiredElementsFunction());
+        break;
+      case MISSING_ATTRIBUTES:
+        missingNames = memo.getPattern().apply(builder.getRequiredAttributesFunction());
+        break;
+      default:
+        missingNames = Collections.emptySet();
+        break;
+      }
+    }
+    return missingNames;
+  }
+
+  public String getMessage() {
+    if (message == null)
+      message = formatMessage();
+    return message;
+  }
+
+  public String toString() {
+    return getMessage();
+  }
+
+  /**
+   * Two errors are equal if they are the same kind of error, relating to the same name, found
+   * in the same state, so that their messages would be the same, but for the namespace prefixes
+   * they use.  The messages themselves are not compared, since that would construct them.
+   */
+  public boolean equals(Object obj) {
+    if (!(obj instanceof PatternMatchError))
+      return false;
+    PatternMatchError other = (PatternMatchError)obj;
+    return (key.equals(other.key)
+            && argType == other.argType
+            && memo == other.memo
+            && isAttribute == other.isAttribute
+            && Equal.equal(name, other.name)
+            && Equal.equal(givenQName, other.givenQName)
+            && Equal.equal(value, other.value)
+            && Equal.equal(dataDerivFailureList, other.dataDerivFailureList));
+  }
+
+  public int hashCode() {
+    int hc = key.hashCode() ^ memo.hashCode();
+    if (name != null)
+      hc ^= name.hashCode();
+    return hc;
+  }
+
+  private String formatMessage() {
+    List<String> args = new ArrayList<String>();
+    if (name != null)
+      args.add(quoteQName(getQName()));
+    switch (argType) {
+    case EXPECTED_CONTENT:
+      args.add(expectedContent());
+      break;
+    case EXPECTED_ATTRIBUTES:
+      args.add(expectedAttributes());
+      break;
+    case DATA_FAILURES:
+      args.add(formatDataDerivFailures(value));
+      break;
+    case MISSING_ELEMENTS:
+      if (getMissingNames().isEmpty())
+        args.add(expectedContent());
+      else
+        args.add(formatNames(missingNames, FORMAT_NAMES_ELEMENT|FORMAT_NAMES_AND, context));
+      break;
+    case MISSING_ATTRIBUTES:
+      if (getMissingNames().isEmpty())
+        args.add(expectedAttributes());
+      else
+        args.add(formatNames(missingNames, FORMAT_NAMES_ATTRIBUTE|FORMAT_NAMES_AND, context));
+      break;
+    }
+    return localizer().message(getKey(), args.toArray(new String[args.size()]));
+  }
+
+  static private final int UNDEFINED_TOKEN_INDEX = -3;
+  static private final int INCONSISTENT_TOKEN_INDEX = -2;
+
+  private String formatDataDerivFailures(String str) {
+    if (dataDerivFailureList.size() == 0)
+      return "";
+    if (dataDerivFailureList.size() > 1) {
+      // remove duplicates
+      Set<DataDerivFailure> failures = new HashSet<DataDerivFailure>();
+      failures.addAll(dataDerivFailureList);
+      dataDerivFailureList.clear();
+      dataDerivFailureList.addAll(failures);
+    }
+    List<String> stringValues = new ArrayList<String>();
+    Set<Name> names = new HashSet<Name>();
+    List<String> messages = new ArrayList<String>();
+    int tokenIndex = UNDEFINED_TOKEN_INDEX;
+    int tokenStart = -1;
+    int tokenEnd = -1;
+    for (DataDerivFailure fail : dataDerivFailureList) {
+      Datatype dt = fail.getDatatype();
+      String s = fail.getStringValue();
+      if (s != null) {
+        Object value = fail.getValue();
+        // we imply some special semantics for Datatype2
+        if (value instanceof Name && dt instanceof Datatype2)
+          names.add((Name)value);
+        else if (value instanceof String && dt instanceof Datatype2)
+          stringValues.add((String)value);
+        else
+          stringValues.add(s);
+      }
+      else {
+        String message = fail.getMessage();
+        // XXX this might produce strangely worded messages for 3rd party datatype libraries
+        if (message != null)
+          messages.add(message);
+        else if (fail.getExcept() != null)
+          return ""; // XXX do better for except
+        else
+          messages.add(localizer().message("require_datatype",
+                                           fail.getDatatypeName().getLocalName()));
+      }
+      switch (tokenIndex) {
+      case INCONSISTENT_TOKEN_INDEX:
+        break;
+      case UNDEFINED_TOKEN_INDEX:
+        tokenIndex = fail.getTokenIndex();
+        tokenStart = fail.getTokenStart();
+        tokenEnd = fail.getTokenEnd();
+        break;
+      default:
+        if (tokenIndex != fail.getTokenIndex())
+          tokenIndex = INCONSISTENT_TOKEN_INDEX;
+        break;
+      }
+    }
+    if (stringValues.size() > 0) {
+      Collections.sort(stringValues);
+      for (int i = 0; i < stringValues.size(); i++)
+        stringValues.set(i, quoteValue(stringValues.get(i)));
+      messages.add(localizer().message("require_values",
+                                       formatList(stringValues, "or")));
+    }
+    if (names.size() > 0)
+      // XXX provide the strings as well so that a sensible prefix can be chosen if none is declared
+      messages.add(localizer().message("require_qnames",
+                                       formatNames(names,
+                                                   FORMAT_NAMES_OR|FORMAT_NAMES_ELEMENT,
+                                                   context)));
+    if (messages.size() == 0)
+      return "";
+    String arg = formatList(messages, "or");
+    // XXX should do something with inconsistent token index (e.g. list { integer+ } | "foo" )
+    if (tokenIndex >= 0 && tokenStart >= 0 && tokenEnd <= str.length()) {
+      if (tokenStart == str.length())
+        return localizer().message("missing_token", arg);
+      return localizer().message("token_failures",
+                                 quoteValue(str.substring(tokenStart, tokenEnd)),
+                                 arg);
+    }
+    return localizer().message("data_failures", arg);
+  }
+
+  private String quoteValue(String str) {
+    StringBuilder buf = new StringBuilder();
+    appendAttributeValue(buf, str);
+    return buf.toString();
+  }
+
+  private String expectedAttributes() {
+    NormalizedNameClass nnc = memo.possibleAttributeNames();
+    if (nnc.isEmpty())
+      return "";
+    Set<Name> expectedNames = nnc.getIncludedNames();
+    if (!expectedNames.isEmpty())
+      return localizer().message(nnc.isAnyNameIncluded() || !nnc.getIncludedNamespaces().isEmpty()
+                                 ? "expected_attribute_or_other_ns"
+                                 : "expected_attribute",
+                                 formatNames(expectedNames,
+                                             FORMAT_NAMES_ATTRIBUTE|FORMAT_NAMES_OR, context));
+    return "";
+  }
+
+  private String expectedContent() {
+    List<String> expected = new ArrayList<String>();
+    if (!memo.endTagDeriv().isNotAllowed())
+      expected.add(localizer().message("element_end_tag"));
+    // getContentType isn't so well-defined on after patterns
+    switch (memo.emptyAfter().getPattern().getContentType()) {
+    case Pattern.MIXED_CONTENT_TYPE:
+      // A pattern such as (element foo { empty }, text) has a MIXED_CONTENT_TYPE
+      // but text is not allowed everywhere.
+      if (!memo.mixedTextDeriv().isNotAllowed())
+        expected.add(localizer().message("text"));
+      break;
+    case Pattern.DATA_CONTENT_TYPE:
+      expected.add(localizer().message("data"));
+      break;
+    }
+    NormalizedNameClass nnc = memo.possibleStartTagNames();
+    Set<Name> expectedNames = nnc.getIncludedNames();
+    // XXX say something about wildcards
+    if (!expectedNames.isEmpty()) {
+      expected.add(localizer().message("element_list",
+                                       formatNames(expectedNames,
+                                                   FORMAT_NAMES_ELEMENT|FORMAT_NAMES_OR,
+                                                   context)));
+      if (nnc.isAnyNameIncluded() || !nnc.getIncludedNamespaces().isEmpty())
+        expected.add(localizer().message("element_other_ns"));
+    }
+    if (expected.isEmpty())
+      return "";
+    return localizer().message("expected", formatList(expected, "or"));
+  }
+
+  static final String GENERATED_PREFIXES[] = { "ns", "ns-", "ns_", "NS", "NS-", "NS_"};
+
+  // Values for flags parameter of formatNames
+  static private final int FORMAT_NAMES_ELEMENT = 0x0;
+  static private final int FORMAT_NAMES_ATTRIBUTE = 0x1;
+  static private final int FORMAT_NAMES_AND = 0x0;
+  static private final int FORMAT_NAMES_OR = 0x2;
+
+  private static String formatNames(Set<Name> names, int flags, MatchContext context) {
+    if (names.isEmpty())
+      return "";
+    Map<String, String> nsDecls = new HashMap<String, String>();
+    List<String> qNames = generateQNames(names, flags, context, nsDecls);
+    Collections.sort(qNames);
+    int len = qNames.size();
+    for (int i = 0; i < len; i++)
+      qNames.set(i, quoteQName(qNames.get(i)));
+    String result = formatList(qNames, (flags & FORMAT_NAMES_OR) != 0 ? "or" : "and");
+    if (nsDecls.size() != 0)
+      result = localizer().message("qnames_nsdecls", result, formatNamespaceDecls(nsDecls));
+    return result;
+  }
+
+  private static List<String> generateQNames(Set<Name> names, int flags, MatchContext context, Map<String, String> nsDecls) {
+    String defaultNamespace;
+    if ((flags & FORMAT_NAMES_ATTRIBUTE) != 0)
+      defaultNamespace = "";
+    else {
+      defaultNamespace = context.resolveNamespacePrefix("");
+      for (Name name : names) {
+        if (name.getNamespaceUri().length() == 0) {
+          if (defaultNamespace != null)
+            nsDecls.put("", "");
+          defaultNamespace = "";
+          break;
+        }
+      }
+    }
+    List<String> qNames = new ArrayList<String>();
+    Set<String> undeclaredNamespaces = new HashSet<String>();
+    List<Name> namesWithUndeclaredNamespaces = new ArrayList<Name>();
+    for (Name name : names) {
+      String ns = name.getNamespaceUri();
+      String prefix;
+      if (ns.equals(defaultNamespace))
+        prefix = "";
+      else {
+        prefix = context.getPrefix(ns);
+        // If we have no prefix for the namespace and we have an attribute, set the prefix to null
+        // to mark that the namespace is undeclared.
+        if ((flags & FORMAT_NAMES_ATTRIBUTE) != 0 && "".equals(prefix) && !"".equals(ns))
+          prefix = null;
+      }
+      if (prefix == null) {
+        undeclaredNamespaces.add(ns);
+        namesWithUndeclaredNamespaces.add(name);
+      }
+      else
+        qNames.add(makeQName(prefix, name.getLocalName()));
+    }
+    if (namesWithUndeclaredNamespaces.isEmpty())
+      return qNames;
+    if (undeclaredNamespaces.size() == 1 && defaultNamespace == null)
+      nsDecls.put(undeclaredNamespaces.iterator().next(), "");
+    else
+      choosePrefixes(undeclaredNamespaces, context, nsDecls);
+    // now nsDecls has a prefix for each namespace
+    for (Name name : namesWithUndeclaredNamespaces)
+      qNames.add(makeQName(nsDecls.get(name.getNamespaceUri()), name.getLocalName()));
+    return qNames;
+  }
+
+  private static void choosePrefixes(Set<String> nsSet, MatchContext context, Map<String, String> nsDecls) {
+    List<String> nsList = new ArrayList<String>(nsSet);
+    Collections.sort(nsList);
+    int len = nsList.size();
+    String prefix;
+    int tryIndex = 0;
+    do {
+      if (tryIndex < GENERATED_PREFIXES.length)
+        prefix = GENERATED_PREFIXES[tryIndex];
+      else {
+        // default is just to stick as many underscores as necessary at the beginning
+        prefix = "_" + GENERATED_PREFIXES[0];
+        for (int i = GENERATED_PREFIXES.length; i < tryIndex; i++)
+          prefix += "_" + prefix;
+      }
+      for (int i = 0; i < len; i++) {
+        if (context.resolveNamespacePrefix(len == 1 ? prefix : prefix + (i + 1)) != null) {
+          prefix = null;
+          break;
+        }
+      }
+      ++tryIndex;
+    } while (prefix == null);
+    for (int i = 0; i < len; i++) {
+      String ns = nsList.get(i);
+      nsDecls.put(ns, len == 1 ? prefix : prefix + (i + 1));
+    }
+  }
+
+  private static String formatList(List<String> list, String conjunction) {
+    int len = list.size();
+    switch (len) {
+    case 0:
+      return "";
+    case 1:
+      return list.get(0);
+    case 2:
+      return localizer().message(conjunction + "_list_pair", list.get(0), list.get(1));
+    }
+    String s = localizer().message(conjunction + "_list_many_first", list.get(0));
+    for (int i = 1; i < len - 1; i++)
+      s = localizer().message(conjunction + "_list_many_middle", s, list.get(i));
+    return localizer().message(conjunction + "_list_many_last", s, list.get(len - 1));
+  }
+
+  // nsDecls maps namespaces to prefixes
+  private static String formatNamespaceDecls(Map<String, String> nsDecls) {
+    List<String> list = new ArrayList<String>();
+    for (Map.Entry<String, String> entry : nsDecls.entrySet()) {
+      StringBuilder buf = new StringBuilder();
+      String prefix = entry.getValue();
+      if (prefix.length() == 0)
+        buf.append("xmlns");
+      else
+        buf.append("xmlns:").append(prefix);
+      buf.append('=');
+      appendAttributeValue(buf, entry.getKey());
+      list.add(buf.toString());
+    }
+    Collections.sort(list);
+    StringBuilder buf = new StringBuilder();
+    for (String aList : list) {
+      if (buf.length() != 0)
+        buf.append(" ");
+      buf.append(aList);
+    }
+    return buf.toString();
+  }
+
+  private static String quoteForAttributeValue(char c) {
+    switch (c) {
+    case '<':
+      return "&lt;";
+    case '"':
+      return "&quot;";
+    case '&':
+      return "&amp;";
+    case 0xA:
+      return "&#xA;";
+    case 0xD:
+      return "&#xD;";
+    case 0x9:
+      return "&#x9;";
+    }
+    return null;
+  }
+
+  private static StringBuilder appendAttributeValue(StringBuilder buf, String value) {
+    buf.append('"');
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      String quoted = quoteForAttributeValue(c);
+      if (quoted != null)
+        buf.append(quoted);
+      else
+        buf.append(c);
+    }
+    buf.append('"');
+    return buf;
+  }
+
+  private static String makeQName(String prefix, String localName) {
+    if (prefix.length() == 0)
+      return localName;
+    return prefix + ":" + localName;
+  }
+
+  static private String quoteQName(String qName) {
+    return localizer().message("qname", qName);
+  }
+
+  static private Localizer localizer() {
+    return SchemaBuilderImpl.localizer;
+  }
+}
@@ -3,27 +3,50 @@ package com.thaiopensource.relaxng.pattern;
 import com.thaiopensource.xml.util.Name;
 import org.relaxng.datatype.ValidationContext;
 
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 
+/**
+ * Memoizes the derivatives of a Pattern. A PatternMemo is shared by all the threads
+ * using its ValidatorPatternBuilder.  Neither looking up nor computing a derivative locks the
+ * builder: derivatives are published through volatile fields, and the maps of derivatives with
+ * respect to names are changed only while holding the lock on the PatternMemo itself.
+ */
 final class PatternMemo {
   private final Pattern pattern;
   private final ValidatorPatternBuilder builder;
   private final boolean notAllowed;
-  private PatternMemo memoEndAttributes;
-  private PatternMemo memoTextOnly;
-  private PatternMemo memoEndTagDeriv;
-  private PatternMemo memoMixedTextDeriv;
-  private PatternMemo memoIgnoreMissingAttributes;
-  private Map<Name, PatternMemo> startTagOpenDerivMap;
-  private Map<Name, PatternMemo> startTagOpenRecoverDerivMap;
-  private Map<Name, PatternMemo> startAttributeDerivMap;
-  private DataDerivType memoDataDerivType;
-  private PatternMemo memoRecoverAfter;
-  private PatternMemo memoEmptyAfter;
-  private NormalizedNameClass memoPossibleAttributeNames;
-  private NormalizedNameClass memoPossibleStartTagNames;
+  private volatile PatternMemo memoEndAttributes;
+  private volatile PatternMemo memoTextOnly;
+  private volatile PatternMemo memoEndTagDeriv;
+  private volatile PatternMemo memoMixedTextDeriv;
+  private volatile PatternMemo memoIgnoreMissingAttributes;
+  private volatile NameMemoMap startTagOpenDerivMap;
+  private volatile NameMemoMap startTagOpenRecoverDerivMap;
+  private volatile NameMemoMap startAttributeDerivMap;
+  private volatile DataDerivType memoDataDerivType;
+  private volatile PatternMemo memoRecoverAfter;
+  private volatile PatternMemo memoEmptyAfter;
+  private volatile NormalizedNameClass memoPossibleAttributeNames;
+  private volatile NormalizedNameClass memoPossibleStartTagNames;
+  // see NameMask; 0 if not yet computed
+  private volatile long startTagNameMask;
+  private volatile long attributeNameMask;
+  // index in the builder's TransitionTable, if any; volatile, since the memo may already be shared
+  // when the table is compiled
+  private volatile int stateId = -1;
+
+  // kinds of memoized derivative, used by MemoSnapshot
+  static final int END_ATTRIBUTES = 0;
+  static final int TEXT_ONLY = 1;
+  static final int END_TAG_DERIV = 2;
+  static final int MIXED_TEXT_DERIV = 3;
+  static final int IGNORE_MISSING_ATTRIBUTES = 4;
+  static final int RECOVER_AFTER = 5;
+  static final int EMPTY_AFTER = 6;
+  // kinds of memoized derivative with respect to a name
+  static final int START_TAG_OPEN_DERIV = 7;
+  static final int START_TAG_OPEN_RECOVER_DERIV = 8;
+  static final int START_ATTRIBUTE_DERIV = 9;
 
   PatternMemo(Pattern pattern, ValidatorPatternBuilder builder) {
     this.pattern = pattern;
@@ -43,69 +66,83 @@ final class PatternMemo {
     return notAllowed;
   }
 
+  void setStateId(int stateId) {
+    this.stateId = stateId;
+  }
+
+  int getStateId() {
+    return stateId;
+  }
+
   PatternMemo endAttributes() {
-    if (memoEndAttributes == null)
-      memoEndAttributes = applyForPatternMemo(builder.getEndAttributesFunction());
-    return memoEndAttributes;
+    return endAttributes(builder.getEndAttributesFunction());
   }
 
   PatternMemo endAttributes(PatternFunction<Pattern> f) {
-    if (memoEndAttributes == null)
-      memoEndAttributes = applyForPatternMemo(f);
-    return memoEndAttributes;
+    PatternMemo tem = memoEndAttributes;
+    count(END_ATTRIBUTES, tem);
+    if (tem == null)
+      memoEndAttributes = tem = applyForPatternMemo(f);
+    return tem;
   }
 
   PatternMemo ignoreMissingAttributes() {
-    if (memoIgnoreMissingAttributes == null)
-      memoIgnoreMissingAttributes
-	= applyForPatternMemo(builder.getIgnoreMissingAttributesFunction());
-    return memoIgnoreMissingAttributes;
+    return ignoreMissingAttributes(builder.getIgnoreMissingAttributesFunction());
   }
 
   PatternMemo ignoreMissingAttributes(PatternFunction<Pattern> f) {
-    if (memoIgnoreMissingAttributes == null)
-      memoIgnoreMissingAttributes = applyForPatternMemo(f);
-    return memoIgnoreMissingAttributes;
+    PatternMemo tem = memoIgnoreMissingAttributes;
+    count(IGNORE_MISSING_ATTRIBUTES, tem);
+    if (tem == null)
+      memoIgnoreMissingAttributes = tem = applyForPatternMemo(f);
+    return tem;
   }
 
   PatternMemo textOnly() {
-    if (memoTextOnly == null)
-      memoTextOnly = applyForPatternMemo(builder.getTextOnlyFunction());
-    return memoTextOnly;
+    return textOnly(builder.getTextOnlyFunction());
   }
 
   PatternMemo textOnly(PatternFunction<Pattern> f) {
-    if (memoTextOnly == null)
-      memoTextOnly = applyForPatternMemo(f);
-    return memoTextOnly;
+    PatternMemo tem = memoTextOnly;
+    count(TEXT_ONLY, tem);
+    if (tem == null)
+      memoTextOnly = tem = applyForPatternMemo(f);
+    return tem;
   }
 
   PatternMemo endTagDeriv() {
-    if (memoEndTagDeriv == null)
-      memoEndTagDeriv = applyForPatternMemo(builder.getEndTagDerivFunction());
-    return memoEndTagDeriv;
+    return endTagDeriv(builder.getEndTagDerivFunction());
   }
 
   PatternMemo endTagDeriv(PatternFunction<Pattern> f) {
-    if (memoEndTagDeriv == null)
-      memoEndTagDeriv = applyForPatternMemo(f);
-    return memoEndTagDeriv;
+    PatternMemo tem = memoEndTagDeriv;
+    count(END_TAG_DERIV, tem);
+    if (tem == null)
+      memoEndTagDeriv = tem = applyForPatternMemo(f);
+    return tem;
   }
 
-
   PatternMemo mixedTextDeriv() {
-    if (memoMixedTextDeriv == null)
-      memoMixedTextDeriv = applyForPatternMemo(builder.getMixedTextDerivFunction());
-    return memoMixedTextDeriv;
+    return mixedTextDeriv(builder.getMixedTextDerivFunction());
   }
 
   PatternMemo mixedTextDeriv(PatternFunction<Pattern> f) {
-    if (memoMixedTextDeriv == null)
-      memoMixedTextDeriv = applyForPatternMemo(f);
-    return memoMixedTextDeriv;
+    PatternMemo tem = memoMixedTextDeriv;
+    count(MIXED_TEXT_DERIV, tem);
+    if (tem == null)
+      memoMixedTextDeriv = tem = applyForPatternMemo(f);
+    return tem;
   }
 
   PatternMemo startTagOpenDeriv(Name name) {
+    TransitionTable table = builder.getTransitionTable();
+    if (table != null && stateId >= 0) {
+      PatternMemo tem = table.startTagOpenDeriv(stateId, name);
+      if (tem != null) {
+        count(START_TAG_OPEN_DERIV, tem);
+        return tem;
+      }
+    }
     return startTagOpenDeriv(name, null);
   }
 
@@ -114,19 +151,18 @@ final class PatternMemo {
   }
 
   private PatternMemo startTagOpenDeriv(Name name, StartTagOpenDerivFunction f) {
-    PatternMemo tem;
-    if (startTagOpenDerivMap == null)
-      startTagOpenDerivMap = new HashMap<Name, PatternMemo>();
-    else {
-      tem = startTagOpenDerivMap.get(name);
-      if (tem != null)
-	return tem;
+    NameMemoMap map = startTagOpenDerivMap;
+    if (map != null) {
+      PatternMemo tem = map.get(name);
+      if (tem != null) {
+        count(START_TAG_OPEN_DERIV, tem);
+        return tem;
+      }
     }
+    count(START_TAG_OPEN_DERIV, null);
     if (f == null)
       f = new StartTagOpenDerivFunction(name, builder);
-    tem = applyForPatternMemo(f);
-    startTagOpenDerivMap.put(name, tem);
-    return tem;
+    return putMemoized(START_TAG_OPEN_DERIV, name, applyForPatternMemo(f));
   }
 
   PatternMemo startTagOpenRecoverDeriv(Name name) {
@@ -138,22 +174,29 @@ final class PatternMemo {
   }
 
   private PatternMemo startTagOpenRecoverDeriv(Name name, StartTagOpenRecoverDerivFunction f) {
-    PatternMemo tem;
-    if (startTagOpenRecoverDerivMap == null)
-      startTagOpenRecoverDerivMap = new HashMap<Name, PatternMemo>();
-    else {
-      tem = startTagOpenRecoverDerivMap.get(name);
-      if (tem != null)
-	return tem;
+    NameMemoMap map = startTagOpenRecoverDerivMap;
+    if (map != null) {
+      PatternMemo tem = map.get(name);
+      if (tem != null) {
+        count(START_TAG_OPEN_RECOVER_DERIV, tem);
+        return tem;
+      }
     }
+    count(START_TAG_OPEN_RECOVER_DERIV, null);
     if (f == null)
       f = new StartTagOpenRecoverDerivFunction(name, builder);
-    tem = applyForPatternMemo(f);
-    startTagOpenRecoverDerivMap.put(name, tem);
-    return tem;
+    return putMemoized(START_TAG_OPEN_RECOVER_DERIV, name, applyForPatternMemo(f));
   }
 
   PatternMemo startAttributeDeriv(Name name) {
+    TransitionTable table = builder.getTransitionTable();
+    if (table != null && stateId >= 0) {
+      PatternMemo tem = table.startAttributeDeriv(stateId, name);
+      if (tem != null) {
+        count(START_ATTRIBUTE_DERIV, tem);
+        return tem;
+      }
+    }
     return startAttributeDeriv(name, null);
   }
 
@@ -162,25 +205,34 @@ final class PatternMemo {
   }
 
   private PatternMemo startAttributeDeriv(Name name, StartAttributeDerivFunction f) {
-    PatternMemo tem;
-    if (startAttributeDerivMap == null)
-      startAttributeDerivMap = new HashMap<Name, PatternMemo>();
-    else {
-      tem = startAttributeDerivMap.get(name);
-      if (tem != null)
-	return tem;
+    NameMemoMap map = startAttributeDerivMap;
+    if (map != null) {
+      PatternMemo tem = map.get(name);
+      if (tem != null) {
+        count(START_ATTRIBUTE_DERIV, tem);
+        return tem;
+      }
     }
+    count(START_ATTRIBUTE_DERIV, null);
     if (f == null)
       f = new StartAttributeDerivFunction(name, builder);
-    tem = applyForPatternMemo(f);
-    startAttributeDerivMap.put(name, tem);
-    return tem;
+    return putMemoized(START_ATTRIBUTE_DERIV, name, applyForPatternMemo(f));
   }
 
   DataDerivType dataDerivType() {
-    if (memoDataDerivType == null)
-      memoDataDerivType = DataDerivTypeFunction.dataDerivType(builder, pattern).copy();
-    return memoDataDerivType;
+    DataDerivType tem = memoDataDerivType;
+    count(DerivativeStatistics.DATA_DERIV_TYPE, tem);
+    if (tem == null) {
+      // a ValueDataDerivType memoizes derivatives itself, so all threads must use the same one
+      tem = DataDerivTypeFunction.dataDerivType(builder, pattern).copy();
+      synchronized (this) {
+        if (memoDataDerivType == null)
+          memoDataDerivType = tem;
+        else
+          tem = memoDataDerivType;
+      }
+    }
+    return tem;
   }
 
   PatternMemo dataDeriv(String str, ValidationContext vc) {
@@ -192,14 +244,18 @@ final class PatternMemo {
   }
 
   PatternMemo recoverAfter() {
-    if (memoRecoverAfter == null)
-      memoRecoverAfter = applyForPatternMemo(builder.getRecoverAfterFunction());
-    return memoRecoverAfter;
+    PatternMemo tem = memoRecoverAfter;
+    count(RECOVER_AFTER, tem);
+    if (tem == null)
+      memoRecoverAfter = tem = applyForPatternMemo(builder.getRecoverAfterFunction());
+    return tem;
   }
 
   PatternMemo emptyAfter() {
-    if (memoEmptyAfter == null)
-      memoEmptyAfter = applyForPatternMemo(new ApplyAfterFunction(builder) {
+    PatternMemo tem = memoEmptyAfter;
+    count(EMPTY_AFTER, tem);
+    if (tem == null)
+      memoEmptyAfter = tem = applyForPatternMemo(new ApplyAfterFunction(builder) {
         Pattern apply(Pattern p) {
           return builder.makeEmpty();
         }
@@ -209,21 +265,168 @@ final class PatternMemo {
           return p;
         }
       });
-    return memoEmptyAfter;
+    return tem;
   }
 
   NormalizedNameClass possibleStartTagNames() {
-    if (memoPossibleStartTagNames == null)
-      memoPossibleStartTagNames = builder.getPossibleStartTagNamesFunction().applyTo(pattern);
-    return memoPossibleStartTagNames;
+    NormalizedNameClass tem = memoPossibleStartTagNames;
+    // the function keeps state while it is being applied, so each thread uses its own
+    if (tem == null)
+      memoPossibleStartTagNames = tem = new PossibleStartTagNamesFunction().applyTo(pattern);
+    return tem;
   }
 
   NormalizedNameClass possibleAttributeNames() {
-    if (memoPossibleAttributeNames == null)
-      memoPossibleAttributeNames = builder.getPossibleAttributeNamesFunction().applyTo(pattern);
-    return memoPossibleAttributeNames;
+    NormalizedNameClass tem = memoPossibleAttributeNames;
+    if (tem == null)
+      memoPossibleAttributeNames = tem = new PossibleAttributeNamesFunction().applyTo(pattern);
+    return tem;
+  }
+
+  long startTagNameMask() {
+    long mask = startTagNameMask;
+    if (mask == 0)
+      startTagNameMask = mask = NameMask.startTagNameMask(builder, pattern);
+    return mask;
+  }
+
+  long attributeNameMask() {
+    long mask = attributeNameMask;
+    if (mask == 0)
+      attributeNameMask = mask = NameMask.attributeNameMask(builder, pattern);
+    return mask;
+  }
+
+  /**
+   * Returns the memoized derivative of the given kind, or null if it has not been computed.
+   */
+  PatternMemo getMemoized(int kind) {
+    switch (kind) {
+    case END_ATTRIBUTES:
+      return memoEndAttributes;
+    case TEXT_ONLY:
+      return memoTextOnly;
+    case END_TAG_DERIV:
+      return memoEndTagDeriv;
+    case MIXED_TEXT_DERIV:
+      return memoMixedTextDeriv;
+    case IGNORE_MISSING_ATTRIBUTES:
+      return memoIgnoreMissingAttributes;
+    case RECOVER_AFTER:
+      return memoRecoverAfter;
+    case EMPTY_AFTER:
+      return memoEmptyAfter;
+    }
+    throw new IllegalArgumentException();
+  }
+
+  /**
+   * Memoizes a derivative of the given kind, unless it has already been computed.
+   */
+  synchronized void setMemoized(int kind, PatternMemo memo) {
+    if (getMemoized(kind) != null)
+      return;
+    switch (kind) {
+    case END_ATTRIBUTES:
+      memoEndAttributes = memo;
+      break;
+    case TEXT_ONLY:
+      memoTextOnly = memo;
+      break;
+    case END_TAG_DERIV:
+      memoEndTagDeriv = memo;
+      break;
+    case MIXED_TEXT_DERIV:
+      memoMixedTextDeriv = memo;
+      break;
+    case IGNORE_MISSING_ATTRIBUTES:
+      memoIgnoreMissingAttributes = memo;
+      break;
+    case RECOVER_AFTER:
+      memoRecoverAfter = memo;
+      break;
+    case EMPTY_AFTER:
+      memoEmptyAfter = memo;
+      break;
+    }
+  }
+
+  /**
+   * Returns the map of memoized derivatives with respect to a name, or null if there are none.
+   */
+  NameMemoMap getMemoizedMap(int kind) {
+    switch (kind) {
+    case START_TAG_OPEN_DERIV:
+      return startTagOpenDerivMap;
+    case START_TAG_OPEN_RECOVER_DERIV:
+      return startTagOpenRecoverDerivMap;
+    case START_ATTRIBUTE_DERIV:
+      return startAttributeDerivMap;
+    }
+    throw new IllegalArgumentException();
+  }
+
+  /**
+   * Memoizes a derivative with respect to a name, unless it has already been computed.
+   * Returns the memoized derivative, which is the existing one if there is one.
+   */
+  synchronized PatternMemo putMemoized(int kind, Name name, PatternMemo memo) {
+    NameMemoMap map = getMemoizedMap(kind);
+    if (map != null) {
+      PatternMemo tem = map.get(name);
+      if (tem != null)
+        return tem;
+    }
+    map = addTransition(map, name, memo);
+    switch (kind) {
+    case START_TAG_OPEN_DERIV:
+      startTagOpenDerivMap = map;
+      break;
+    case START_TAG_OPEN_RECOVER_DERIV:
+      startTagOpenRecoverDerivMap = map;
+      break;
+    case START_ATTRIBUTE_DERIV:
+      startAttributeDerivMap = map;
+      break;
+    }
+    return memo;
+  }
+
+  /**
+   * Adds a transition to a map, returning the map to be used in place of it. A map that has
+   * reached the builder's limit on name transitions is replaced by a new map.
+   */
+  private NameMemoMap addTransition(NameMemoMap map, Name name, PatternMemo memo) {
+    if (map == null || map.size() >= builder.getMaxNameTransitions())
+      map = new NameMemoMap();
+    return map.put(name, memo);
+  }
+
+  /**
+   * Returns the DataDerivType, or null if it has not been computed.
+   */
+  DataDerivType getMemoizedDataDerivType() {
+    return memoDataDerivType;
+  }
+
+  /**
+   * Counts a lookup of a derivative of the given kind, if the builder is collecting statistics;
+   * memoized is the derivative found, or null if it has to be computed.
+   */
+  private void count(int kind, Object memoized) {
+    DerivativeStatistics statistics = builder.statistics;
+    if (statistics != null) {
+      if (memoized != null)
+        statistics.hit(kind);
+      else
+        statistics.miss(kind);
+    }
   }
 
+  /*
+   * A derivative is a function of the pattern alone, so if two threads race to compute the
+   * same derivative, both get the same interned result and the second store is harmless.
+   */
   private PatternMemo applyForPatternMemo(PatternFunction<Pattern> f) {
     return builder.getPatternMemo(pattern.apply(f));
   }
@@ -0,0 +1,571 @@
+package com.thaiopensource.relaxng.pattern;
+
+import com.thaiopensource.util.Utf8;
+import com.thaiopensource.xml.util.Name;
+import org.relaxng.datatype.Datatype;
+import org.relaxng.datatype.DatatypeBuilder;
+import org.relaxng.datatype.DatatypeException;
+import org.relaxng.datatype.DatatypeLibrary;
+import org.relaxng.datatype.DatatypeLibraryFactory;
+import org.relaxng.datatype.ValidationContext;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A binary form of a simplified pattern and its IdTypeMap, which can be read back without
+ * parsing and simplifying the schema again.  Each pattern is written once, after the patterns
+ * it refers to, except that the content of element patterns is written after all the other
+ * patterns, since that is where a pattern can refer to itself.  Datatypes are written as their
+ * names and parameters and are recreated through a DatatypeLibraryFactory when the snapshot is
+ * read. Locators are not written.
+ */
+public class PatternSnapshot {
+  private static final int EMPTY = 0;
+  private static final int NOT_ALLOWED = 1;
+  private static final int ERROR = 2;
+  private static final int TEXT = 3;
+  private static final int GROUP = 4;
+  private static final int INTERLEAVE = 5;
+  private static final int CHOICE = 6;
+  private static final int ONE_OR_MORE = 7;
+  private static final int ELEMENT = 8;
+  private static final int ATTRIBUTE = 9;
+  private static final int DATA = 10;
+  private static final int DATA_EXCEPT = 11;
+  private static final int VALUE = 12;
+  private static final int LIST = 13;
+  private static final int END = 14;
+
+  private static final int NAME = 0;
+  private static final int NS_NAME = 1;
+  private static final int NS_NAME_EXCEPT = 2;
+  private static final int ANY_NAME = 3;
+  private static final int ANY_NAME_EXCEPT = 4;
+  private static final int NAME_CHOICE = 5;
+  private static final int NULL_NAME = 6;
+  private static final int ERROR_NAME = 7;
+
+  private final Pattern start;
+  private final IdTypeMap idTypeMap;
+
+  private PatternSnapshot(Pattern start, IdTypeMap idTypeMap) {
+    this.start = start;
+    this.idTypeMap = idTypeMap;
+  }
+
+  public Pattern getStart() {
+    return start;
+  }
+
+  /**
+   * Returns the IdTypeMap that was written with the pattern, or null if there was none.
+   */
+  public IdTypeMap getIdTypeMap() {
+    return idTypeMap;
+  }
+
+  /**
+   * Writes a pattern returned by SchemaBuilderImpl.parse and optionally the IdTypeMap built from it.
+   *
+   * @param idTypeMap an IdTypeMap returned by IdTypeMapBuilder, or null
+   */
+  public static void write(Pattern start, IdTypeMap idTypeMap, DataOutput out) throws IOException {
+    Writer writer = new Writer(out);
+    try {
+      writer.write(start);
+    }
+    catch (WrappedIOException e) {
+      throw e.cause;
+    }
+    if (idTypeMap == null)
+      out.writeBoolean(false);
+    else {
+      out.writeBoolean(true);
+      Map<IdTypeMapBuilder.ScopedName, Integer> table = ((IdTypeMapBuilder.IdTypeMapImpl)idTypeMap).table;
+      out.writeInt(table.size());
+      for (Map.Entry<IdTypeMapBuilder.ScopedName, Integer> entry : table.entrySet()) {
+        writeName(entry.getKey().elementName, out);
+        writeName(entry.getKey().attributeName, out);
+        out.writeByte(entry.getValue());
+      }
+    }
+  }
+
+  /**
+   * Reads a snapshot written by write.  The patterns are built with spb, so that spb can be used
+   * for validation in the same way as if the schema had been parsed.
+   *
+   * @throws IOException if the snapshot is malformed or one of its datatypes cannot be recreated
+   */
+  public static PatternSnapshot read(DataInput in, DatatypeLibraryFactory dlf, SchemaPatternBuilder spb)
+          throws IOException {
+    Reader reader = new Reader(in, new BuiltinDatatypeLibraryFactory(dlf), spb);
+    Pattern start = reader.read();
+    IdTypeMap idTypeMap = null;
+    if (in.readBoolean()) {
+      IdTypeMapBuilder.IdTypeMapImpl map = new IdTypeMapBuilder.IdTypeMapImpl();
+      for (int n = in.readInt(); n > 0; --n) {
+        Name elementName = readName(in);
+        Name attributeName = readName(in);
+        map.add(elementName, attributeName, in.readByte());
+      }
+      idTypeMap = map;
+    }
+    return new PatternSnapshot(start, idTypeMap);
+  }
+
+  private static class WrappedIOException extends RuntimeException {
+    private final IOException cause;
+
+    WrappedIOException(IOException cause) {
+      this.cause = cause;
+    }
+  }
+
+  static private class Writer extends AbstractPatternFunction<Integer> implements NameClassVisitor {
+    private final DataOutput out;
+    private final Map<Pattern, Integer> ids = new HashMap<Pattern, Integer>();
+    private final List<ElementPattern> elements = new ArrayList<ElementPattern>();
+    private int nextId = 0;
+
+    Writer(DataOutput out) {
+      this.out = out;
+    }
+
+    void write(Pattern start) {
+      int startId = id(start);
+      // elements may be added while the contents are being written
+      List<Integer> contentIds = new ArrayList<Integer>();
+      for (int i = 0; i < elements.size(); i++)
+        contentIds.add(id(elements.get(i).getContent()));
+      try {
+        out.writeByte(END);
+        out.writeInt(elements.size());
+        for (int i = 0; i < elements.size(); i++) {
+          out.writeInt(ids.get(elements.get(i)));
+          out.writeInt(contentIds.get(i));
+        }
+        out.writeInt(startId);
+      }
+      catch (IOException e) {
+        throw new WrappedIOException(e);
+      }
+    }
+
+    private int id(Pattern p) {
+      Integer id = ids.get(p);
+      if (id == null) {
+        id = p.apply(this);
+        ids.put(p, id);
+      }
+      return id;
+    }
+
+    private int node(int kind) {
+      writeByte(kind);
+      return nextId++;
+    }
+
+    private int node(int kind, Pattern operand) {
+      int operandId = id(operand);
+      writeByte(kind);
+      writeInt(operandId);
+      return nextId++;
+    }
+
+    private int node(int kind, BinaryPattern p) {
+      int operand1Id = id(p.getOperand1());
+      int operand2Id = id(p.getOperand2());
+      writeByte(kind);
+      writeInt(operand1Id);
+      writeInt(operand2Id);
+      return nextId++;
+    }
+
+    public Integer caseEmpty(EmptyPattern p) {
+      return node(EMPTY);
+    }
+
+    public Integer caseNotAllowed(NotAllowedPattern p) {
+      return node(NOT_ALLOWED);
+    }
+
+    public Integer caseError(ErrorPattern p) {
+      return node(ERROR);
+    }
+
+    public Integer caseText(TextPattern p) {
+      return node(TEXT);
+    }
+
+    public Integer caseGroup(GroupPattern p) {
+      return node(GROUP, p);
+    }
+
+    public Integer caseInterleave(InterleavePattern p) {
+      return node(INTERLEAVE, p);
+    }
+
+    public Integer caseChoice(ChoicePattern p) {
+      return node(CHOICE, p);
+    }
+
+    public Integer caseOneOrMore(OneOrMorePattern p) {
+      return node(ONE_OR_MORE, p.getOperand());
+    }
+
+    public Integer caseList(ListPattern p) {
+      return node(LIST, p.getOperand());
+    }
+
+    public Integer caseElement(ElementPattern p) {
+      writeByte(ELEMENT);
+      p.getNameClass().accept(this);
+      elements.add(p);
+      return nextId++;
+    }
+
+    public Integer caseAttribute(AttributePattern p) {
+      int contentId = id(p.getContent());
+      writeByte(ATTRIBUTE);
+      p.getNameClass().accept(this);
+      writeInt(contentId);
+      return nextId++;
+    }
+
+    public Integer caseData(DataPattern p) {
+      writeByte(DATA);
+      writeDatatype(p);
+      return nextId++;
+    }
+
+    public Integer caseDataExcept(DataExceptPattern p) {
+      int exceptId = id(p.getExcept());
+      writeByte(DATA_EXCEPT);
+      writeDatatype(p);
+      writeInt(exceptId);
+      return nextId++;
+    }
+
+    public Integer caseValue(ValuePattern p) {
+      writeByte(VALUE);
+      try {
+        writeName(p.getDatatypeName(), out);
+        Utf8.writeString(out, p.getStringValue());
+        Map<String, String> prefixMap = p.getPrefixMap();
+        if (prefixMap == null)
+          out.writeInt(-1);
+        else {
+          out.writeInt(prefixMap.size());
+          for (Map.Entry<String, String> entry : prefixMap.entrySet()) {
+            Utf8.writeString(out, entry.getKey());
+            writeOptionalString(entry.getValue());
+          }
+        }
+      }
+      catch (IOException e) {
+        throw new WrappedIOException(e);
+      }
+      return nextId++;
+    }
+
+    public Integer caseOther(Pattern p) {
+      throw new IllegalArgumentException("pattern not allowed in a simplified schema");
+    }
+
+    private void writeDatatype(DataPattern p) {
+      try {
+        writeName(p.getDatatypeName(), out);
+        List<String> params = p.getParams();
+        out.writeInt(params.size());
+        for (String param : params)
+          Utf8.writeString(out, param);
+      }
+      catch (IOException e) {
+        throw new WrappedIOException(e);
+      }
+    }
+
+    public void visitChoice(NameClass nc1, NameClass nc2) {
+      writeByte(NAME_CHOICE);
+      nc1.accept(this);
+      nc2.accept(this);
+    }
+
+    public void visitNsName(String ns) {
+      writeByte(NS_NAME);
+      writeString(ns);
+    }
+
+    public void visitNsNameExcept(String ns, NameClass nc) {
+      writeByte(NS_NAME_EXCEPT);
+      writeString(ns);
+      nc.accept(this);
+    }
+
+    public void visitAnyName() {
+      writeByte(ANY_NAME);
+    }
+
+    public void visitAnyNameExcept(NameClass nc) {
+      writeByte(ANY_NAME_EXCEPT);
+      nc.accept(this);
+    }
+
+    public void visitName(Name name) {
+      writeByte(NAME);
+      try {
+        writeName(name, out);
+      }
+      catch (IOException e) {
+        throw new WrappedIOException(e);
+      }
+    }
+
+    public void visitNull() {
+      writeByte(NULL_NAME);
+    }
+
+    public void visitError() {
+      writeByte(ERROR_NAME);
+    }
+
+    private void writeByte(int b) {
+      try {
+        out.writeByte(b);
+      }
+      catch (IOException e) {
+        throw new WrappedIOException(e);
+      }
+    }
+
+    private void writeInt(int n) {
+      try {
+        out.writeInt(n);
+      }
+      catch (IOException e) {
+        throw new WrappedIOException(e);
+      }
+    }
+
+    private void writeString(String str) {
+      try {
+        Utf8.writeString(out, str);
+      }
+      catch (IOException e) {
+        throw new WrappedIOException(e);
+      }
+    }
+
+    private void writeOptionalString(String str) throws IOException {
+      out.writeBoolean(str != null);
+      if (str != null)
+        Utf8.writeString(out, str);
+    }
+  }
+
+  static private class Reader {
+    private final DataInput in;
+    private final DatatypeLibraryFactory dlf;
+    private final SchemaPatternBuilder spb;
+    private final List<Pattern> patterns = new ArrayList<Pattern>();
+    private final Map<Name, Datatype> unparameterizedDatatypes = new HashMap<Name, Datatype>();
+
+    Reader(DataInput in, DatatypeLibraryFactory dlf, SchemaPatternBuilder spb) {
+      this.in = in;
+      this.dlf = dlf;
+      this.spb = spb;
+    }
+
+    Pattern read() throws IOException {
+      for (;;) {
+        int kind = in.readByte();
+        if (kind == END)
+          break;
+        patterns.add(readPattern(kind));
+      }
+      for (int n = in.readInt(); n > 0; --n) {
+        Pattern p = pattern(in.readInt());
+        if (!(p instanceof ElementPattern))
+          throw new IOException("malformed pattern snapshot");
+        ((ElementPattern)p).setContent(pattern(in.readInt()));
+      }
+      return pattern(in.readInt());
+    }
+
+    private Pattern readPattern(int kind) throws IOException {
+      switch (kind) {
+      case EMPTY:
+        return spb.makeEmpty();
+      case NOT_ALLOWED:
+        return spb.makeNotAllowed();
+      case ERROR:
+        return spb.makeError();
+      case TEXT:
+        return spb.makeText();
+      case GROUP:
+        return spb.makeGroup(pattern(in.readInt()), pattern(in.readInt()));
+      case INTERLEAVE:
+        return spb.makeInterleave(pattern(in.readInt()), pattern(in.readInt()));
+      case CHOICE:
+        return spb.makeChoice(pattern(in.readInt()), pattern(in.readInt()));
+      case ONE_OR_MORE:
+        return spb.makeOneOrMore(pattern(in.readInt()));
+      case LIST:
+        return spb.makeList(pattern(in.readInt()), null);
+      case ELEMENT:
+        // the content is set once all the patterns have been read; the placeholder gives
+        // the element an identity hash code, since elements are not interned
+        return new ElementPattern(readNameClass(), new RefPattern(null), null);
+      case ATTRIBUTE:
+        {
+          NameClass nc = readNameClass();
+          return spb.makeAttribute(nc, pattern(in.readInt()), null);
+        }
+      case DATA:
+        {
+          Name dtName = readName(in);
+          List<String> params = readParams();
+          return spb.makeData(createDatatype(dtName, params), dtName, params);
+        }
+      case DATA_EXCEPT:
+        {
+          Name dtName = readName(in);
+          List<String> params = readParams();
+          return spb.makeDataExcept(createDatatype(dtName, params), dtName, params, pattern(in.readInt()), null);
+        }
+      case VALUE:
+        {
+          Name dtName = readName(in);
+          String stringValue = Utf8.readString(in);
+          Map<String, String> prefixMap = null;
+          int n = in.readInt();
+          if (n >= 0) {
+            prefixMap = new HashMap<String, String>();
+            for (; n > 0; --n) {
+              String prefix = Utf8.readString(in);
+              prefixMap.put(prefix, in.readBoolean() ? Utf8.readString(in) : null);
+            }
+          }
+          Datatype dt = createDatatype(dtName, Collections.<String>emptyList());
+          Object obj = dt.createValue(stringValue, new SnapshotValidationContext(prefixMap));
+          if (obj == null)
+            throw new IOException("invalid value in pattern snapshot: " + stringValue);
+          return spb.makeValue(dt, dtName, obj, stringValue, prefixMap);
+        }
+      }
+      throw new IOException("malformed pattern snapshot");
+    }
+
+    private Pattern pattern(int id) throws IOException {
+      if (id < 0 || id >= patterns.size())
+        throw new IOException("malformed pattern snapshot");
+      return patterns.get(id);
+    }
+
+    private List<String> readParams() throws IOException {
+      int n = in.readInt();
+      List<String> params = new ArrayList<String>(n);
+      for (int i = 0; i < n; i++)
+        params.add(Utf8.readString(in));
+      return params;
+    }
+
+    private NameClass readNameClass() throws IOException {
+      switch (in.readByte()) {
+      case NAME:
+        return new SimpleNameClass(readName(in));
+      case NS_NAME:
+        return new NsNameClass(Utf8.readString(in));
+      case NS_NAME_EXCEPT:
+        {
+          String ns = Utf8.readString(in);
+          return new NsNameExceptNameClass(ns, readNameClass());
+        }
+      case ANY_NAME:
+        return new AnyNameClass();
+      case ANY_NAME_EXCEPT:
+        return new AnyNameExceptNameClass(readNameClass());
+      case NAME_CHOICE:
+        {
+          NameClass nc1 = readNameClass();
+          return new ChoiceNameClass(nc1, readNameClass());
+        }
+      case NULL_NAME:
+        return new NullNameClass();
+      case ERROR_NAME:
+        return new ErrorNameClass();
+      }
+      throw new IOException("malformed pattern snapshot");
+    }
+
+    private Datatype createDatatype(Name dtName, List<String> params) throws IOException {
+      if (params.isEmpty()) {
+        Datatype dt = unparameterizedDatatypes.get(dtName);
+        if (dt != null)
+          return dt;
+      }
+      DatatypeLibrary dl = dlf.createDatatypeLibrary(dtName.getNamespaceUri());
+      if (dl == null)
+        throw new IOException("datatype library \"" + dtName.getNamespaceUri() + "\" not recognized");
+      try {
+        DatatypeBuilder dtb = dl.createDatatypeBuilder(dtName.getLocalName());
+        ValidationContext vc = new SnapshotValidationContext(null);
+        for (int i = 0; i + 1 < params.size(); i += 2)
+          dtb.addParameter(params.get(i), params.get(i + 1), vc);
+        Datatype dt = dtb.createDatatype();
+        if (params.isEmpty())
+          unparameterizedDatatypes.put(dtName, dt);
+        return dt;
+      }
+      catch (DatatypeException e) {
+        throw new IOException("cannot recreate datatype \"" + dtName.getLocalName() + "\": " + e.getMessage());
+      }
+    }
+  }
+
+  /**
+   * The context in which parameters and values are recreated.  The values were valid when the
+   * schema was parsed, so entities and notations are taken to be declared.
+   */
+  static private class SnapshotValidationContext implements ValidationContext {
+    private final Map<String, String> prefixMap;
+
+    SnapshotValidationContext(Map<String, String> prefixMap) {
+      this.prefixMap = prefixMap;
+    }
+
+    public String resolveNamespacePrefix(String prefix) {
+      return prefixMap == null ? null : prefixMap.get(prefix);
+    }
+
+    public String getBaseUri() {
+      return null;
+    }
+
+    public boolean isUnparsedEntity(String entityName) {
+      return true;
+    }
+
+    public boolean isNotation(String notationName) {
+      return true;
+    }
+  }
+
+  private static void writeName(Name name, DataOutput out) throws IOException {
+    Utf8.writeString(out, name.getNamespaceUri());
+    Utf8.writeString(out, name.getLocalName());
+  }
+
+  private static Name readName(DataInput in) throws IOException {
+    String ns = Utf8.readString(in);
+    return new Name(ns, Utf8.readString(in));
+  }
+}
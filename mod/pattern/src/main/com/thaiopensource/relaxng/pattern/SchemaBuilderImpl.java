@@ -296,6 +296,7 @@ public class SchemaBuilderImpl extends AnnotationsImpl implements
   private class ValidationContextImpl implements ValidationContext {
     private final ValidationContext vc;
     private final String ns;
+    private Map<String, String> prefixMap = null;
 
     ValidationContextImpl(ValidationContext vc, String ns) {
       this.vc = vc;
@@ -304,14 +305,24 @@ public class SchemaBuilderImpl extends AnnotationsImpl implements
 
     public String resolveNamespacePrefix(String prefix) {
       String result = prefix.length() == 0 ? ns : vc.resolveNamespacePrefix(prefix);
-      if (result == INHERIT_NS) {
-        if (inheritNs.length() == 0)
-          return null;
-        return inheritNs;
-      }
+      if (result == INHERIT_NS)
+        result = inheritNs.length() == 0 ? null : inheritNs;
+      if (prefixMap != null)
+        prefixMap.put(prefix, result);
       return result;
     }
 
+    /**
+     * Starts recording the prefixes that are resolved, so that a value can be recreated later.
+     */
+    void recordPrefixes() {
+      prefixMap = new HashMap<String, String>();
+    }
+
+    Map<String, String> getPrefixMap() {
+      return prefixMap;
+    }
+
     public String getBaseUri() {
       return vc.getBaseUri();
     }
@@ -435,9 +446,12 @@ public class SchemaBuilderImpl extends AnnotationsImpl implements
         DatatypeBuilder dtb = dl.createDatatypeBuilder(type);
         try {
           Datatype dt = dtb.createDatatype();
-          Object obj = dt.createValue(value, new ValidationContextImpl(context, ns));
+          ValidationContextImpl vc = new ValidationContextImpl(context, ns);
+          if (dt.isContextDependent())
+            vc.recordPrefixes();
+          Object obj = dt.createValue(value, vc);
           if (obj != null)
-            return pb.makeValue(dt, new Name(datatypeLibrary, type), obj, value);
+            return pb.makeValue(dt, new Name(datatypeLibrary, type), obj, value, vc.getPrefixMap());
           error("invalid_value", value, loc);
         }
         catch (DatatypeException e) {
@@ -669,6 +683,7 @@ public class SchemaBuilderImpl extends AnnotationsImpl implements
         o.replacementStatus = o.prp.getReplacementStatus();
         o.prp.setReplacementStatus(RefPattern.REPLACEMENT_REQUIRE);
       }
+      sb.pb.noteIncludedUri(uri);
       try {
         SchemaBuilderImpl isb = new SchemaBuilderImpl(ns, uri, sb);
         subParseable.parseAsInclude(isb, new GrammarImpl(isb, grammar));
@@ -713,6 +728,7 @@ public class SchemaBuilderImpl extends AnnotationsImpl implements
         return pb.makeError();
       }
     }
+    pb.noteIncludedUri(uri);
     try {
       return subParseable.parse(new SchemaBuilderImpl(ns, uri, this), scope);
     }
@@ -0,0 +1,101 @@
+package com.thaiopensource.relaxng.pattern;
+
+import com.thaiopensource.util.VoidValue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Numbers the patterns of a schema in the order in which they are reached from the start
+ * pattern.  The numbering depends only on the structure of the schema, not on the order in
+ * which its patterns were created, so it is the same in every process that parses or loads
+ * the schema.
+ */
+final class SchemaNumbering extends AbstractPatternFunction<VoidValue> {
+  private final Map<Pattern, Integer> ids = new HashMap<Pattern, Integer>();
+  private final List<Pattern> patterns = new ArrayList<Pattern>();
+
+  SchemaNumbering(PatternBuilder builder, Pattern start) {
+    add(builder.makeEmpty());
+    add(builder.makeNotAllowed());
+    add(start);
+    // patterns are added to the list while it is being scanned
+    for (int i = 0; i < patterns.size(); i++)
+      patterns.get(i).apply(this);
+  }
+
+  int size() {
+    return patterns.size();
+  }
+
+  /**
+   * Returns the patterns in the order of their numbers.
+   */
+  List<Pattern> getPatterns() {
+    return Collections.unmodifiableList(patterns);
+  }
+
+  /**
+   * Returns a map from each pattern to its number.
+   */
+  Map<Pattern, Integer> getIds() {
+    return Collections.unmodifiableMap(ids);
+  }
+
+  private void add(Pattern p) {
+    if (!ids.containsKey(p)) {
+      ids.put(p, patterns.size());
+      patterns.add(p);
+    }
+  }
+
+  public VoidValue caseElement(ElementPattern p) {
+    add(p.getContent());
+    return VoidValue.VOID;
+  }
+
+  public VoidValue caseAttribute(AttributePattern p) {
+    add(p.getContent());
+    return VoidValue.VOID;
+  }
+
+  private VoidValue caseBinary(BinaryPattern p) {
+    add(p.getOperand1());
+    add(p.getOperand2());
+    return VoidValue.VOID;
+  }
+
+  public VoidValue caseGroup(GroupPattern p) {
+    return caseBinary(p);
+  }
+
+  public VoidValue caseInterleave(InterleavePattern p) {
+    return caseBinary(p);
+  }
+
+  public VoidValue caseChoice(ChoicePattern p) {
+    return caseBinary(p);
+  }
+
+  public VoidValue caseOneOrMore(OneOrMorePattern p) {
+    add(p.getOperand());
+    return VoidValue.VOID;
+  }
+
+  public VoidValue caseList(ListPattern p) {
+    add(p.getOperand());
+    return VoidValue.VOID;
+  }
+
+  public VoidValue caseDataExcept(DataExceptPattern p) {
+    add(p.getExcept());
+    return VoidValue.VOID;
+  }
+
+  public VoidValue caseOther(Pattern p) {
+    return VoidValue.VOID;
+  }
+}
@@ -4,13 +4,18 @@ import com.thaiopensource.xml.util.Name;
 import org.relaxng.datatype.Datatype;
 import org.xml.sax.Locator;
 
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 public class SchemaPatternBuilder extends PatternBuilder {
   private boolean idTypes;
   private final UnexpandedNotAllowedPattern unexpandedNotAllowed = new UnexpandedNotAllowedPattern();
   private final TextPattern text = new TextPattern();
   private final PatternInterner schemaInterner = new PatternInterner();
+  private final Set<String> includedUris = new LinkedHashSet<String>();
 
   public SchemaPatternBuilder() { }
 
@@ -18,6 +23,18 @@ public class SchemaPatternBuilder extends PatternBuilder {
     return idTypes;
   }
 
+  /**
+   * Returns the URIs of the schemas that were included or referenced by externalRef
+   * while building patterns, not including the URI of the top-level schema.
+   */
+  public List<String> getIncludedUris() {
+    return new ArrayList<String>(includedUris);
+  }
+
+  void noteIncludedUri(String uri) {
+    includedUris.add(uri);
+  }
+
   Pattern makeElement(NameClass nameClass, Pattern content, Locator loc) {
     Pattern p = new ElementPattern(nameClass, content, loc);
     return schemaInterner.intern(p);
@@ -42,9 +59,9 @@ public class SchemaPatternBuilder extends PatternBuilder {
     return schemaInterner.intern(p);
   }
 
-  Pattern makeValue(Datatype dt, Name dtName, Object value, String stringValue) {
+  Pattern makeValue(Datatype dt, Name dtName, Object value, String stringValue, Map<String, String> prefixMap) {
     noteDatatype(dt);
-    Pattern p = new ValuePattern(dt, dtName, value, stringValue);
+    Pattern p = new ValuePattern(dt, dtName, value, stringValue, prefixMap);
     return schemaInterner.intern(p);
   }
 
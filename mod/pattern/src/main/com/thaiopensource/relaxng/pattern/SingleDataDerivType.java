@@ -8,7 +8,7 @@ import java.util.List;
  * DerivType for a Pattern whose derivative wrt any data is always the same.
  */
 class SingleDataDerivType extends DataDerivType {
-  private PatternMemo memo;
+  private volatile PatternMemo memo;
 
   SingleDataDerivType() { }
 
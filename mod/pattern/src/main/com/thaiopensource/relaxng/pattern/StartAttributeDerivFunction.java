@@ -15,12 +15,12 @@ class StartAttributeDerivFunction extends StartTagOpenDerivFunction {
     final Pattern p1 = p.getOperand1();
     final Pattern p2 = p.getOperand2();
     return getPatternBuilder().makeChoice(
-            memoApply(p1).apply(new ApplyAfterFunction(getPatternBuilder()) {
+            prunedMemoApply(p1).apply(new ApplyAfterFunction(getPatternBuilder()) {
               Pattern apply(Pattern x) {
                 return getPatternBuilder().makeGroup(x, p2);
               }
             }),
-            memoApply(p2).apply(new ApplyAfterFunction(getPatternBuilder()) {
+            prunedMemoApply(p2).apply(new ApplyAfterFunction(getPatternBuilder()) {
               Pattern apply(Pattern x) {
                 return getPatternBuilder().makeGroup(p1, x);
               }
@@ -37,4 +37,8 @@ class StartAttributeDerivFunction extends StartTagOpenDerivFunction {
   PatternMemo apply(PatternMemo memo) {
     return memo.startAttributeDeriv(this);
   }
+
+  boolean isPossible(PatternMemo memo) {
+    return NameMask.mayContain(memo.attributeNameMask(), getNameBit());
+  }
 }
@@ -4,16 +4,18 @@ import com.thaiopensource.xml.util.Name;
 
 class StartTagOpenDerivFunction extends AbstractPatternFunction<Pattern> {
   private final Name name;
+  private final long nameBit;
   private final ValidatorPatternBuilder builder;
 
   StartTagOpenDerivFunction(Name name, ValidatorPatternBuilder builder) {
     this.name = name;
+    this.nameBit = NameMask.bit(name);
     this.builder = builder;
   }
 
   public Pattern caseChoice(ChoicePattern p) {
-    return builder.makeChoice(memoApply(p.getOperand1()),
-			      memoApply(p.getOperand2()));
+    return builder.makeChoice(prunedMemoApply(p.getOperand1()),
+			      prunedMemoApply(p.getOperand2()));
   }
 
   public Pattern caseGroup(GroupPattern p) {
@@ -31,12 +33,12 @@ class StartTagOpenDerivFunction extends AbstractPatternFunction<Pattern> {
     final Pattern p1 = p.getOperand1();
     final Pattern p2 = p.getOperand2();
     return builder.makeChoice(
-            memoApply(p1).apply(new ApplyAfterFunction(builder) {
+            prunedMemoApply(p1).apply(new ApplyAfterFunction(builder) {
               Pattern apply(Pattern x) {
                 return builder.makeInterleave(x, p2);
               }
             }),
-            memoApply(p2).apply(new ApplyAfterFunction(builder) {
+            prunedMemoApply(p2).apply(new ApplyAfterFunction(builder) {
               Pattern apply(Pattern x) {
                 return builder.makeInterleave(p1, x);
               }
@@ -78,6 +80,30 @@ class StartTagOpenDerivFunction extends AbstractPatternFunction<Pattern> {
     return apply(builder.getPatternMemo(p)).getPattern();
   }
 
+  /**
+   * Like memoApply, but returns notAllowed without computing the derivative if the NameMask of
+   * the pattern shows that the name cannot match.  When the branches of a wide interleave or
+   * choice have disjoint sets of names, as is typical, this computes the derivative of little
+   * more than the branch that can match the name, rather than of every branch.
+   */
+  final Pattern prunedMemoApply(Pattern p) {
+    PatternMemo memo = builder.getPatternMemo(p);
+    if (!isPossible(memo))
+      return builder.makeNotAllowed();
+    return apply(memo).getPattern();
+  }
+
+  /**
+   * Returns false if the derivative of the memo's pattern is known to be notAllowed.
+   */
+  boolean isPossible(PatternMemo memo) {
+    return NameMask.mayContain(memo.startTagNameMask(), nameBit);
+  }
+
+  long getNameBit() {
+    return nameBit;
+  }
+
   PatternMemo apply(PatternMemo memo) {
     return memo.startTagOpenDeriv(this);
   }
@@ -17,4 +17,9 @@ class StartTagOpenRecoverDerivFunction extends StartTagOpenDerivFunction {
   PatternMemo apply(PatternMemo memo) {
     return memo.startTagOpenRecoverDeriv(this);
   }
+
+  // recovery skips required content, so it can match names that are not possible start-tags
+  boolean isPossible(PatternMemo memo) {
+    return true;
+  }
 }
@@ -0,0 +1,261 @@
+package com.thaiopensource.relaxng.pattern;
+
+import com.thaiopensource.xml.util.Name;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A table of start-tag and attribute transitions computed ahead of time for the names
+ * declared in a schema.  Each explored PatternMemo is given an integer state id; a transition
+ * is an int in a row indexed by the id of the name.  Transitions for names that are not
+ * declared (i.e. that can only be matched by a wildcard) and for states that were not
+ * explored are left to the lazy derivative computation of PatternMemo.
+ */
+final class TransitionTable {
+  /**
+   * Maximum number of states that will be explored.
+   */
+  static final int MAX_STATES = 8192;
+
+  private final Map<Name, Integer> elementNameIds;
+  private final Map<Name, Integer> attributeNameIds;
+  private final PatternMemo[] states;
+  // indexed by state id, then name id; a null row means that the state was not explored
+  // for this kind of transition
+  private final int[][] startTagOpenRows;
+  private final int[][] startAttributeRows;
+
+  private TransitionTable(Map<Name, Integer> elementNameIds,
+                          Map<Name, Integer> attributeNameIds,
+                          PatternMemo[] states,
+                          int[][] startTagOpenRows,
+                          int[][] startAttributeRows) {
+    this.elementNameIds = elementNameIds;
+    this.attributeNameIds = attributeNameIds;
+    this.states = states;
+    this.startTagOpenRows = startTagOpenRows;
+    this.startAttributeRows = startAttributeRows;
+  }
+
+  /**
+   * Returns the states of the table, indexed by state id.
+   */
+  PatternMemo[] getStates() {
+    return states;
+  }
+
+  /**
+   * Returns the result of the start-tag transition, or null if it was not compiled.
+   */
+  PatternMemo startTagOpenDeriv(int stateId, Name name) {
+    return lookup(startTagOpenRows[stateId], elementNameIds, name);
+  }
+
+  /**
+   * Returns the result of the attribute transition, or null if it was not compiled.
+   */
+  PatternMemo startAttributeDeriv(int stateId, Name name) {
+    return lookup(startAttributeRows[stateId], attributeNameIds, name);
+  }
+
+  /**
+   * Returns a table with the same transitions whose states are new PatternMemos created by builder,
+   * for a new generation of its PatternMemos.  Of the derivatives that the states have memoized,
+   * only those that are themselves states are kept, so nothing of the old generation is reachable
+   * from the new table.
+   */
+  TransitionTable copyStates(ValidatorPatternBuilder builder) {
+    PatternMemo[] copies = new PatternMemo[states.length];
+    for (int i = 0; i < states.length; i++)
+      copies[i] = new PatternMemo(states[i].getPattern(), builder);
+    for (int i = 0; i < states.length; i++) {
+      for (int kind = PatternMemo.END_ATTRIBUTES; kind <= PatternMemo.EMPTY_AFTER; kind++) {
+        int id = indexOf(states[i].getMemoized(kind));
+        if (id >= 0)
+          copies[i].setMemoized(kind, copies[id]);
+      }
+      copies[i].setStateId(i);
+    }
+    return new TransitionTable(elementNameIds, attributeNameIds, copies, startTagOpenRows, startAttributeRows);
+  }
+
+  /**
+   * Returns the state id of memo, or -1 if it is not a state of this table.
+   */
+  private int indexOf(PatternMemo memo) {
+    if (memo == null)
+      return -1;
+    int id = memo.getStateId();
+    return id >= 0 && id < states.length && states[id] == memo ? id : -1;
+  }
+
+  private PatternMemo lookup(int[] row, Map<Name, Integer> nameIds, Name name) {
+    if (row == null)
+      return null;
+    Integer id = nameIds.get(name);
+    if (id == null)
+      return null;
+    return states[row[id]];
+  }
+
+  /**
+   * Explores the states reachable from start.  Data is not known ahead of time, so the state
+   * following an attribute value or the value of a data element is taken to be the state in
+   * which the data matched.  Must be called while holding the lock on the builder.
+   */
+  static TransitionTable compile(ValidatorPatternBuilder builder, Pattern start) {
+    return new Compiler(builder, start).compile();
+  }
+
+  static private class Compiler {
+    // kinds of state
+    static private final int CONTENT = 0;
+    static private final int START_TAG = 1;
+    static private final int ATTRIBUTE_VALUE = 2;
+
+    private final ValidatorPatternBuilder builder;
+    private final Pattern start;
+    private final Name[] elementNames;
+    private final Name[] attributeNames;
+    private final List<PatternMemo> states = new ArrayList<PatternMemo>();
+    private final Map<PatternMemo, Integer> stateIds = new HashMap<PatternMemo, Integer>();
+    private final List<int[]> startTagOpenRows = new ArrayList<int[]>();
+    private final List<int[]> startAttributeRows = new ArrayList<int[]>();
+    private final List<PatternMemo> queue = new ArrayList<PatternMemo>();
+    private final List<Integer> queueKinds = new ArrayList<Integer>();
+    private final List<Set<PatternMemo>> explored = new ArrayList<Set<PatternMemo>>();
+
+    Compiler(ValidatorPatternBuilder builder, Pattern start) {
+      this.builder = builder;
+      this.start = start;
+      NameCollector collector = new NameCollector();
+      start.apply(collector);
+      elementNames = collector.getElementNames().toArray(new Name[collector.getElementNames().size()]);
+      attributeNames = collector.getAttributeNames().toArray(new Name[collector.getAttributeNames().size()]);
+      for (int i = 0; i < 3; i++)
+        explored.add(new HashSet<PatternMemo>());
+    }
+
+    TransitionTable compile() {
+      // state 0 is notAllowed, which is also the default value of a row entry
+      addState(builder.getPatternMemo(builder.makeNotAllowed()));
+      enqueue(builder.getPatternMemo(start), CONTENT);
+      for (int i = 0; i < queue.size(); i++) {
+        PatternMemo memo = queue.get(i);
+        int kind = queueKinds.get(i);
+        if (!explored.get(kind).add(memo))
+          continue;
+        int stateId = addState(memo);
+        if (stateId < 0)
+          break;
+        switch (kind) {
+        case CONTENT:
+          startTagOpenRows.set(stateId, exploreStartTags(memo));
+          enqueue(memo.mixedTextDeriv(), CONTENT);
+          enqueue(memo.endTagDeriv(), CONTENT);
+          if (memo.getPattern().getContentType() == Pattern.DATA_CONTENT_TYPE && isAfter(memo.getPattern()))
+            enqueue(memo.recoverAfter(), CONTENT);
+          break;
+        case START_TAG:
+          startAttributeRows.set(stateId, exploreAttributes(memo));
+          enqueue(memo.endAttributes(), CONTENT);
+          break;
+        case ATTRIBUTE_VALUE:
+          if (isAfter(memo.getPattern()))
+            enqueue(memo.recoverAfter(), START_TAG);
+          break;
+        }
+      }
+      Map<Name, Integer> elementNameIds = new HashMap<Name, Integer>();
+      for (int i = 0; i < elementNames.length; i++)
+        elementNameIds.put(elementNames[i], i);
+      Map<Name, Integer> attributeNameIds = new HashMap<Name, Integer>();
+      for (int i = 0; i < attributeNames.length; i++)
+        attributeNameIds.put(attributeNames[i], i);
+      int n = states.size();
+      TransitionTable table = new TransitionTable(elementNameIds,
+                                                  attributeNameIds,
+                                                  states.toArray(new PatternMemo[n]),
+                                                  startTagOpenRows.toArray(new int[n][]),
+                                                  startAttributeRows.toArray(new int[n][]));
+      for (int i = 0; i < n; i++)
+        states.get(i).setStateId(i);
+      return table;
+    }
+
+    /**
+     * Returns the row of start-tag transitions, or null if it could not be completed.
+     */
+    private int[] exploreStartTags(PatternMemo memo) {
+      NormalizedNameClass possible = memo.possibleStartTagNames();
+      int[] row = new int[elementNames.length];
+      for (int i = 0; i < elementNames.length; i++) {
+        if (possible.contains(elementNames[i])) {
+          row[i] = target(memo.startTagOpenDeriv(elementNames[i]), START_TAG);
+          if (row[i] < 0)
+            return null;
+        }
+      }
+      return row;
+    }
+
+    private int[] exploreAttributes(PatternMemo memo) {
+      NormalizedNameClass possible = memo.possibleAttributeNames();
+      int[] row = new int[attributeNames.length];
+      for (int i = 0; i < attributeNames.length; i++) {
+        if (possible.contains(attributeNames[i])) {
+          row[i] = target(memo.startAttributeDeriv(attributeNames[i]), ATTRIBUTE_VALUE);
+          if (row[i] < 0)
+            return null;
+        }
+      }
+      return row;
+    }
+
+    private void enqueue(PatternMemo memo, int kind) {
+      if (!memo.isNotAllowed()) {
+        queue.add(memo);
+        queueKinds.add(kind);
+      }
+    }
+
+    /**
+     * Enqueues the target of a transition and returns its state id; the target gets a state id
+     * even if it is never explored, so that the transition can be stored.
+     */
+    private int target(PatternMemo memo, int kind) {
+      enqueue(memo, kind);
+      return addState(memo);
+    }
+
+    private int addState(PatternMemo memo) {
+      Integer id = stateIds.get(memo);
+      if (id != null)
+        return id;
+      if (states.size() >= MAX_STATES)
+        return -1;
+      int stateId = states.size();
+      states.add(memo);
+      stateIds.put(memo, stateId);
+      startTagOpenRows.add(null);
+      startAttributeRows.add(null);
+      return stateId;
+    }
+  }
+
+  /**
+   * Tests whether recoverAfter can be applied to p.
+   */
+  private static boolean isAfter(Pattern p) {
+    if (p instanceof AfterPattern)
+      return true;
+    if (p instanceof ChoicePattern)
+      return isAfter(((ChoicePattern)p).getOperand1()) && isAfter(((ChoicePattern)p).getOperand2());
+    return false;
+  }
+}
@@ -1,14 +1,35 @@
 package com.thaiopensource.relaxng.pattern;
 
-import com.thaiopensource.util.VoidValue;
 import com.thaiopensource.xml.util.Name;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
+/**
+ * PatternBuilder used for computing derivatives during validation.  A single
+ * ValidatorPatternBuilder, together with the PatternMemos that it creates, may be shared
+ * by validators running in different threads.  Patterns and PatternMemos are created without
+ * locking: patterns are interned in a concurrent map, and so are PatternMemos, so that threads
+ * computing derivatives do not contend on the builder.  The lock on the builder is held only by
+ * operations that change its configuration or look at all its PatternMemos.
+ */
 public class ValidatorPatternBuilder extends PatternBuilder {
-  private final Map<Pattern, PatternMemo> patternMemoMap = new HashMap<Pattern, PatternMemo>();
+  // replaced when the PatternMemos are discarded
+  private volatile ConcurrentMap<Pattern, PatternMemo> patternMemoMap
+    = new ConcurrentHashMap<Pattern, PatternMemo>();
   private final PatternFunction<Pattern> endAttributesFunction;
   private final PatternFunction<Pattern> ignoreMissingAttributesFunction;
   private final PatternFunction<Pattern> endTagDerivFunction;
@@ -16,48 +37,21 @@ public class ValidatorPatternBuilder extends PatternBuilder {
   private final PatternFunction<Pattern> textOnlyFunction;
   private final PatternFunction<Pattern> recoverAfterFunction;
   private final PatternFunction<DataDerivType> dataDerivTypeFunction;
+  private volatile TransitionTable transitionTable;
+  // 0 means no limit
+  private volatile int maxPatternMemos = 0;
+  // true if the limit has been reached, and the PatternMemos are to be discarded at the next safe point
+  private volatile boolean discardPending = false;
+  private volatile int maxNameTransitions = Integer.MAX_VALUE;
+  // the SchemaNumbering of the schemas passed to numberSchema; replaced rather than modified
+  private volatile Map<Pattern, Integer> schemaOrder = Collections.emptyMap();
+  private Pattern nameTableStart;
+  private NameTable nameTable;
+  // null unless enabled; not volatile, so that checking it costs next to nothing when validating
+  DerivativeStatistics statistics;
 
-  private final Map<Pattern, Pattern> choiceMap = new HashMap<Pattern, Pattern>();
-  private final PatternFunction<Pattern> removeChoicesFunction = new RemoveChoicesFunction();
-  private final PatternFunction<VoidValue> noteChoicesFunction = new NoteChoicesFunction();
   private final PatternFunction<Set<Name>> requiredElementsFunction = new RequiredElementsFunction();
   private final PatternFunction<Set<Name>> requiredAttributesFunction = new RequiredAttributesFunction();
-  private final PossibleNamesFunction possibleStartTagNamesFunction = new PossibleStartTagNamesFunction();
-  private final PossibleNamesFunction possibleAttributeNamesFunction = new PossibleAttributeNamesFunction();
-
-  private class NoteChoicesFunction extends AbstractPatternFunction<VoidValue> {
-    public VoidValue caseOther(Pattern p) {
-      choiceMap.put(p, p);
-      return VoidValue.VOID;
-    }
-
-    public VoidValue caseChoice(ChoicePattern p) {
-      p.getOperand1().apply(this);
-      p.getOperand2().apply(this);
-      return VoidValue.VOID;
-    }
-  }
-
-  private class RemoveChoicesFunction extends AbstractPatternFunction<Pattern> {
-    public Pattern caseOther(Pattern p) {
-      if (choiceMap.get(p) != null)
-        return notAllowed;
-      return p;
-    }
-
-    public Pattern caseChoice(ChoicePattern p) {
-      Pattern p1 = p.getOperand1().apply(this);
-      Pattern p2 = p.getOperand2().apply(this);
-      if (p1 == p.getOperand1() && p2 == p.getOperand2())
-        return p;
-      if (p1 == notAllowed)
-        return p2;
-      if (p2 == notAllowed)
-        return p1;
-      Pattern p3 = new ChoicePattern(p1, p2);
-      return interner.intern(p3);
-    }
-  }
 
   public ValidatorPatternBuilder(PatternBuilder builder) {
     super(builder);
@@ -70,15 +64,212 @@ public class ValidatorPatternBuilder extends PatternBuilder {
     dataDerivTypeFunction = new DataDerivTypeFunction(this);
   }
 
+  /**
+   * Computes ahead of time the start-tag and attribute transitions of the states reachable
+   * from a start pattern for the names declared in the schema, so that validating against
+   * the start pattern does not need to compute them as they are encountered.
+   *
+   * @param start the start pattern of the schema
+   */
+  public synchronized void precompile(Pattern start) {
+    numberSchema(start);
+    // the table has its own limit on the number of states
+    int saveMaxPatternMemos = maxPatternMemos;
+    maxPatternMemos = 0;
+    try {
+      transitionTable = TransitionTable.compile(this, start);
+    }
+    finally {
+      maxPatternMemos = saveMaxPatternMemos;
+    }
+  }
+
+  /**
+   * Limits the memory used for memoizing derivatives, for builders that are used for a long
+   * time against documents that lead to an open-ended set of derivatives.  When the number of
+   * memoized states, not counting those precompiled, reaches maxStates, all of them are
+   * discarded, together with the patterns that were created for them, when a matcher next
+   * starts a document; they are computed again as they are needed.  When a state has memoized maxNameTransitions start-tag or attribute
+   * transitions of the same kind, those transitions are discarded.
+   *
+   * @param maxStates the maximum number of memoized states, or 0 for no limit
+   * @param maxNameTransitions the maximum number of transitions of a state for different names,
+   *   or 0 for no limit
+   */
+  public synchronized void setLimits(int maxStates, int maxNameTransitions) {
+    this.maxPatternMemos = maxStates;
+    this.maxNameTransitions = maxNameTransitions > 0 ? maxNameTransitions : Integer.MAX_VALUE;
+  }
+
+  int getMaxNameTransitions() {
+    return maxNameTransitions;
+  }
+
+  /**
+   * Makes the canonical order of the alternatives of choices, which is used for choices built
+   * while computing derivatives, depend only on the structure of the schema with a start
+   * pattern, so that derivatives loaded by loadDerivatives are found when they are computed
+   * again.  A builder used for more than one start pattern orders the patterns of each schema
+   * after those of the schemas numbered before it.
+   *
+   * @param start the start pattern of the schema
+   */
+  public void numberSchema(Pattern start) {
+    if (schemaOrder.containsKey(start))
+      return;
+    synchronized (this) {
+      Map<Pattern, Integer> order = schemaOrder;
+      if (order.containsKey(start))
+        return;
+      order = new HashMap<Pattern, Integer>(order);
+      for (Pattern p : new SchemaNumbering(this, start).getPatterns()) {
+        if (!order.containsKey(p))
+          order.put(p, order.size());
+      }
+      schemaOrder = order;
+    }
+  }
+
+  /**
+   * Returns a NameTable for the names declared in the schema with a start pattern.  The
+   * NameTable is shared by all the validators for the same start pattern.
+   *
+   * @param start the start pattern of the schema
+   */
+  public synchronized NameTable getNameTable(Pattern start) {
+    if (start != nameTableStart) {
+      nameTable = NameTable.forPattern(start);
+      nameTableStart = start;
+    }
+    return nameTable;
+  }
+
+  /**
+   * Starts collecting statistics about the use of memoized derivatives by validators using this
+   * builder.  This should be called before the builder is shared with validators in other
+   * threads; otherwise they may not count everything they do.
+   *
+   * @return the DerivativeStatistics of this builder
+   */
+  public synchronized DerivativeStatistics enableStatistics() {
+    if (statistics == null)
+      statistics = new DerivativeStatistics(this);
+    return statistics;
+  }
+
+  synchronized int getPatternMemoCount() {
+    return patternMemoMap.size();
+  }
+
+  int getInternedPatternCount() {
+    return interner.size();
+  }
+
+  TransitionTable getTransitionTable() {
+    return transitionTable;
+  }
+
+  /**
+   * Writes the derivatives that have been memoized for the patterns of a schema, so that they
+   * can be loaded by loadDerivatives into a builder for the same schema, typically in another
+   * process.
+   *
+   * @param start the start pattern of the schema
+   */
+  public synchronized void saveDerivatives(Pattern start, DataOutput out) throws IOException {
+    MemoSnapshot.write(this, start, out);
+  }
+
+  /**
+   * Loads derivatives written by saveDerivatives.  Derivatives that have already been memoized
+   * are kept.
+   *
+   * @param start the start pattern of the schema
+   * @return false if the derivatives were saved for a different schema, in which case nothing is loaded
+   * @throws IOException if the derivatives cannot be read
+   */
+  public synchronized boolean loadDerivatives(Pattern start, DataInput in) throws IOException {
+    return MemoSnapshot.read(this, start, in);
+  }
+
+  synchronized Collection<PatternMemo> getPatternMemos() {
+    return new ArrayList<PatternMemo>(patternMemoMap.values());
+  }
+
   PatternMemo getPatternMemo(Pattern p) {
-    PatternMemo memo = patternMemoMap.get(p);
+    ConcurrentMap<Pattern, PatternMemo> map = patternMemoMap;
+    PatternMemo memo = map.get(p);
     if (memo == null) {
       memo = new PatternMemo(p, this);
-      patternMemoMap.put(p, memo);
+      PatternMemo tem = map.putIfAbsent(p, memo);
+      if (tem != null)
+        return tem;
+      int max = maxPatternMemos;
+      if (max > 0 && map.size() >= max + pinnedCount())
+        discardPending = true;
+      if (statistics != null)
+        statistics.stateCreated();
     }
     return memo;
   }
 
+  private int pinnedCount() {
+    TransitionTable table = transitionTable;
+    return table == null ? 0 : table.getStates().length;
+  }
+
+  /**
+   * Called by a matcher at the start of a document, which is when the PatternMemos are
+   * discarded once their number has reached the limit.
+   */
+  void startDocument() {
+    if (discardPending) {
+      synchronized (this) {
+        if (discardPending)
+          discardPatternMemos();
+      }
+    }
+  }
+
+  /**
+   * Starts a new generation of PatternMemos and interned patterns, keeping only the transitions
+   * of the TransitionTable and the patterns that its states use.  The states are replaced by
+   * copies that have memoized nothing but the table's own transitions, since the old ones may
+   * have memoized derivatives of the old generation.  The PatternMemos of the old generation
+   * are not changed, so matchers that are in the middle of a document can go on using them; they
+   * become garbage when those matchers are done.
+   */
+  private void discardPatternMemos() {
+    discardPending = false;
+    if (statistics != null)
+      statistics.statesDiscarded(patternMemoMap.size() - pinnedCount());
+    ConcurrentMap<Pattern, PatternMemo> map = new ConcurrentHashMap<Pattern, PatternMemo>();
+    interner.startGeneration();
+    TransitionTable table = transitionTable;
+    if (table != null) {
+      table = table.copyStates(this);
+      Set<Pattern> interned = Collections.newSetFromMap(new IdentityHashMap<Pattern, Boolean>());
+      for (PatternMemo memo : table.getStates()) {
+        reintern(memo.getPattern(), interned);
+        map.put(memo.getPattern(), memo);
+      }
+      transitionTable = table;
+    }
+    patternMemoMap = map;
+  }
+
+  private void reintern(Pattern p, Set<Pattern> interned) {
+    if (!interned.add(p))
+      return;
+    if (p instanceof BinaryPattern) {
+      reintern(((BinaryPattern)p).getOperand1(), interned);
+      reintern(((BinaryPattern)p).getOperand2(), interned);
+    }
+    else if (p instanceof OneOrMorePattern)
+      reintern(((OneOrMorePattern)p).getOperand(), interned);
+    interner.intern(p);
+  }
+
   PatternFunction<Pattern> getEndAttributesFunction() {
     return endAttributesFunction;
   }
@@ -95,14 +286,6 @@ public class ValidatorPatternBuilder extends PatternBuilder {
     return requiredAttributesFunction;
   }
 
-  PossibleNamesFunction getPossibleStartTagNamesFunction() {
-    return possibleStartTagNamesFunction;
-  }
-
-  PossibleNamesFunction getPossibleAttributeNamesFunction() {
-    return possibleAttributeNamesFunction;
-  }
-
   PatternFunction<Pattern> getEndTagDerivFunction() {
     return endTagDerivFunction;
   }
@@ -128,6 +311,14 @@ public class ValidatorPatternBuilder extends PatternBuilder {
     return interner.intern(p);
   }
 
+  /**
+   * Makes a choice in canonical form: a right-leaning chain of ChoicePatterns whose
+   * alternatives are distinct, are not choices and are in ascending order of
+   * compareAlternatives.  The choice of two choices is computed by merging their alternatives,
+   * and the chain of the result shares the longest suffix that it has in common with either
+   * operand, so that wide choices, such as the derivatives of large interleaves, are combined in
+   * linear time.
+   */
   Pattern makeChoice(Pattern p1, Pattern p2) {
     if (p1 == p2)
       return p1;
@@ -135,22 +326,6 @@ public class ValidatorPatternBuilder extends PatternBuilder {
       return p2;
     if (p2 == notAllowed)
       return p1;
-    if (!(p1 instanceof ChoicePattern)) {
-      if (p2.containsChoice(p1))
-        return p2;
-    }
-    else if (!(p2 instanceof ChoicePattern)) {
-      if (p1.containsChoice(p2))
-        return p1;
-    }
-    else {
-      p1.apply(noteChoicesFunction);
-      p2 = p2.apply(removeChoicesFunction);
-      if (choiceMap.size() > 0)
-        choiceMap.clear();
-      if (p2 == notAllowed)
-        return p1;
-    }
     if (p1 instanceof AfterPattern && p2 instanceof AfterPattern) {
       AfterPattern ap1 = (AfterPattern)p1;
       AfterPattern ap2 = (AfterPattern)p2;
@@ -163,6 +338,234 @@ public class ValidatorPatternBuilder extends PatternBuilder {
       if (ap1.getOperand2() == ap2.getOperand2())
         return makeAfter(makeChoice(ap1.getOperand1(), ap2.getOperand1()), ap1.getOperand2());
     }
-    return super.makeChoice(p1, p2);
+    List<Pattern> alternatives1 = new ArrayList<Pattern>();
+    boolean canonical1 = addAlternatives(p1, alternatives1);
+    List<Pattern> alternatives2 = new ArrayList<Pattern>();
+    boolean canonical2 = addAlternatives(p2, alternatives2);
+    if (!canonical1)
+      alternatives1 = sortAlternatives(alternatives1);
+    if (!canonical2)
+      alternatives2 = sortAlternatives(alternatives2);
+    List<Pattern> merged = mergeAlternatives(alternatives1, alternatives2);
+    // if one operand has all the alternatives, use it
+    if (merged.size() == alternatives2.size())
+      return p2;
+    if (merged.size() == alternatives1.size())
+      return p1;
+    if (merged.size() > 1) {
+      // as in PatternBuilder.makeChoice, empty is redundant if another alternative is nullable
+      int emptyIndex = merged.indexOf(makeEmpty());
+      if (emptyIndex >= 0) {
+        for (Pattern p : merged) {
+          if (p != makeEmpty() && p.isNullable()) {
+            merged.remove(emptyIndex);
+            break;
+          }
+        }
+      }
+    }
+    // share a suffix of the chain of one of the operands
+    int n = merged.size();
+    int shared1 = canonical1 ? sharedSuffix(merged, alternatives1) : 0;
+    int shared2 = canonical2 ? sharedSuffix(merged, alternatives2) : 0;
+    Pattern result;
+    if (shared1 == 0 && shared2 == 0)
+      result = merged.get(--n);
+    else if (shared1 >= shared2) {
+      result = chainSuffix(p1, alternatives1.size() - shared1);
+      n -= shared1;
+    }
+    else {
+      result = chainSuffix(p2, alternatives2.size() - shared2);
+      n -= shared2;
+    }
+    while (n > 0)
+      result = interner.intern(new ChoicePattern(merged.get(--n), result));
+    return result;
+  }
+
+  /**
+   * Adds the alternatives of a choice to a list. Returns true if the choice is in canonical form.
+   */
+  private boolean addAlternatives(Pattern p, List<Pattern> alternatives) {
+    boolean canonical = true;
+    while (p instanceof ChoicePattern) {
+      Pattern p1 = ((ChoicePattern)p).getOperand1();
+      if (p1 instanceof ChoicePattern) {
+        addAlternatives(p1, alternatives);
+        canonical = false;
+      }
+      else {
+        if (!alternatives.isEmpty() && compareAlternatives(alternatives.get(alternatives.size() - 1), p1) >= 0)
+          canonical = false;
+        alternatives.add(p1);
+      }
+      p = ((ChoicePattern)p).getOperand2();
+    }
+    if (!alternatives.isEmpty() && compareAlternatives(alternatives.get(alternatives.size() - 1), p) >= 0)
+      canonical = false;
+    alternatives.add(p);
+    return canonical;
+  }
+
+  /**
+   * Returns the sorted union of two sorted lists of alternatives.
+   */
+  private List<Pattern> mergeAlternatives(List<Pattern> alternatives1, List<Pattern> alternatives2) {
+    List<Pattern> merged = new ArrayList<Pattern>(alternatives1.size() + alternatives2.size());
+    int i = 0;
+    int j = 0;
+    while (i < alternatives1.size() && j < alternatives2.size()) {
+      Pattern a1 = alternatives1.get(i);
+      Pattern a2 = alternatives2.get(j);
+      int cmp = compareAlternatives(a1, a2);
+      if (cmp <= 0)
+        addAlternative(merged, alternatives1.get(i++));
+      if (cmp >= 0)
+        addAlternative(merged, alternatives2.get(j++));
+    }
+    while (i < alternatives1.size())
+      addAlternative(merged, alternatives1.get(i++));
+    while (j < alternatives2.size())
+      addAlternative(merged, alternatives2.get(j++));
+    return merged;
   }
+
+  private List<Pattern> sortAlternatives(List<Pattern> alternatives) {
+    Pattern[] sorted = alternatives.toArray(new Pattern[alternatives.size()]);
+    Arrays.sort(sorted, alternativeComparator);
+    List<Pattern> result = new ArrayList<Pattern>(sorted.length);
+    for (Pattern p : sorted)
+      addAlternative(result, p);
+    return result;
+  }
+
+  /**
+   * Adds an alternative to a sorted list, unless it is already there or is notAllowed.
+   */
+  private void addAlternative(List<Pattern> alternatives, Pattern p) {
+    if (p.isNotAllowed())
+      return;
+    // only alternatives that compare equal can be the same
+    for (int i = alternatives.size() - 1; i >= 0; i--) {
+      Pattern tem = alternatives.get(i);
+      if (tem == p)
+        return;
+      if (compareAlternatives(tem, p) != 0)
+        break;
+    }
+    alternatives.add(p);
+  }
+
+  /**
+   * Returns the number of alternatives at the end of merged that are the same as those at
+   * the end of alternatives.
+   */
+  private static int sharedSuffix(List<Pattern> merged, List<Pattern> alternatives) {
+    int i = merged.size();
+    int j = alternatives.size();
+    while (i > 0 && j > 0 && merged.get(i - 1) == alternatives.get(j - 1)) {
+      --i;
+      --j;
+    }
+    return merged.size() - i;
+  }
+
+  /**
+   * Returns the part of a canonical chain of choices starting with a given alternative.
+   */
+  private static Pattern chainSuffix(Pattern p, int index) {
+    for (; index > 0; --index)
+      p = ((ChoicePattern)p).getOperand2();
+    return p;
+  }
+
+  /**
+   * Orders the alternatives of a choice in canonical form.  The order is the same in every
+   * process, so that choices loaded by loadDerivatives are the same as those computed afresh.
+   * Patterns of the schemas passed to numberSchema are ordered by their SchemaNumbering and
+   * come first; the patterns built while computing derivatives are ordered by their kind and
+   * then by their operands.  Other patterns are ordered by their hash codes, which are not
+   * the same in every process; distinct patterns compare equal only if both their pattern hash
+   * codes and identity hash codes are equal.
+   */
+  int compareAlternatives(Pattern p1, Pattern p2) {
+    Map<Pattern, Integer> order = schemaOrder;
+    for (;;) {
+      if (p1 == p2)
+        return 0;
+      Integer n1 = order.get(p1);
+      Integer n2 = order.get(p2);
+      if (n1 != null || n2 != null) {
+        if (n1 == null)
+          return 1;
+        if (n2 == null)
+          return -1;
+        return n1 < n2 ? -1 : 1;
+      }
+      int k1 = derivedKind(p1);
+      int k2 = derivedKind(p2);
+      if (k1 != k2)
+        return k1 < k2 ? -1 : 1;
+      if (k1 == NOT_DERIVED)
+        return compareHashCodes(p1, p2);
+      if (k1 == ONE_OR_MORE_KIND) {
+        p1 = ((OneOrMorePattern)p1).getOperand();
+        p2 = ((OneOrMorePattern)p2).getOperand();
+      }
+      else {
+        int cmp = compareAlternatives(((BinaryPattern)p1).getOperand1(), ((BinaryPattern)p2).getOperand1());
+        if (cmp != 0)
+          return cmp;
+        // iterate rather than recurse, since the second operands may be long chains
+        p1 = ((BinaryPattern)p1).getOperand2();
+        p2 = ((BinaryPattern)p2).getOperand2();
+      }
+    }
+  }
+
+  /**
+   * Identifies the scheme implemented by compareAlternatives; it must be changed whenever the
+   * order changes, so that derivatives saved with the old order are not loaded.
+   */
+  static final int CHOICE_ORDER = 1;
+
+  private static final int NOT_DERIVED = 0;
+  private static final int CHOICE_KIND = 1;
+  private static final int GROUP_KIND = 2;
+  private static final int INTERLEAVE_KIND = 3;
+  private static final int AFTER_KIND = 4;
+  private static final int ONE_OR_MORE_KIND = 5;
+
+  private static int derivedKind(Pattern p) {
+    if (p instanceof ChoicePattern)
+      return CHOICE_KIND;
+    if (p instanceof GroupPattern)
+      return GROUP_KIND;
+    if (p instanceof InterleavePattern)
+      return INTERLEAVE_KIND;
+    if (p instanceof AfterPattern)
+      return AFTER_KIND;
+    if (p instanceof OneOrMorePattern)
+      return ONE_OR_MORE_KIND;
+    return NOT_DERIVED;
+  }
+
+  private static int compareHashCodes(Pattern p1, Pattern p2) {
+    int h1 = p1.patternHashCode();
+    int h2 = p2.patternHashCode();
+    if (h1 == h2) {
+      h1 = System.identityHashCode(p1);
+      h2 = System.identityHashCode(p2);
+      if (h1 == h2)
+        return 0;
+    }
+    return h1 < h2 ? -1 : 1;
+  }
+
+  private final Comparator<Pattern> alternativeComparator = new Comparator<Pattern>() {
+    public int compare(Pattern p1, Pattern p2) {
+      return compareAlternatives(p1, p2);
+    }
+  };
 }
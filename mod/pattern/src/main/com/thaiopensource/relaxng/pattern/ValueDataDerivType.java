@@ -5,9 +5,9 @@ import org.relaxng.datatype.Datatype;
 import org.relaxng.datatype.DatatypeException;
 import org.relaxng.datatype.ValidationContext;
 
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * DataDerivType for a pattern which is a choice of values of the same datatype.
@@ -15,8 +15,12 @@ import java.util.Map;
 class ValueDataDerivType extends DataDerivType {
   private final Datatype dt;
   private final Name dtName;
-  private PatternMemo noValue;
-  private Map<DatatypeValue, PatternMemo> valueMap;
+  private volatile PatternMemo noValue;
+  private final Map<DatatypeValue, PatternMemo> valueMap
+    = new ConcurrentHashMap<DatatypeValue, PatternMemo>();
+  // a lexical form of each value in valueMap, if dt is not context-dependent; used by MemoSnapshot
+  private final Map<String, PatternMemo> lexicalMap
+    = new ConcurrentHashMap<String, PatternMemo>();
 
   ValueDataDerivType(Datatype dt, Name dtName) {
     this.dt = dt;
@@ -45,12 +49,12 @@ class ValueDataDerivType extends DataDerivType {
     }
     else {
       DatatypeValue dtv = new DatatypeValue(value, dt);
-      if (valueMap == null)
-        valueMap = new HashMap<DatatypeValue, PatternMemo>();
       PatternMemo tem = valueMap.get(dtv);
       if (tem == null) {
         tem = super.dataDeriv(builder, p, str, vc, fail);
         valueMap.put(dtv, tem);
+        if (!dt.isContextDependent())
+          lexicalMap.put(str, tem);
       }
       else if (tem.isNotAllowed() && fail != null)
         super.dataDeriv(builder, p, str, vc, fail);
@@ -72,4 +76,24 @@ class ValueDataDerivType extends DataDerivType {
   Datatype getDatatype() {
     return dt;
   }
+
+  Map<String, PatternMemo> getLexicalMap() {
+    return lexicalMap;
+  }
+
+  /**
+   * Memoizes the derivative with respect to a value given by its lexical form.
+   */
+  void putValue(String str, ValidationContext vc, PatternMemo memo) {
+    if (dt.isContextDependent())
+      return;
+    Object value = dt.createValue(str, vc);
+    if (value == null)
+      return;
+    DatatypeValue dtv = new DatatypeValue(value, dt);
+    if (!valueMap.containsKey(dtv)) {
+      valueMap.put(dtv, memo);
+      lexicalMap.put(str, memo);
+    }
+  }
 }
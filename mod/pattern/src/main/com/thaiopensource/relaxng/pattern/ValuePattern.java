@@ -3,18 +3,23 @@ package com.thaiopensource.relaxng.pattern;
 import com.thaiopensource.xml.util.Name;
 import org.relaxng.datatype.Datatype;
 
+import java.util.Map;
+
 class ValuePattern extends StringPattern {
   private final Object obj;
   private final Datatype dt;
   private final Name dtName;
   private final String stringValue;
+  // the namespace prefixes used by stringValue; null unless dt is context-dependent
+  private final Map<String, String> prefixMap;
 
-  ValuePattern(Datatype dt, Name dtName, Object obj, String stringValue) {
+  ValuePattern(Datatype dt, Name dtName, Object obj, String stringValue, Map<String, String> prefixMap) {
     super(combineHashCode(VALUE_HASH_CODE, dt.valueHashCode(obj)));
     this.dt = dt;
     this.dtName = dtName;
     this.obj = obj;
     this.stringValue = stringValue;
+    this.prefixMap = prefixMap;
   }
 
   boolean samePattern(Pattern other) {
@@ -53,4 +58,8 @@ class ValuePattern extends StringPattern {
   String getStringValue() {
     return stringValue;
   }
+
+  Map<String, String> getPrefixMap() {
+    return prefixMap;
+  }
 }
@@ -1,16 +1,30 @@
 package com.thaiopensource.relaxng.sax;
 
 import com.thaiopensource.relaxng.match.MatchContext;
+import com.thaiopensource.relaxng.match.MatchContextSnapshot;
 import com.thaiopensource.relaxng.parse.sax.DtdContext;
 import com.thaiopensource.xml.util.WellKnownNamespaces;
 import org.xml.sax.SAXException;
 
-public class Context extends DtdContext implements MatchContext {
+public class Context extends DtdContext implements MatchContextSnapshot {
   protected PrefixMapping prefixMapping = new PrefixMapping("xml", WellKnownNamespaces.XML, null);
 
   public Context() {
   }
 
+  /**
+   * Creates a Context with the namespace declarations currently in scope in context.  The new
+   * Context is not affected by later changes to the namespace declarations of context.
+   */
+  public Context(Context context) {
+    super(context);
+    prefixMapping = context.prefixMapping;
+  }
+
+  public MatchContext snapshot() {
+    return new Context(this);
+  }
+
   public void startPrefixMapping(String prefix, String uri) throws SAXException {
     prefixMapping = new PrefixMapping(prefix, "".equals(uri) ? null : uri, prefixMapping);
   }
@@ -0,0 +1,43 @@
+package com.thaiopensource.relaxng.sax;
+
+import com.thaiopensource.relaxng.match.MatchError;
+import org.xml.sax.Locator;
+import org.xml.sax.SAXParseException;
+
+/**
+ * A SAXParseException reporting a MatchError.  The message of the exception is that of the
+ * MatchError, so it is constructed only when it is asked for.  An exception of this class does
+ * not fill in its stack trace, since the trace would only show how the parser delivered the event
+ * in which the error was found.
+ */
+public class MatchErrorException extends SAXParseException {
+  private final transient MatchError error;
+
+  public MatchErrorException(MatchError error, Locator locator) {
+    super(null, locator);
+    this.error = error;
+  }
+
+  /**
+   * Returns the MatchError reported by this exception.  This is null if the exception has been
+   * serialized.
+   */
+  public MatchError getError() {
+    return error;
+  }
+
+  public String getMessage() {
+    if (error == null)
+      return super.getMessage();
+    return error.getMessage();
+  }
+
+  public Throwable fillInStackTrace() {
+    return this;
+  }
+
+  // a MatchError is not serializable, so serialize a SAXParseException with the message instead
+  private Object writeReplace() {
+    return new SAXParseException(getMessage(), getPublicId(), getSystemId(), getLineNumber(), getColumnNumber());
+  }
+}
@@ -1,82 +1,93 @@
 package com.thaiopensource.relaxng.sax;
 
 import com.thaiopensource.relaxng.match.Matcher;
+import com.thaiopensource.relaxng.pattern.IdSoundnessChecker;
+import com.thaiopensource.relaxng.pattern.IdTypeTable;
+import com.thaiopensource.relaxng.pattern.NameTable;
 import com.thaiopensource.relaxng.pattern.Pattern;
 import com.thaiopensource.relaxng.pattern.PatternMatcher;
 import com.thaiopensource.relaxng.pattern.ValidatorPatternBuilder;
 import com.thaiopensource.xml.util.Name;
+import org.relaxng.datatype.Datatype;
 import org.xml.sax.Attributes;
 import org.xml.sax.ContentHandler;
 import org.xml.sax.DTDHandler;
 import org.xml.sax.ErrorHandler;
 import org.xml.sax.Locator;
 import org.xml.sax.SAXException;
-import org.xml.sax.SAXParseException;
 
 public class PatternValidator extends Context implements ContentHandler, DTDHandler {
   private Matcher matcher;
+  private final NameTable nameTable;
+  // null unless ID/IDREF/IDREFS are checked
+  private final IdTypeTable idTypeTable;
+  private final IdSoundnessChecker idChecker;
   private final ErrorHandler eh;
-  private boolean bufferingCharacters = false;
-  private final StringBuilder charBuf = new StringBuilder();
+  private final TextMatcher textMatcher = new TextMatcher();
+  // the names of the attributes of the current start-tag, if ID/IDREF/IDREFS are checked
+  private Name[] attNames = new Name[8];
   private Locator locator = null;
+  private int maxErrors = 0;
+  private int errorCount = 0;
 
   public void startElement(String namespaceURI,
 			   String localName,
 			   String qName,
 			   Attributes atts) throws SAXException {
-    if (bufferingCharacters) {
-      bufferingCharacters = false;
-      check(matcher.matchTextBeforeStartTag(charBuf.toString(), this));
-    }
-    Name name = new Name(namespaceURI, localName);
+    check(textMatcher.endTextBeforeStartTag(matcher, this));
+    Name name = nameTable.getName(namespaceURI, localName);
     check(matcher.matchStartTagOpen(name, qName, this));
     int len = atts.getLength();
+    if (idTypeTable != null && len > attNames.length)
+      attNames = new Name[Math.max(len, attNames.length * 2)];
     for (int i = 0; i < len; i++) {
-      Name attName = new Name(atts.getURI(i), atts.getLocalName(i));
+      Name attName = nameTable.getName(atts.getURI(i), atts.getLocalName(i));
+      if (idTypeTable != null)
+        attNames[i] = attName;
       String attQName = atts.getQName(i);
       check(matcher.matchAttributeName(attName, attQName, this));
       check(matcher.matchAttributeValue(atts.getValue(i), attName, attQName, this));
     }
     check(matcher.matchStartTagClose(name, qName, this));
-    if (matcher.isTextTyped()) {
-      bufferingCharacters = true;
-      charBuf.setLength(0);
-    }
+    if (idTypeTable != null && len > 0)
+      checkIds(name, atts);
+    textMatcher.startContent(matcher, this);
   }
 
   public void endElement(String namespaceURI,
 			 String localName,
 			 String qName) throws SAXException {
-    if (bufferingCharacters) {
-      bufferingCharacters = false;
-      if (charBuf.length() > 0)
-        check(matcher.matchTextBeforeEndTag(charBuf.toString(), new Name(namespaceURI, localName),
-                                            qName, this));
-    }
-    check(matcher.matchEndTag(new Name(namespaceURI, localName), qName, this));
+    Name name = nameTable.getName(namespaceURI, localName);
+    check(textMatcher.endTextBeforeEndTag(matcher, name, qName, this));
+    check(matcher.matchEndTag(name, qName, this));
   }
 
   public void characters(char ch[], int start, int length) throws SAXException {
-    if (bufferingCharacters) {
-      charBuf.append(ch, start, length);
+    check(textMatcher.characters(matcher, ch, start, length, this));
+  }
+
+  private void checkIds(Name name, Attributes atts) throws SAXException {
+    IdTypeTable.Element idTypes = idTypeTable.getElement(name);
+    if (idTypes == null)
       return;
-    }
-    for (int i = 0; i < length; i++) {
-      switch (ch[start + i]) {
-      case ' ':
-      case '\r':
-      case '\t':
-      case '\n':
-	break;
-      default:
-	check(matcher.matchUntypedText(this));
-	return;
-      }
+    for (int i = 0, len = atts.getLength(); i < len; i++) {
+      int idType = idTypes.getIdType(attNames[i]);
+      if (idType != Datatype.ID_TYPE_NULL)
+        idChecker.attribute(idType, atts.getValue(i), locator);
     }
   }
 
   public void endDocument() throws SAXException {
     check(matcher.matchEndDocument());
+    if (idChecker != null)
+      checkIdrefs();
+  }
+
+  /**
+   * Reports the IDREFs that do not match an ID.
+   */
+  protected void checkIdrefs() throws SAXException {
+    idChecker.endDocument();
   }
 
   public void setDocumentLocator(Locator locator) {
@@ -92,27 +103,49 @@ public class PatternValidator extends Context implements ContentHandler, DTDHand
   public void ignorableWhitespace(char[] ch, int start, int len) { }
 
   public void startPrefixMapping(String prefix, String uri) throws SAXException {
-    if (bufferingCharacters) {
-      bufferingCharacters = false;
-      check(matcher.matchTextBeforeStartTag(charBuf.toString(), this));
-    }
+    check(textMatcher.endTextBeforeStartTag(matcher, this));
     super.startPrefixMapping(prefix, uri);
   }
 
   public PatternValidator(Pattern pattern, ValidatorPatternBuilder builder, ErrorHandler eh) {
+    this(pattern, builder, null, 0, eh);
+  }
+
+  /**
+   * Creates a PatternValidator that also checks ID/IDREF/IDREFS, if idTypeTable is non-null.
+   * The IdTypeTable must use the NameTable of the builder for the pattern.  maxIdrefsInMemory is
+   * as for IdSoundnessChecker.
+   */
+  public PatternValidator(Pattern pattern, ValidatorPatternBuilder builder, IdTypeTable idTypeTable,
+                          int maxIdrefsInMemory, ErrorHandler eh) {
     this.matcher = new PatternMatcher(pattern, builder);
+    this.nameTable = builder.getNameTable(pattern);
+    this.idTypeTable = idTypeTable;
+    this.idChecker = idTypeTable == null ? null : new IdSoundnessChecker(idTypeTable, eh, maxIdrefsInMemory);
     this.eh = eh;
   }
 
   public void reset() {
     super.reset();
-    bufferingCharacters = false;
+    textMatcher.reset();
+    if (idChecker != null)
+      idChecker.reset();
     locator = null;
+    errorCount = 0;
     matcher = matcher.start();
   }
 
+  /**
+   * Sets the maximum number of errors found by matching against the pattern that are reported
+   * to the ErrorHandler for each document; later errors in the document are not reported.
+   * 0 means that there is no limit, which is the default.
+   */
+  public void setMaxErrors(int maxErrors) {
+    this.maxErrors = maxErrors;
+  }
+
   private void check(boolean ok) throws SAXException {
-    if (!ok)
-      eh.error(new SAXParseException(matcher.getErrorMessage(), locator));
+    if (!ok && (maxErrors == 0 || errorCount++ < maxErrors))
+      eh.error(new MatchErrorException(matcher.getError(), locator));
   }
 }
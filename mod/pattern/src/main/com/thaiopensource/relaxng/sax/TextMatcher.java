@@ -0,0 +1,107 @@
+package com.thaiopensource.relaxng.sax;
+
+import com.thaiopensource.relaxng.match.MatchContext;
+import com.thaiopensource.relaxng.match.Matcher;
+import com.thaiopensource.xml.util.Name;
+import org.relaxng.datatype.DatatypeStreamingValidator;
+
+/**
+ * Passes the character data of a document to a Matcher.  Text that the Matcher can check as it arrives
+ * is passed to a DatatypeStreamingValidator; other text-typed content is buffered until the next tag.
+ * Each method that may match returns false if the Matcher reported an error, which the caller gets
+ * from the Matcher in the usual way.
+ */
+public final class TextMatcher {
+  private boolean bufferingCharacters = false;
+  private final StringBuilder charBuf = new StringBuilder();
+  private DatatypeStreamingValidator textValidator = null;
+  private boolean hadText;
+  private boolean hadNonBlankText;
+
+  /**
+   * Must be called after matching the close of each start-tag.
+   */
+  public void startContent(Matcher matcher, MatchContext context) {
+    if (!matcher.isTextTyped())
+      return;
+    textValidator = matcher.createTextValidator(context);
+    if (textValidator == null) {
+      bufferingCharacters = true;
+      charBuf.setLength(0);
+    }
+    else {
+      hadText = false;
+      hadNonBlankText = false;
+    }
+  }
+
+  public boolean characters(Matcher matcher, char[] ch, int start, int length, MatchContext context) {
+    if (bufferingCharacters) {
+      charBuf.append(ch, start, length);
+      return true;
+    }
+    if (textValidator != null) {
+      if (length > 0) {
+        hadText = true;
+        textValidator.addCharacters(ch, start, length);
+        if (!hadNonBlankText && !isBlank(ch, start, length))
+          hadNonBlankText = true;
+      }
+      return true;
+    }
+    return isBlank(ch, start, length) || matcher.matchUntypedText(context);
+  }
+
+  /**
+   * Matches the text before a start-tag.  Must be called before any namespace declarations on the
+   * start-tag are added to the context, since they don't apply to the text before it.
+   */
+  public boolean endTextBeforeStartTag(Matcher matcher, MatchContext context) {
+    if (bufferingCharacters) {
+      bufferingCharacters = false;
+      return matcher.matchTextBeforeStartTag(charBuf.toString(), context);
+    }
+    if (textValidator != null) {
+      // text followed by a start-tag is untyped
+      textValidator = null;
+      if (hadNonBlankText)
+        return matcher.matchUntypedText(context);
+    }
+    return true;
+  }
+
+  public boolean endTextBeforeEndTag(Matcher matcher, Name name, String qName, MatchContext context) {
+    if (bufferingCharacters) {
+      bufferingCharacters = false;
+      if (charBuf.length() > 0)
+        return matcher.matchTextBeforeEndTag(charBuf.toString(), name, qName, context);
+    }
+    else if (textValidator != null) {
+      DatatypeStreamingValidator validator = textValidator;
+      textValidator = null;
+      if (hadText)
+        return matcher.matchTextBeforeEndTag(validator, name, qName, context);
+    }
+    return true;
+  }
+
+  public void reset() {
+    bufferingCharacters = false;
+    textValidator = null;
+  }
+
+  private static boolean isBlank(char[] ch, int start, int length) {
+    for (int i = 0; i < length; i++) {
+      switch (ch[start + i]) {
+      case ' ':
+      case '\r':
+      case '\t':
+      case '\n':
+        break;
+      default:
+        return false;
+      }
+    }
+    return true;
+  }
+}
@@ -0,0 +1,222 @@
+package com.thaiopensource.relaxng.stax;
+
+import com.thaiopensource.relaxng.match.Matcher;
+import com.thaiopensource.relaxng.sax.Context;
+import com.thaiopensource.relaxng.sax.MatchErrorException;
+import com.thaiopensource.relaxng.sax.TextMatcher;
+import com.thaiopensource.xml.util.Name;
+import org.xml.sax.ErrorHandler;
+import org.xml.sax.Locator;
+import org.xml.sax.SAXException;
+
+import javax.xml.stream.Location;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.events.EntityDeclaration;
+import javax.xml.stream.events.NotationDeclaration;
+import java.util.List;
+
+/**
+ * Validates the events of an XMLStreamReader by passing them directly to a Matcher, without
+ * converting them to SAX events.  Errors are reported to an ErrorHandler as MatchErrorExceptions
+ * located at the current location of the XMLStreamReader.
+ *
+ * <p>A whole document or element can be validated with <code>validate</code>.  Alternatively,
+ * an application that is reading the events itself can call <code>processEvent</code> after
+ * each call to <code>next</code>, starting with the START_DOCUMENT event.
+ *
+ * <p>When validation starts at an element rather than at the start of the document, the namespace
+ * declarations of the ancestors of the element are not known to datatypes that use them.
+ */
+public class StreamReaderValidator {
+  private Matcher matcher;
+  private final ErrorHandler eh;
+  private final Context context = new Context();
+  private final ReaderLocator locator = new ReaderLocator();
+  private final TextMatcher textMatcher = new TextMatcher();
+
+  private static class ReaderLocator implements Locator {
+    private XMLStreamReader reader;
+
+    public String getPublicId() {
+      Location location = getLocation();
+      return location == null ? null : location.getPublicId();
+    }
+
+    public String getSystemId() {
+      Location location = getLocation();
+      return location == null ? null : location.getSystemId();
+    }
+
+    public int getLineNumber() {
+      Location location = getLocation();
+      return location == null ? -1 : location.getLineNumber();
+    }
+
+    public int getColumnNumber() {
+      Location location = getLocation();
+      return location == null ? -1 : location.getColumnNumber();
+    }
+
+    private Location getLocation() {
+      return reader == null ? null : reader.getLocation();
+    }
+  }
+
+  /**
+   * Creates a StreamReaderValidator.
+   *
+   * @param matcher the Matcher, in its starting state
+   * @param eh the ErrorHandler to which errors are reported; must not be null
+   */
+  public StreamReaderValidator(Matcher matcher, ErrorHandler eh) {
+    this.matcher = matcher;
+    this.eh = eh;
+  }
+
+  /**
+   * Validates the document or element at the current event of reader, which must be
+   * START_DOCUMENT or START_ELEMENT.  Events are read up to and including the matching
+   * END_DOCUMENT or END_ELEMENT.
+   */
+  public void validate(XMLStreamReader reader) throws XMLStreamException, SAXException {
+    int event = reader.getEventType();
+    if (event == XMLStreamConstants.START_DOCUMENT) {
+      for (;;) {
+        processEvent(reader);
+        if (event == XMLStreamConstants.END_DOCUMENT)
+          break;
+        event = reader.next();
+      }
+    }
+    else if (event == XMLStreamConstants.START_ELEMENT) {
+      locator.reader = reader;
+      check(matcher.matchStartDocument());
+      for (int depth = 0;;) {
+        processEvent(reader);
+        if (event == XMLStreamConstants.START_ELEMENT)
+          depth++;
+        else if (event == XMLStreamConstants.END_ELEMENT && --depth == 0)
+          break;
+        event = reader.next();
+      }
+      check(matcher.matchEndDocument());
+    }
+    else
+      throw new IllegalStateException("reader must be at the start of a document or element");
+  }
+
+  /**
+   * Validates the current event of reader.
+   */
+  public void processEvent(XMLStreamReader reader) throws SAXException {
+    locator.reader = reader;
+    switch (reader.getEventType()) {
+    case XMLStreamConstants.START_DOCUMENT:
+      check(matcher.matchStartDocument());
+      break;
+    case XMLStreamConstants.END_DOCUMENT:
+      check(matcher.matchEndDocument());
+      break;
+    case XMLStreamConstants.START_ELEMENT:
+      startElement(reader);
+      break;
+    case XMLStreamConstants.END_ELEMENT:
+      endElement(reader);
+      break;
+    case XMLStreamConstants.CHARACTERS:
+    case XMLStreamConstants.CDATA:
+    case XMLStreamConstants.SPACE:
+      check(textMatcher.characters(matcher, reader.getTextCharacters(), reader.getTextStart(),
+                                   reader.getTextLength(), context));
+      break;
+    case XMLStreamConstants.DTD:
+      dtd(reader);
+      break;
+    }
+  }
+
+  /**
+   * Resets this so that it can validate another document.
+   */
+  public void reset() {
+    textMatcher.reset();
+    locator.reader = null;
+    matcher = matcher.start();
+    context.reset();
+  }
+
+  private void startElement(XMLStreamReader reader) throws SAXException {
+    // namespace declarations on the start-tag shouldn't apply to the characters before the start-tag
+    check(textMatcher.endTextBeforeStartTag(matcher, context));
+    for (int i = 0, len = reader.getNamespaceCount(); i < len; i++)
+      context.startPrefixMapping(nonNull(reader.getNamespacePrefix(i)), nonNull(reader.getNamespaceURI(i)));
+    Name name = new Name(nonNull(reader.getNamespaceURI()), reader.getLocalName());
+    String qName = qName(reader.getPrefix(), name);
+    check(matcher.matchStartTagOpen(name, qName, context));
+    for (int i = 0, len = reader.getAttributeCount(); i < len; i++) {
+      Name attName = new Name(nonNull(reader.getAttributeNamespace(i)), reader.getAttributeLocalName(i));
+      String attQName = qName(reader.getAttributePrefix(i), attName);
+      check(matcher.matchAttributeName(attName, attQName, context));
+      check(matcher.matchAttributeValue(reader.getAttributeValue(i), attName, attQName, context));
+    }
+    check(matcher.matchStartTagClose(name, qName, context));
+    textMatcher.startContent(matcher, context);
+  }
+
+  private void endElement(XMLStreamReader reader) throws SAXException {
+    Name name = new Name(nonNull(reader.getNamespaceURI()), reader.getLocalName());
+    String qName = qName(reader.getPrefix(), name);
+    check(textMatcher.endTextBeforeEndTag(matcher, name, qName, context));
+    check(matcher.matchEndTag(name, qName, context));
+    for (int i = 0, len = reader.getNamespaceCount(); i < len; i++)
+      context.endPrefixMapping(nonNull(reader.getNamespacePrefix(i)));
+  }
+
+  // the notations and unparsed entities, if the implementation makes them available
+  private void dtd(XMLStreamReader reader) throws SAXException {
+    Object notations;
+    Object entities;
+    try {
+      notations = reader.getProperty("javax.xml.stream.notations");
+      entities = reader.getProperty("javax.xml.stream.entities");
+    }
+    catch (IllegalArgumentException e) {
+      return;
+    }
+    if (notations instanceof List) {
+      for (Object obj : (List)notations) {
+        if (obj instanceof NotationDeclaration) {
+          NotationDeclaration decl = (NotationDeclaration)obj;
+          context.notationDecl(decl.getName(), decl.getPublicId(), decl.getSystemId());
+        }
+      }
+    }
+    if (entities instanceof List) {
+      for (Object obj : (List)entities) {
+        if (obj instanceof EntityDeclaration) {
+          EntityDeclaration decl = (EntityDeclaration)obj;
+          if (decl.getNotationName() != null)
+            context.unparsedEntityDecl(decl.getName(), decl.getPublicId(), decl.getSystemId(),
+                                       decl.getNotationName());
+        }
+      }
+    }
+  }
+
+  private void check(boolean ok) throws SAXException {
+    if (!ok)
+      eh.error(new MatchErrorException(matcher.getError(), locator));
+  }
+
+  private static String qName(String prefix, Name name) {
+    if (prefix == null || prefix.length() == 0)
+      return name.getLocalName();
+    return prefix + ":" + name.getLocalName();
+  }
+
+  private static String nonNull(String str) {
+    return str == null ? "" : str;
+  }
+}
@@ -0,0 +1,126 @@
+package com.thaiopensource.relaxng.pattern;
+
+import com.thaiopensource.xml.util.Name;
+import org.relaxng.datatype.Datatype;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+import org.xml.sax.ErrorHandler;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXParseException;
+import org.xml.sax.helpers.LocatorImpl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Test IdSoundnessChecker.
+ */
+public class IdSoundnessCheckerTest {
+  static private final Name ELEMENT = new Name("", "e");
+  static private final Name ID = new Name("", "id");
+  static private final Name IDREFS = new Name("", "refs");
+
+  static private final IdTypeMap ID_TYPE_MAP = new IdTypeMap() {
+    public int getIdType(Name elementName, Name attributeName) {
+      if (attributeName.equals(ID))
+        return Datatype.ID_TYPE_ID;
+      if (attributeName.equals(IDREFS))
+        return Datatype.ID_TYPE_IDREFS;
+      return Datatype.ID_TYPE_NULL;
+    }
+  };
+
+  @Test
+  public void testErrors() throws SAXException {
+    List<String> errors = check(0);
+    Assert.assertEquals(errors.size(), 6);
+    Assert.assertTrue(errors.contains("3:id:ID \"a\" has already been defined"), errors.toString());
+    Assert.assertTrue(errors.contains("1:id:first occurrence of ID \"a\""), errors.toString());
+    for (int line = 5; line < 9; line++)
+      Assert.assertTrue(errors.contains(line + ":refs:IDREF \"z" + (line % 2) + "\" without matching ID"),
+                        errors.toString());
+  }
+
+  @Test
+  public void testSpill() throws SAXException {
+    List<String> expected = check(0);
+    Collections.sort(expected);
+    for (int max = 1; max < 4; max++) {
+      List<String> errors = check(max);
+      Collections.sort(errors);
+      Assert.assertEquals(errors, expected);
+    }
+  }
+
+  @Test
+  public void testSpillLongToken() throws SAXException {
+    StringBuilder buf = new StringBuilder();
+    while (buf.length() < 70000)
+      buf.append("\u0e01x");
+    String token = buf.toString();
+    List<String> errors = new ArrayList<String>();
+    IdSoundnessChecker checker = new IdSoundnessChecker(ID_TYPE_MAP, collector(errors), 1);
+    checker.attribute(ELEMENT, ID, "a", locator(1, "id"));
+    for (int line = 2; line < 10; line++)
+      checker.attribute(ELEMENT, IDREFS, "a r" + line + " " + token, locator(line, "refs"));
+    checker.attribute(ELEMENT, ID, "r5", locator(10, "id"));
+    checker.endDocument();
+    // one for each IDREF of the long token and of each r token except r5
+    Assert.assertEquals(errors.size(), 15);
+    Assert.assertTrue(errors.contains("9:refs:IDREF \"" + token + "\" without matching ID"));
+    Assert.assertTrue(errors.contains("9:refs:IDREF \"r9\" without matching ID"));
+    Assert.assertFalse(errors.contains("5:refs:IDREF \"r5\" without matching ID"));
+  }
+
+  @Test
+  public void testReset() throws SAXException {
+    List<String> errors = new ArrayList<String>();
+    IdSoundnessChecker checker = new IdSoundnessChecker(ID_TYPE_MAP, collector(errors), 1);
+    checker.attribute(ELEMENT, IDREFS, "x y", locator(1, "refs"));
+    checker.reset();
+    checker.attribute(ELEMENT, ID, "x", locator(2, "id"));
+    checker.attribute(ELEMENT, ID, "y", locator(3, "id"));
+    checker.endDocument();
+    Assert.assertEquals(errors, Collections.<String>emptyList());
+  }
+
+  private static List<String> check(int maxIdrefsInMemory) throws SAXException {
+    List<String> errors = new ArrayList<String>();
+    IdSoundnessChecker checker = new IdSoundnessChecker(ID_TYPE_MAP, collector(errors), maxIdrefsInMemory);
+    checker.attribute(ELEMENT, ID, "a", locator(1, "id"));
+    checker.attribute(ELEMENT, IDREFS, "a b c", locator(2, "refs"));
+    checker.attribute(ELEMENT, ID, "a", locator(3, "id"));
+    checker.attribute(ELEMENT, IDREFS, "d e", locator(4, "refs"));
+    for (int line = 5; line < 9; line++)
+      checker.attribute(ELEMENT, IDREFS, "z" + (line % 2) + " b", locator(line, "refs"));
+    checker.attribute(ELEMENT, ID, "b", locator(9, "id"));
+    checker.attribute(ELEMENT, ID, "c", locator(10, "id"));
+    checker.attribute(ELEMENT, ID, "d", locator(11, "id"));
+    checker.attribute(ELEMENT, ID, "e", locator(12, "id"));
+    checker.endDocument();
+    return errors;
+  }
+
+  private static LocatorImpl locator(int line, String systemId) {
+    LocatorImpl locator = new LocatorImpl();
+    locator.setSystemId(systemId);
+    locator.setLineNumber(line);
+    locator.setColumnNumber(1);
+    return locator;
+  }
+
+  private static ErrorHandler collector(final List<String> errors) {
+    return new ErrorHandler() {
+      public void warning(SAXParseException e) { }
+
+      public void error(SAXParseException e) {
+        errors.add(e.getLineNumber() + ":" + e.getSystemId() + ":" + e.getMessage());
+      }
+
+      public void fatalError(SAXParseException e) {
+        error(e);
+      }
+    };
+  }
+}
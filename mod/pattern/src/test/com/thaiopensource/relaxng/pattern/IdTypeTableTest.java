@@ -0,0 +1,43 @@
+package com.thaiopensource.relaxng.pattern;
+
+import com.thaiopensource.xml.util.Name;
+import org.relaxng.datatype.Datatype;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Test IdTypeTable.
+ */
+public class IdTypeTableTest {
+  @Test
+  public void testGetElement() {
+    Name item = new Name("", "item");
+    Name other = new Name("", "other");
+    Name id = new Name("", "id");
+    Name ref = new Name("", "ref");
+    IdTypeMapBuilder.IdTypeMapImpl idTypeMap = new IdTypeMapBuilder.IdTypeMapImpl();
+    idTypeMap.add(item, id, Datatype.ID_TYPE_ID);
+    idTypeMap.add(item, ref, Datatype.ID_TYPE_IDREFS);
+    idTypeMap.add(other, id, Datatype.ID_TYPE_NULL);
+    List<Name> names = new ArrayList<Name>();
+    names.add(new Name("", "item"));
+    names.add(new Name("", "other"));
+    names.add(new Name("", "id"));
+    names.add(new Name("", "ref"));
+    NameTable nameTable = new NameTable(names);
+    IdTypeTable table = IdTypeTable.forIdTypeMap(idTypeMap, nameTable);
+    IdTypeTable.Element element = table.getElement(nameTable.getName("", "item"));
+    Assert.assertNotNull(element);
+    Assert.assertEquals(element.getIdType(nameTable.getName("", "id")), Datatype.ID_TYPE_ID);
+    Assert.assertEquals(element.getIdType(ref), Datatype.ID_TYPE_IDREFS);
+    Assert.assertEquals(element.getIdType(new Name("", "x")), Datatype.ID_TYPE_NULL);
+    // elements none of whose attributes has an ID type are not in the table
+    Assert.assertNull(table.getElement(other));
+    Assert.assertNull(table.getElement(new Name("", "doc")));
+    Assert.assertEquals(table.getIdType(item, id), Datatype.ID_TYPE_ID);
+    Assert.assertEquals(table.getIdType(other, id), Datatype.ID_TYPE_NULL);
+  }
+}
@@ -0,0 +1,107 @@
+package com.thaiopensource.relaxng.pattern;
+
+import com.thaiopensource.relaxng.match.Matcher;
+import com.thaiopensource.relaxng.sax.Context;
+import com.thaiopensource.xml.util.Name;
+import org.relaxng.datatype.Datatype;
+import org.relaxng.datatype.DatatypeException;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+import org.xml.sax.Locator;
+import org.xml.sax.helpers.LocatorImpl;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Test MemoSnapshot.
+ */
+public class MemoSnapshotTest {
+  static private final Name root = new Name("", "root");
+  static private final Name att = new Name("", "x");
+  static private final Name child = new Name("", "a");
+
+  @Test
+  public void testRoundTrip() throws IOException, DatatypeException {
+    SchemaPatternBuilder spb = new SchemaPatternBuilder();
+    Pattern start = makeSchema(spb);
+    ValidatorPatternBuilder builder1 = new ValidatorPatternBuilder(spb);
+    validate(start, builder1);
+    byte[] bytes = save(builder1, start);
+    ValidatorPatternBuilder builder2 = new ValidatorPatternBuilder(spb);
+    Assert.assertTrue(load(builder2, start, bytes));
+    Assert.assertEquals(builder2.getPatternMemoCount(), builder1.getPatternMemoCount());
+    DerivativeStatistics statistics = builder2.enableStatistics();
+    validate(start, builder2);
+    for (String transitionName : statistics.getTransitionNames())
+      Assert.assertEquals(statistics.getMisses(transitionName), 0, transitionName);
+    Assert.assertEquals(statistics.getStatesCreated(), 0);
+    // what was loaded is saved again
+    Assert.assertEquals(save(builder2, start).length, bytes.length);
+  }
+
+  @Test
+  public void testOtherSchema() throws IOException, DatatypeException {
+    SchemaPatternBuilder spb = new SchemaPatternBuilder();
+    Pattern start = makeSchema(spb);
+    ValidatorPatternBuilder builder = new ValidatorPatternBuilder(spb);
+    validate(start, builder);
+    byte[] bytes = save(builder, start);
+    Pattern other = spb.makeElement(new SimpleNameClass(root), spb.makeEmpty(), new LocatorImpl());
+    ValidatorPatternBuilder otherBuilder = new ValidatorPatternBuilder(spb);
+    Assert.assertFalse(load(otherBuilder, other, bytes));
+    Assert.assertEquals(otherBuilder.getPatternMemoCount(), 0);
+  }
+
+  @Test(expectedExceptions = IOException.class)
+  public void testNotSnapshot() throws IOException, DatatypeException {
+    SchemaPatternBuilder spb = new SchemaPatternBuilder();
+    Pattern start = makeSchema(spb);
+    load(new ValidatorPatternBuilder(spb), start, new byte[] { 1, 2, 3, 4, 5, 6, 7, 8 });
+  }
+
+  /**
+   * Makes element root { attribute x { "1" | "2" }, element a { empty }* }.
+   */
+  private static Pattern makeSchema(SchemaPatternBuilder spb) throws DatatypeException {
+    Locator loc = new LocatorImpl();
+    Name tokenName = new Name("", "token");
+    Datatype token = new BuiltinDatatypeLibrary().createDatatype("token");
+    Pattern values = spb.makeChoice(spb.makeValue(token, tokenName, token.createValue("1", null), "1", null),
+                                    spb.makeValue(token, tokenName, token.createValue("2", null), "2", null));
+    Pattern content = spb.makeGroup(spb.makeAttribute(new SimpleNameClass(att), values, loc),
+                                    spb.makeZeroOrMore(spb.makeElement(new SimpleNameClass(child),
+                                                                       spb.makeEmpty(), loc)));
+    return spb.makeElement(new SimpleNameClass(root), content, loc);
+  }
+
+  private static void validate(Pattern start, ValidatorPatternBuilder builder) {
+    Matcher matcher = new PatternMatcher(start, builder);
+    Context context = new Context();
+    Assert.assertTrue(matcher.matchStartDocument());
+    Assert.assertTrue(matcher.matchStartTagOpen(root, "root", context));
+    Assert.assertTrue(matcher.matchAttributeName(att, "x", context));
+    Assert.assertTrue(matcher.matchAttributeValue("2", att, "x", context));
+    Assert.assertTrue(matcher.matchStartTagClose(root, "root", context));
+    for (int i = 0; i < 2; i++) {
+      Assert.assertTrue(matcher.matchStartTagOpen(child, "a", context));
+      Assert.assertTrue(matcher.matchStartTagClose(child, "a", context));
+      Assert.assertTrue(matcher.matchEndTag(child, "a", context));
+    }
+    Assert.assertTrue(matcher.matchEndTag(root, "root", context));
+    Assert.assertTrue(matcher.matchEndDocument());
+  }
+
+  private static byte[] save(ValidatorPatternBuilder builder, Pattern start) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    builder.saveDerivatives(start, new DataOutputStream(bytes));
+    return bytes.toByteArray();
+  }
+
+  private static boolean load(ValidatorPatternBuilder builder, Pattern start, byte[] bytes) throws IOException {
+    return builder.loadDerivatives(start, new DataInputStream(new ByteArrayInputStream(bytes)));
+  }
+}
@@ -0,0 +1,81 @@
+package com.thaiopensource.relaxng.pattern;
+
+import com.thaiopensource.xml.util.Name;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+import org.xml.sax.Locator;
+import org.xml.sax.helpers.LocatorImpl;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Test NameMask and the skipping of branches that cannot match a name.
+ */
+public class NameMaskTest {
+  private final SchemaPatternBuilder spb = new SchemaPatternBuilder();
+  private final Locator loc = new LocatorImpl();
+
+  @Test
+  public void testMasks() {
+    Name a = new Name("", "a");
+    Name b = findName(NameMask.bit(a));
+    Pattern elementA = makeElement(a);
+    Pattern elementB = makeElement(b);
+    ValidatorPatternBuilder builder = new ValidatorPatternBuilder(spb);
+    long mask = builder.getPatternMemo(spb.makeGroup(elementA, elementB)).startTagNameMask();
+    Assert.assertTrue(NameMask.mayContain(mask, NameMask.bit(a)));
+    // b cannot start the group, since a is required
+    Assert.assertFalse(NameMask.mayContain(mask, NameMask.bit(b)));
+    mask = builder.getPatternMemo(spb.makeGroup(spb.makeOptional(elementA), elementB)).startTagNameMask();
+    Assert.assertTrue(NameMask.mayContain(mask, NameMask.bit(b)));
+    mask = builder.getPatternMemo(spb.makeInterleave(elementA, elementB)).startTagNameMask();
+    Assert.assertTrue(NameMask.mayContain(mask, NameMask.bit(b)));
+    Assert.assertEquals(builder.getPatternMemo(spb.makeText()).startTagNameMask(), NameMask.COMPUTED);
+    Pattern any = spb.makeElement(new AnyNameClass(), spb.makeEmpty(), loc);
+    Assert.assertEquals(builder.getPatternMemo(spb.makeChoice(elementA, any)).startTagNameMask(), ~0L);
+    Pattern attribute = spb.makeAttribute(new SimpleNameClass(b), spb.makeText(), loc);
+    mask = builder.getPatternMemo(spb.makeGroup(elementA, attribute)).attributeNameMask();
+    Assert.assertTrue(NameMask.mayContain(mask, NameMask.bit(b)));
+    Assert.assertFalse(NameMask.mayContain(mask, NameMask.bit(a)));
+  }
+
+  @Test
+  public void testSkipped() {
+    // names whose bits are all different
+    List<Name> names = new ArrayList<Name>();
+    long bits = 0;
+    for (int i = 0; names.size() < 20; i++) {
+      Name name = new Name("", "e" + i);
+      if (!NameMask.mayContain(bits, NameMask.bit(name))) {
+        bits |= NameMask.bit(name);
+        names.add(name);
+      }
+    }
+    Pattern interleave = spb.makeEmpty();
+    for (Name name : names)
+      interleave = spb.makeInterleave(interleave, spb.makeOptional(makeElement(name)));
+    ValidatorPatternBuilder builder = new ValidatorPatternBuilder(spb);
+    DerivativeStatistics statistics = builder.enableStatistics();
+    Name last = names.get(names.size() - 1);
+    Pattern deriv = builder.getPatternMemo(interleave).startTagOpenDeriv(last).getPattern();
+    Assert.assertNotSame(deriv, builder.makeNotAllowed());
+    // without skipping, the derivative of every branch of the interleave would be computed
+    Assert.assertTrue(statistics.getMisses("startTagOpenDeriv") < 10,
+                      String.valueOf(statistics.getMisses("startTagOpenDeriv")));
+    Assert.assertSame(builder.getPatternMemo(interleave).startTagOpenDeriv(new Name("", "x")).getPattern(),
+                      builder.makeNotAllowed());
+  }
+
+  private Pattern makeElement(Name name) {
+    return spb.makeElement(new SimpleNameClass(name), spb.makeEmpty(), loc);
+  }
+
+  private static Name findName(long excludedBit) {
+    for (int i = 0;; i++) {
+      Name name = new Name("", "n" + i);
+      if (NameMask.bit(name) != excludedBit)
+        return name;
+    }
+  }
+}
@@ -0,0 +1,34 @@
+package com.thaiopensource.relaxng.pattern;
+
+import com.thaiopensource.xml.util.Name;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * Test NameMemoMap.
+ */
+public class NameMemoMapTest {
+  @Test
+  public void testPut() {
+    SchemaPatternBuilder spb = new SchemaPatternBuilder();
+    ValidatorPatternBuilder builder = new ValidatorPatternBuilder(spb);
+    PatternMemo[] memos = { builder.getPatternMemo(spb.makeEmpty()),
+                            builder.getPatternMemo(spb.makeNotAllowed()),
+                            builder.getPatternMemo(spb.makeText()) };
+    NameMemoMap map = new NameMemoMap();
+    // enough to grow from the inline entries to a hash table, and then to grow the hash table
+    for (int i = 0; i < 100; i++) {
+      map = map.put(new Name("urn:" + (i % 3), "n" + i), memos[i % 3]);
+      Assert.assertEquals(map.size(), i + 1);
+      for (int j = 0; j <= i; j++)
+        Assert.assertSame(map.get(new Name("urn:" + (j % 3), "n" + j)), memos[j % 3]);
+      Assert.assertNull(map.get(new Name("urn:" + (i % 3), "n" + (i + 1))));
+    }
+    int count = 0;
+    for (int i = 0; i < map.getCapacity(); i++) {
+      if (map.getName(i) != null)
+        count++;
+    }
+    Assert.assertEquals(count, 100);
+  }
+}
@@ -0,0 +1,29 @@
+package com.thaiopensource.relaxng.pattern;
+
+import com.thaiopensource.xml.util.Name;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Test NameTable.
+ */
+public class NameTableTest {
+  @Test
+  public void testGet() {
+    List<Name> names = new ArrayList<Name>();
+    for (int i = 0; i < 10; i++)
+      names.add(new Name(i % 2 == 0 ? "" : "urn:x", "n" + i));
+    NameTable table = new NameTable(names);
+    for (Name name : names) {
+      Assert.assertSame(table.get(name.getNamespaceUri(), name.getLocalName()), name);
+      // strings that are equal but not identical
+      Assert.assertSame(table.get(new String(name.getNamespaceUri()), new String(name.getLocalName())), name);
+    }
+    Assert.assertNull(table.get("urn:x", "n0"));
+    Assert.assertNull(table.get("", "n10"));
+    Assert.assertEquals(table.getName("", "n10"), new Name("", "n10"));
+  }
+}
@@ -0,0 +1,84 @@
+package com.thaiopensource.relaxng.pattern;
+
+import com.thaiopensource.xml.util.Name;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+import org.xml.sax.helpers.LocatorImpl;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Test PatternInterner and the hash codes of patterns.
+ */
+public class PatternInternerTest {
+  private final SchemaPatternBuilder spb = new SchemaPatternBuilder();
+  private final Pattern a = makeElement("a");
+  private final Pattern b = makeElement("b");
+
+  @Test
+  public void testParent() {
+    PatternInterner parent = new PatternInterner();
+    Pattern group = parent.intern(new GroupPattern(a, b));
+    PatternInterner child = new PatternInterner(parent);
+    // the parent's patterns are shared, not copied
+    Assert.assertSame(child.intern(new GroupPattern(a, b)), group);
+    Assert.assertEquals(child.size(), 0);
+    Pattern interleave = child.intern(new InterleavePattern(a, b));
+    Assert.assertSame(child.intern(new InterleavePattern(a, b)), interleave);
+    Assert.assertEquals(child.size(), 1);
+    // the child's patterns are not added to the parent
+    Assert.assertNotSame(parent.intern(new InterleavePattern(a, b)), interleave);
+    Assert.assertEquals(parent.size(), 2);
+  }
+
+  @Test
+  public void testStartGeneration() {
+    PatternInterner parent = new PatternInterner();
+    Pattern group = parent.intern(new GroupPattern(a, b));
+    PatternInterner child = new PatternInterner(parent);
+    Pattern interleave = child.intern(new InterleavePattern(a, b));
+    child.startGeneration();
+    Assert.assertEquals(child.size(), 0);
+    Assert.assertSame(child.intern(new GroupPattern(a, b)), group);
+    Assert.assertNotSame(child.intern(new InterleavePattern(a, b)), interleave);
+  }
+
+  @Test
+  public void testBuilderShares() {
+    Pattern group = spb.makeGroup(a, b);
+    ValidatorPatternBuilder builder = new ValidatorPatternBuilder(spb);
+    Assert.assertEquals(builder.getInternedPatternCount(), 0);
+    Assert.assertSame(builder.makeGroup(a, b), group);
+    Assert.assertEquals(builder.getInternedPatternCount(), 0);
+  }
+
+  @Test
+  public void testHashCodes() {
+    Set<Integer> hashCodes = new HashSet<Integer>();
+    hashCodes.add(new GroupPattern(a, b).patternHashCode());
+    hashCodes.add(new GroupPattern(b, a).patternHashCode());
+    hashCodes.add(new InterleavePattern(a, b).patternHashCode());
+    hashCodes.add(new InterleavePattern(b, a).patternHashCode());
+    hashCodes.add(new ChoicePattern(a, b).patternHashCode());
+    hashCodes.add(new GroupPattern(a, a).patternHashCode());
+    hashCodes.add(new GroupPattern(b, b).patternHashCode());
+    Assert.assertEquals(hashCodes.size(), 7);
+  }
+
+  @Test
+  public void testHashCodeLowBits() {
+    // the low bits index the table of the interner, so they should vary too
+    Set<Integer> lowBits = new HashSet<Integer>();
+    Pattern p = a;
+    for (int i = 0; i < 64; i++) {
+      p = new GroupPattern(p, b);
+      lowBits.add(p.patternHashCode() & 0xF);
+    }
+    Assert.assertTrue(lowBits.size() > 8, lowBits.toString());
+  }
+
+  private Pattern makeElement(String localName) {
+    return spb.makeElement(new SimpleNameClass(new Name("", localName)), spb.makeEmpty(), new LocatorImpl());
+  }
+}
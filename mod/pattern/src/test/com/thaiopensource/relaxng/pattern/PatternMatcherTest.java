@@ -1,5 +1,6 @@
 package com.thaiopensource.relaxng.pattern;
 
+import com.thaiopensource.relaxng.match.MatchError;
 import com.thaiopensource.relaxng.match.Matcher;
 import com.thaiopensource.relaxng.sax.Context;
 import com.thaiopensource.xml.util.Name;
@@ -10,10 +11,17 @@ import org.xml.sax.Locator;
 import org.xml.sax.SAXException;
 import org.xml.sax.helpers.LocatorImpl;
 
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * Test PatternMatcher.
@@ -120,4 +128,199 @@ public class PatternMatcherTest extends SchemaPatternBuilder {
     Assert.assertEquals(matcher.getErrorMessage(), 
         "element \"root\" missing required attribute \"ns:foo\" (with xmlns:ns=\"http://example.com/\")");
   }
+
+  @Test
+  public void testLazyError() throws SAXException {
+    final Name foo = new Name("http://example.com/", "foo");
+    final Locator loc = new LocatorImpl();
+    Matcher matcher = rootMatcher(makeElement(new SimpleNameClass(root),
+                                              makeAttribute(new SimpleNameClass(foo), makeText(), loc),
+                                              loc));
+    Context context = new Context();
+    context.startPrefixMapping("ex", "http://example.com/");
+    Assert.assertTrue(matcher.matchStartTagOpen(root, "", context));
+    Assert.assertFalse(matcher.matchStartTagClose(root, "", context));
+    MatchError error = matcher.getError();
+    // the message must reflect the namespace declarations in scope when the error occurred
+    context.endPrefixMapping("ex");
+    context.startPrefixMapping("ex", "http://example.org/");
+    Assert.assertEquals(error.getKey(), "required_attribute_missing");
+    Assert.assertEquals(error.getName(), root);
+    Assert.assertEquals(error.getQName(), "root");
+    Assert.assertEquals(error.getMissingNames(), Collections.singleton(foo));
+    Assert.assertTrue(error.getExpectedNames().contains(foo));
+    Assert.assertEquals(error.getMessage(), "element \"root\" missing required attribute \"ex:foo\"");
+    Assert.assertEquals(matcher.getErrorMessage(), error.getMessage());
+  }
+
+  @Test
+  public void testEqualErrors() {
+    final Locator loc = new LocatorImpl();
+    Pattern start = makeElement(new SimpleNameClass(root),
+                                makeElement(new SimpleNameClass(new Name("", "foo")), makeEmpty(), loc),
+                                loc);
+    ValidatorPatternBuilder builder = new ValidatorPatternBuilder(this);
+    Matcher[] matchers = new Matcher[3];
+    for (int i = 0; i < matchers.length; i++) {
+      Context context = new Context();
+      matchers[i] = new PatternMatcher(start, builder);
+      Assert.assertTrue(matchers[i].matchStartTagOpen(root, "", context));
+      Assert.assertTrue(matchers[i].matchStartTagClose(root, "", context));
+      Name name = new Name("", i < 2 ? "bar" : "baz");
+      Assert.assertFalse(matchers[i].matchStartTagOpen(name, "", context));
+    }
+    Assert.assertEquals(matchers[0], matchers[1]);
+    Assert.assertEquals(matchers[0].getError(), matchers[1].getError());
+    Assert.assertFalse(matchers[0].equals(matchers[2]));
+    Assert.assertEquals(matchers[0].getErrorMessage(), matchers[1].getErrorMessage());
+  }
+
+  @Test
+  public void testSharedBuilder() throws Exception {
+    checkSharedBuilder(new ValidatorPatternBuilder(this));
+  }
+
+  @Test
+  public void testSharedBoundedBuilder() throws Exception {
+    ValidatorPatternBuilder builder = new ValidatorPatternBuilder(this);
+    builder.setLimits(5, 3);
+    checkSharedBuilder(builder);
+  }
+
+  @Test
+  public void testBoundedBuilder() {
+    final Locator loc = new LocatorImpl();
+    Pattern any = makeElement(new AnyNameClass(), makeEmpty(), loc);
+    Pattern start = makeElement(new SimpleNameClass(root),
+                                makeGroup(makeElement(new SimpleNameClass(new Name("", "first")), makeEmpty(), loc),
+                                          makeZeroOrMore(any)),
+                                loc);
+    ValidatorPatternBuilder builder = new ValidatorPatternBuilder(this);
+    builder.setLimits(4, 2);
+    Context context = new Context();
+    DerivativeStatistics statistics = builder.enableStatistics();
+    for (int doc = 0; doc < 20; doc++) {
+      Matcher matcher = new PatternMatcher(start, builder);
+      // memos are discarded only at the start of a document
+      Assert.assertTrue(builder.getPatternMemos().size() <= 4);
+      long discarded = statistics.getStatesDiscarded();
+      Assert.assertTrue(matcher.matchStartDocument());
+      Assert.assertTrue(matcher.matchStartTagOpen(root, "", context));
+      Assert.assertTrue(matcher.matchStartTagClose(root, "", context));
+      for (int i = 0; i < 10; i++) {
+        // the first child must be named first
+        Name name = new Name("urn:" + doc, "e" + i);
+        Assert.assertEquals(matcher.matchStartTagOpen(name, "", context), i > 0);
+        Assert.assertTrue(matcher.matchStartTagClose(name, "", context));
+        Assert.assertTrue(matcher.matchEndTag(name, "", context));
+      }
+      Assert.assertTrue(matcher.matchEndTag(root, "", context));
+      Assert.assertTrue(matcher.matchEndDocument());
+      Assert.assertEquals(statistics.getStatesDiscarded(), discarded);
+    }
+    Assert.assertTrue(statistics.getStatesDiscarded() > 0);
+  }
+
+  @Test
+  public void testBoundedPrecompiledBuilder() {
+    final Locator loc = new LocatorImpl();
+    Pattern any = makeElement(new AnyNameClass(), makeEmpty(), loc);
+    Pattern start = makeElement(new SimpleNameClass(root),
+                                makeGroup(makeElement(new SimpleNameClass(new Name("", "first")), makeEmpty(), loc),
+                                          makeZeroOrMore(any)),
+                                loc);
+    ValidatorPatternBuilder builder = new ValidatorPatternBuilder(this);
+    builder.precompile(start);
+    builder.setLimits(1, 2);
+    int tableStates = builder.getTransitionTable().getStates().length;
+    Assert.assertFalse(validateChildren(start, builder, 0));
+    // the states of the table, and the states that they have memoized
+    List<WeakReference<PatternMemo>> discarded = new ArrayList<WeakReference<PatternMemo>>();
+    for (PatternMemo memo : builder.getPatternMemos())
+      discarded.add(new WeakReference<PatternMemo>(memo));
+    Assert.assertTrue(discarded.size() > tableStates);
+    // another schema using the builder makes states beyond the limit
+    Pattern other = makeElement(new SimpleNameClass(new Name("", "other")), makeEmpty(), loc);
+    Matcher matcher = new PatternMatcher(other, builder);
+    Assert.assertTrue(matcher.matchStartTagOpen(new Name("", "other"), "", new Context()));
+    matcher = null;
+    for (int doc = 1; doc < 5; doc++)
+      Assert.assertEquals(validateChildren(start, builder, doc), doc % 2 == 1);
+    Assert.assertEquals(builder.getTransitionTable().getStates().length, tableStates);
+    for (int i = 0; i < 10 && !allCleared(discarded); i++)
+      System.gc();
+    Assert.assertTrue(allCleared(discarded));
+  }
+
+  /**
+   * Validates a document whose root has ten children, the first of which is named first only
+   * if doc is odd.  Returns false if there were any errors.
+   */
+  private boolean validateChildren(Pattern start, ValidatorPatternBuilder builder, int doc) {
+    Context context = new Context();
+    Matcher matcher = new PatternMatcher(start, builder);
+    boolean ok = matcher.matchStartDocument();
+    ok &= matcher.matchStartTagOpen(root, "", context);
+    ok &= matcher.matchStartTagClose(root, "", context);
+    for (int i = 0; i < 10; i++) {
+      Name name = i == 0 && doc % 2 == 1 ? new Name("", "first") : new Name("urn:" + doc, "e" + i);
+      ok &= matcher.matchStartTagOpen(name, "", context);
+      ok &= matcher.matchStartTagClose(name, "", context);
+      ok &= matcher.matchEndTag(name, "", context);
+    }
+    ok &= matcher.matchEndTag(root, "", context);
+    ok &= matcher.matchEndDocument();
+    return ok;
+  }
+
+  private static boolean allCleared(List<WeakReference<PatternMemo>> refs) {
+    for (WeakReference<PatternMemo> ref : refs)
+      if (ref.get() != null)
+        return false;
+    return true;
+  }
+
+  private void checkSharedBuilder(final ValidatorPatternBuilder builder) throws Exception {
+    final Locator loc = new LocatorImpl();
+    final Name[] names = new Name[20];
+    Pattern content = makeEmpty();
+    for (int i = 0; i < names.length; i++) {
+      names[i] = new Name("", "e" + i);
+      content = makeChoice(content, makeElement(new SimpleNameClass(names[i]), makeEmpty(), loc));
+    }
+    final Pattern start = makeElement(new SimpleNameClass(root), makeZeroOrMore(content), loc);
+    // all the matchers share one builder, as the validators of a PatternSchema do
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+      for (int t = 0; t < 8; t++) {
+        final int seed = t;
+        results.add(executor.submit(new Callable<Boolean>() {
+          public Boolean call() {
+            Context context = new Context();
+            for (int doc = 0; doc < 50; doc++) {
+              Matcher matcher = new PatternMatcher(start, builder);
+              boolean ok = matcher.matchStartDocument()
+                           && matcher.matchStartTagOpen(root, "", context)
+                           && matcher.matchStartTagClose(root, "", context);
+              for (int i = 0; ok && i < names.length; i++) {
+                Name name = names[(i * (seed + 1) + doc) % names.length];
+                ok = matcher.matchStartTagOpen(name, "", context)
+                     && matcher.matchStartTagClose(name, "", context)
+                     && matcher.matchEndTag(name, "", context);
+              }
+              if (!ok || !matcher.matchEndTag(root, "", context) || !matcher.matchEndDocument())
+                return false;
+            }
+            return true;
+          }
+        }));
+      }
+      for (Future<Boolean> result : results)
+        Assert.assertTrue(result.get());
+    }
+    finally {
+      executor.shutdown();
+    }
+  }
 }
@@ -0,0 +1,44 @@
+package com.thaiopensource.relaxng.pattern;
+
+import com.thaiopensource.xml.util.Name;
+import org.relaxng.datatype.Datatype;
+import org.relaxng.datatype.DatatypeException;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Collections;
+
+/**
+ * Test PatternSnapshot.
+ */
+public class PatternSnapshotTest {
+  @Test
+  public void testRoundTrip() throws IOException, DatatypeException {
+    SchemaPatternBuilder spb = new SchemaPatternBuilder();
+    Name tokenName = new Name("", "token");
+    Datatype token = new BuiltinDatatypeLibrary().createDatatype("token");
+    Pattern value = spb.makeValue(token, tokenName, token.createValue("x", null), "x", null);
+    Pattern data = spb.makeData(token, tokenName, Collections.<String>emptyList());
+    Pattern attribute = spb.makeAttribute(new SimpleNameClass(new Name("", "a")), spb.makeChoice(value, data), null);
+    // an element that can contain itself
+    ElementPattern element = new ElementPattern(new SimpleNameClass(new Name("urn:x", "e")), spb.makeEmpty(), null);
+    element.setContent(spb.makeGroup(spb.makeOptional(attribute),
+                                     spb.makeZeroOrMore(spb.makeChoice(element, spb.makeText()))));
+    Pattern start = spb.makeChoice(element,
+                                   spb.makeElement(new AnyNameExceptNameClass(new NsNameClass("urn:x")),
+                                                   spb.makeEmpty(), null));
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    PatternSnapshot.write(start, null, new DataOutputStream(bytes));
+    PatternSnapshot snapshot
+      = PatternSnapshot.read(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())),
+                             null,
+                             new SchemaPatternBuilder());
+    Assert.assertEquals(PatternDumper.toString(snapshot.getStart()), PatternDumper.toString(start));
+    Assert.assertNull(snapshot.getIdTypeMap());
+  }
+}
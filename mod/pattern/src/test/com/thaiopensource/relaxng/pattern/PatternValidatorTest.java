@@ -0,0 +1,131 @@
+package com.thaiopensource.relaxng.pattern;
+
+import com.thaiopensource.datatype.xsd.DatatypeLibraryImpl;
+import com.thaiopensource.relaxng.sax.MatchErrorException;
+import com.thaiopensource.relaxng.sax.PatternValidator;
+import com.thaiopensource.xml.util.Name;
+import com.thaiopensource.xml.util.WellKnownNamespaces;
+import org.relaxng.datatype.DatatypeBuilder;
+import org.relaxng.datatype.DatatypeException;
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+import org.xml.sax.ErrorHandler;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXParseException;
+import org.xml.sax.helpers.AttributesImpl;
+import org.xml.sax.helpers.LocatorImpl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Test the streaming validation of text by PatternValidator.
+ */
+public class PatternValidatorTest extends SchemaPatternBuilder {
+  static private final Name root = new Name("", "root");
+  static private final Name value = new Name("", "value");
+  private final List<String> errors = new ArrayList<String>();
+  private PatternValidator validator;
+
+  /**
+   * Makes a validator for a root element containing value elements, each of which contains
+   * an xsd:base64Binary of at most 3 octets.
+   */
+  @BeforeMethod
+  public void setUp() throws DatatypeException {
+    final LocatorImpl loc = new LocatorImpl();
+    DatatypeBuilder dtb = new DatatypeLibraryImpl(null).createDatatypeBuilder("base64Binary");
+    dtb.addParameter("maxLength", "3", null);
+    Pattern data = makeData(dtb.createDatatype(),
+                            new Name(WellKnownNamespaces.XML_SCHEMA_DATATYPES, "base64Binary"),
+                            Collections.singletonList("maxLength"));
+    Pattern start = makeElement(new SimpleNameClass(root),
+                                makeZeroOrMore(makeElement(new SimpleNameClass(value), data, loc)),
+                                loc);
+    validator = new PatternValidator(start, new ValidatorPatternBuilder(this), new ErrorHandler() {
+      public void warning(SAXParseException e) { }
+
+      public void error(SAXParseException e) {
+        errors.add(((MatchErrorException)e).getError().getKey());
+      }
+
+      public void fatalError(SAXParseException e) {
+        error(e);
+      }
+    });
+  }
+
+  @Test
+  public void testChunks() throws SAXException {
+    Assert.assertEquals(validate(new String[] { "QU", "JD" }), Collections.emptyList());
+    Assert.assertEquals(validate(new String[] { " Q", "U\n", "J", "D " }), Collections.emptyList());
+    Assert.assertEquals(validate(new String[] { "QUJ", "DQ", "Q==" }),
+                        Collections.singletonList("invalid_element_value"));
+    Assert.assertEquals(validate(new String[] { "QU", "J$" }), Collections.singletonList("invalid_element_value"));
+    // the validator is reused for each value element
+    Assert.assertEquals(validate(new String[] { "QUJD" }, new String[] { "QUJ", "DQQ==" }, new String[] { "Q", "Q==" }),
+                        Collections.singletonList("invalid_element_value"));
+  }
+
+  @Test
+  public void testWhitespace() throws SAXException {
+    Assert.assertEquals(validate(new String[] { }), Collections.emptyList());
+    Assert.assertEquals(validate(new String[] { " " }), Collections.emptyList());
+    Assert.assertEquals(validate(new String[] { "\n ", "\t", " \r\n" }), Collections.emptyList());
+  }
+
+  @Test
+  public void testTextBeforeStartTag() throws SAXException {
+    Assert.assertEquals(validateWithChild(new String[] { "QU", "JD" }),
+                        Arrays.asList("text_not_allowed", "out_of_context_element"));
+    // blank text before a start-tag is not an error by itself
+    Assert.assertEquals(validateWithChild(new String[] { " ", "\n" }),
+                        Collections.singletonList("out_of_context_element"));
+  }
+
+  /**
+   * Validates a document with a value element for each array of chunks and returns the keys
+   * of the reported errors.
+   */
+  private List<String> validate(String[]... values) throws SAXException {
+    errors.clear();
+    validator.reset();
+    validator.startDocument();
+    startElement(root);
+    for (String[] chunks : values) {
+      startElement(value);
+      characters(chunks);
+      validator.endElement("", value.getLocalName(), value.getLocalName());
+    }
+    validator.endElement("", root.getLocalName(), root.getLocalName());
+    validator.endDocument();
+    return new ArrayList<String>(errors);
+  }
+
+  /**
+   * Validates a document with a single value element containing the chunks followed by an
+   * element, and returns the keys of the errors reported up to that element.
+   */
+  private List<String> validateWithChild(String[] chunks) throws SAXException {
+    errors.clear();
+    validator.reset();
+    validator.startDocument();
+    startElement(root);
+    startElement(value);
+    characters(chunks);
+    startElement(value);
+    return new ArrayList<String>(errors);
+  }
+
+  private void startElement(Name name) throws SAXException {
+    validator.startElement("", name.getLocalName(), name.getLocalName(), new AttributesImpl());
+  }
+
+  private void characters(String[] chunks) throws SAXException {
+    for (String chunk : chunks)
+      validator.characters(chunk.toCharArray(), 0, chunk.length());
+  }
+}
@@ -0,0 +1,137 @@
+package com.thaiopensource.relaxng.pattern;
+
+import com.thaiopensource.relaxng.match.Matcher;
+import com.thaiopensource.relaxng.sax.Context;
+import com.thaiopensource.xml.util.Name;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+import org.xml.sax.Locator;
+import org.xml.sax.helpers.LocatorImpl;
+
+/**
+ * Test TransitionTable and ValidatorPatternBuilder.precompile.
+ */
+public class TransitionTableTest {
+  private static final Name ROOT = new Name("", "root");
+  private static final Name A = new Name("", "a");
+  private static final Name B = new Name("", "b");
+  private static final Name X = new Name("", "x");
+  private static final Name OTHER = new Name("urn:other", "other");
+
+  private final SchemaPatternBuilder spb = new SchemaPatternBuilder();
+  private final Pattern start = makeSchema();
+
+  /**
+   * Makes element root { attribute x { text }?, (element a { empty }+ &amp; element b { text }?),
+   * element urn:other:* { empty }? }.
+   */
+  private Pattern makeSchema() {
+    Locator loc = new LocatorImpl();
+    Pattern a = spb.makeElement(new SimpleNameClass(A), spb.makeEmpty(), loc);
+    Pattern b = spb.makeElement(new SimpleNameClass(B), spb.makeText(), loc);
+    Pattern x = spb.makeAttribute(new SimpleNameClass(X), spb.makeText(), loc);
+    Pattern other = spb.makeElement(new NsNameClass("urn:other"), spb.makeEmpty(), loc);
+    Pattern content = spb.makeGroup(spb.makeOptional(x),
+                                    spb.makeGroup(spb.makeInterleave(spb.makeOneOrMore(a), spb.makeOptional(b)),
+                                                  spb.makeOptional(other)));
+    return spb.makeElement(new SimpleNameClass(ROOT), content, loc);
+  }
+
+  @Test
+  public void testTransitions() {
+    ValidatorPatternBuilder builder = new ValidatorPatternBuilder(spb);
+    builder.precompile(start);
+    TransitionTable table = builder.getTransitionTable();
+    PatternMemo[] states = table.getStates();
+    Assert.assertSame(states[0].getPattern(), builder.makeNotAllowed());
+    Assert.assertTrue(states.length > 2);
+    int compiled = 0;
+    for (int i = 0; i < states.length; i++) {
+      for (Name name : new Name[] { ROOT, A, B }) {
+        PatternMemo memo = table.startTagOpenDeriv(i, name);
+        if (memo != null) {
+          compiled++;
+          Assert.assertSame(memo.getPattern(),
+                            states[i].getPattern().apply(new StartTagOpenDerivFunction(name, builder)));
+        }
+      }
+      PatternMemo memo = table.startAttributeDeriv(i, X);
+      if (memo != null) {
+        compiled++;
+        Assert.assertSame(memo.getPattern(),
+                          states[i].getPattern().apply(new StartAttributeDerivFunction(X, builder)));
+      }
+      // names that are only matched by a wildcard are left to lazy derivation
+      Assert.assertNull(table.startTagOpenDeriv(i, OTHER));
+    }
+    Assert.assertTrue(compiled > 0);
+  }
+
+  @Test
+  public void testValidateWithoutDerivation() {
+    ValidatorPatternBuilder builder = new ValidatorPatternBuilder(spb);
+    builder.precompile(start);
+    DerivativeStatistics statistics = builder.enableStatistics();
+    Matcher matcher = new PatternMatcher(start, builder);
+    Context context = new Context();
+    Assert.assertTrue(matcher.matchStartDocument());
+    Assert.assertTrue(matcher.matchStartTagOpen(ROOT, "root", context));
+    Assert.assertTrue(matcher.matchAttributeName(X, "x", context));
+    Assert.assertTrue(matcher.matchAttributeValue("1", X, "x", context));
+    Assert.assertTrue(matcher.matchStartTagClose(ROOT, "root", context));
+    for (Name name : new Name[] { A, B, A }) {
+      Assert.assertTrue(matcher.matchStartTagOpen(name, name.getLocalName(), context));
+      Assert.assertTrue(matcher.matchStartTagClose(name, name.getLocalName(), context));
+      Assert.assertTrue(matcher.matchEndTag(name, name.getLocalName(), context));
+    }
+    Assert.assertEquals(statistics.getMisses("startTagOpenDeriv"), 0);
+    Assert.assertEquals(statistics.getMisses("startAttributeDeriv"), 0);
+    Assert.assertTrue(matcher.matchStartTagOpen(OTHER, "o:other", context));
+    Assert.assertTrue(statistics.getMisses("startTagOpenDeriv") > 0);
+    Assert.assertTrue(matcher.matchStartTagClose(OTHER, "o:other", context));
+    Assert.assertTrue(matcher.matchEndTag(OTHER, "o:other", context));
+    Assert.assertTrue(matcher.matchEndTag(ROOT, "root", context));
+    Assert.assertTrue(matcher.matchEndDocument());
+  }
+
+  @Test
+  public void testSameResult() {
+    ValidatorPatternBuilder precompiled = new ValidatorPatternBuilder(spb);
+    precompiled.precompile(start);
+    ValidatorPatternBuilder lazy = new ValidatorPatternBuilder(spb);
+    Name[][] documents = {
+      { A, A, B },
+      { B, A },
+      { B },
+      { A, B, B },
+      { A, OTHER, A }
+    };
+    for (Name[] children : documents)
+      Assert.assertEquals(errorCount(precompiled, children), errorCount(lazy, children));
+  }
+
+  private int errorCount(ValidatorPatternBuilder builder, Name[] children) {
+    Matcher matcher = new PatternMatcher(start, builder);
+    Context context = new Context();
+    int errors = 0;
+    if (!matcher.matchStartDocument())
+      errors++;
+    if (!matcher.matchStartTagOpen(ROOT, "root", context))
+      errors++;
+    if (!matcher.matchStartTagClose(ROOT, "root", context))
+      errors++;
+    for (Name name : children) {
+      if (!matcher.matchStartTagOpen(name, name.getLocalName(), context))
+        errors++;
+      if (!matcher.matchStartTagClose(name, name.getLocalName(), context))
+        errors++;
+      if (!matcher.matchEndTag(name, name.getLocalName(), context))
+        errors++;
+    }
+    if (!matcher.matchEndTag(ROOT, "root", context))
+      errors++;
+    if (!matcher.matchEndDocument())
+      errors++;
+    return errors;
+  }
+}
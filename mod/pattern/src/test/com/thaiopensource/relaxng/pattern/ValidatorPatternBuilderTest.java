@@ -0,0 +1,152 @@
+package com.thaiopensource.relaxng.pattern;
+
+import com.thaiopensource.relaxng.match.Matcher;
+import com.thaiopensource.relaxng.sax.Context;
+import com.thaiopensource.xml.util.Name;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+import org.xml.sax.Locator;
+import org.xml.sax.helpers.LocatorImpl;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Test ValidatorPatternBuilder.
+ */
+public class ValidatorPatternBuilderTest {
+  @Test
+  public void testChoiceCanonical() {
+    SchemaPatternBuilder spb = new SchemaPatternBuilder();
+    List<Pattern> elements = new ArrayList<Pattern>();
+    for (int i = 0; i < 20; i++)
+      elements.add(spb.makeElement(new SimpleNameClass(new Name("", "e" + i)), spb.makeEmpty(), new LocatorImpl()));
+    ValidatorPatternBuilder builder = new ValidatorPatternBuilder(spb);
+    Random random = new Random(1);
+    Pattern expected = null;
+    for (int n = 0; n < 10; n++) {
+      List<Pattern> shuffled = new ArrayList<Pattern>(elements);
+      Collections.shuffle(shuffled, random);
+      // combine in a different order and grouping each time, with duplicates
+      Pattern left = builder.makeNotAllowed();
+      Pattern right = builder.makeNotAllowed();
+      for (int i = 0; i < shuffled.size(); i++) {
+        if (i % 3 == 0)
+          right = builder.makeChoice(shuffled.get(i), right);
+        else
+          left = builder.makeChoice(left, shuffled.get(i));
+      }
+      Pattern choice = builder.makeChoice(builder.makeChoice(left, shuffled.get(n)), right);
+      if (expected == null)
+        expected = choice;
+      else
+        Assert.assertSame(choice, expected);
+    }
+    // a choice that has all the alternatives of the other is returned as is
+    Assert.assertSame(builder.makeChoice(elements.get(5), expected), expected);
+    Assert.assertSame(builder.makeChoice(expected, builder.makeChoice(elements.get(1), elements.get(2))), expected);
+  }
+
+  @Test
+  public void testChoiceEmpty() {
+    SchemaPatternBuilder spb = new SchemaPatternBuilder();
+    ValidatorPatternBuilder builder = new ValidatorPatternBuilder(spb);
+    Pattern e = spb.makeElement(new SimpleNameClass(new Name("", "e")), spb.makeEmpty(), new LocatorImpl());
+    Pattern optional = builder.makeChoice(e, builder.makeEmpty());
+    // empty is redundant, since text is nullable
+    Assert.assertSame(builder.makeChoice(optional, spb.makeText()), builder.makeChoice(e, spb.makeText()));
+  }
+
+  @Test
+  public void testStatistics() {
+    SchemaPatternBuilder spb = new SchemaPatternBuilder();
+    Name root = new Name("", "root");
+    Pattern start = spb.makeElement(new SimpleNameClass(root), spb.makeEmpty(), new LocatorImpl());
+    ValidatorPatternBuilder builder = new ValidatorPatternBuilder(spb);
+    DerivativeStatistics statistics = builder.enableStatistics();
+    Assert.assertSame(builder.enableStatistics(), statistics);
+    for (int i = 0; i < 2; i++) {
+      Matcher matcher = new PatternMatcher(start, builder);
+      Assert.assertTrue(matcher.matchStartDocument());
+      Assert.assertTrue(matcher.matchStartTagOpen(root, "root", new Context()));
+    }
+    Assert.assertEquals(statistics.getMisses("startTagOpenDeriv"), 1);
+    Assert.assertEquals(statistics.getHits("startTagOpenDeriv"), 1);
+    Assert.assertEquals(statistics.getStates(), statistics.getStatesCreated());
+    Assert.assertEquals(statistics.getErrorRecoveries(), 0);
+    Matcher matcher = new PatternMatcher(start, builder);
+    Assert.assertFalse(matcher.matchStartTagOpen(new Name("", "other"), "other", new Context()));
+    Assert.assertEquals(statistics.getErrorRecoveries(), 1);
+    statistics.reset();
+    Assert.assertEquals(statistics.getHits("startTagOpenDeriv"), 0);
+    Assert.assertEquals(statistics.getErrorRecoveries(), 0);
+    Assert.assertTrue(statistics.getStates() > 0);
+  }
+
+  @Test
+  public void testLoadedChoicesFound() throws IOException {
+    SchemaPatternBuilder spb1 = new SchemaPatternBuilder();
+    Pattern start1 = makeSchema(spb1, false);
+    ValidatorPatternBuilder builder1 = new ValidatorPatternBuilder(spb1);
+    validate(start1, builder1, "a");
+    ByteArrayOutputStream buf = new ByteArrayOutputStream();
+    builder1.saveDerivatives(start1, new DataOutputStream(buf));
+    // the same schema, with its patterns created in a different order, as in another process
+    SchemaPatternBuilder spb2 = new SchemaPatternBuilder();
+    Pattern start2 = makeSchema(spb2, true);
+    ValidatorPatternBuilder builder2 = new ValidatorPatternBuilder(spb2);
+    Assert.assertTrue(builder2.loadDerivatives(start2,
+                                               new DataInputStream(new ByteArrayInputStream(buf.toByteArray()))));
+    DerivativeStatistics statistics = builder2.enableStatistics();
+    // only the start-tag transitions for b are computed, and they yield a choice that was loaded
+    validate(start2, builder2, "b");
+    Assert.assertTrue(statistics.getMisses("startTagOpenDeriv") > 0);
+    for (String transitionName : statistics.getTransitionNames()) {
+      if (!transitionName.equals("startTagOpenDeriv"))
+        Assert.assertEquals(statistics.getMisses(transitionName), 0, transitionName);
+    }
+  }
+
+  /**
+   * Makes element root { (a, e0) | (b, e0) | (a, e1) | (b, e1) | ... }, so that the derivatives
+   * after a and after b are the same choice of all the ei.
+   */
+  private static Pattern makeSchema(SchemaPatternBuilder spb, boolean reverse) {
+    Locator loc = new LocatorImpl();
+    Pattern[] elements = new Pattern[10];
+    for (int i = 0; i < elements.length; i++) {
+      int j = reverse ? elements.length - 1 - i : i;
+      elements[j] = spb.makeElement(new SimpleNameClass(new Name("", "e" + j)), spb.makeEmpty(), loc);
+    }
+    Pattern a = spb.makeElement(new SimpleNameClass(new Name("", "a")), spb.makeEmpty(), loc);
+    Pattern b = spb.makeElement(new SimpleNameClass(new Name("", "b")), spb.makeEmpty(), loc);
+    Pattern content = spb.makeNotAllowed();
+    for (Pattern e : elements)
+      content = spb.makeChoice(content, spb.makeChoice(spb.makeGroup(a, e), spb.makeGroup(b, e)));
+    return spb.makeElement(new SimpleNameClass(new Name("", "root")), content, loc);
+  }
+
+  private static void validate(Pattern start, ValidatorPatternBuilder builder, String first) {
+    Matcher matcher = new PatternMatcher(start, builder);
+    Context context = new Context();
+    Assert.assertTrue(matcher.matchStartDocument());
+    for (String name : new String[] { "root", first }) {
+      Assert.assertTrue(matcher.matchStartTagOpen(new Name("", name), name, context));
+      Assert.assertTrue(matcher.matchStartTagClose(new Name("", name), name, context));
+    }
+    Assert.assertTrue(matcher.matchEndTag(new Name("", first), first, context));
+    Name e = new Name("", "e7");
+    Assert.assertTrue(matcher.matchStartTagOpen(e, "e7", context));
+    Assert.assertTrue(matcher.matchStartTagClose(e, "e7", context));
+    Assert.assertTrue(matcher.matchEndTag(e, "e7", context));
+    Assert.assertTrue(matcher.matchEndTag(new Name("", "root"), "root", context));
+    Assert.assertTrue(matcher.matchEndDocument());
+  }
+}
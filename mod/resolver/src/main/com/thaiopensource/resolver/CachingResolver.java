@@ -0,0 +1,395 @@
+package com.thaiopensource.resolver;
+
+import com.thaiopensource.resolver.xml.ExternalDTDSubsetIdentifier;
+import com.thaiopensource.resolver.xml.ExternalEntityIdentifier;
+import com.thaiopensource.resolver.xml.ExternalIdentifier;
+import com.thaiopensource.resolver.xml.TargetNamespaceIdentifier;
+import com.thaiopensource.resolver.xml.XMLDocumentIdentifier;
+import com.thaiopensource.util.Digests;
+import com.thaiopensource.util.UriOrFile;
+import com.thaiopensource.util.Utf8;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A Resolver that caches what another Resolver, such as a <code>SequenceResolver</code> or a catalog
+ * resolver, resolves and opens, so that loading schemas that share includes, DTD modules and other
+ * resources does not resolve and read them again each time.
+ * <p>
+ * The URIs to which identifiers resolve are cached, and so is the content of the resources
+ * opened from URIs, up to a limit on the total size of the content; the least recently used
+ * resources are dropped first.  A resource that the other Resolver opens as a character stream,
+ * or that is larger than the limit, is not cached.  A cached resource whose URI is a <code>file</code>
+ * URI is used only if the modification time of the file has not changed; any other resource is
+ * used only until a maximum age has passed since it was read, after which it is read again.
+ * <p>
+ * Optionally, the content of resources is also kept in a directory, so that it persists across
+ * instances and processes.  Each file in the directory holds a digest of the content, which
+ * is checked when the file is read, so that a file that has been truncated or corrupted is not used.
+ * <p>
+ * An instance of this class is safe for concurrent access by multiple threads, provided that the
+ * Resolver it wraps is.
+ */
+public class CachingResolver implements Resolver {
+  private static final String FILE_SUFFIX = ".cache";
+  private static final int FILE_FORMAT_VERSION = 2;
+  private static final int MAX_RESOLUTIONS = 1024;
+  private static final int BUFFER_SIZE = 8192;
+  private static final long DEFAULT_MAX_AGE = 60*60*1000;
+
+  private final Resolver resolver;
+  private final long maxBytes;
+  private final File directory;
+  private final long maxAge;
+  // access-ordered, so that iteration starts with the least recently used
+  private final Map<String, Resource> resources = new LinkedHashMap<String, Resource>(16, 0.75f, true);
+  private long totalBytes = 0;
+  private final Map<List<Object>, String> resolutions = new LinkedHashMap<List<Object>, String>(16, 0.75f, true) {
+    protected boolean removeEldestEntry(Map.Entry<List<Object>, String> eldest) {
+      return size() > MAX_RESOLUTIONS;
+    }
+  };
+
+  private static class Resource {
+    // the URI after opening, which may differ from the URI opened
+    private final String uri;
+    private final String encoding;
+    // 0 unless the URI is a file URI
+    private final long lastModified;
+    // when the content was read
+    private final long readTime;
+    private final byte[] content;
+
+    Resource(String uri, String encoding, long lastModified, long readTime, byte[] content) {
+      this.uri = uri;
+      this.encoding = encoding;
+      this.lastModified = lastModified;
+      this.readTime = readTime;
+      this.content = content;
+    }
+  }
+
+  /**
+   * Creates a CachingResolver that keeps the resources it caches only in memory.  Resources
+   * whose URIs are not <code>file</code> URIs are used for up to an hour.
+   *
+   * @param resolver the Resolver whose results are cached
+   * @param maxBytes the maximum total size in bytes of the content of the resources kept in memory
+   */
+  public CachingResolver(Resolver resolver, long maxBytes) {
+    this(resolver, maxBytes, null);
+  }
+
+  /**
+   * Creates a CachingResolver that also keeps the resources it caches in a directory.  Resources
+   * whose URIs are not <code>file</code> URIs are used for up to an hour.
+   *
+   * @param resolver the Resolver whose results are cached
+   * @param maxBytes the maximum total size in bytes of the content of the resources kept in memory
+   * @param directory the directory in which to keep resources; it is created if it does not exist;
+   * null if resources are to be kept only in memory
+   */
+  public CachingResolver(Resolver resolver, long maxBytes, File directory) {
+    this(resolver, maxBytes, directory, DEFAULT_MAX_AGE);
+  }
+
+  /**
+   * Creates a CachingResolver that also keeps the resources it caches in a directory.
+   *
+   * @param resolver the Resolver whose results are cached
+   * @param maxBytes the maximum total size in bytes of the content of the resources kept in memory
+   * @param directory the directory in which to keep resources; it is created if it does not exist;
+   * null if resources are to be kept only in memory
+   * @param maxAge the time in milliseconds for which a resource whose URI is not a <code>file</code>
+   * URI is used after it was read
+   */
+  public CachingResolver(Resolver resolver, long maxBytes, File directory, long maxAge) {
+    this.resolver = resolver;
+    this.maxBytes = maxBytes;
+    this.directory = directory;
+    this.maxAge = maxAge;
+  }
+
+  public void resolve(Identifier id, Input input) throws IOException, ResolverException {
+    if (input.isResolved()) {
+      resolver.resolve(id, input);
+      return;
+    }
+    List<Object> key = resolutionKey(id);
+    if (key != null) {
+      String uri;
+      synchronized (resolutions) {
+        uri = resolutions.get(key);
+      }
+      if (uri != null) {
+        input.setUri(uri);
+        return;
+      }
+    }
+    resolver.resolve(id, input);
+    // only a URI can be reused; something that the resolver opened is not
+    if (key != null && input.isUriDefinitive()) {
+      synchronized (resolutions) {
+        resolutions.put(key, input.getUri());
+      }
+    }
+  }
+
+  public void open(Input input) throws IOException, ResolverException {
+    if (!input.isUriDefinitive()) {
+      resolver.open(input);
+      return;
+    }
+    String uri = input.getUri();
+    long lastModified = UriOrFile.lastModified(uri);
+    if (lastModified == 0 && uri.startsWith("file:")) {
+      // the file does not exist or its modification time is unknown
+      resolver.open(input);
+      return;
+    }
+    long now = System.currentTimeMillis();
+    Resource resource;
+    synchronized (resources) {
+      resource = resources.get(uri);
+    }
+    if (resource == null || !isCurrent(resource, lastModified, now)) {
+      resource = readFromDirectory(uri);
+      if (resource != null && isCurrent(resource, lastModified, now))
+        add(uri, resource);
+      else
+        resource = null;
+    }
+    if (resource != null) {
+      input.setUri(resource.uri);
+      input.setEncoding(resource.encoding);
+      input.setByteStream(new ByteArrayInputStream(resource.content));
+      return;
+    }
+    resolver.open(input);
+    InputStream in = input.getByteStream();
+    if (in == null || input.getCharacterStream() != null)
+      return;
+    ByteArrayOutputStream buf = new ByteArrayOutputStream();
+    byte[] bytes = new byte[BUFFER_SIZE];
+    boolean complete = false;
+    try {
+      for (;;) {
+        int n = in.read(bytes);
+        if (n < 0) {
+          complete = true;
+          break;
+        }
+        buf.write(bytes, 0, n);
+        if (buf.size() > maxBytes)
+          break;
+      }
+    }
+    catch (IOException e) {
+      in.close();
+      throw e;
+    }
+    if (complete)
+      in.close();
+    byte[] content = buf.toByteArray();
+    if (!complete) {
+      // too big to cache; the part already read comes first
+      input.setByteStream(new SequenceInputStream(new ByteArrayInputStream(content), in));
+      return;
+    }
+    input.setByteStream(new ByteArrayInputStream(content));
+    resource = new Resource(input.getUri(), input.getEncoding(), lastModified, now, content);
+    add(uri, resource);
+    writeToDirectory(uri, resource);
+  }
+
+  /**
+   * Removes everything from the cache, including the resources kept in the directory.
+   */
+  public void clear() {
+    synchronized (resolutions) {
+      resolutions.clear();
+    }
+    synchronized (resources) {
+      resources.clear();
+      totalBytes = 0;
+    }
+    if (directory != null) {
+      File[] files = directory.listFiles();
+      if (files != null) {
+        for (File file : files) {
+          if (file.getName().endsWith(FILE_SUFFIX))
+            file.delete();
+        }
+      }
+    }
+  }
+
+  /**
+   * Returns true if resource can be used in place of the resource with the specified modification
+   * time, which is 0 unless the URI is a file URI.
+   */
+  private boolean isCurrent(Resource resource, long lastModified, long now) {
+    if (lastModified != 0)
+      return resource.lastModified == lastModified;
+    return resource.lastModified == 0 && now - resource.readTime >= 0 && now - resource.readTime < maxAge;
+  }
+
+  private void add(String uri, Resource resource) {
+    synchronized (resources) {
+      Resource old = resources.put(uri, resource);
+      if (old != null)
+        totalBytes -= old.content.length;
+      totalBytes += resource.content.length;
+      for (Iterator<Resource> iter = resources.values().iterator(); totalBytes > maxBytes && iter.hasNext();) {
+        totalBytes -= iter.next().content.length;
+        iter.remove();
+      }
+    }
+  }
+
+  /**
+   * Returns a key for the result of resolving id, or null if the result cannot be cached
+   * because id is of a class whose properties are not known.
+   */
+  private static List<Object> resolutionKey(Identifier id) {
+    Class<?> cls = id.getClass();
+    List<Object> key = new ArrayList<Object>();
+    key.add(cls);
+    key.add(id.getUriReference());
+    key.add(id.getBase());
+    key.add(id.getMediaType());
+    if (cls == Identifier.class || cls == MediaTypedIdentifier.class)
+      return key;
+    if (id instanceof TargetNamespaceIdentifier)
+      key.add(((TargetNamespaceIdentifier)id).getTargetNamespace());
+    if (cls == XMLDocumentIdentifier.class) {
+      key.add(((XMLDocumentIdentifier)id).getNamespaceUri());
+      return key;
+    }
+    if (!(id instanceof ExternalIdentifier))
+      return null;
+    key.add(((ExternalIdentifier)id).getPublicId());
+    if (cls == ExternalIdentifier.class)
+      return key;
+    if (cls == ExternalDTDSubsetIdentifier.class) {
+      key.add(((ExternalDTDSubsetIdentifier)id).getDoctypeName());
+      return key;
+    }
+    if (cls == ExternalEntityIdentifier.class) {
+      key.add(((ExternalEntityIdentifier)id).getEntityName());
+      return key;
+    }
+    return null;
+  }
+
+  private File directoryFile(String uri) {
+    return new File(directory, Digests.toHex(Digests.digest(Utf8.encode(uri))) + FILE_SUFFIX);
+  }
+
+  /**
+   * Returns the resource kept in the directory for uri, or null if there is none or it
+   * cannot be read.
+   */
+  private Resource readFromDirectory(String uri) {
+    if (directory == null)
+      return null;
+    File file = directoryFile(uri);
+    if (!file.exists())
+      return null;
+    // no length read from the file can be more than this, unless the file is corrupt
+    long maxLength = file.length();
+    try {
+      DataInputStream in = new DataInputStream(new FileInputStream(file));
+      try {
+        if (in.readInt() != FILE_FORMAT_VERSION || !Utf8.readString(in, maxLength).equals(uri))
+          return null;
+        String resourceUri = Utf8.readString(in, maxLength);
+        String encoding = in.readBoolean() ? Utf8.readString(in, maxLength) : null;
+        long lastModified = in.readLong();
+        long readTime = in.readLong();
+        byte[] digest = readBytes(in, maxLength);
+        byte[] content = readBytes(in, maxLength);
+        if (!Arrays.equals(digest, Digests.digest(content)))
+          return null;
+        return new Resource(resourceUri, encoding, lastModified, readTime, content);
+      }
+      finally {
+        in.close();
+      }
+    }
+    catch (IOException e) {
+      return null;
+    }
+  }
+
+  private static byte[] readBytes(DataInputStream in, long maxLength) throws IOException {
+    int length = in.readInt();
+    if (length < 0 || length > maxLength)
+      throw new IOException("invalid length " + length);
+    byte[] bytes = new byte[length];
+    in.readFully(bytes);
+    return bytes;
+  }
+
+  /**
+   * Keeps a resource in the directory.  Failure to do so is not an error, since the resource is
+   * kept in memory.
+   */
+  private void writeToDirectory(String uri, Resource resource) {
+    if (directory == null)
+      return;
+    File file = directoryFile(uri);
+    try {
+      if (!directory.isDirectory() && !directory.mkdirs())
+        return;
+      // write to a temporary file, so that another reader never sees part of a file
+      File tem = File.createTempFile("resource", ".tmp", directory);
+      try {
+        DataOutputStream out = new DataOutputStream(new FileOutputStream(tem));
+        try {
+          out.writeInt(FILE_FORMAT_VERSION);
+          Utf8.writeString(out, uri);
+          Utf8.writeString(out, resource.uri);
+          out.writeBoolean(resource.encoding != null);
+          if (resource.encoding != null)
+            Utf8.writeString(out, resource.encoding);
+          out.writeLong(resource.lastModified);
+          out.writeLong(resource.readTime);
+          byte[] digest = Digests.digest(resource.content);
+          out.writeInt(digest.length);
+          out.write(digest);
+          out.writeInt(resource.content.length);
+          out.write(resource.content);
+        }
+        finally {
+          out.close();
+        }
+        if (!tem.renameTo(file)) {
+          file.delete();
+          tem.renameTo(file);
+        }
+      }
+      finally {
+        tem.delete();
+      }
+    }
+    catch (IOException e) {
+      // ignore
+    }
+  }
+}
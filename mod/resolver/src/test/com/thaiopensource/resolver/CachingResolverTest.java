@@ -0,0 +1,176 @@
+package com.thaiopensource.resolver;
+
+import com.thaiopensource.util.UriOrFile;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Tests CachingResolver.
+ */
+public class CachingResolverTest {
+  private static final String HTTP_URI = "http://www.example.com/schema.rng";
+
+  private CountingResolver counter;
+  private File dir;
+
+  /**
+   * Opens file URIs with BasicResolver and other URIs from a map, counting the resources opened.
+   */
+  private static class CountingResolver implements Resolver {
+    private final Map<String, String> contents = new HashMap<String, String>();
+    private int count = 0;
+
+    public void resolve(Identifier id, Input input) throws IOException, ResolverException {
+      BasicResolver.getInstance().resolve(id, input);
+    }
+
+    public void open(Input input) throws IOException, ResolverException {
+      count++;
+      String content = contents.get(input.getUri());
+      if (content == null)
+        BasicResolver.getInstance().open(input);
+      else
+        input.setByteStream(new ByteArrayInputStream(content.getBytes("UTF-8")));
+    }
+  }
+
+  @BeforeMethod
+  public void setUp() throws IOException {
+    counter = new CountingResolver();
+    counter.contents.put(HTTP_URI, "<element/>");
+    dir = File.createTempFile("cachingresolver", "");
+    if (!dir.delete() || !dir.mkdir())
+      throw new IOException("could not create " + dir);
+  }
+
+  @AfterMethod
+  public void tearDown() {
+    File[] files = dir.listFiles();
+    if (files != null) {
+      for (File file : files)
+        file.delete();
+    }
+    dir.delete();
+  }
+
+  @Test
+  public void testHit() throws IOException, ResolverException {
+    Resolver resolver = new CachingResolver(counter, 1024 * 1024);
+    String uri = writeFile("a.rng", "<grammar/>");
+    Assert.assertEquals(read(resolver, uri), "<grammar/>");
+    Assert.assertEquals(read(resolver, uri), "<grammar/>");
+    Assert.assertEquals(read(resolver, HTTP_URI), "<element/>");
+    Assert.assertEquals(read(resolver, HTTP_URI), "<element/>");
+    Assert.assertEquals(counter.count, 2);
+  }
+
+  @Test
+  public void testStaleFile() throws IOException, ResolverException {
+    Resolver resolver = new CachingResolver(counter, 1024 * 1024);
+    String uri = writeFile("a.rng", "<grammar/>");
+    Assert.assertEquals(read(resolver, uri), "<grammar/>");
+    writeFile("a.rng", "<element/>");
+    File file = new File(dir, "a.rng");
+    file.setLastModified(file.lastModified() - 10000);
+    Assert.assertEquals(read(resolver, uri), "<element/>");
+    Assert.assertEquals(counter.count, 2);
+  }
+
+  @Test
+  public void testMaxAge() throws IOException, ResolverException {
+    Resolver resolver = new CachingResolver(counter, 1024 * 1024, null, 0);
+    Assert.assertEquals(read(resolver, HTTP_URI), "<element/>");
+    counter.contents.put(HTTP_URI, "<grammar/>");
+    Assert.assertEquals(read(resolver, HTTP_URI), "<grammar/>");
+    Assert.assertEquals(counter.count, 2);
+  }
+
+  @Test
+  public void testDirectory() throws IOException, ResolverException {
+    Assert.assertEquals(read(new CachingResolver(counter, 1024 * 1024, dir), HTTP_URI), "<element/>");
+    Assert.assertEquals(read(new CachingResolver(counter, 1024 * 1024, dir), HTTP_URI), "<element/>");
+    Assert.assertEquals(counter.count, 1);
+  }
+
+  @Test
+  public void testCorruptFile() throws IOException, ResolverException {
+    Assert.assertEquals(read(new CachingResolver(counter, 1024 * 1024, dir), HTTP_URI), "<element/>");
+    File file = cacheFile();
+    RandomAccessFile raf = new RandomAccessFile(file, "rw");
+    try {
+      raf.seek(raf.length() - 1);
+      raf.write('x');
+    }
+    finally {
+      raf.close();
+    }
+    Assert.assertEquals(read(new CachingResolver(counter, 1024 * 1024, dir), HTTP_URI), "<element/>");
+    Assert.assertEquals(counter.count, 2);
+  }
+
+  @Test
+  public void testTruncatedFile() throws IOException, ResolverException {
+    Assert.assertEquals(read(new CachingResolver(counter, 1024 * 1024, dir), HTTP_URI), "<element/>");
+    File file = cacheFile();
+    RandomAccessFile raf = new RandomAccessFile(file, "rw");
+    try {
+      // the length of the content is now greater than the file
+      raf.setLength(raf.length() - 4);
+    }
+    finally {
+      raf.close();
+    }
+    Assert.assertEquals(read(new CachingResolver(counter, 1024 * 1024, dir), HTTP_URI), "<element/>");
+    Assert.assertEquals(counter.count, 2);
+  }
+
+  private File cacheFile() {
+    File[] files = dir.listFiles();
+    Assert.assertNotNull(files);
+    Assert.assertEquals(files.length, 1);
+    return files[0];
+  }
+
+  private String writeFile(String name, String content) throws IOException {
+    File file = new File(dir, name);
+    OutputStream out = new FileOutputStream(file);
+    try {
+      out.write(content.getBytes("UTF-8"));
+    }
+    finally {
+      out.close();
+    }
+    return UriOrFile.fileToUri(file);
+  }
+
+  private static String read(Resolver resolver, String uri) throws IOException, ResolverException {
+    Input input = new Input();
+    resolver.resolve(new Identifier(uri), input);
+    resolver.open(input);
+    InputStream in = input.getByteStream();
+    ByteArrayOutputStream buf = new ByteArrayOutputStream();
+    try {
+      byte[] bytes = new byte[1024];
+      int n;
+      while ((n = in.read(bytes)) >= 0)
+        buf.write(bytes, 0, n);
+    }
+    finally {
+      in.close();
+    }
+    return buf.toString("UTF-8");
+  }
+}
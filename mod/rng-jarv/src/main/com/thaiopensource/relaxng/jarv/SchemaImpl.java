@@ -8,15 +8,15 @@ import org.iso_relax.verifier.Verifier;
 import org.iso_relax.verifier.VerifierConfigurationException;
 
 class SchemaImpl implements Schema {
-  private final SchemaPatternBuilder spb;
   private final Pattern start;
+  private final ValidatorPatternBuilder vpb;
 
   SchemaImpl(Pattern start, SchemaPatternBuilder spb) {
     this.start = start;
-    this.spb = spb;
+    this.vpb = new ValidatorPatternBuilder(spb);
   }
 
   public Verifier newVerifier() throws VerifierConfigurationException {
-    return new VerifierImpl(start, new ValidatorPatternBuilder(spb));
+    return new VerifierImpl(start, vpb);
   }
 }
@@ -8,16 +8,16 @@ import com.thaiopensource.validation.ValidatorHandler2;
 
 class SchemaImpl extends Schema2 {
   private final SchemaFactoryImpl factory;
-  private final SchemaPatternBuilder spb;
   private final Pattern start;
+  private final ValidatorPatternBuilder vpb;
   
   SchemaImpl(SchemaFactoryImpl factory, SchemaPatternBuilder spb, Pattern start) {
     this.factory = factory;
-    this.spb = spb;
     this.start = start;
+    this.vpb = new ValidatorPatternBuilder(spb);
   }
 
   public ValidatorHandler2 newValidatorHandler() {
-    return new ValidatorHandlerImpl(factory, start, new ValidatorPatternBuilder(spb));
+    return new ValidatorHandlerImpl(factory, start, vpb);
   }
 }
@@ -5,6 +5,9 @@ import com.thaiopensource.relaxng.pattern.Pattern;
 import com.thaiopensource.relaxng.pattern.PatternMatcher;
 import com.thaiopensource.relaxng.pattern.ValidatorPatternBuilder;
 import com.thaiopensource.relaxng.sax.Context;
+import com.thaiopensource.relaxng.sax.MatchErrorException;
+import com.thaiopensource.relaxng.sax.TextMatcher;
+import com.thaiopensource.relaxng.stax.StreamReaderValidator;
 import com.thaiopensource.validation.ValidatorHandler2;
 import com.thaiopensource.xml.sax.DraconianErrorHandler;
 import com.thaiopensource.xml.util.Name;
@@ -17,9 +20,10 @@ import org.xml.sax.Locator;
 import org.xml.sax.SAXException;
 import org.xml.sax.SAXNotRecognizedException;
 import org.xml.sax.SAXNotSupportedException;
-import org.xml.sax.SAXParseException;
 
 import javax.xml.XMLConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 import javax.xml.validation.TypeInfoProvider;
 
 class ValidatorHandlerImpl extends ValidatorHandler2 {
@@ -28,8 +32,7 @@ class ValidatorHandlerImpl extends ValidatorHandler2 {
   private ErrorHandler specifiedErrorHandler = null;
   private ErrorHandler actualErrorHandler = defaultErrorHandler;
 
-  private boolean bufferingCharacters = false;
-  private final StringBuffer charBuf = new StringBuffer();
+  private final TextMatcher textMatcher = new TextMatcher();
   private Locator locator = null;
   private final Context context;
   private ContentHandler contentHandler = null;
@@ -45,20 +48,22 @@ class ValidatorHandlerImpl extends ValidatorHandler2 {
   }
 
   public void reset() {
-    bufferingCharacters = false;
+    textMatcher.reset();
     locator = null;
     matcher = matcher.start();
     context.reset();
   }
 
+  public boolean validate(XMLStreamReader reader) throws SAXException, XMLStreamException {
+    new StreamReaderValidator(matcher, actualErrorHandler).validate(reader);
+    return true;
+  }
+
   public void startElement(String namespaceURI,
 			   String localName,
 			   String qName,
 			   Attributes atts) throws SAXException {
-    if (bufferingCharacters) {
-      bufferingCharacters = false;
-      check(matcher.matchTextBeforeStartTag(charBuf.toString(), context));
-    }
+    check(textMatcher.endTextBeforeStartTag(matcher, context));
     Name name = new Name(namespaceURI, localName);
     check(matcher.matchStartTagOpen(name, qName, context));
     int len = atts.getLength();
@@ -69,10 +74,7 @@ class ValidatorHandlerImpl extends ValidatorHandler2 {
       check(matcher.matchAttributeValue(atts.getValue(i), attName, attQName, context));
     }
     check(matcher.matchStartTagClose(name, qName, context));
-    if (matcher.isTextTyped()) {
-      bufferingCharacters = true;
-      charBuf.setLength(0);
-    }
+    textMatcher.startContent(matcher, context);
     if (contentHandler != null)
       contentHandler.startElement(namespaceURI, localName, qName, atts);
   }
@@ -80,34 +82,15 @@ class ValidatorHandlerImpl extends ValidatorHandler2 {
   public void endElement(String namespaceURI,
 			 String localName,
 			 String qName) throws SAXException {
-    if (bufferingCharacters) {
-      bufferingCharacters = false;
-      if (charBuf.length() > 0)
-        check(matcher.matchTextBeforeEndTag(charBuf.toString(), new Name(namespaceURI, localName),
-                                            qName, context));
-    }
-    check(matcher.matchEndTag(new Name(namespaceURI, localName), qName, context));
+    Name name = new Name(namespaceURI, localName);
+    check(textMatcher.endTextBeforeEndTag(matcher, name, qName, context));
+    check(matcher.matchEndTag(name, qName, context));
     if (contentHandler != null)
       contentHandler.endElement(namespaceURI, localName, qName);
   }
 
   public void characters(char ch[], int start, int length) throws SAXException {
-    if (bufferingCharacters) {
-      charBuf.append(ch, start, length);
-      return;
-    }
-    for (int i = 0; i < length; i++) {
-      switch (ch[start + i]) {
-      case ' ':
-      case '\r':
-      case '\t':
-      case '\n':
-	break;
-      default:
-	check(matcher.matchUntypedText(context));
-	return;
-      }
-    }
+    check(textMatcher.characters(matcher, ch, start, length, context));
   }
 
   public void endDocument() throws SAXException {
@@ -145,7 +128,7 @@ class ValidatorHandlerImpl extends ValidatorHandler2 {
 
   private void check(boolean ok) throws SAXException {
     if (!ok)
-      actualErrorHandler.error(new SAXParseException(matcher.getErrorMessage(), locator));
+      actualErrorHandler.error(new MatchErrorException(matcher.getError(), locator));
   }
 
   public void setContentHandler(ContentHandler delegate) {
@@ -187,10 +170,7 @@ class ValidatorHandlerImpl extends ValidatorHandler2 {
 
   public void startPrefixMapping(String prefix, String uri) throws SAXException {
     // namespace declarations on the start-tag shouldn't apply to the characters before the start-tag
-    if (bufferingCharacters) {
-      bufferingCharacters = false;
-      check(matcher.matchTextBeforeStartTag(charBuf.toString(), context));
-    }
+    check(textMatcher.endTextBeforeStartTag(matcher, context));
     context.startPrefixMapping(prefix, uri);
     if (contentHandler != null)
       contentHandler.startPrefixMapping(prefix, uri);
@@ -16,7 +16,10 @@ import org.xml.sax.SAXParseException;
 
 import javax.xml.XMLConstants;
 import javax.xml.transform.Source;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamException;
 import javax.xml.transform.sax.SAXSource;
+import javax.xml.transform.stax.StAXSource;
 import javax.xml.transform.stream.StreamSource;
 import javax.xml.validation.SchemaFactory;
 import javax.xml.validation.Validator;
@@ -59,6 +62,16 @@ public abstract class SchemaFactoryImplTest {
   public void testValidFile(String schemaString, String docString) throws SAXException, IOException {
     factory().newSchema(fileSource(schemaString)).newValidator().validate(fileSource(docString));
   }
+  @Test(dataProvider = "valid")
+  public void testValidStreamReader(String schemaString, String docString) throws SAXException, IOException {
+    factory().newSchema(charStreamSource(schemaString)).newValidator().validate(streamReaderSource(docString));
+  }
+
+  @Test(dataProvider = "valid")
+  public void testValidEventReader(String schemaString, String docString) throws SAXException, IOException {
+    factory().newSchema(charStreamSource(schemaString)).newValidator().validate(eventReaderSource(docString));
+  }
+
   @DataProvider(name = "valid")
   protected Object[][] valid() {
     return new Object[][] {
@@ -72,6 +85,24 @@ public abstract class SchemaFactoryImplTest {
     return new SAXSource(new InputSource(new StringReader(s)));
   }
 
+  private static StAXSource streamReaderSource(String s) {
+    try {
+      return new StAXSource(XMLInputFactory.newInstance().createXMLStreamReader(new StringReader(s)));
+    }
+    catch (XMLStreamException e) {
+      throw new AssertionError(e);
+    }
+  }
+
+  private static StAXSource eventReaderSource(String s) {
+    try {
+      return new StAXSource(XMLInputFactory.newInstance().createXMLEventReader(new StringReader(s)));
+    }
+    catch (XMLStreamException e) {
+      throw new AssertionError(e);
+    }
+  }
+
   private static synchronized Source fileSource(String s) throws IOException {
     final File file = new File("t" + filenameIndex++);
     Writer w = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
@@ -105,6 +136,39 @@ public abstract class SchemaFactoryImplTest {
     Assert.assertTrue(eh.errorCount > 0);
   }
 
+  @Test
+  public void testStreamReaderErrors() throws SAXException, IOException {
+    SchemaFactory f = factory();
+    Validator v = f.newSchema(charStreamSource(createSchema("doc"))).newValidator();
+    CountErrorHandler eh = new CountErrorHandler() {
+      public void error(SAXParseException e) throws SAXException {
+        if (errorCount == 0)
+          Assert.assertEquals(e.getLineNumber(), 2);
+        super.error(e);
+      }
+    };
+    v.setErrorHandler(eh);
+    v.validate(streamReaderSource("<doc>\n<bad/></doc>"));
+    Assert.assertTrue(eh.errorCount > 0);
+    // the Validator is reset between documents
+    eh.errorCount = 0;
+    v.validate(streamReaderSource("<doc/>"));
+    Assert.assertEquals(eh.errorCount, 0);
+  }
+
+  @Test(expectedExceptions = { MySAXException.class })
+  public void testEventReaderErrorHandlerThrowSAX() throws SAXException, IOException {
+    SchemaFactory f = factory();
+    Validator v = f.newSchema(charStreamSource(createSchema("doc"))).newValidator();
+    v.setErrorHandler(new DraconianErrorHandler() {
+      public void error(SAXParseException e) throws SAXException {
+        throw new MySAXException();
+      }
+    });
+    v.validate(eventReaderSource("<doc>\n<bad/></doc>"));
+    throw new AssertionError();
+  }
+
   @Test(expectedExceptions = { RuntimeException.class })
   public void testErrorHandlerThrowRuntime() throws SAXException, IOException {
     SchemaFactory f = factory();
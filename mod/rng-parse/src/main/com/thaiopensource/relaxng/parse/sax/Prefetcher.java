@@ -0,0 +1,276 @@
+package com.thaiopensource.relaxng.parse.sax;
+
+import com.thaiopensource.resolver.BasicResolver;
+import com.thaiopensource.resolver.Input;
+import com.thaiopensource.resolver.Resolver;
+import com.thaiopensource.resolver.ResolverException;
+import com.thaiopensource.resolver.xml.XMLDocumentIdentifier;
+import com.thaiopensource.resolver.xml.sax.SAXResolver;
+import com.thaiopensource.xml.sax.XmlBaseHandler;
+import com.thaiopensource.xml.util.WellKnownNamespaces;
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.Locator;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.DefaultHandler;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParserFactory;
+import javax.xml.transform.sax.SAXSource;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reads the documents referenced by include and externalRef elements ahead of the parser, using a
+ * pool of threads.  Each document that the parser gets from <code>getSource</code> is read into
+ * memory, if it has not been read already, and is scanned for include and externalRef elements;
+ * the documents they reference are read into memory and scanned in turn.  The parser then takes
+ * the content of a referenced document from memory.  A document that the parser wants before a
+ * thread has started reading it is read by the parser's thread.
+ * <p>
+ * Only the reading of documents is done ahead; the documents are parsed in the usual order, so
+ * the schema and the errors reported are the same as without a Prefetcher.  A document that cannot be
+ * read ahead is read by the parser as usual, which reports any error.  The resolver must be safe for
+ * access from multiple threads.
+ */
+public class Prefetcher {
+  private final Resolver resolver;
+  private final ThreadPoolExecutor executor;
+  private final SAXParserFactory parserFactory;
+  // the URIs of documents that have been scanned or are to be scanned
+  private final Set<String> seen = new HashSet<String>();
+  private final Map<String, FutureTask<Content>> documents = new HashMap<String, FutureTask<Content>>();
+
+  /**
+   * The content of a document read into memory, with the encoding that the resolver gave it, if any.
+   */
+  private static class Content {
+    private final byte[] bytes;
+    private final String encoding;
+
+    Content(byte[] bytes, String encoding) {
+      this.bytes = bytes;
+      this.encoding = encoding;
+    }
+  }
+
+  public Prefetcher(SAXResolver resolver, int nThreads) {
+    this.resolver = resolver.getResolver();
+    executor = new ThreadPoolExecutor(nThreads, nThreads, 1, TimeUnit.SECONDS,
+                                      new LinkedBlockingQueue<Runnable>(),
+                                      new ThreadFactory() {
+                                        public Thread newThread(Runnable r) {
+                                          Thread thread = new Thread(r, "schema prefetcher");
+                                          thread.setDaemon(true);
+                                          return thread;
+                                        }
+                                      });
+    // the threads go away once the schema has been read, so there is no need to shut down
+    executor.allowCoreThreadTimeOut(true);
+    parserFactory = SAXParserFactory.newInstance();
+    parserFactory.setNamespaceAware(true);
+    parserFactory.setValidating(false);
+  }
+
+  /**
+   * Returns a SAXSource that reads the document of source from memory, and starts reading ahead
+   * the documents it references.  Returns source itself if it has a byte or character stream,
+   * or if its document cannot be read into memory.
+   */
+  public SAXSource getSource(SAXSource source) {
+    InputSource in = source.getInputSource();
+    String uri = in.getSystemId();
+    if (uri == null || in.getByteStream() != null || in.getCharacterStream() != null)
+      return source;
+    FutureTask<Content> document;
+    synchronized (documents) {
+      // the content is wanted only once, unless the document is referenced again
+      document = documents.remove(uri);
+      if (document == null && seen.add(uri))
+        document = newDocument(uri);
+    }
+    if (document == null)
+      return source;
+    Content content;
+    try {
+      // if no thread has started reading it, this reads it rather than waiting for one to
+      document.run();
+      content = document.get();
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return source;
+    }
+    catch (ExecutionException e) {
+      return source;
+    }
+    if (content == null)
+      return source;
+    InputSource prefetched = new InputSource(uri);
+    prefetched.setPublicId(in.getPublicId());
+    // as when the parser opens it, an encoding from the resolver takes the place of that of the source
+    prefetched.setEncoding(content.encoding != null ? content.encoding : in.getEncoding());
+    prefetched.setByteStream(new ByteArrayInputStream(content.bytes));
+    return new SAXSource(source.getXMLReader(), prefetched);
+  }
+
+  private void prefetch(String uri) {
+    synchronized (documents) {
+      if (!seen.add(uri))
+        return;
+      documents.put(uri, newDocument(uri));
+    }
+  }
+
+  /**
+   * Returns a task that reads the document with the specified URI, and submits a task that runs it,
+   * unless the parser has already done so, and then scans the document.
+   */
+  private FutureTask<Content> newDocument(final String uri) {
+    final FutureTask<Content> document = new FutureTask<Content>(new Callable<Content>() {
+      public Content call() throws Exception {
+        return fetch(uri);
+      }
+    });
+    Runnable scanner = new Runnable() {
+      public void run() {
+        // does nothing if the parser has already read it
+        document.run();
+        try {
+          Content content = document.get();
+          if (content != null)
+            scan(uri, content);
+        }
+        catch (Exception e) {
+          // the parser will deal with it
+        }
+      }
+    };
+    executor.execute(scanner);
+    return document;
+  }
+
+  /**
+   * Returns the content of the document with the specified URI, or null if the resolver
+   * provides it only as characters.
+   */
+  private Content fetch(String uri) throws IOException, ResolverException {
+    Input input = new Input();
+    input.setUri(uri);
+    resolver.open(input);
+    if (input.getCharacterStream() != null) {
+      input.getCharacterStream().close();
+      return null;
+    }
+    InputStream in = input.getByteStream();
+    if (in == null)
+      return null;
+    ByteArrayOutputStream buf = new ByteArrayOutputStream();
+    try {
+      byte[] bytes = new byte[8192];
+      int n;
+      while ((n = in.read(bytes)) >= 0)
+        buf.write(bytes, 0, n);
+    }
+    finally {
+      in.close();
+    }
+    return new Content(buf.toByteArray(), input.getEncoding());
+  }
+
+  private void scan(String uri, Content content) throws IOException, SAXException {
+    XMLReader xr;
+    try {
+      // SAXParserFactory need not be thread-safe
+      synchronized (parserFactory) {
+        xr = parserFactory.newSAXParser().getXMLReader();
+      }
+    }
+    catch (ParserConfigurationException e) {
+      throw new SAXException(e);
+    }
+    ScanHandler handler = new ScanHandler();
+    xr.setContentHandler(handler);
+    xr.setEntityResolver(handler);
+    InputSource in = new InputSource(uri);
+    in.setEncoding(content.encoding);
+    in.setByteStream(new ByteArrayInputStream(content.bytes));
+    xr.parse(in);
+  }
+
+  private void referenced(String href, String base) throws IOException, ResolverException {
+    Input input = new Input();
+    resolver.resolve(new XMLDocumentIdentifier(href, base, WellKnownNamespaces.RELAX_NG), input);
+    if (input.isOpen()) {
+      // the resolver has read it, so there is nothing to gain
+      if (input.getByteStream() != null)
+        input.getByteStream().close();
+      if (input.getCharacterStream() != null)
+        input.getCharacterStream().close();
+      return;
+    }
+    String uri = input.getUri();
+    if (uri == null)
+      uri = BasicResolver.resolveUri(new XMLDocumentIdentifier(href, base, WellKnownNamespaces.RELAX_NG));
+    prefetch(uri);
+  }
+
+  /**
+   * Finds include and externalRef elements, working out their base URIs in the same way as
+   * SchemaParser.
+   */
+  private class ScanHandler extends DefaultHandler {
+    private final XmlBaseHandler xmlBaseHandler = new XmlBaseHandler();
+
+    public void setDocumentLocator(Locator locator) {
+      xmlBaseHandler.setLocator(locator);
+    }
+
+    public void startElement(String uri, String localName, String qName, Attributes attributes)
+            throws SAXException {
+      xmlBaseHandler.startElement();
+      String xmlBase = attributes.getValue(WellKnownNamespaces.XML, "base");
+      if (xmlBase != null)
+        xmlBaseHandler.xmlBaseAttribute(xmlBase);
+      if (!WellKnownNamespaces.RELAX_NG.equals(uri)
+          || !(localName.equals("include") || localName.equals("externalRef")))
+        return;
+      String href = attributes.getValue("", "href");
+      if (href == null)
+        return;
+      try {
+        referenced(href, xmlBaseHandler.getBaseUri());
+      }
+      catch (IOException e) {
+        // the parser will report it
+      }
+      catch (ResolverException e) {
+        // the parser will report it
+      }
+    }
+
+    public void endElement(String uri, String localName, String qName) {
+      xmlBaseHandler.endElement();
+    }
+
+    public InputSource resolveEntity(String publicId, String systemId) {
+      // references in external entities are not worth reading the entities for
+      return new InputSource(new StringReader(""));
+    }
+  }
+}
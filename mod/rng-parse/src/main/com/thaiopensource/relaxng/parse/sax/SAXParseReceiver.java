@@ -15,7 +15,11 @@ public class SAXParseReceiver<P, NC, L, EA, CL extends CommentList<L>, A extends
         extends SAXSubParser<P, NC, L, EA, CL, A>
         implements ParseReceiver<P, NC, L, EA, CL, A> {
   public SAXParseReceiver(SAXResolver resolver, ErrorHandler eh) {
-    super(resolver, eh);
+    this(resolver, eh, null);
+  }
+
+  public SAXParseReceiver(SAXResolver resolver, ErrorHandler eh, Prefetcher prefetcher) {
+    super(resolver, eh, prefetcher);
   }
 
   public ParsedPatternFuture<P> installHandlers(XMLReader xr, SchemaBuilder<P, NC, L, EA, CL, A> schemaBuilder,
@@ -28,7 +28,18 @@ public class SAXParseable<P, NC, L, EA, CL extends CommentList<L>, A extends Ann
    * @param eh
    */
   public SAXParseable(SAXSource source, SAXResolver resolver, ErrorHandler eh) {
-    super(resolver, eh);
+    this(source, resolver, eh, null);
+  }
+
+  /**
+   *
+   * @param source  XMLReader must be non-null
+   * @param resolver
+   * @param eh
+   * @param prefetcher  reads included documents ahead; may be null
+   */
+  public SAXParseable(SAXSource source, SAXResolver resolver, ErrorHandler eh, Prefetcher prefetcher) {
+    super(resolver, eh, prefetcher);
     this.source = source;
   }
 
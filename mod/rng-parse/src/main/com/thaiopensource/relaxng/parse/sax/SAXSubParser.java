@@ -10,21 +10,28 @@ import com.thaiopensource.xml.util.WellKnownNamespaces;
 import org.xml.sax.ErrorHandler;
 import org.xml.sax.SAXException;
 
+import javax.xml.transform.sax.SAXSource;
+
 import java.io.IOException;
 
 public class SAXSubParser<P, NC, L, EA, CL extends CommentList<L>, A extends Annotations<L, EA, CL>> implements
         SubParser<P, NC, L, EA, CL, A> {
   final SAXResolver resolver;
   final ErrorHandler eh;
+  final Prefetcher prefetcher;
 
-  SAXSubParser(SAXResolver resolver, ErrorHandler eh) {
+  SAXSubParser(SAXResolver resolver, ErrorHandler eh, Prefetcher prefetcher) {
     this.resolver = resolver;
     this.eh = eh;
+    this.prefetcher = prefetcher;
   }
 
   public SubParseable<P, NC, L, EA, CL, A> createSubParseable(String href, String base) throws BuildException {
     try {
-      return new SAXParseable<P, NC, L, EA, CL, A>(resolver.resolve(href, base, WellKnownNamespaces.RELAX_NG), resolver, eh);
+      SAXSource source = resolver.resolve(href, base, WellKnownNamespaces.RELAX_NG);
+      if (prefetcher != null)
+        source = prefetcher.getSource(source);
+      return new SAXParseable<P, NC, L, EA, CL, A>(source, resolver, eh, prefetcher);
     }
     catch (SAXException e) {
       throw BuildException.fromSAXException(e);
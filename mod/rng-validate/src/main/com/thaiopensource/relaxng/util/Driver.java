@@ -1,10 +1,15 @@
 package com.thaiopensource.relaxng.util;
 
+import com.thaiopensource.resolver.BasicResolver;
+import com.thaiopensource.resolver.CachingResolver;
 import com.thaiopensource.resolver.Identifier;
 import com.thaiopensource.resolver.Input;
+import com.thaiopensource.resolver.Resolver;
 import com.thaiopensource.resolver.ResolverException;
+import com.thaiopensource.resolver.catalog.CatalogIndex;
 import com.thaiopensource.resolver.catalog.CatalogResolver;
 import com.thaiopensource.resolver.xml.ExternalIdentifier;
+import com.thaiopensource.resolver.xml.sax.SAXResolver;
 import com.thaiopensource.util.Localizer;
 import com.thaiopensource.util.OptionParser;
 import com.thaiopensource.util.PropertyMapBuilder;
@@ -12,8 +17,10 @@ import com.thaiopensource.util.UriOrFile;
 import com.thaiopensource.util.Version;
 import com.thaiopensource.validate.*;
 import com.thaiopensource.validate.auto.AutoSchemaReader;
+import com.thaiopensource.validate.prop.rng.DerivativeCache;
 import com.thaiopensource.validate.prop.rng.RngProperty;
 import com.thaiopensource.validate.rng.CompactSchemaReader;
+import com.thaiopensource.validate.rng.SAXSchemaReader;
 import com.thaiopensource.xml.sax.ErrorHandlerImpl;
 import com.thaiopensource.xml.sax.Sax2XMLReaderCreator;
 import org.xml.sax.InputSource;
@@ -21,13 +28,21 @@ import org.xml.sax.SAXException;
 import org.xml.sax.XMLReader;
 
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.List;
 
 
 class Driver {
   static private String usageKey = "usage";
+  // the most content of resources to keep in memory with -R
+  static private final long RESOURCE_CACHE_BYTES = 32*1024*1024;
+  // the options that apply to -l
+  static private final String LISTEN_OPTIONS = "CdpRjl";
 
   static public void setUsageKey(String key) {
     usageKey = key;
@@ -41,10 +56,11 @@ class Driver {
   private String encoding = null;
   private Localizer localizer = new Localizer(Driver.class);
   private boolean systemIn = false;
+  private boolean mapFiles = false;
 
   public int doMain(String[] args) {
     ErrorHandlerImpl eh = new ErrorHandlerImpl(System.out);
-    OptionParser op = new OptionParser("itcdfe:p:sC:Svxr", args);
+    OptionParser op = new OptionParser("itcdfe:p:sC:Svxrk:m:j:l:MR:", args);
     PropertyMapBuilder properties = new PropertyMapBuilder();
     properties.put(ValidateProperty.ERROR_HANDLER, eh);
     RngProperty.CHECK_ID_IDREF.add(properties);
@@ -54,11 +70,18 @@ class Driver {
     boolean resolveSchemaPath = false;
     boolean compact = false;
     boolean outputSimplifiedSchema = false;
+    String derivativeCacheFile = null;
+    // 0 if not specified
+    int nThreads = 0;
+    int port = -1;
     List<String> catalogUris = new ArrayList<String>();
     CatalogResolver resolver = null;
+    File resourceCacheDir = null;
+    StringBuilder usedOptions = new StringBuilder();
 
     try {
       while (op.moveToNextOption()) {
+        usedOptions.append(op.getOptionChar());
         switch (op.getOptionChar()) {
           case 'i':
             properties.put(RngProperty.CHECK_ID_IDREF, null);
@@ -95,6 +118,12 @@ class Driver {
           case 'S':
             systemIn = true;
             break;
+          case 'M':
+            mapFiles = true;
+            break;
+          case 'R':
+            resourceCacheDir = new File(op.getOptionArg());
+            break;
           case 'p':
             if (sr == null)
               sr = new AutoSchemaReader();
@@ -119,6 +148,36 @@ class Driver {
           case 'r':
             resolveSchemaPath = true;
             break;
+          case 'k':
+            properties.put(RngProperty.SNAPSHOT, op.getOptionArg());
+            break;
+          case 'm':
+            derivativeCacheFile = op.getOptionArg();
+            break;
+          case 'j':
+            try {
+              nThreads = Integer.parseInt(op.getOptionArg());
+            }
+            catch (NumberFormatException e) {
+              nThreads = 0;
+            }
+            if (nThreads < 1) {
+              eh.print(localizer.message("invalid_threads", op.getOptionArg()));
+              return 2;
+            }
+            break;
+          case 'l':
+            try {
+              port = Integer.parseInt(op.getOptionArg());
+            }
+            catch (NumberFormatException e) {
+              port = -1;
+            }
+            if (port < 0 || port > 0xFFFF) {
+              eh.print(localizer.message("invalid_port", op.getOptionArg()));
+              return 2;
+            }
+            break;
         }
       }
     } catch (OptionParser.InvalidOptionException e) {
@@ -128,22 +187,65 @@ class Driver {
       eh.print(localizer.message("option_missing_argument", op.getOptionCharString()));
       return 2;
     }
+    if (port >= 0) {
+      for (int i = 0; i < usedOptions.length(); i++) {
+        if (LISTEN_OPTIONS.indexOf(usedOptions.charAt(i)) < 0) {
+          eh.print(localizer.message("option_not_with_listen", String.valueOf(usedOptions.charAt(i))));
+          return 2;
+        }
+      }
+    }
     if (!catalogUris.isEmpty()) {
       try {
-        resolver = new CatalogResolver(catalogUris);
+        // a CatalogIndex can be used by several threads at once, but is loaded before it is used
+        if (nThreads > 1 || port >= 0)
+          resolver = new CatalogResolver(CatalogIndex.load(catalogUris, new SAXResolver()));
+        else
+          resolver = new CatalogResolver(catalogUris);
         properties.put(ValidateProperty.RESOLVER, resolver);
+      } catch (ResolverException e) {
+        eh.printException(e);
+        return 2;
       } catch (LinkageError e) {
         eh.print(localizer.message("resolver_not_found"));
         return 2;
       }
     }
+    if (resourceCacheDir != null) {
+      Resolver cached = resolver != null ? resolver : BasicResolver.getInstance();
+      properties.put(ValidateProperty.RESOLVER,
+                     new CachingResolver(cached, RESOURCE_CACHE_BYTES, resourceCacheDir));
+    }
     if (compact)
       sr = CompactSchemaReader.getInstance();
+    else if (sr == null && properties.contains(RngProperty.SNAPSHOT))
+      sr = SAXSchemaReader.getInstance();
     args = op.getRemainingArgs();
+    if (port >= 0) {
+      if (args.length != 0) {
+        eh.print(localizer.message(usageKey, Version.getVersion(Driver.class)));
+        return 2;
+      }
+      // the options of each request take the place of -c, -f and -i, which are rejected above
+      properties.put(RngProperty.CHECK_ID_IDREF, null);
+      int maxConnections = nThreads > 0 ? nThreads : ValidationServer.DEFAULT_MAX_CONNECTIONS;
+      try {
+        new ValidationServer(properties.toPropertyMap(), maxConnections).serve(port);
+      }
+      catch (IOException e) {
+        eh.printException(e);
+      }
+      return 1;
+    }
     if (args.length < 1) {
       eh.print(localizer.message(usageKey, Version.getVersion(Driver.class)));
       return 2;
     }
+    if ("-".equals(args[0]) && nThreads > 0) {
+      // documents validated with a DTD or XSD are parsed one after another
+      eh.print(localizer.message("option_not_with_dash", "j"));
+      return 2;
+    }
     long startTime = System.currentTimeMillis();
     long loadedPatternTime = -1;
     boolean hadError = false;
@@ -166,7 +268,7 @@ class Driver {
           reader.parse(xmlIn);
         } else {
           for (int i = 1; i < args.length; i++) {
-            reader.parse(ValidationDriver.uriOrFileInputSource(args[i]));
+            reader.parse(instanceInputSource(args[i]));
           }
         }
       } else {
@@ -198,16 +300,34 @@ class Driver {
             } else
               System.out.print(simplifiedSchema);
           }
+          DerivativeCache derivativeCache = null;
+          if (derivativeCacheFile != null) {
+            derivativeCache = driver.getSchemaProperties().get(RngProperty.DERIVATIVE_CACHE);
+            if (derivativeCache == null) {
+              eh.print(localizer.message("no_derivative_cache"));
+              hadError = true;
+            }
+            else if (new File(derivativeCacheFile).isFile())
+              loadDerivativeCache(derivativeCache, new File(derivativeCacheFile));
+          }
           if (systemIn) {
             InputSource xmlIn = new InputSource(System.in);
             if (args.length == 2) xmlIn.setSystemId(args[1]);
             if (!driver.validate(xmlIn)) hadError = true;
+          } else if (nThreads > 1) {
+            List<InputSource> inputs = new ArrayList<InputSource>();
+            for (int i = 1; i < args.length; i++)
+              inputs.add(instanceInputSource(args[i]));
+            if (!driver.validate(inputs, nThreads))
+              hadError = true;
           } else {
             for (int i = 1; i < args.length; i++) {
-              if (!driver.validate(ValidationDriver.uriOrFileInputSource(args[i])))
+              if (!driver.validate(instanceInputSource(args[i])))
                 hadError = true;
             }
           }
+          if (derivativeCache != null)
+            saveDerivativeCache(derivativeCache, new File(derivativeCacheFile));
         } else
           hadError = true;
       }
@@ -237,4 +357,31 @@ class Driver {
     return 0;
   }
 
+  private InputSource instanceInputSource(String uriOrFile) {
+    return mapFiles
+        ? ValidationDriver.mappedUriOrFileInputSource(uriOrFile)
+        : ValidationDriver.uriOrFileInputSource(uriOrFile);
+  }
+
+  private static void loadDerivativeCache(DerivativeCache derivativeCache, File file) throws IOException {
+    InputStream in = new FileInputStream(file);
+    try {
+      // a cache saved for a different schema is ignored and will be overwritten
+      derivativeCache.load(in);
+    }
+    finally {
+      in.close();
+    }
+  }
+
+  private static void saveDerivativeCache(DerivativeCache derivativeCache, File file) throws IOException {
+    OutputStream out = new FileOutputStream(file);
+    try {
+      derivativeCache.save(out);
+    }
+    finally {
+      out.close();
+    }
+  }
+
 }
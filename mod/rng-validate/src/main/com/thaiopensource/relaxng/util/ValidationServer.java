@@ -0,0 +1,417 @@
+package com.thaiopensource.relaxng.util;
+
+import com.thaiopensource.util.PropertyMap;
+import com.thaiopensource.util.PropertyMapBuilder;
+import com.thaiopensource.util.UriOrFile;
+import com.thaiopensource.validate.IncorrectSchemaException;
+import com.thaiopensource.validate.ResolverFactory;
+import com.thaiopensource.validate.Schema;
+import com.thaiopensource.validate.SchemaCache;
+import com.thaiopensource.validate.SchemaReader;
+import com.thaiopensource.validate.ValidateProperty;
+import com.thaiopensource.validate.Validator;
+import com.thaiopensource.validate.auto.AutoSchemaReader;
+import com.thaiopensource.validate.prop.rng.RngProperty;
+import com.thaiopensource.validate.rng.CompactSchemaReader;
+import org.xml.sax.DTDHandler;
+import org.xml.sax.ErrorHandler;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXParseException;
+import org.xml.sax.XMLReader;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Validates documents on behalf of clients connecting to a port on the loopback interface,
+ * keeping the schemas it has loaded so that later requests do not pay for loading them again.
+ * <p>
+ * A connection carries any number of requests.  A request is a sequence of header lines,
+ * each a name and a value separated by a space, terminated by an empty line.  Lines are
+ * encoded in UTF-8 and end with a newline.  The headers are:
+ * <dl>
+ * <dt><code>schema</code></dt><dd>the URI or file name of the schema; required</dd>
+ * <dt><code>instance</code></dt><dd>the URI or file name of the document to validate</dd>
+ * <dt><code>length</code></dt><dd>the number of bytes of the document to validate, which
+ * follow the empty line; used instead of <code>instance</code>; at most 64 megabytes</dd>
+ * <dt><code>system-id</code></dt><dd>the system identifier of a document given by
+ * <code>length</code></dd>
+ * <dt><code>options</code></dt><dd>any of the letters <code>c</code>, <code>f</code> and
+ * <code>i</code>, with the same meaning as the corresponding options of Driver</dd>
+ * </dl>
+ * File names are relative to the working directory of the server.
+ * <p>
+ * The server reads the schemas and documents named by requests with the permissions of the user
+ * running it, and its responses include parts of their content in error messages.  Since any
+ * local user can connect to the loopback interface, the server should only be run on a machine
+ * whose local users may read everything that the user running it can read.
+ * <p>
+ * The response is a line for each warning or error, of the form
+ * <code><i>kind</i> TAB <i>systemId</i> TAB <i>line</i> TAB <i>column</i> TAB <i>message</i></code>,
+ * where <i>kind</i> is <code>warning</code>, <code>error</code> or <code>fatal</code>, followed by a
+ * line with the outcome: <code>valid</code>, <code>invalid</code>, <code>bad-schema</code> or
+ * <code>bad-request</code>, the last followed by a space and a message.  Fields that are not
+ * known are empty; backslash, tab, carriage return and newline in fields are escaped as
+ * <code>\\</code>, <code>\t</code>, <code>\r</code> and <code>\n</code>.
+ * After a <code>bad-request</code> response to a request whose <code>length</code> is invalid
+ * or too large, the server closes the connection.
+ * <p>
+ * A schema is loaded again when it or a resource it was loaded from has changed.
+ */
+class ValidationServer {
+  private static final String[] OPTION_LETTERS = { "c", "f", "i" };
+  private static final int MAX_LENGTH = 64*1024*1024;
+  private static final int MAX_LINE_LENGTH = 64*1024;
+  static final int DEFAULT_MAX_CONNECTIONS = 16;
+
+  private final PropertyMap baseProperties;
+  private final int maxConnections;
+  private final SchemaCache schemaCache = new SchemaCache();
+
+  private static class BadRequestException extends Exception {
+    // true if the rest of the input cannot be read as requests
+    private final boolean closeConnection;
+
+    BadRequestException(String message) {
+      this(message, false);
+    }
+
+    BadRequestException(String message, boolean closeConnection) {
+      super(message);
+      this.closeConnection = closeConnection;
+    }
+  }
+
+  /**
+   * baseProperties are used for loading schemas and validating documents, in addition to those
+   * given by the options of each request.  At most maxConnections connections are handled
+   * at once; further connections wait to be accepted.
+   */
+  ValidationServer(PropertyMap baseProperties, int maxConnections) {
+    this.baseProperties = baseProperties;
+    this.maxConnections = maxConnections;
+  }
+
+  /**
+   * Accepts connections on port until the process is terminated.
+   */
+  void serve(int port) throws IOException {
+    ServerSocket serverSocket = new ServerSocket(port, 50, InetAddress.getByName(null));
+    ExecutorService executor = Executors.newFixedThreadPool(maxConnections);
+    final Semaphore connections = new Semaphore(maxConnections);
+    try {
+      for (;;) {
+        connections.acquireUninterruptibly();
+        final Socket socket;
+        try {
+          socket = serverSocket.accept();
+        }
+        catch (IOException e) {
+          connections.release();
+          throw e;
+        }
+        executor.execute(new Runnable() {
+          public void run() {
+            try {
+              handleConnection(socket);
+            }
+            finally {
+              connections.release();
+            }
+          }
+        });
+      }
+    }
+    finally {
+      executor.shutdown();
+      serverSocket.close();
+    }
+  }
+
+  private void handleConnection(Socket socket) {
+    try {
+      try {
+        InputStream in = new BufferedInputStream(socket.getInputStream());
+        Writer out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), "UTF-8"));
+        while (handleRequest(in, out))
+          out.flush();
+      }
+      finally {
+        socket.close();
+      }
+    }
+    catch (IOException e) {
+      // the client went away
+    }
+  }
+
+  /**
+   * Returns false if there are no more requests.
+   */
+  boolean handleRequest(InputStream in, Writer out) throws IOException {
+    Map<String, String> headers = new HashMap<String, String>();
+    for (;;) {
+      String line = readLine(in);
+      if (line == null) {
+        if (headers.isEmpty())
+          return false;
+        throw new EOFException();
+      }
+      if (line.length() == 0) {
+        if (headers.isEmpty())
+          continue;
+        break;
+      }
+      int i = line.indexOf(' ');
+      if (i < 0)
+        headers.put(line, "");
+      else
+        headers.put(line.substring(0, i), line.substring(i + 1));
+    }
+    try {
+      handleRequest(headers, in, out);
+    }
+    catch (BadRequestException e) {
+      out.write("bad-request ");
+      out.write(escape(e.getMessage()));
+      out.write('\n');
+      if (e.closeConnection) {
+        out.flush();
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private void handleRequest(Map<String, String> headers, InputStream in, Writer out)
+          throws IOException, BadRequestException {
+    InputSource instance;
+    String length = headers.get("length");
+    if (length != null) {
+      int n;
+      try {
+        n = Integer.parseInt(length);
+      }
+      catch (NumberFormatException e) {
+        n = -1;
+      }
+      if (n < 0)
+        throw new BadRequestException("invalid length \"" + length + "\"", true);
+      if (n > MAX_LENGTH)
+        throw new BadRequestException("length " + n + " exceeds " + MAX_LENGTH, true);
+      byte[] bytes = readBytes(in, n);
+      instance = new InputSource(new ByteArrayInputStream(bytes));
+      String systemId = headers.get("system-id");
+      if (systemId != null)
+        instance.setSystemId(UriOrFile.toUri(systemId));
+    }
+    else {
+      String uriOrFile = headers.get("instance");
+      if (uriOrFile == null)
+        throw new BadRequestException("missing instance or length");
+      instance = new InputSource(UriOrFile.toUri(uriOrFile));
+    }
+    String schemaUriOrFile = headers.get("schema");
+    if (schemaUriOrFile == null)
+      throw new BadRequestException("missing schema");
+    String options = headers.get("options");
+    if (options == null)
+      options = "";
+    // options must consist of distinct known letters
+    StringBuilder flags = new StringBuilder();
+    for (String letter : OPTION_LETTERS) {
+      if (options.indexOf(letter) >= 0)
+        flags.append(letter);
+    }
+    if (options.length() != flags.length())
+      throw new BadRequestException("invalid options \"" + options + "\"");
+    ResponseErrorHandler eh = new ResponseErrorHandler(out);
+    PropertyMapBuilder builder = new PropertyMapBuilder(baseProperties);
+    String opts = flags.toString();
+    if (opts.indexOf('i') < 0)
+      RngProperty.CHECK_ID_IDREF.add(builder);
+    if (opts.indexOf('f') >= 0)
+      RngProperty.FEASIBLE.add(builder);
+    builder.put(ValidateProperty.ERROR_HANDLER, eh);
+    PropertyMap properties = builder.toPropertyMap();
+    try {
+      Schema schema = getSchema(UriOrFile.toUri(schemaUriOrFile), opts, properties);
+      if (schema == null) {
+        out.write("bad-schema\n");
+        return;
+      }
+      Validator validator = schema.createValidator(properties);
+      XMLReader xr = ResolverFactory.createResolver(properties).createXMLReader();
+      xr.setErrorHandler(eh);
+      xr.setContentHandler(validator.getContentHandler());
+      DTDHandler dh = validator.getDTDHandler();
+      if (dh != null)
+        xr.setDTDHandler(dh);
+      xr.parse(instance);
+    }
+    catch (SAXParseException e) {
+      // already reported by ResponseErrorHandler.fatalError
+    }
+    catch (SAXException e) {
+      if (eh.writeException != null)
+        throw eh.writeException;
+      eh.write("fatal", null, -1, -1, e.getMessage());
+    }
+    catch (IOException e) {
+      eh.write("fatal", null, -1, -1, e.toString());
+    }
+    out.write(eh.errorCount == 0 ? "valid\n" : "invalid\n");
+  }
+
+  /**
+   * Returns the schema at uri loaded with properties, or null if it is incorrect.
+   */
+  private Schema getSchema(String uri, String opts, PropertyMap properties) throws SAXException, IOException {
+    SchemaReader sr = opts.indexOf('c') >= 0 ? CompactSchemaReader.getInstance() : new AutoSchemaReader();
+    try {
+      return schemaCache.getSchema(sr, new InputSource(uri), properties);
+    }
+    catch (IncorrectSchemaException e) {
+      return null;
+    }
+  }
+
+  private static class ResponseErrorHandler implements ErrorHandler {
+    private final Writer out;
+    private int errorCount = 0;
+    // an exception writing the response, which the parser will see wrapped in a SAXException
+    private IOException writeException = null;
+
+    ResponseErrorHandler(Writer out) {
+      this.out = out;
+    }
+
+    public void warning(SAXParseException exception) throws SAXException {
+      write("warning", exception);
+    }
+
+    public void error(SAXParseException exception) throws SAXException {
+      errorCount++;
+      write("error", exception);
+    }
+
+    public void fatalError(SAXParseException exception) throws SAXException {
+      write("fatal", exception);
+      throw exception;
+    }
+
+    private void write(String kind, SAXParseException exception) throws SAXException {
+      try {
+        write(kind, exception.getSystemId(), exception.getLineNumber(), exception.getColumnNumber(),
+              exception.getMessage());
+      }
+      catch (IOException e) {
+        writeException = e;
+        throw new SAXException(e);
+      }
+    }
+
+    void write(String kind, String systemId, int lineNumber, int columnNumber, String message)
+            throws IOException {
+      if (kind.equals("fatal"))
+        errorCount++;
+      out.write(kind);
+      out.write('\t');
+      if (systemId != null)
+        out.write(escape(systemId));
+      out.write('\t');
+      if (lineNumber >= 0)
+        out.write(Integer.toString(lineNumber));
+      out.write('\t');
+      if (columnNumber >= 0)
+        out.write(Integer.toString(columnNumber));
+      out.write('\t');
+      if (message != null)
+        out.write(escape(message));
+      out.write('\n');
+    }
+  }
+
+  private static String escape(String str) {
+    StringBuilder buf = null;
+    for (int i = 0, len = str.length(); i < len; i++) {
+      char c = str.charAt(i);
+      String rep;
+      switch (c) {
+      case '\\':
+        rep = "\\\\";
+        break;
+      case '\t':
+        rep = "\\t";
+        break;
+      case '\r':
+        rep = "\\r";
+        break;
+      case '\n':
+        rep = "\\n";
+        break;
+      default:
+        if (buf != null)
+          buf.append(c);
+        continue;
+      }
+      if (buf == null)
+        buf = new StringBuilder(str.substring(0, i));
+      buf.append(rep);
+    }
+    return buf == null ? str : buf.toString();
+  }
+
+  /**
+   * Reads a line encoded in UTF-8, without its line terminator; returns null at the end of the input.
+   * A line longer than MAX_LINE_LENGTH bytes is treated as an error in the connection.
+   */
+  private static String readLine(InputStream in) throws IOException {
+    ByteArrayOutputStream buf = new ByteArrayOutputStream();
+    for (;;) {
+      int b = in.read();
+      if (b < 0) {
+        if (buf.size() == 0)
+          return null;
+        break;
+      }
+      if (b == '\n')
+        break;
+      if (buf.size() == MAX_LINE_LENGTH)
+        throw new IOException("line too long");
+      buf.write(b);
+    }
+    String line = buf.toString("UTF-8");
+    if (line.endsWith("\r"))
+      line = line.substring(0, line.length() - 1);
+    return line;
+  }
+
+  private static byte[] readBytes(InputStream in, int length) throws IOException {
+    byte[] bytes = new byte[length];
+    int off = 0;
+    while (off < length) {
+      int n = in.read(bytes, off, length - off);
+      if (n < 0)
+        throw new EOFException();
+      off += n;
+    }
+    return bytes;
+  }
+}
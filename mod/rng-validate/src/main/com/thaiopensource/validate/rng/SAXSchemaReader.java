@@ -1,6 +1,7 @@
 package com.thaiopensource.validate.rng;
 
 import com.thaiopensource.relaxng.parse.Parseable;
+import com.thaiopensource.relaxng.parse.sax.Prefetcher;
 import com.thaiopensource.relaxng.parse.sax.SAXParseable;
 import com.thaiopensource.relaxng.pattern.Pattern;
 import com.thaiopensource.relaxng.pattern.NameClass;
@@ -8,6 +9,7 @@ import com.thaiopensource.relaxng.pattern.CommentListImpl;
 import com.thaiopensource.relaxng.pattern.AnnotationsImpl;
 import com.thaiopensource.resolver.xml.sax.SAXResolver;
 import com.thaiopensource.validate.SchemaReader;
+import com.thaiopensource.validate.prop.rng.RngProperty;
 import com.thaiopensource.validate.rng.impl.SchemaReaderImpl;
 import com.thaiopensource.util.PropertyMap;
 import com.thaiopensource.util.VoidValue;
@@ -30,6 +32,10 @@ public class SAXSchemaReader extends SchemaReaderImpl {
   protected Parseable<Pattern, NameClass, Locator, VoidValue, CommentListImpl, AnnotationsImpl> createParseable(SAXSource source, SAXResolver resolver, ErrorHandler eh, PropertyMap properties) throws SAXException {
     if (source.getXMLReader() == null)
       source = new SAXSource(resolver.createXMLReader(), source.getInputSource());
-    return new SAXParseable<Pattern, NameClass, Locator, VoidValue, CommentListImpl, AnnotationsImpl>(source, resolver, eh);
+    Integer prefetchThreads = properties.get(RngProperty.PREFETCH_THREADS);
+    Prefetcher prefetcher = prefetchThreads == null || prefetchThreads <= 0 ? null : new Prefetcher(resolver, prefetchThreads);
+    if (prefetcher != null)
+      source = prefetcher.getSource(source);
+    return new SAXParseable<Pattern, NameClass, Locator, VoidValue, CommentListImpl, AnnotationsImpl>(source, resolver, eh, prefetcher);
   }
 }
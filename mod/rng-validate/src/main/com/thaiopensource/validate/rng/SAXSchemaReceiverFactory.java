@@ -1,5 +1,6 @@
 package com.thaiopensource.validate.rng;
 
+import com.thaiopensource.relaxng.parse.sax.Prefetcher;
 import com.thaiopensource.relaxng.parse.sax.SAXParseReceiver;
 import com.thaiopensource.resolver.xml.sax.SAXResolver;
 import com.thaiopensource.util.PropertyMap;
@@ -21,7 +22,9 @@ public class SAXSchemaReceiverFactory implements SchemaReceiverFactory {
       return null;
     SAXResolver resolver = ResolverFactory.createResolver(properties);
     ErrorHandler eh = properties.get(ValidateProperty.ERROR_HANDLER);
-    return new SchemaReceiverImpl(new SAXParseReceiver(resolver, eh), properties);
+    Integer prefetchThreads = properties.get(RngProperty.PREFETCH_THREADS);
+    Prefetcher prefetcher = prefetchThreads == null || prefetchThreads <= 0 ? null : new Prefetcher(resolver, prefetchThreads);
+    return new SchemaReceiverImpl(new SAXParseReceiver(resolver, eh, prefetcher), properties);
   }
 
   public Option getOption(String uri) {
@@ -1,5 +1,7 @@
 package com.thaiopensource.validate.rng.impl;
 
+import com.thaiopensource.relaxng.pattern.IdTypeMap;
+import com.thaiopensource.relaxng.pattern.IdTypeTable;
 import com.thaiopensource.relaxng.pattern.Pattern;
 import com.thaiopensource.relaxng.pattern.SchemaPatternBuilder;
 import com.thaiopensource.relaxng.pattern.ValidatorPatternBuilder;
@@ -7,20 +9,58 @@ import com.thaiopensource.util.PropertyMap;
 import com.thaiopensource.validate.AbstractSchema;
 import com.thaiopensource.validate.ValidateProperty;
 import com.thaiopensource.validate.Validator;
+import com.thaiopensource.validate.prop.rng.RngProperty;
 import org.xml.sax.ErrorHandler;
 
 public class PatternSchema extends AbstractSchema {
-  private final SchemaPatternBuilder spb;
   private final Pattern start;
+  // shared by all validators so that derivatives computed by one are available to all
+  private final ValidatorPatternBuilder vpb;
+  // null unless ID/IDREF/IDREFS are checked
+  private final IdTypeTable idTypeTable;
 
   public PatternSchema(SchemaPatternBuilder spb, Pattern start, PropertyMap properties) {
+    this(new ValidatorPatternBuilder(spb), start, properties);
+  }
+
+  public PatternSchema(ValidatorPatternBuilder vpb, Pattern start, PropertyMap properties) {
+    this(vpb, start, null, properties);
+  }
+
+  /**
+   * Creates a schema whose validators also check ID/IDREF/IDREFS, if idTypeMap is non-null.
+   */
+  public PatternSchema(ValidatorPatternBuilder vpb, Pattern start, IdTypeMap idTypeMap, PropertyMap properties) {
     super(properties);
-    this.spb = spb;
     this.start = start;
+    this.vpb = vpb;
+    this.idTypeTable = idTypeMap == null ? null : IdTypeTable.forIdTypeMap(idTypeMap, vpb.getNameTable(start));
+    Integer maxStates = properties.get(RngProperty.MAX_DERIVATIVE_STATES);
+    Integer maxNameTransitions = properties.get(RngProperty.MAX_NAME_TRANSITIONS);
+    if (maxStates != null || maxNameTransitions != null)
+      vpb.setLimits(maxStates == null ? 0 : maxStates, maxNameTransitions == null ? 0 : maxNameTransitions);
+    if (properties.contains(RngProperty.PRECOMPILE))
+      vpb.precompile(start);
   }
 
   public Validator createValidator(PropertyMap properties) {
-    ErrorHandler eh = properties.get(ValidateProperty.ERROR_HANDLER);
-    return new RngValidator(start, new ValidatorPatternBuilder(spb), eh);
+    RngValidator validator = createRngValidator(properties.get(ValidateProperty.ERROR_HANDLER));
+    Integer maxErrors = getProperties().get(RngProperty.MAX_ERRORS);
+    if (maxErrors != null)
+      validator.setMaxErrors(maxErrors);
+    return validator;
+  }
+
+  private RngValidator createRngValidator(ErrorHandler eh) {
+    if (idTypeTable == null)
+      return new RngValidator(start, vpb, eh);
+    Integer maxIdrefs = getProperties().get(RngProperty.MAX_IDREFS_IN_MEMORY);
+    int maxIdrefsInMemory = maxIdrefs == null ? 0 : maxIdrefs;
+    if (getProperties().contains(RngProperty.FEASIBLE))
+      return new RngValidator(start, vpb, idTypeTable, maxIdrefsInMemory, eh) {
+        // the IDs may be in the part of the document that is missing
+        protected void checkIdrefs() { }
+      };
+    return new RngValidator(start, vpb, idTypeTable, maxIdrefsInMemory, eh);
   }
 }
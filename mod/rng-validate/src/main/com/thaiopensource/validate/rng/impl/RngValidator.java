@@ -1,5 +1,6 @@
 package com.thaiopensource.validate.rng.impl;
 
+import com.thaiopensource.relaxng.pattern.IdTypeTable;
 import com.thaiopensource.relaxng.sax.PatternValidator;
 import com.thaiopensource.relaxng.pattern.Pattern;
 import com.thaiopensource.relaxng.pattern.ValidatorPatternBuilder;
@@ -13,6 +14,11 @@ public class RngValidator extends PatternValidator implements Validator {
     super(pattern, builder, eh);
   }
 
+  public RngValidator(Pattern pattern, ValidatorPatternBuilder builder, IdTypeTable idTypeTable,
+                      int maxIdrefsInMemory, ErrorHandler eh) {
+    super(pattern, builder, idTypeTable, maxIdrefsInMemory, eh);
+  }
+
   public ContentHandler getContentHandler() {
     return this;
   }
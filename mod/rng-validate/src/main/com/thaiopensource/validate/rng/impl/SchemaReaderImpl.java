@@ -5,6 +5,7 @@ import com.thaiopensource.relaxng.parse.IllegalSchemaException;
 import com.thaiopensource.relaxng.parse.Parseable;
 import com.thaiopensource.relaxng.pattern.AnnotationsImpl;
 import com.thaiopensource.relaxng.pattern.CommentListImpl;
+import com.thaiopensource.relaxng.pattern.DerivativeStatistics;
 import com.thaiopensource.relaxng.pattern.FeasibleTransform;
 import com.thaiopensource.relaxng.pattern.IdTypeMap;
 import com.thaiopensource.relaxng.pattern.IdTypeMapBuilder;
@@ -13,27 +14,41 @@ import com.thaiopensource.relaxng.pattern.Pattern;
 import com.thaiopensource.relaxng.pattern.PatternDumper;
 import com.thaiopensource.relaxng.pattern.SchemaBuilderImpl;
 import com.thaiopensource.relaxng.pattern.SchemaPatternBuilder;
+import com.thaiopensource.relaxng.pattern.ValidatorPatternBuilder;
 import com.thaiopensource.resolver.xml.sax.SAXResolver;
 import com.thaiopensource.util.PropertyId;
 import com.thaiopensource.util.PropertyMap;
 import com.thaiopensource.util.VoidValue;
 import com.thaiopensource.validate.AbstractSchema;
 import com.thaiopensource.validate.AbstractSchemaReader;
-import com.thaiopensource.validate.CombineSchema;
 import com.thaiopensource.validate.IncorrectSchemaException;
 import com.thaiopensource.validate.Option;
 import com.thaiopensource.validate.ResolverFactory;
 import com.thaiopensource.validate.Schema;
 import com.thaiopensource.validate.ValidateProperty;
+import com.thaiopensource.validate.prop.rng.DerivativeCache;
 import com.thaiopensource.validate.prop.rng.RngProperty;
+import com.thaiopensource.validate.prop.rng.ValidationStatistics;
 import com.thaiopensource.validate.prop.wrap.WrapProperty;
 import org.relaxng.datatype.DatatypeLibraryFactory;
 import org.xml.sax.ErrorHandler;
+import org.xml.sax.InputSource;
 import org.xml.sax.Locator;
 import org.xml.sax.SAXException;
 
 import javax.xml.transform.sax.SAXSource;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 public abstract class SchemaReaderImpl extends AbstractSchemaReader {
   private static final PropertyId<?>[] supportedPropertyIds = {
@@ -45,6 +60,14 @@ public abstract class SchemaReaderImpl extends AbstractSchemaReader {
     RngProperty.DATATYPE_LIBRARY_FACTORY,
     RngProperty.CHECK_ID_IDREF,
     RngProperty.FEASIBLE,
+    RngProperty.PRECOMPILE,
+    RngProperty.SNAPSHOT,
+    RngProperty.MAX_DERIVATIVE_STATES,
+    RngProperty.MAX_NAME_TRANSITIONS,
+    RngProperty.MAX_IDREFS_IN_MEMORY,
+    RngProperty.PREFETCH_THREADS,
+    RngProperty.MAX_ERRORS,
+    RngProperty.COLLECT_STATISTICS,
     WrapProperty.ATTRIBUTE_OWNER,
   };
 
@@ -56,10 +79,35 @@ public abstract class SchemaReaderImpl extends AbstractSchemaReader {
     DatatypeLibraryFactory dlf = properties.get(RngProperty.DATATYPE_LIBRARY_FACTORY);
     if (dlf == null)
       dlf = new DatatypeLibraryLoader();
+    String snapshot = properties.get(RngProperty.SNAPSHOT);
+    InputSource in = source.getInputSource();
+    String uri = in.getSystemId();
+    // the digest covers only what can be read again from the URIs
+    if (in.getByteStream() != null || in.getCharacterStream() != null)
+      snapshot = null;
+    if (snapshot != null && uri != null) {
+      Schema schema = SchemaSnapshot.load(new File(snapshot), uri, resolver, dlf, properties);
+      if (schema != null)
+        return schema;
+    }
     try {
       Pattern start = SchemaBuilderImpl.parse(createParseable(source, resolver, eh, properties), eh, dlf, spb,
                                               properties.contains(WrapProperty.ATTRIBUTE_OWNER));
-      return wrapPattern(start, spb, properties);
+      if (snapshot == null || uri == null)
+        return wrapPattern(start, spb, properties);
+      if (properties.contains(RngProperty.FEASIBLE))
+        start = FeasibleTransform.transform(spb, start);
+      IdTypeMap idTypeMap = buildIdTypeMap(start, spb, properties);
+      List<String> uris = new ArrayList<String>();
+      uris.add(uri);
+      uris.addAll(spb.getIncludedUris());
+      try {
+        SchemaSnapshot.save(new File(snapshot), uris, start, idTypeMap, resolver, properties);
+      }
+      catch (IOException e) {
+        // the schema can be used without a snapshot
+      }
+      return wrapPattern(start, spb, idTypeMap, properties);
     }
     catch (IllegalSchemaException e) {
       throw new IncorrectSchemaException();
@@ -73,10 +121,16 @@ public abstract class SchemaReaderImpl extends AbstractSchemaReader {
   static private class SimplifiedSchemaPropertyMap implements PropertyMap {
     private final PropertyMap base;
     private final Pattern start;
+    private final DerivativeCache derivativeCache;
+    // null unless statistics are collected
+    private final ValidationStatistics statistics;
 
-    SimplifiedSchemaPropertyMap(PropertyMap base, Pattern start) {
+    SimplifiedSchemaPropertyMap(PropertyMap base, Pattern start, DerivativeCache derivativeCache,
+                                ValidationStatistics statistics) {
       this.base = base;
       this.start = start;
+      this.derivativeCache = derivativeCache;
+      this.statistics = statistics;
     }
 
     public <T> T get(PropertyId<T> pid) {
@@ -84,42 +138,150 @@ public abstract class SchemaReaderImpl extends AbstractSchemaReader {
         String simplifiedSchema = PatternDumper.toString(start);
         return pid.getValueClass().cast(simplifiedSchema);
       }
+      else if (pid == RngProperty.DERIVATIVE_CACHE)
+        return pid.getValueClass().cast(derivativeCache);
+      else if (pid == RngProperty.STATISTICS)
+        return pid.getValueClass().cast(statistics);
       else
         return base.get(pid);
     }
 
     public PropertyId<?> getKey(int i) {
-      return i == base.size() ? RngProperty.SIMPLIFIED_SCHEMA : base.getKey(i);
+      if (i == base.size())
+        return RngProperty.SIMPLIFIED_SCHEMA;
+      if (i == base.size() + 1)
+        return RngProperty.DERIVATIVE_CACHE;
+      if (i == base.size() + 2 && statistics != null)
+        return RngProperty.STATISTICS;
+      return base.getKey(i);
     }
 
     public int size() {
-      return base.size() + 1;
+      return base.size() + (statistics == null ? 2 : 3);
     }
 
     public boolean contains(PropertyId<?> pid) {
-      return base.contains(pid) || pid == RngProperty.SIMPLIFIED_SCHEMA;
+      return base.contains(pid) || pid == RngProperty.SIMPLIFIED_SCHEMA || pid == RngProperty.DERIVATIVE_CACHE
+             || (pid == RngProperty.STATISTICS && statistics != null);
+    }
+  }
+
+  static private class DerivativeCacheImpl implements DerivativeCache {
+    private final ValidatorPatternBuilder vpb;
+    private final Pattern start;
+
+    DerivativeCacheImpl(ValidatorPatternBuilder vpb, Pattern start) {
+      this.vpb = vpb;
+      this.start = start;
+    }
+
+    public void save(OutputStream out) throws IOException {
+      DataOutputStream dataOut = new DataOutputStream(new BufferedOutputStream(out));
+      vpb.saveDerivatives(start, dataOut);
+      dataOut.flush();
+    }
+
+    public boolean load(InputStream in) throws IOException {
+      return vpb.loadDerivatives(start, new DataInputStream(new BufferedInputStream(in)));
+    }
+  }
+
+  static private class ValidationStatisticsImpl implements ValidationStatistics {
+    private final DerivativeStatistics statistics;
+
+    ValidationStatisticsImpl(DerivativeStatistics statistics) {
+      this.statistics = statistics;
+    }
+
+    public int getStates() {
+      return statistics.getStates();
+    }
+
+    public long getStatesCreated() {
+      return statistics.getStatesCreated();
+    }
+
+    public long getStatesDiscarded() {
+      return statistics.getStatesDiscarded();
+    }
+
+    public int getInternedPatterns() {
+      return statistics.getInternedPatterns();
+    }
+
+    public Map<String, Long> getTransitionHits() {
+      Map<String, Long> hits = new LinkedHashMap<String, Long>();
+      for (String name : statistics.getTransitionNames())
+        hits.put(name, statistics.getHits(name));
+      return hits;
+    }
+
+    public Map<String, Long> getTransitionMisses() {
+      Map<String, Long> misses = new LinkedHashMap<String, Long>();
+      for (String name : statistics.getTransitionNames())
+        misses.put(name, statistics.getMisses(name));
+      return misses;
+    }
+
+    public double getTransitionHitRatio() {
+      long hits = 0;
+      long total = 0;
+      for (String name : statistics.getTransitionNames()) {
+        long n = statistics.getHits(name);
+        hits += n;
+        total += n + statistics.getMisses(name);
+      }
+      return total == 0 ? 0 : (double)hits/total;
+    }
+
+    public long getDataDerivatives() {
+      return statistics.getDataDerivs();
+    }
+
+    public long getDataDerivativeNanos() {
+      return statistics.getDataDerivNanos();
+    }
+
+    public long getErrorRecoveries() {
+      return statistics.getErrorRecoveries();
+    }
+
+    public void reset() {
+      statistics.reset();
     }
   }
 
   static Schema wrapPattern(Pattern start, SchemaPatternBuilder spb, PropertyMap properties) throws SAXException, IncorrectSchemaException {
     if (properties.contains(RngProperty.FEASIBLE))
       start = FeasibleTransform.transform(spb, start);
+    return wrapPattern(start, spb, buildIdTypeMap(start, spb, properties), properties);
+  }
+
+  /**
+   * Returns the IdTypeMap to be used for checking ID/IDREF/IDREFS, or null if none is needed.
+   */
+  static IdTypeMap buildIdTypeMap(Pattern start, SchemaPatternBuilder spb, PropertyMap properties) throws SAXException, IncorrectSchemaException {
+    if (!spb.hasIdTypes() || !properties.contains(RngProperty.CHECK_ID_IDREF))
+      return null;
+    IdTypeMap idTypeMap = new IdTypeMapBuilder(properties.get(ValidateProperty.ERROR_HANDLER), start).getIdTypeMap();
+    if (idTypeMap == null)
+      throw new IncorrectSchemaException();
+    return idTypeMap;
+  }
+
+  /**
+   * Creates the schema for a pattern to which any feasible transformation has already been applied.
+   */
+  static Schema wrapPattern(Pattern start, SchemaPatternBuilder spb, IdTypeMap idTypeMap, PropertyMap properties) {
+    ValidatorPatternBuilder vpb = new ValidatorPatternBuilder(spb);
+    ValidationStatistics statistics = null;
+    if (properties.contains(RngProperty.COLLECT_STATISTICS))
+      statistics = new ValidationStatisticsImpl(vpb.enableStatistics());
     properties = new SimplifiedSchemaPropertyMap(AbstractSchema.filterProperties(properties, supportedPropertyIds),
-                                                 start);
-    Schema schema = new PatternSchema(spb, start, properties);
-    if (spb.hasIdTypes() && properties.contains(RngProperty.CHECK_ID_IDREF)) {
-      ErrorHandler eh = properties.get(ValidateProperty.ERROR_HANDLER);
-      IdTypeMap idTypeMap = new IdTypeMapBuilder(eh, start).getIdTypeMap();
-      if (idTypeMap == null)
-        throw new IncorrectSchemaException();
-      Schema idSchema;
-      if (properties.contains(RngProperty.FEASIBLE))
-        idSchema = new FeasibleIdTypeMapSchema(idTypeMap, properties);
-      else
-        idSchema = new IdTypeMapSchema(idTypeMap, properties);
-      schema = new CombineSchema(schema, idSchema, properties);
-    }
-    return schema;
+                                                 start,
+                                                 new DerivativeCacheImpl(vpb, start),
+                                                 statistics);
+    return new PatternSchema(vpb, start, idTypeMap, properties);
   }
 
   protected abstract Parseable<Pattern, NameClass, Locator, VoidValue, CommentListImpl, AnnotationsImpl> createParseable(SAXSource source, SAXResolver resolver, ErrorHandler eh, PropertyMap properties)
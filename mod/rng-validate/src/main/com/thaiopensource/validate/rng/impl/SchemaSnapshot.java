@@ -0,0 +1,169 @@
+package com.thaiopensource.validate.rng.impl;
+
+import com.thaiopensource.relaxng.pattern.IdTypeMap;
+import com.thaiopensource.relaxng.pattern.Pattern;
+import com.thaiopensource.relaxng.pattern.PatternSnapshot;
+import com.thaiopensource.relaxng.pattern.SchemaPatternBuilder;
+import com.thaiopensource.resolver.Input;
+import com.thaiopensource.resolver.ResolverException;
+import com.thaiopensource.resolver.xml.sax.SAXResolver;
+import com.thaiopensource.util.Digests;
+import com.thaiopensource.util.PropertyMap;
+import com.thaiopensource.util.Utf8;
+import com.thaiopensource.validate.Schema;
+import com.thaiopensource.validate.prop.rng.RngProperty;
+import com.thaiopensource.validate.prop.wrap.WrapProperty;
+import org.relaxng.datatype.DatatypeLibraryFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A file holding a PatternSnapshot, preceded by the URIs of the schema and all the schemas that it
+ * includes and a digest of their content.  A snapshot is used only if the digest of the current
+ * content of those URIs is the same and it was written with the same properties.
+ */
+class SchemaSnapshot {
+  private static final int MAGIC = 0x4A524E47;
+  private static final int VERSION = 2;
+
+  private static final int FEASIBLE_FLAG = 1;
+  private static final int CHECK_ID_IDREF_FLAG = 2;
+  private static final int ATTRIBUTE_OWNER_FLAG = 4;
+
+  private SchemaSnapshot() { }
+
+  /**
+   * Returns the schema loaded from the snapshot, or null if there is no usable snapshot, in which
+   * case the schema should be parsed.
+   */
+  static Schema load(File file, String uri, SAXResolver resolver, DatatypeLibraryFactory dlf, PropertyMap properties) {
+    if (!file.isFile())
+      return null;
+    try {
+      DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+      try {
+        if (in.readInt() != MAGIC || in.readInt() != VERSION || in.readInt() != flags(properties))
+          return null;
+        String[] uris = new String[in.readInt()];
+        for (int i = 0; i < uris.length; i++)
+          uris[i] = Utf8.readString(in);
+        if (uris.length == 0 || !uris[0].equals(uri))
+          return null;
+        byte[] digest = new byte[in.readInt()];
+        in.readFully(digest);
+        if (!Arrays.equals(digest, digest(Arrays.asList(uris), resolver)))
+          return null;
+        SchemaPatternBuilder spb = new SchemaPatternBuilder();
+        PatternSnapshot snapshot = PatternSnapshot.read(in, dlf, spb);
+        return SchemaReaderImpl.wrapPattern(snapshot.getStart(), spb, snapshot.getIdTypeMap(), properties);
+      }
+      finally {
+        in.close();
+      }
+    }
+    catch (IOException e) {
+      // a snapshot that cannot be read is treated as stale
+      return null;
+    }
+    catch (ResolverException e) {
+      return null;
+    }
+  }
+
+  /**
+   * Writes a snapshot.  The file is replaced only once the snapshot has been completely written.
+   *
+   * @param uris the URI of the schema followed by the URIs of the schemas that it includes
+   */
+  static void save(File file, List<String> uris, Pattern start, IdTypeMap idTypeMap,
+                   SAXResolver resolver, PropertyMap properties) throws IOException {
+    byte[] digest;
+    try {
+      digest = digest(uris, resolver);
+    }
+    catch (ResolverException e) {
+      throw new IOException("cannot read \"" + e.getMessage() + "\" to write schema snapshot");
+    }
+    File tem = new File(file.getPath() + ".tmp");
+    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tem)));
+    try {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeInt(flags(properties));
+      out.writeInt(uris.size());
+      for (String uri : uris)
+        Utf8.writeString(out, uri);
+      out.writeInt(digest.length);
+      out.write(digest);
+      PatternSnapshot.write(start, idTypeMap, out);
+      out.close();
+      out = null;
+      if (!tem.renameTo(file) && !(file.delete() && tem.renameTo(file)))
+        throw new IOException("cannot write schema snapshot \"" + file + "\"");
+    }
+    finally {
+      if (out != null) {
+        out.close();
+        tem.delete();
+      }
+    }
+  }
+
+  private static int flags(PropertyMap properties) {
+    int flags = 0;
+    if (properties.contains(RngProperty.FEASIBLE))
+      flags |= FEASIBLE_FLAG;
+    if (properties.contains(RngProperty.CHECK_ID_IDREF))
+      flags |= CHECK_ID_IDREF_FLAG;
+    if (properties.contains(WrapProperty.ATTRIBUTE_OWNER))
+      flags |= ATTRIBUTE_OWNER_FLAG;
+    return flags;
+  }
+
+  private static byte[] digest(List<String> uris, SAXResolver resolver) throws IOException, ResolverException {
+    MessageDigest md = Digests.newMessageDigest();
+    for (String uri : uris) {
+      md.update(Utf8.encode(uri));
+      Input input = new Input();
+      input.setUri(uri);
+      resolver.getResolver().open(input);
+      if (input.getByteStream() != null) {
+        InputStream in = input.getByteStream();
+        try {
+          byte[] buf = new byte[8192];
+          for (int n; (n = in.read(buf)) > 0;)
+            md.update(buf, 0, n);
+        }
+        finally {
+          in.close();
+        }
+      }
+      else if (input.getCharacterStream() != null) {
+        Reader in = input.getCharacterStream();
+        try {
+          char[] buf = new char[8192];
+          for (int n; (n = in.read(buf)) > 0;)
+            md.update(Utf8.encode(new String(buf, 0, n)));
+        }
+        finally {
+          in.close();
+        }
+      }
+      else
+        throw new ResolverException(uri);
+    }
+    return md.digest();
+  }
+}
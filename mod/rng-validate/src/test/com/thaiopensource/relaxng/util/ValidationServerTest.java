@@ -0,0 +1,119 @@
+package com.thaiopensource.relaxng.util;
+
+import com.thaiopensource.util.PropertyMap;
+import com.thaiopensource.util.UriOrFile;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StringWriter;
+
+/**
+ * Tests ValidationServer.handleRequest.
+ */
+public class ValidationServerTest {
+  private ValidationServer server;
+  private File dir;
+  private String schema;
+
+  @BeforeMethod
+  public void setUp() throws IOException {
+    server = new ValidationServer(PropertyMap.EMPTY, 1);
+    dir = File.createTempFile("validationserver", "");
+    if (!dir.delete() || !dir.mkdir())
+      throw new IOException("could not create " + dir);
+    schema = writeFile("schema.rnc", "element doc { element a { text }* }");
+  }
+
+  @AfterMethod
+  public void tearDown() {
+    File[] files = dir.listFiles();
+    if (files != null) {
+      for (File file : files)
+        file.delete();
+    }
+    dir.delete();
+  }
+
+  @Test
+  public void testValid() throws IOException {
+    String document = "<doc><a/></doc>";
+    Assert.assertEquals(handle(documentRequest(schema, document)), "valid\n");
+    String instance = writeFile("doc.xml", document);
+    Assert.assertEquals(handle("schema " + schema + "\noptions c\ninstance " + instance + "\n\n"), "valid\n");
+  }
+
+  @Test
+  public void testInvalid() throws IOException {
+    String response = handle(documentRequest(schema, "<doc><b/></doc>"));
+    Assert.assertTrue(response.startsWith("error\t"), response);
+    Assert.assertTrue(response.endsWith("\ninvalid\n"), response);
+  }
+
+  @Test
+  public void testNotWellFormed() throws IOException {
+    String response = handle(documentRequest(schema, "<doc>"));
+    Assert.assertTrue(response.startsWith("fatal\t"), response);
+    Assert.assertTrue(response.endsWith("\ninvalid\n"), response);
+  }
+
+  @Test
+  public void testBadSchema() throws IOException {
+    String badSchema = writeFile("bad.rnc", "element doc {");
+    String response = handle(documentRequest(badSchema, "<doc/>"));
+    Assert.assertTrue(response.startsWith("error\t" + badSchema + "\t"), response);
+    Assert.assertTrue(response.endsWith("\nbad-schema\n"), response);
+  }
+
+  @Test
+  public void testBadRequest() throws IOException {
+    // a bad request does not stop later requests on the same connection
+    String request = "options c\nlength 6\n\n<doc/>" + documentRequest(schema, "<doc/>");
+    Assert.assertEquals(handle(request), "bad-request missing schema\nvalid\n");
+    Assert.assertEquals(handle("schema " + schema + "\noptions x\nlength 0\n\n"),
+                        "bad-request invalid options \"x\"\n");
+  }
+
+  @Test
+  public void testLength() throws IOException {
+    // the rest of the connection is not read after an invalid length
+    String request = "schema " + schema + "\nlength 100000000\n\n" + documentRequest(schema, "<doc/>");
+    Assert.assertEquals(handle(request), "bad-request length 100000000 exceeds 67108864\n");
+    request = "schema " + schema + "\nlength -1\n\n" + documentRequest(schema, "<doc/>");
+    Assert.assertEquals(handle(request), "bad-request invalid length \"-1\"\n");
+  }
+
+  private static String documentRequest(String schema, String document) throws IOException {
+    return "schema " + schema + "\noptions c\nlength " + document.getBytes("UTF-8").length + "\n\n" + document;
+  }
+
+  /**
+   * Handles each request in the input, as on a connection, and returns the responses.
+   */
+  private String handle(String requests) throws IOException {
+    InputStream in = new ByteArrayInputStream(requests.getBytes("UTF-8"));
+    StringWriter out = new StringWriter();
+    while (server.handleRequest(in, out))
+      ;
+    return out.toString();
+  }
+
+  private String writeFile(String name, String content) throws IOException {
+    File file = new File(dir, name);
+    OutputStream out = new FileOutputStream(file);
+    try {
+      out.write(content.getBytes("UTF-8"));
+    }
+    finally {
+      out.close();
+    }
+    return UriOrFile.fileToUri(file);
+  }
+}
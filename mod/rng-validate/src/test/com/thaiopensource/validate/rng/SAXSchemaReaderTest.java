@@ -0,0 +1,194 @@
+package com.thaiopensource.validate.rng;
+
+import com.thaiopensource.resolver.BasicResolver;
+import com.thaiopensource.resolver.Identifier;
+import com.thaiopensource.resolver.Input;
+import com.thaiopensource.resolver.Resolver;
+import com.thaiopensource.resolver.ResolverException;
+import com.thaiopensource.resolver.xml.sax.SAXResolver;
+import com.thaiopensource.util.PropertyMapBuilder;
+import com.thaiopensource.util.UriOrFile;
+import com.thaiopensource.validate.IncorrectSchemaException;
+import com.thaiopensource.validate.ValidateProperty;
+import com.thaiopensource.validate.prop.rng.RngProperty;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests reading schema documents ahead with RngProperty.PREFETCH_THREADS.
+ */
+public class SAXSchemaReaderTest {
+  private static final String RNG = " xmlns=\"http://relaxng.org/ns/structure/1.0\"";
+
+  private File dir;
+
+  /**
+   * Records the threads that open each document, identified by its file name.
+   */
+  private static class RecordingResolver implements Resolver {
+    private final Map<String, List<Thread>> opened = new HashMap<String, List<Thread>>();
+    private final CountDownLatch a1Opened = new CountDownLatch(1);
+    // if true, opening b.rng waits until a1.rng has been opened
+    private final boolean waitForA1;
+
+    RecordingResolver(boolean waitForA1) {
+      this.waitForA1 = waitForA1;
+    }
+
+    public void resolve(Identifier id, Input input) throws IOException, ResolverException {
+      BasicResolver.getInstance().resolve(id, input);
+    }
+
+    public void open(Input input) throws IOException, ResolverException {
+      String uri = input.getUri();
+      String name = uri.substring(uri.lastIndexOf('/') + 1);
+      synchronized (opened) {
+        List<Thread> threads = opened.get(name);
+        if (threads == null) {
+          threads = new ArrayList<Thread>();
+          opened.put(name, threads);
+        }
+        threads.add(Thread.currentThread());
+      }
+      if (name.equals("a1.rng"))
+        a1Opened.countDown();
+      else if (name.equals("b.rng") && waitForA1) {
+        try {
+          a1Opened.await(10, TimeUnit.SECONDS);
+        }
+        catch (InterruptedException e) {
+          throw new IOException("interrupted");
+        }
+      }
+      BasicResolver.getInstance().open(input);
+    }
+
+    List<Thread> getThreads(String name) {
+      synchronized (opened) {
+        return opened.get(name);
+      }
+    }
+  }
+
+  /**
+   * Gives the document latin.rng the encoding ISO-8859-1, as a resolver that keeps the encoding
+   * of a resource does.
+   */
+  private static class EncodingResolver implements Resolver {
+    public void resolve(Identifier id, Input input) throws IOException, ResolverException {
+      BasicResolver.getInstance().resolve(id, input);
+    }
+
+    public void open(Input input) throws IOException, ResolverException {
+      BasicResolver.getInstance().open(input);
+      String uri = input.getUri();
+      if (uri.endsWith("/latin.rng"))
+        input.setEncoding("ISO-8859-1");
+    }
+  }
+
+  @BeforeMethod
+  public void setUp() throws IOException {
+    dir = File.createTempFile("saxschemareader", "");
+    if (!dir.delete() || !dir.mkdir())
+      throw new IOException("could not create " + dir);
+    writeFile("root.rng", "<grammar" + RNG + "><include href=\"a.rng\"/><include href=\"b.rng\"/>"
+                          + "<start><element name=\"doc\"><ref name=\"a\"/><ref name=\"b\"/></element></start>"
+                          + "</grammar>");
+    writeFile("a.rng", "<grammar" + RNG + "><include href=\"a1.rng\"/>"
+                       + "<define name=\"a\"><element name=\"a\"><ref name=\"a1\"/></element></define>"
+                       + "</grammar>");
+    writeFile("a1.rng", "<grammar" + RNG + "><define name=\"a1\"><empty/></define></grammar>");
+    writeFile("b.rng", "<grammar" + RNG + "><define name=\"b\"><empty/></define></grammar>");
+  }
+
+  @AfterMethod
+  public void tearDown() {
+    File[] files = dir.listFiles();
+    if (files != null) {
+      for (File file : files)
+        file.delete();
+    }
+    dir.delete();
+  }
+
+  @Test
+  public void testReadOnce() throws IOException, SAXException, IncorrectSchemaException {
+    RecordingResolver resolver = new RecordingResolver(false);
+    loadSchema(resolver, 4);
+    for (String name : new String[] { "root.rng", "a.rng", "a1.rng", "b.rng" })
+      Assert.assertEquals(resolver.getThreads(name).size(), 1, name);
+  }
+
+  @Test
+  public void testQueuedDocument() throws IOException, SAXException, IncorrectSchemaException {
+    RecordingResolver resolver = new RecordingResolver(true);
+    long startTime = System.currentTimeMillis();
+    // the only thread is waiting to read b.rng, ahead of a1.rng, which the parser wants first
+    loadSchema(resolver, 1);
+    List<Thread> threads = resolver.getThreads("a1.rng");
+    Assert.assertEquals(threads.size(), 1);
+    Assert.assertSame(threads.get(0), Thread.currentThread());
+    Assert.assertTrue(System.currentTimeMillis() - startTime < 5000);
+  }
+
+  @Test
+  public void testResolverEncoding() throws IOException, SAXException, IncorrectSchemaException {
+    // without an encoding declaration, this is not UTF-8
+    writeFile("latin.rng", "<grammar" + RNG + "><include href=\"b.rng\"/>"
+                           + "<start><element name=\"d\u00E9\"><ref name=\"b\"/></element></start></grammar>",
+              "ISO-8859-1");
+    Resolver resolver = new EncodingResolver();
+    String uri = UriOrFile.fileToUri(new File(dir, "latin.rng"));
+    // without prefetching, the document is opened with the resolver before it is parsed, as AutoSchemaReader does
+    PropertyMapBuilder builder = new PropertyMapBuilder();
+    builder.put(ValidateProperty.RESOLVER, resolver);
+    InputSource in = new SAXResolver(resolver).open(new InputSource(uri));
+    SAXSchemaReader.getInstance().createSchema(in, builder.toPropertyMap());
+    // the prefetcher opens it with the resolver itself
+    loadSchema(resolver, 2, "latin.rng");
+  }
+
+  private void loadSchema(Resolver resolver, int nThreads)
+          throws IOException, SAXException, IncorrectSchemaException {
+    loadSchema(resolver, nThreads, "root.rng");
+  }
+
+  private void loadSchema(Resolver resolver, int nThreads, String name)
+          throws IOException, SAXException, IncorrectSchemaException {
+    PropertyMapBuilder builder = new PropertyMapBuilder();
+    builder.put(ValidateProperty.RESOLVER, resolver);
+    builder.put(RngProperty.PREFETCH_THREADS, nThreads);
+    String uri = UriOrFile.fileToUri(new File(dir, name));
+    SAXSchemaReader.getInstance().createSchema(new InputSource(uri), builder.toPropertyMap());
+  }
+
+  private void writeFile(String name, String content) throws IOException {
+    writeFile(name, content, "UTF-8");
+  }
+
+  private void writeFile(String name, String content, String encoding) throws IOException {
+    OutputStream out = new FileOutputStream(new File(dir, name));
+    try {
+      out.write(content.getBytes(encoding));
+    }
+    finally {
+      out.close();
+    }
+  }
+}
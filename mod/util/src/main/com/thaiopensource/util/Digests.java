@@ -0,0 +1,39 @@
+package com.thaiopensource.util;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Utility functions for computing the SHA-256 digests by which content is recognized as unchanged.
+ */
+public class Digests {
+  private static final String ALGORITHM = "SHA-256";
+
+  private Digests() { }
+
+  static public MessageDigest newMessageDigest() {
+    try {
+      return MessageDigest.getInstance(ALGORITHM);
+    }
+    catch (NoSuchAlgorithmException e) {
+      // every Java platform is required to support it
+      throw new RuntimeException(e);
+    }
+  }
+
+  static public byte[] digest(byte[] bytes) {
+    return newMessageDigest().digest(bytes);
+  }
+
+  /**
+   * Returns the lower-case hexadecimal representation of a digest.
+   */
+  static public String toHex(byte[] digest) {
+    StringBuilder buf = new StringBuilder();
+    for (byte b : digest) {
+      buf.append(Character.forDigit((b >> 4) & 0xF, 16));
+      buf.append(Character.forDigit(b & 0xF, 16));
+    }
+    return buf.toString();
+  }
+}
@@ -0,0 +1,143 @@
+package com.thaiopensource.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * An InputStream that reads a file by mapping it into memory, so that reading does not need a
+ * system call or a copy into a buffer of the stream.  The file is mapped one window at a time,
+ * so files larger than 2Gb can be read.  The file is not opened until the stream is first used,
+ * which allows many of these streams to be created before they are read.  Marking is supported
+ * without any limit on how far the stream can be reset.
+ *
+ * <p>A window stays mapped until it is garbage collected, even after the stream is closed.
+ */
+public class MappedFileInputStream extends InputStream {
+  static private final int DEFAULT_WINDOW_SIZE = 64 * 1024 * 1024;
+
+  private final File file;
+  private final int windowSize;
+  private FileChannel channel;
+  private long size;
+  private MappedByteBuffer window;
+  // the position in the file of the start of window
+  private long windowStart;
+  private long markPosition = 0;
+  private boolean closed = false;
+
+  public MappedFileInputStream(File file) {
+    this(file, DEFAULT_WINDOW_SIZE);
+  }
+
+  MappedFileInputStream(File file, int windowSize) {
+    this.file = file;
+    this.windowSize = windowSize;
+  }
+
+  public int read() throws IOException {
+    if (!fill())
+      return -1;
+    return window.get() & 0xFF;
+  }
+
+  public int read(byte b[], int off, int len) throws IOException {
+    if (off < 0 || len < 0 || len > b.length - off)
+      throw new IndexOutOfBoundsException();
+    if (len == 0)
+      return 0;
+    if (!fill())
+      return -1;
+    len = Math.min(len, window.remaining());
+    window.get(b, off, len);
+    return len;
+  }
+
+  public long skip(long n) throws IOException {
+    if (n <= 0)
+      return 0;
+    open();
+    long pos = position();
+    n = Math.min(n, size - pos);
+    seek(pos + n);
+    return n;
+  }
+
+  public int available() throws IOException {
+    open();
+    return (int)Math.min(Integer.MAX_VALUE, size - position());
+  }
+
+  public boolean markSupported() {
+    return true;
+  }
+
+  public void mark(int readLimit) {
+    markPosition = window == null ? 0 : position();
+  }
+
+  public void reset() throws IOException {
+    open();
+    seek(markPosition);
+  }
+
+  public void close() throws IOException {
+    closed = true;
+    window = null;
+    if (channel != null) {
+      channel.close();
+      channel = null;
+    }
+  }
+
+  private void open() throws IOException {
+    if (closed)
+      throw new IOException("stream closed");
+    if (channel == null) {
+      channel = new RandomAccessFile(file, "r").getChannel();
+      try {
+        size = channel.size();
+        map(0);
+      }
+      catch (IOException e) {
+        channel.close();
+        channel = null;
+        throw e;
+      }
+    }
+  }
+
+  /**
+   * Ensures that there are bytes remaining in window, unless the end of the file has been reached.
+   * Returns false at the end of the file.
+   */
+  private boolean fill() throws IOException {
+    open();
+    if (window.hasRemaining())
+      return true;
+    long pos = windowStart + window.limit();
+    if (pos >= size)
+      return false;
+    map(pos);
+    return true;
+  }
+
+  private long position() {
+    return windowStart + window.position();
+  }
+
+  private void seek(long pos) throws IOException {
+    if (pos >= windowStart && pos <= windowStart + window.limit())
+      window.position((int)(pos - windowStart));
+    else
+      map(pos);
+  }
+
+  private void map(long pos) throws IOException {
+    window = channel.map(FileChannel.MapMode.READ_ONLY, pos, Math.min(windowSize, size - pos));
+    windowStart = pos;
+  }
+}
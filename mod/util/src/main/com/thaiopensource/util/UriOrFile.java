@@ -67,4 +67,21 @@ public class UriOrFile {
     }
     return uri;
   }
+
+  /**
+   * Returns the modification time of the file with the specified URI, or 0 if it is not a file.
+   */
+  public static long lastModified(String uri) {
+    if (!uri.startsWith("file:"))
+      return 0;
+    try {
+      return new File(new URI(uri)).lastModified();
+    }
+    catch (URISyntaxException e) {
+      return 0;
+    }
+    catch (IllegalArgumentException e) {
+      return 0;
+    }
+  }
 }
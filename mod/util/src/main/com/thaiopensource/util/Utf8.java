@@ -1,5 +1,10 @@
 package com.thaiopensource.util;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+
 /**
  * Utility functions for working with UTF-8.
  */
@@ -28,4 +33,46 @@ public class Utf8 {
     }
     return buf;
   }
+
+  static public byte[] encode(String str) {
+    try {
+      return str.getBytes("UTF-8");
+    }
+    catch (UnsupportedEncodingException e) {
+      // every Java platform is required to support it
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * Writes a string as its length in bytes followed by its UTF-8 encoding.  Unlike
+   * DataOutput.writeUTF, this works for strings of any length.
+   */
+  static public void writeString(DataOutput out, String str) throws IOException {
+    byte[] bytes = encode(str);
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  /**
+   * Reads a string written by writeString.
+   */
+  static public String readString(DataInput in) throws IOException {
+    return readString(in, Integer.MAX_VALUE);
+  }
+
+  /**
+   * Reads a string written by writeString, checking that its encoded length is at most
+   * <code>maxLength</code> before allocating space for it.
+   */
+  static public String readString(DataInput in, long maxLength) throws IOException {
+    int length = in.readInt();
+    if (length < 0)
+      throw new IOException("negative string length");
+    if (length > maxLength)
+      throw new IOException("string length " + length + " exceeds " + maxLength);
+    byte[] bytes = new byte[length];
+    in.readFully(bytes);
+    return new String(bytes, "UTF-8");
+  }
 }
@@ -20,6 +20,8 @@ public final class Name {
   }
 
   public boolean equals(Object obj) {
+    if (obj == this)
+      return true;
     if (!(obj instanceof Name))
       return false;
     Name other = (Name)obj;
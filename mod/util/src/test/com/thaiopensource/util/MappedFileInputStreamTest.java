@@ -0,0 +1,98 @@
+package com.thaiopensource.util;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Tests MappedFileInputStream.
+ */
+public class MappedFileInputStreamTest {
+  @Test
+  public void testRead() throws IOException {
+    byte[] data = makeData(10000);
+    File file = createFile(data);
+    try {
+      // a small window makes the stream remap many times
+      InputStream in = new MappedFileInputStream(file, 1000);
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      byte[] buf = new byte[777];
+      for (;;) {
+        int c = in.read();
+        if (c < 0)
+          break;
+        out.write(c);
+        int n = in.read(buf, 0, buf.length);
+        if (n < 0)
+          break;
+        out.write(buf, 0, n);
+      }
+      in.close();
+      Assert.assertEquals(out.toByteArray(), data);
+    }
+    finally {
+      file.delete();
+    }
+  }
+
+  @Test
+  public void testMarkSkip() throws IOException {
+    byte[] data = makeData(5000);
+    File file = createFile(data);
+    try {
+      InputStream in = new MappedFileInputStream(file, 1000);
+      Assert.assertEquals(in.skip(1500), 1500);
+      in.mark(0);
+      Assert.assertEquals(in.available(), 3500);
+      Assert.assertEquals(in.skip(3000), 3000);
+      Assert.assertEquals(in.read(), data[4500] & 0xFF);
+      in.reset();
+      Assert.assertEquals(in.read(), data[1500] & 0xFF);
+      Assert.assertEquals(in.skip(10000), 3499);
+      Assert.assertEquals(in.read(), -1);
+      in.close();
+    }
+    finally {
+      file.delete();
+    }
+  }
+
+  @Test
+  public void testEmpty() throws IOException {
+    File file = createFile(new byte[0]);
+    try {
+      InputStream in = new MappedFileInputStream(file);
+      Assert.assertEquals(in.read(), -1);
+      Assert.assertEquals(in.read(new byte[10], 0, 10), -1);
+      in.close();
+    }
+    finally {
+      file.delete();
+    }
+  }
+
+  private static byte[] makeData(int length) {
+    byte[] data = new byte[length];
+    for (int i = 0; i < length; i++)
+      data[i] = (byte)(i * 31 + (i >> 8));
+    return data;
+  }
+
+  private static File createFile(byte[] data) throws IOException {
+    File file = File.createTempFile("mapped", ".dat");
+    OutputStream out = new FileOutputStream(file);
+    try {
+      out.write(data);
+    }
+    finally {
+      out.close();
+    }
+    return file;
+  }
+}
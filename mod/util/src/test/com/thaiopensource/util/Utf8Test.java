@@ -3,6 +3,11 @@ package com.thaiopensource.util;
 import org.testng.Assert;
 import org.testng.annotations.Test;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 
 /**
@@ -23,4 +28,20 @@ public class Utf8Test {
     }
   }
 
+  @Test
+  public void testString() throws IOException {
+    StringBuilder buf = new StringBuilder();
+    while (buf.length() < 100000)
+      buf.append("x\u00E9\u0E01\uD800\uDC00");
+    String[] strs = { "", "abc", buf.toString() };
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    for (String str : strs)
+      Utf8.writeString(out, str);
+    out.close();
+    DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+    for (String str : strs)
+      Assert.assertEquals(Utf8.readString(in), str);
+    Assert.assertEquals(in.read(), -1);
+  }
 }
@@ -0,0 +1,238 @@
+package com.thaiopensource.validate;
+
+import com.thaiopensource.util.PropertyMap;
+import com.thaiopensource.util.PropertyMapBuilder;
+import com.thaiopensource.xml.sax.ErrorHandlerImpl;
+import org.xml.sax.DTDHandler;
+import org.xml.sax.ErrorHandler;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXParseException;
+import org.xml.sax.XMLReader;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Validates a number of documents against a single schema using a pool of threads.
+ * Each thread uses its own <code>Validator</code> and <code>XMLReader</code>.
+ * The errors in each document are collected while it is validated and are then
+ * passed to the <code>ErrorHandler</code> in the order of the documents, from the
+ * thread that called <code>validate</code>, so the <code>ErrorHandler</code> sees the
+ * same sequence of calls as if the documents had been validated one after another.
+ * An instance of this class is not safe for access from multiple threads.
+ *
+ * @see ValidationDriver#validate(List,int)
+ */
+public class BatchValidator {
+  private final Schema schema;
+  private final PropertyMap instanceProperties;
+  private final ErrorHandler eh;
+  private final int nThreads;
+  // the number of documents that may be validated but not yet reported, per thread
+  private static final int DOCUMENTS_PER_THREAD = 4;
+
+  /**
+   * Creates a BatchValidator.
+   *
+   * @param schema the Schema against which documents are to be validated
+   * @param instanceProperties a PropertyMap specifying properties controlling validation;
+   * the <code>ValidateProperty.ERROR_HANDLER</code> property specifies where errors are reported;
+   * must not be <code>null</code>
+   * @param nThreads the number of threads to use; must be at least 1
+   */
+  public BatchValidator(Schema schema, PropertyMap instanceProperties, int nThreads) {
+    if (nThreads < 1)
+      throw new IllegalArgumentException("number of threads must be at least 1");
+    this.schema = schema;
+    this.instanceProperties = instanceProperties;
+    ErrorHandler eh = instanceProperties.get(ValidateProperty.ERROR_HANDLER);
+    this.eh = eh == null ? new ErrorHandlerImpl() : eh;
+    this.nThreads = nThreads;
+  }
+
+  /**
+   * Validates a list of documents. If the validation of a document ends with an exception,
+   * then the errors in the documents before it and in it are reported,
+   * the documents after it are not validated and the exception is thrown.
+   *
+   * @param inputs a List of InputSources for the documents to be validated
+   * @return <code>true</code> if all the documents are valid; <code>false</code> otherwise
+   * @throws java.io.IOException if an I/O error occurred
+   * @throws org.xml.sax.SAXException if an XMLReader or ErrorHandler threw a SAXException
+   */
+  public boolean validate(List<InputSource> inputs) throws SAXException, IOException {
+    int n = inputs.size();
+    int threads = Math.min(nThreads, n);
+    if (threads == 0)
+      return true;
+    // Validators and XMLReaders are created here because XMLReaderCreators need not be thread-safe.
+    BlockingQueue<Worker> workers = new ArrayBlockingQueue<Worker>(threads);
+    for (int i = 0; i < threads; i++)
+      workers.add(new Worker());
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    LinkedList<Future<Result>> pending = new LinkedList<Future<Result>>();
+    boolean valid = true;
+    try {
+      int next = 0;
+      while (next < n && pending.size() < threads * DOCUMENTS_PER_THREAD)
+        pending.add(executor.submit(new Task(inputs.get(next++), workers)));
+      while (!pending.isEmpty()) {
+        Result result = getResult(pending.removeFirst());
+        if (next < n)
+          pending.add(executor.submit(new Task(inputs.get(next++), workers)));
+        if (!result.report(eh))
+          valid = false;
+      }
+    }
+    finally {
+      executor.shutdownNow();
+    }
+    return valid;
+  }
+
+  private static Result getResult(Future<Result> future) throws IOException {
+    try {
+      return future.get();
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException();
+    }
+    catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof RuntimeException)
+        throw (RuntimeException)cause;
+      if (cause instanceof Error)
+        throw (Error)cause;
+      throw new RuntimeException(cause);
+    }
+  }
+
+  private static class Result {
+    private final List<SAXParseException> errors = new ArrayList<SAXParseException>();
+    private final List<ErrorKind> kinds = new ArrayList<ErrorKind>();
+    private SAXException saxException = null;
+    private IOException ioException = null;
+
+    void add(ErrorKind kind, SAXParseException e) {
+      kinds.add(kind);
+      errors.add(e);
+    }
+
+    /**
+     * Reports the errors to eh and throws the exception, if any, with which validation ended.
+     * Returns true if the document is valid.
+     */
+    boolean report(ErrorHandler eh) throws SAXException, IOException {
+      boolean valid = true;
+      for (int i = 0, len = errors.size(); i < len; i++) {
+        switch (kinds.get(i)) {
+        case WARNING:
+          eh.warning(errors.get(i));
+          break;
+        case ERROR:
+          valid = false;
+          eh.error(errors.get(i));
+          break;
+        case FATAL_ERROR:
+          valid = false;
+          eh.fatalError(errors.get(i));
+          break;
+        }
+      }
+      if (saxException != null)
+        throw saxException;
+      if (ioException != null)
+        throw ioException;
+      return valid;
+    }
+  }
+
+  private enum ErrorKind {
+    WARNING, ERROR, FATAL_ERROR
+  }
+
+  private class Worker implements ErrorHandler {
+    private final Validator validator;
+    private final XMLReader xr;
+    private Result result;
+
+    Worker() throws SAXException {
+      PropertyMapBuilder builder = new PropertyMapBuilder(instanceProperties);
+      builder.put(ValidateProperty.ERROR_HANDLER, this);
+      PropertyMap properties = builder.toPropertyMap();
+      validator = schema.createValidator(properties);
+      xr = ResolverFactory.createResolver(properties).createXMLReader();
+      xr.setErrorHandler(this);
+      xr.setContentHandler(validator.getContentHandler());
+      DTDHandler dh = validator.getDTDHandler();
+      if (dh != null)
+        xr.setDTDHandler(dh);
+    }
+
+    Result validate(InputSource in) {
+      result = new Result();
+      try {
+        xr.parse(in);
+      }
+      catch (SAXException e) {
+        result.saxException = e;
+      }
+      catch (IOException e) {
+        result.ioException = e;
+      }
+      finally {
+        validator.reset();
+      }
+      Result r = result;
+      result = null;
+      return r;
+    }
+
+    public void warning(SAXParseException exception) {
+      result.add(ErrorKind.WARNING, exception);
+    }
+
+    public void error(SAXParseException exception) {
+      result.add(ErrorKind.ERROR, exception);
+    }
+
+    public void fatalError(SAXParseException exception) throws SAXException {
+      result.add(ErrorKind.FATAL_ERROR, exception);
+      // parsing cannot usefully continue; the exception is reported in sequence by Result.report
+      throw exception;
+    }
+  }
+
+  private static class Task implements Callable<Result> {
+    private final InputSource in;
+    private final BlockingQueue<Worker> workers;
+
+    Task(InputSource in, BlockingQueue<Worker> workers) {
+      this.in = in;
+      this.workers = workers;
+    }
+
+    public Result call() throws InterruptedException {
+      // there are as many workers as threads, so this does not wait
+      Worker worker = workers.take();
+      try {
+        return worker.validate(in);
+      }
+      finally {
+        workers.add(worker);
+      }
+    }
+  }
+}
@@ -0,0 +1,35 @@
+package com.thaiopensource.validate;
+
+/**
+ * An Option whose argument is a positive integer.
+ */
+public class IntegerOption implements Option {
+  private final IntegerPropertyId pid;
+
+  public IntegerOption(IntegerPropertyId pid) {
+    this.pid = pid;
+  }
+
+  public IntegerPropertyId getPropertyId() {
+    return pid;
+  }
+
+  public Integer valueOf(String arg) throws OptionArgumentException {
+    if (arg == null)
+      throw new OptionArgumentPresenceException();
+    int n;
+    try {
+      n = Integer.parseInt(arg.trim());
+    }
+    catch (NumberFormatException e) {
+      throw new OptionArgumentFormatException();
+    }
+    if (n <= 0)
+      throw new OptionArgumentFormatException();
+    return n;
+  }
+
+  public Object combine(Object[] values) {
+    return null;
+  }
+}
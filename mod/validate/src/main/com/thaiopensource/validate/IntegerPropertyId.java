@@ -0,0 +1,15 @@
+package com.thaiopensource.validate;
+
+import com.thaiopensource.util.PropertyId;
+
+/**
+ * A PropertyId whose value is constrained to be an instance of
+ * Integer.
+ *
+ * @see Integer
+ */
+public class IntegerPropertyId extends PropertyId<Integer> {
+  public IntegerPropertyId(String name) {
+    super(name, Integer.class);
+  }
+}
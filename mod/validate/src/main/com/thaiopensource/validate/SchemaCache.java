@@ -0,0 +1,345 @@
+package com.thaiopensource.validate;
+
+import com.thaiopensource.resolver.Identifier;
+import com.thaiopensource.resolver.Input;
+import com.thaiopensource.resolver.Resolver;
+import com.thaiopensource.resolver.ResolverException;
+import com.thaiopensource.resolver.xml.sax.SAX;
+import com.thaiopensource.util.Digests;
+import com.thaiopensource.util.PropertyId;
+import com.thaiopensource.util.PropertyMap;
+import com.thaiopensource.util.PropertyMapBuilder;
+import com.thaiopensource.util.UriOrFile;
+import com.thaiopensource.util.Utf8;
+import com.thaiopensource.xml.util.Name;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+
+import javax.xml.transform.sax.SAXSource;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.StringReader;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A cache of schemas, which can be shared by everything in a process that loads schemas.
+ * A schema is keyed by its URI, the class of the <code>SchemaReader</code> that loaded it
+ * and the properties with which it was loaded; schema readers of the same class are assumed to create
+ * equivalent schemas from the same input and properties.  Only properties whose values are compared
+ * by value, such as strings, integers and flags, are part of the key.  The error handler, resolver and
+ * <code>XMLReaderCreator</code> properties are left out of it, on the assumption that different
+ * resolvers resolve a reference to the same resource.  A schema loaded with any other property whose
+ * value is an object, such as a <code>DatatypeLibraryFactory</code>, is not cached.
+ * <p>
+ * The cache holds a bounded number of schemas; the least recently used is dropped first.
+ * <p>
+ * While a schema is loaded, every resource read through the resolver, including
+ * the schema itself, its includes, its sub-schemas and external entities, is recorded together with
+ * a digest of its content.  A cached schema is used only if none of these resources has changed;
+ * a resource whose file has the same modification time is assumed not to have changed, otherwise
+ * it is read again and its digest compared.
+ * <p>
+ * An instance of this class is safe for concurrent access by multiple threads.
+ *
+ * @see ValidateProperty#SCHEMA_CACHE
+ */
+public class SchemaCache {
+  private static final int DEFAULT_MAX_SCHEMAS = 100;
+  private static final Set<PropertyId<?>> UNKEYED_PROPERTIES = new HashSet<PropertyId<?>>(Arrays.asList(
+      ValidateProperty.ERROR_HANDLER,
+      ValidateProperty.RESOLVER,
+      ValidateProperty.ENTITY_RESOLVER,
+      ValidateProperty.URI_RESOLVER,
+      ValidateProperty.XML_READER_CREATOR,
+      ValidateProperty.SCHEMA_CACHE));
+
+  // access-ordered, so that iteration starts with the least recently used
+  private final Map<List<Object>, CachedSchema> entries;
+  // the entries for schemas that are being loaded for the first time; guarded by entries
+  private final Map<List<Object>, CachedSchema> loading = new HashMap<List<Object>, CachedSchema>();
+
+  private static class CachedSchema {
+    private Schema schema;
+    private List<Resource> resources;
+  }
+
+  private static class Resource {
+    private final String uri;
+    private long lastModified;
+    private final byte[] digest;
+
+    Resource(String uri, long lastModified, byte[] digest) {
+      this.uri = uri;
+      this.lastModified = lastModified;
+      this.digest = digest;
+    }
+  }
+
+  /**
+   * Creates a SchemaCache that holds up to 100 schemas.
+   */
+  public SchemaCache() {
+    this(DEFAULT_MAX_SCHEMAS);
+  }
+
+  /**
+   * Creates a SchemaCache that holds up to <code>maxSchemas</code> schemas.
+   */
+  public SchemaCache(final int maxSchemas) {
+    entries = new LinkedHashMap<List<Object>, CachedSchema>(16, 0.75f, true) {
+      protected boolean removeEldestEntry(Map.Entry<List<Object>, CachedSchema> eldest) {
+        return size() > maxSchemas;
+      }
+    };
+  }
+
+  /**
+   * Returns a schema for the document with the specified system identifier, loading it with
+   * <code>sr</code> unless the cache has an up to date schema loaded with equivalent properties.
+   * An <code>InputSource</code> that has a byte or character stream, or no system identifier,
+   * is loaded without using the cache.
+   *
+   * @param sr the SchemaReader to use to load the schema
+   * @param in the InputSource for the schema
+   * @param properties a PropertyMap specifying properties controlling schema creation;
+   * the resolver used is determined by <code>ValidateProperty.RESOLVER</code>,
+   * <code>ValidateProperty.ENTITY_RESOLVER</code> and <code>ValidateProperty.URI_RESOLVER</code>
+   * @return the Schema; never <code>null</code>
+   * @throws IOException if an I/O error occurred
+   * @throws SAXException if an XMLReader or ErrorHandler threw a SAXException
+   * @throws IncorrectSchemaException if the schema is incorrect; incorrect schemas are not cached
+   */
+  public Schema getSchema(SchemaReader sr, InputSource in, PropertyMap properties)
+          throws IOException, SAXException, IncorrectSchemaException {
+    String uri = in.getSystemId();
+    List<Object> key = null;
+    if (uri != null && in.getByteStream() == null && in.getCharacterStream() == null)
+      key = cacheKey(uri, sr, properties);
+    if (key == null)
+      return sr.createSchema(new SAXSource(in), properties);
+    CachedSchema entry;
+    synchronized (entries) {
+      entry = entries.get(key);
+      if (entry == null)
+        entry = loading.get(key);
+      if (entry == null) {
+        entry = new CachedSchema();
+        loading.put(key, entry);
+      }
+    }
+    synchronized (entry) {
+      Resolver resolver = ResolverFactory.createResolver(properties).getResolver();
+      if (entry.schema != null && isUpToDate(entry.resources, resolver))
+        return entry.schema;
+      entry.schema = null;
+      entry.resources = null;
+      try {
+        return load(sr, in, properties, resolver, entry);
+      }
+      finally {
+        // an entry goes into the cache only once it has a schema, so that it never takes the place of one
+        synchronized (entries) {
+          if (loading.get(key) == entry)
+            loading.remove(key);
+          if (entry.schema != null)
+            entries.put(key, entry);
+          else if (entries.get(key) == entry)
+            entries.remove(key);
+        }
+      }
+    }
+  }
+
+  /**
+   * Loads a schema, recording the resources it reads in entry if it can be cached.
+   */
+  private static Schema load(SchemaReader sr, InputSource in, PropertyMap properties, Resolver resolver,
+                             CachedSchema entry)
+          throws IOException, SAXException, IncorrectSchemaException {
+    RecordingResolver recorder = new RecordingResolver(resolver);
+    PropertyMapBuilder builder = new PropertyMapBuilder(properties);
+    // the recorder delegates to the resolvers these would otherwise contribute
+    builder.put(ValidateProperty.RESOLVER, recorder);
+    builder.put(ValidateProperty.ENTITY_RESOLVER, null);
+    builder.put(ValidateProperty.URI_RESOLVER, null);
+    Input input = SAX.createInput(in);
+    try {
+      recorder.open(input);
+    }
+    catch (ResolverException e) {
+      throw SAX.toSAXException(e);
+    }
+    InputSource recordedIn = new InputSource(input.getUri());
+    recordedIn.setPublicId(in.getPublicId());
+    recordedIn.setEncoding(input.getEncoding());
+    recordedIn.setByteStream(input.getByteStream());
+    recordedIn.setCharacterStream(input.getCharacterStream());
+    Schema schema = sr.createSchema(new SAXSource(recordedIn), builder.toPropertyMap());
+    if (recorder.cacheable) {
+      entry.schema = schema;
+      entry.resources = recorder.resources;
+    }
+    return schema;
+  }
+
+  /**
+   * Removes all the schemas from the cache.
+   */
+  public void clear() {
+    synchronized (entries) {
+      entries.clear();
+    }
+  }
+
+  /**
+   * Returns the key for a schema, or null if it cannot be cached.
+   */
+  private static List<Object> cacheKey(String uri, SchemaReader sr, PropertyMap properties) {
+    Map<PropertyId<?>, Object> values = new HashMap<PropertyId<?>, Object>();
+    for (int i = 0, len = properties.size(); i < len; i++) {
+      PropertyId<?> pid = properties.getKey(i);
+      if (UNKEYED_PROPERTIES.contains(pid))
+        continue;
+      Object value = properties.get(pid);
+      if (!isComparedByValue(value))
+        return null;
+      values.put(pid, value);
+    }
+    return Arrays.asList(uri, sr.getClass(), values);
+  }
+
+  private static boolean isComparedByValue(Object value) {
+    return (value == null
+            || value instanceof String
+            || value instanceof Number
+            || value instanceof Boolean
+            || value instanceof Character
+            || value instanceof Enum
+            || value instanceof Flag
+            || value instanceof Name);
+  }
+
+  private static boolean isUpToDate(List<Resource> resources, Resolver resolver) {
+    for (Resource resource : resources) {
+      long lastModified = UriOrFile.lastModified(resource.uri);
+      if (lastModified != 0 && lastModified == resource.lastModified)
+        continue;
+      Input input = new Input();
+      input.setUri(resource.uri);
+      byte[] digest;
+      try {
+        resolver.open(input);
+        if (!input.isOpen())
+          return false;
+        digest = readContent(input);
+      }
+      catch (ResolverException e) {
+        return false;
+      }
+      catch (IOException e) {
+        // it no longer exists, so loading the schema again will report the error
+        return false;
+      }
+      if (!Arrays.equals(digest, resource.digest))
+        return false;
+      resource.lastModified = lastModified;
+    }
+    return true;
+  }
+
+  /**
+   * Reads the content of an open input into memory, replacing its stream, and returns its digest.
+   */
+  private static byte[] readContent(Input input) throws IOException {
+    MessageDigest md = Digests.newMessageDigest();
+    Reader reader = input.getCharacterStream();
+    if (reader != null) {
+      StringBuilder buf = new StringBuilder();
+      try {
+        char[] chars = new char[8192];
+        int n;
+        while ((n = reader.read(chars)) >= 0)
+          buf.append(chars, 0, n);
+      }
+      finally {
+        reader.close();
+      }
+      String str = buf.toString();
+      md.update(Utf8.encode(str));
+      input.setCharacterStream(new StringReader(str));
+    }
+    else {
+      InputStream stream = input.getByteStream();
+      ByteArrayOutputStream buf = new ByteArrayOutputStream();
+      try {
+        byte[] bytes = new byte[8192];
+        int n;
+        while ((n = stream.read(bytes)) >= 0)
+          buf.write(bytes, 0, n);
+      }
+      finally {
+        stream.close();
+      }
+      byte[] bytes = buf.toByteArray();
+      md.update(bytes);
+      input.setByteStream(new ByteArrayInputStream(bytes));
+    }
+    return md.digest();
+  }
+
+  /**
+   * A Resolver that opens every resource it resolves, reads it into memory and records it.
+   */
+  private static class RecordingResolver implements Resolver {
+    private final Resolver resolver;
+    private final List<Resource> resources = Collections.synchronizedList(new ArrayList<Resource>());
+    // false if a resource was opened without a URI, so that it could not be checked later
+    private volatile boolean cacheable = true;
+
+    RecordingResolver(Resolver resolver) {
+      this.resolver = resolver;
+    }
+
+    public void resolve(Identifier id, Input input) throws IOException, ResolverException {
+      resolver.resolve(id, input);
+      if (input.isOpen())
+        // with no modification time, it will be checked by its digest
+        record(input, 0);
+      else
+        open(input);
+    }
+
+    public void open(Input input) throws IOException, ResolverException {
+      if (input.isOpen())
+        return;
+      String uri = input.getUri();
+      // the modification time is obtained first, so that a change while reading is not missed
+      long lastModified = uri == null ? 0 : UriOrFile.lastModified(uri);
+      resolver.open(input);
+      if (input.isOpen())
+        record(input, lastModified);
+    }
+
+    private void record(Input input, long lastModified) throws IOException {
+      byte[] digest = readContent(input);
+      String uri = input.getUri();
+      if (uri == null)
+        cacheable = false;
+      else
+        resources.add(new Resource(uri, lastModified, digest));
+    }
+  }
+}
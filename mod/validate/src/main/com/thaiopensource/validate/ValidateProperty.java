@@ -67,4 +67,15 @@ public class ValidateProperty {
    */
   public static final PropertyId<XMLReaderCreator> XML_READER_CREATOR
           = PropertyId.newInstance("XML_READER_CREATOR", XMLReaderCreator.class);
+
+  /**
+   * Property specifying a SchemaCache to be used when loading schemas with
+   * <code>ValidationDriver</code>.  The value to which this PropertyId maps must be an
+   * instance of SchemaCache.
+   *
+   * @see SchemaCache
+   * @see ValidationDriver#loadSchema
+   */
+  public static final PropertyId<SchemaCache> SCHEMA_CACHE
+          = PropertyId.newInstance("SCHEMA_CACHE", SchemaCache.class);
 }
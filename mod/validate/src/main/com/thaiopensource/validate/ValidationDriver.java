@@ -1,5 +1,6 @@
 package com.thaiopensource.validate;
 
+import com.thaiopensource.util.MappedFileInputStream;
 import com.thaiopensource.util.PropertyMap;
 import com.thaiopensource.util.PropertyMapBuilder;
 import com.thaiopensource.util.UriOrFile;
@@ -15,6 +16,7 @@ import org.xml.sax.XMLReader;
 import javax.xml.transform.sax.SAXSource;
 import java.io.File;
 import java.io.IOException;
+import java.util.List;
 
 /**
  * Provides a simplified API for validating XML documents against schemas.
@@ -114,7 +116,8 @@ public class ValidationDriver {
   /**
    * Loads a schema. Subsequent calls to <code>validate</code> will validate with
    * respect the loaded schema. This can be called more than once to allow
-   * multiple documents to be validated against different schemas.
+   * multiple documents to be validated against different schemas.  If the schema properties
+   * include <code>ValidateProperty.SCHEMA_CACHE</code>, the schema is obtained from that cache.
    *
    * @param in the InputSource for the schema
    * @return <code>true</code> if the schema was loaded successfully; <code>false</code> otherwise
@@ -122,8 +125,12 @@ public class ValidationDriver {
    * @throws SAXException if an XMLReader or ErrorHandler threw a SAXException
    */
   public boolean loadSchema(InputSource in) throws SAXException, IOException {
+    SchemaCache cache = schemaProperties.get(ValidateProperty.SCHEMA_CACHE);
     try {
-      schema = sr.createSchema(new SAXSource(in), schemaProperties);
+      if (cache != null)
+        schema = cache.getSchema(sr, in, schemaProperties);
+      else
+        schema = sr.createSchema(new SAXSource(in), schemaProperties);
       validator = null;
       return true;
     }
@@ -165,6 +172,25 @@ public class ValidationDriver {
     }
   }
 
+  /**
+   * Validates a list of documents against the currently loaded schema using a number of threads.
+   * Errors are reported in the order of the documents, as if each document had been
+   * passed to <code>validate(InputSource)</code> in turn.
+   *
+   * @param inputs a List of InputSources for the documents to be validated
+   * @param nThreads the number of threads to use; must be at least 1
+   * @return <code>true</code> if all the documents are valid; <code>false</code> otherwise
+   * @throws java.lang.IllegalStateException if there is no currently loaded schema
+   * @throws java.io.IOException if an I/O error occurred
+   * @throws org.xml.sax.SAXException if an XMLReader or ErrorHandler threw a SAXException
+   * @see BatchValidator
+   */
+  public boolean validate(List<InputSource> inputs, int nThreads) throws SAXException, IOException {
+    if (schema == null)
+      throw new IllegalStateException("cannot validate without schema");
+    return new BatchValidator(schema, instanceProperties, nThreads).validate(inputs);
+  }
+
   /**
    * Get the actual properties of the loaded schema
    * @return a PropertyMap with the schema properties
@@ -207,4 +233,40 @@ public class ValidationDriver {
   static public InputSource uriOrFileInputSource(String uriOrFile) {
     return new InputSource(UriOrFile.toUri(uriOrFile));
   }
+
+  /**
+   * Returns an <code>InputSource</code> for a <code>File</code> that reads the file by mapping it
+   * into memory. This avoids a system call and a copy for each buffer read by the parser, which
+   * matters for very large documents. The file is not opened until the <code>InputSource</code>
+   * is parsed.
+   *
+   * @param file the <code>File</code>
+   * @return an <code>InputSource</code> for the file
+   * @see MappedFileInputStream
+   */
+  static public InputSource mappedFileInputSource(File file) {
+    InputSource in = fileInputSource(file);
+    in.setByteStream(new MappedFileInputStream(file));
+    return in;
+  }
+
+  /**
+   * Returns an <code>InputSource</code> for a string that represents either a file
+   * or an absolute URI, as <code>uriOrFileInputSource</code> does, except that a file is
+   * read by mapping it into memory, as <code>mappedFileInputSource</code> does.
+   *
+   * @param uriOrFile a <code>String</code> representing either a file or an absolute URI
+   * @return an <code>InputSource</code> for the file or absolute URI
+   */
+  static public InputSource mappedUriOrFileInputSource(String uriOrFile) {
+    String uri = UriOrFile.toUri(uriOrFile);
+    String fileName = UriOrFile.uriToUriOrFile(uri);
+    if (!fileName.equals(uri)) {
+      File file = new File(fileName);
+      // a directory or a device cannot be mapped
+      if (file.isFile())
+        return mappedFileInputSource(file);
+    }
+    return new InputSource(uri);
+  }
 }
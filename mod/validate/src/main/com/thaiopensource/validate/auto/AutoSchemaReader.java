@@ -15,8 +15,17 @@ import org.xml.sax.SAXException;
 import org.xml.sax.XMLReader;
 
 import javax.xml.transform.sax.SAXSource;
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.io.Reader;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 
 public class AutoSchemaReader extends AbstractSchemaReader {
   private final SchemaReceiverFactory srf;
@@ -37,7 +46,30 @@ public class AutoSchemaReader extends AbstractSchemaReader {
       properties = builder.toPropertyMap();
     }
     SAXResolver resolver = ResolverFactory.createResolver(properties);
-    InputSource in = resolver.open(source.getInputSource());
+    InputSource original = source.getInputSource();
+    // the resolver opens the system identifier only if no stream was given
+    boolean opened = original.getByteStream() == null && original.getCharacterStream() == null;
+    InputSource in = resolver.open(original);
+    XMLReader xr = source.getXMLReader();
+    if (xr == null)
+      xr = resolver.createXMLReader();
+    ErrorHandler eh = properties.get(ValidateProperty.ERROR_HANDLER);
+    if (eh != null)
+      xr.setErrorHandler(eh);
+    // If the namespace of the document element can be found from the prolog, the schema can be
+    // read in a single parse, without saving the input to be able to parse it again.
+    String namespaceUri = scanProlog(in, opened);
+    if (namespaceUri != null) {
+      SchemaReceiver sr = srf.createSchemaReceiver(namespaceUri, properties);
+      if (sr != null) {
+        try {
+          return parse(sr.installHandlers(xr), xr, in);
+        }
+        catch (ReparseException e) {
+          return e.reparse(new SAXSource(xr, in));
+        }
+      }
+    }
     InputSource in2 = new InputSource();
     in2.setSystemId(in.getSystemId());
     in2.setPublicId(in.getPublicId());
@@ -57,26 +89,24 @@ public class AutoSchemaReader extends AbstractSchemaReader {
       rewindable = rewindableByteStream;
     }
     SchemaReceiver sr = new AutoSchemaReceiver(properties, rewindable);
-    XMLReader xr = source.getXMLReader();
-    if (xr == null)
-      xr = resolver.createXMLReader();
-    ErrorHandler eh = properties.get(ValidateProperty.ERROR_HANDLER);
-    if (eh != null)
-      xr.setErrorHandler(eh);
-    SchemaFuture sf = sr.installHandlers(xr);
     try {
-      try {
-        xr.parse(in);
-        return sf.getSchema();
-      }
-      catch (ReparseException e) {
-        rewindable.rewind();
-        rewindable.willNotRewind();
-        return e.reparse(new SAXSource(xr, in2));
-      }
-      finally {
-        rewindable.willNotRewind();
-      }
+      return parse(sr.installHandlers(xr), xr, in);
+    }
+    catch (ReparseException e) {
+      rewindable.rewind();
+      rewindable.willNotRewind();
+      return e.reparse(new SAXSource(xr, in2));
+    }
+    finally {
+      rewindable.willNotRewind();
+    }
+  }
+
+  private static Schema parse(SchemaFuture sf, XMLReader xr, InputSource in)
+          throws IOException, SAXException, IncorrectSchemaException {
+    try {
+      xr.parse(in);
+      return sf.getSchema();
     }
     catch (SAXException e) {
       // Work around broken SAX parsers that catch and wrap runtime exceptions thrown by handlers
@@ -90,6 +120,93 @@ public class AutoSchemaReader extends AbstractSchemaReader {
     }
   }
 
+  /**
+   * Returns the namespace URI of the document element of in, or null if it cannot be determined
+   * from the start of the document.  The stream of in is replaced, if necessary, by one that can
+   * be reset to the start after scanning.  If the stream cannot be reset and was opened from a
+   * local file, the start of the file is read from the file directly, leaving the stream untouched.
+   */
+  private static String scanProlog(InputSource in, boolean opened) throws IOException {
+    Reader reader = in.getCharacterStream();
+    if (reader != null) {
+      if (!reader.markSupported()) {
+        reader = new BufferedReader(reader, PrologScanner.MAX_PROLOG_LENGTH);
+        in.setCharacterStream(reader);
+      }
+      char[] buf = new char[PrologScanner.MAX_PROLOG_LENGTH];
+      reader.mark(buf.length);
+      int len = 0;
+      try {
+        for (int n; len < buf.length && (n = reader.read(buf, len, buf.length - len)) >= 0;)
+          len += n;
+      }
+      finally {
+        reader.reset();
+      }
+      return PrologScanner.getRootNamespace(buf, len);
+    }
+    InputStream stream = in.getByteStream();
+    if (stream == null)
+      return null;
+    byte[] buf = new byte[PrologScanner.MAX_PROLOG_LENGTH];
+    int len = -1;
+    File file = opened && !stream.markSupported() ? toFile(in.getSystemId()) : null;
+    if (file != null)
+      len = readStart(file, buf);
+    if (len < 0) {
+      if (!stream.markSupported()) {
+        stream = new BufferedInputStream(stream, PrologScanner.MAX_PROLOG_LENGTH);
+        in.setByteStream(stream);
+      }
+      stream.mark(buf.length);
+      len = 0;
+      try {
+        for (int n; len < buf.length && (n = stream.read(buf, len, buf.length - len)) >= 0;)
+          len += n;
+      }
+      finally {
+        stream.reset();
+      }
+    }
+    return PrologScanner.getRootNamespace(buf, len, in.getEncoding());
+  }
+
+  /**
+   * Reads the start of a file into buf using positional reads.  Returns the number of bytes read,
+   * or -1 if the file cannot be read.
+   */
+  private static int readStart(File file, byte[] buf) {
+    try {
+      FileChannel channel = new RandomAccessFile(file, "r").getChannel();
+      try {
+        ByteBuffer bb = ByteBuffer.wrap(buf);
+        while (bb.hasRemaining() && channel.read(bb, bb.position()) >= 0)
+          ;
+        return bb.position();
+      }
+      finally {
+        channel.close();
+      }
+    }
+    catch (IOException e) {
+      return -1;
+    }
+  }
+
+  private static File toFile(String systemId) {
+    if (systemId == null || !systemId.regionMatches(true, 0, "file:", 0, 5))
+      return null;
+    try {
+      File file = new File(new URI(systemId));
+      return file.isFile() ? file : null;
+    }
+    // not a valid URI
+    catch (URISyntaxException e) { }
+    // not a valid file URI
+    catch (IllegalArgumentException e) { }
+    return null;
+  }
+
   public Option getOption(String uri) {
     return srf.getOption(uri);
   }
@@ -0,0 +1,241 @@
+package com.thaiopensource.validate.auto;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.IllegalCharsetNameException;
+import java.nio.charset.UnsupportedCharsetException;
+
+/**
+ * Finds the namespace URI of the document element by scanning the start of an XML document,
+ * without parsing it.  The scan gives up, returning null, whenever the answer might differ from
+ * what a parser would report: in particular, if the document has a document type declaration,
+ * since the DTD could supply a default value for a namespace declaration attribute.  Only white
+ * space and the XML declaration may precede the document element; a comment or processing
+ * instruction there also makes the scan give up.
+ */
+final class PrologScanner {
+  /**
+   * The number of bytes or characters of a document that are scanned.
+   */
+  static final int MAX_PROLOG_LENGTH = 16 * 1024;
+
+  private final CharSequence text;
+  private int pos = 0;
+
+  private PrologScanner(CharSequence text) {
+    this.text = text;
+  }
+
+  /**
+   * Returns the namespace URI of the document element of the document starting with the first
+   * len bytes of buf, or null if it cannot be determined.
+   *
+   * @param encoding the encoding of the document, or null to determine it from the bytes
+   */
+  static String getRootNamespace(byte[] buf, int len, String encoding) {
+    if (encoding == null)
+      encoding = detectEncoding(buf, len);
+    if (encoding == null)
+      return null;
+    CharsetDecoder decoder;
+    try {
+      decoder = Charset.forName(encoding).newDecoder();
+    }
+    catch (IllegalCharsetNameException e) {
+      return null;
+    }
+    catch (UnsupportedCharsetException e) {
+      return null;
+    }
+    // the buffer may end in the middle of a character
+    decoder.onMalformedInput(CodingErrorAction.REPLACE);
+    decoder.onUnmappableCharacter(CodingErrorAction.REPLACE);
+    try {
+      return new PrologScanner(decoder.decode(ByteBuffer.wrap(buf, 0, len))).scan();
+    }
+    catch (CharacterCodingException e) {
+      return null;
+    }
+  }
+
+  /**
+   * Returns the namespace URI of the document element of the document starting with the first
+   * len characters of buf, or null if it cannot be determined.
+   */
+  static String getRootNamespace(char[] buf, int len) {
+    return new PrologScanner(CharBuffer.wrap(buf, 0, len)).scan();
+  }
+
+  /**
+   * Determines the encoding of a document from its byte order mark, its first four bytes or its
+   * encoding declaration, as described in Appendix F of the XML Recommendation.  Returns null for
+   * encodings that are not supported here.
+   */
+  private static String detectEncoding(byte[] buf, int len) {
+    if (len >= 2) {
+      int b0 = buf[0] & 0xFF;
+      int b1 = buf[1] & 0xFF;
+      if (b0 == 0xFE && b1 == 0xFF)
+        return "UTF-16BE";
+      if (b0 == 0xFF && b1 == 0xFE)
+        return "UTF-16LE";
+      if (b0 == 0 && b1 == '<')
+        return "UTF-16BE";
+      if (b0 == '<' && b1 == 0)
+        return "UTF-16LE";
+      // UCS-4 and EBCDIC
+      if (b0 == 0 || b0 == 0x4C)
+        return null;
+    }
+    int i = 0;
+    if (len >= 3 && (buf[0] & 0xFF) == 0xEF && (buf[1] & 0xFF) == 0xBB && (buf[2] & 0xFF) == 0xBF)
+      i = 3;
+    if (!startsWith(buf, i, len, "<?xml"))
+      return "UTF-8";
+    // the XML declaration is in ASCII, whatever the encoding
+    StringBuilder decl = new StringBuilder();
+    for (; i < len && buf[i] != '>'; i++)
+      decl.append((char)(buf[i] & 0x7F));
+    String encoding = new PrologScanner(decl).scanEncodingDecl();
+    return encoding == null ? "UTF-8" : encoding;
+  }
+
+  private static boolean startsWith(byte[] buf, int off, int len, String str) {
+    if (len - off < str.length())
+      return false;
+    for (int i = 0; i < str.length(); i++)
+      if (buf[off + i] != str.charAt(i))
+        return false;
+    return true;
+  }
+
+  private String scanEncodingDecl() {
+    int i = indexOf("encoding");
+    if (i < 0)
+      return null;
+    pos = i + 8;
+    skipSpace();
+    if (!skip("="))
+      return null;
+    skipSpace();
+    return scanQuoted();
+  }
+
+  private String scan() {
+    skip("\uFEFF");
+    if (startsWith("<?xml", pos) && pos + 5 < text.length() && isSpace(text.charAt(pos + 5))) {
+      if (!skipPast("?>"))
+        return null;
+    }
+    skipSpace();
+    if (!skip("<") || startsWith("!", pos) || startsWith("?", pos))
+      return null;
+    String name = scanName();
+    if (name == null)
+      return null;
+    int colon = name.indexOf(':');
+    String nsAttribute = colon < 0 ? "xmlns" : "xmlns:" + name.substring(0, colon);
+    String namespaceUri = null;
+    for (;;) {
+      boolean hadSpace = skipSpace();
+      if (skip(">") || skip("/>"))
+        break;
+      if (!hadSpace)
+        return null;
+      String attName = scanName();
+      if (attName == null)
+        return null;
+      skipSpace();
+      if (!skip("="))
+        return null;
+      skipSpace();
+      String value = scanQuoted();
+      if (value == null)
+        return null;
+      if (attName.equals(nsAttribute)) {
+        // leave references to the parser
+        if (value.indexOf('&') >= 0)
+          return null;
+        namespaceUri = value;
+      }
+    }
+    if (namespaceUri == null && colon < 0)
+      return "";
+    return namespaceUri;
+  }
+
+  private String scanName() {
+    int start = pos;
+    for (; pos < text.length(); pos++) {
+      char c = text.charAt(pos);
+      if (isSpace(c) || c == '=' || c == '>' || c == '/' || c == '"' || c == '\'' || c == '<')
+        break;
+    }
+    if (pos == start || pos == text.length())
+      return null;
+    return text.subSequence(start, pos).toString();
+  }
+
+  private String scanQuoted() {
+    if (pos == text.length())
+      return null;
+    char quote = text.charAt(pos);
+    if (quote != '"' && quote != '\'')
+      return null;
+    int start = ++pos;
+    for (; pos < text.length(); pos++) {
+      char c = text.charAt(pos);
+      if (c == quote)
+        return text.subSequence(start, pos++).toString();
+      if (c == '<')
+        return null;
+    }
+    return null;
+  }
+
+  private boolean skipSpace() {
+    int start = pos;
+    while (pos < text.length() && isSpace(text.charAt(pos)))
+      pos++;
+    return pos > start;
+  }
+
+  private boolean skip(String str) {
+    if (!startsWith(str, pos))
+      return false;
+    pos += str.length();
+    return true;
+  }
+
+  private boolean skipPast(String str) {
+    int i = indexOf(str);
+    if (i < 0)
+      return false;
+    pos = i + str.length();
+    return true;
+  }
+
+  private int indexOf(String str) {
+    for (int i = pos, last = text.length() - str.length(); i <= last; i++)
+      if (startsWith(str, i))
+        return i;
+    return -1;
+  }
+
+  private boolean startsWith(String str, int off) {
+    if (text.length() - off < str.length())
+      return false;
+    for (int i = 0; i < str.length(); i++)
+      if (text.charAt(off + i) != str.charAt(i))
+        return false;
+    return true;
+  }
+
+  private static boolean isSpace(char c) {
+    return c == ' ' || c == '\t' || c == '\n' || c == '\r';
+  }
+}
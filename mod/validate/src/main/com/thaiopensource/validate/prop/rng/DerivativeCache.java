@@ -0,0 +1,28 @@
+package com.thaiopensource.validate.prop.rng;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * The derivatives that the validators of a RELAX NG schema have computed and memoized.
+ * Saving them after validating a representative sample of documents and loading them into
+ * the schema when it is next created, for example in another process, means that
+ * validators do not have to compute them again.
+ *
+ * @see RngProperty#DERIVATIVE_CACHE
+ */
+public interface DerivativeCache {
+  /**
+   * Writes the derivatives that have been memoized so far.
+   */
+  void save(OutputStream out) throws IOException;
+
+  /**
+   * Reads derivatives written by save.
+   *
+   * @return false if the derivatives were saved for a different schema, in which case none are loaded
+   * @throws IOException if the derivatives cannot be read
+   */
+  boolean load(InputStream in) throws IOException;
+}
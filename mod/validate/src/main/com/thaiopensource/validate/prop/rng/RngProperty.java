@@ -3,8 +3,11 @@ package com.thaiopensource.validate.prop.rng;
 import com.thaiopensource.util.PropertyId;
 import com.thaiopensource.validate.FlagOption;
 import com.thaiopensource.validate.FlagPropertyId;
+import com.thaiopensource.validate.IntegerOption;
+import com.thaiopensource.validate.IntegerPropertyId;
 import com.thaiopensource.validate.Option;
 import com.thaiopensource.validate.SchemaReader;
+import com.thaiopensource.validate.StringOption;
 import com.thaiopensource.validate.StringPropertyId;
 import org.relaxng.datatype.DatatypeLibraryFactory;
 
@@ -16,7 +19,69 @@ public class RngProperty {
           = PropertyId.newInstance("DATATYPE_LIBRARY_FACTORY", DatatypeLibraryFactory.class);
   public static final FlagPropertyId CHECK_ID_IDREF = new FlagPropertyId("CHECK_ID_IDREF");
   public static final FlagPropertyId FEASIBLE = new FlagPropertyId("FEASIBLE");
+  public static final FlagPropertyId PRECOMPILE = new FlagPropertyId("PRECOMPILE");
   public static final StringPropertyId SIMPLIFIED_SCHEMA = new StringPropertyId("SIMPLIFIED_SCHEMA");
+  /**
+   * PropertyId that specifies the name of a file in which a compiled snapshot of the schema is kept.
+   * If the file holds a snapshot that is up to date with respect to the schema and all the
+   * schemas it includes, the schema is loaded from the snapshot; otherwise the schema is parsed
+   * and the snapshot written. This applies during schema creation by a SAXSchemaReader or
+   * CompactSchemaReader.
+   */
+  public static final StringPropertyId SNAPSHOT = new StringPropertyId("SNAPSHOT");
+  /**
+   * PropertyId of the DerivativeCache of a RELAX NG schema. This is provided by the
+   * properties of the schema.
+   */
+  public static final PropertyId<DerivativeCache> DERIVATIVE_CACHE
+          = PropertyId.newInstance("DERIVATIVE_CACHE", DerivativeCache.class);
+  /**
+   * PropertyId that specifies the maximum number of derivative states that a schema keeps
+   * memoized.  When the limit is reached, the memoized states, other than those precompiled,
+   * are discarded when a validator next starts a document, and computed again as they are
+   * needed.  By default there is no limit.
+   */
+  public static final IntegerPropertyId MAX_DERIVATIVE_STATES = new IntegerPropertyId("MAX_DERIVATIVE_STATES");
+  /**
+   * PropertyId that specifies the maximum number of start-tag or attribute transitions, each
+   * for a different name, that a derivative state keeps memoized.  This matters for schemas with
+   * name classes such as anyName that match an open-ended set of names.  By default there is no limit.
+   */
+  public static final IntegerPropertyId MAX_NAME_TRANSITIONS = new IntegerPropertyId("MAX_NAME_TRANSITIONS");
+  /**
+   * PropertyId that specifies the maximum number of IDREFs whose IDs have not yet been seen that a
+   * validator checking ID/IDREF/IDREFS keeps in memory.  When the limit is exceeded, these IDREFs
+   * are written to a temporary file, which is read back at the end of the document.
+   * By default there is no limit.
+   */
+  public static final IntegerPropertyId MAX_IDREFS_IN_MEMORY = new IntegerPropertyId("MAX_IDREFS_IN_MEMORY");
+  /**
+   * PropertyId that specifies the number of threads used to read the documents referenced by
+   * include and externalRef elements ahead of the parser.  This applies to schemas in the XML syntax;
+   * the resolver must then be safe for access from multiple threads.  By default documents are not
+   * read ahead.
+   */
+  public static final IntegerPropertyId PREFETCH_THREADS = new IntegerPropertyId("PREFETCH_THREADS");
+  /**
+   * PropertyId that specifies the maximum number of errors in matching against the schema that a
+   * validator reports for each document.  Later errors in the document are not reported, and no
+   * message is constructed for them.  This does not limit errors in ID/IDREF/IDREFS.
+   * By default there is no limit.
+   */
+  public static final IntegerPropertyId MAX_ERRORS = new IntegerPropertyId("MAX_ERRORS");
+
+  /**
+   * PropertyId that specifies that the schema is to collect statistics about the work its validators
+   * do with memoized derivatives.  Collecting statistics slows validation a little, so by default
+   * they are not collected.
+   */
+  public static final FlagPropertyId COLLECT_STATISTICS = new FlagPropertyId("COLLECT_STATISTICS");
+  /**
+   * PropertyId of the ValidationStatistics of a RELAX NG schema. This is provided by the
+   * properties of the schema if it was created with <code>COLLECT_STATISTICS</code>.
+   */
+  public static final PropertyId<ValidationStatistics> STATISTICS
+          = PropertyId.newInstance("STATISTICS", ValidationStatistics.class);
 
   public static Option getOption(String uri) {
     if (!uri.startsWith(SchemaReader.BASE_URI))
@@ -26,6 +91,22 @@ public class RngProperty {
       return new FlagOption(FEASIBLE);
     if (uri.equals("check-id-idref"))
       return new FlagOption(CHECK_ID_IDREF);
+    if (uri.equals("precompile"))
+      return new FlagOption(PRECOMPILE);
+    if (uri.equals("snapshot"))
+      return new StringOption(SNAPSHOT);
+    if (uri.equals("max-derivative-states"))
+      return new IntegerOption(MAX_DERIVATIVE_STATES);
+    if (uri.equals("max-name-transitions"))
+      return new IntegerOption(MAX_NAME_TRANSITIONS);
+    if (uri.equals("max-idrefs-in-memory"))
+      return new IntegerOption(MAX_IDREFS_IN_MEMORY);
+    if (uri.equals("prefetch-threads"))
+      return new IntegerOption(PREFETCH_THREADS);
+    if (uri.equals("max-errors"))
+      return new IntegerOption(MAX_ERRORS);
+    if (uri.equals("collect-statistics"))
+      return new FlagOption(COLLECT_STATISTICS);
     return null;
   }
 }
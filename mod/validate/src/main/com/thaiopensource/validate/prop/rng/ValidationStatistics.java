@@ -0,0 +1,80 @@
+package com.thaiopensource.validate.prop.rng;
+
+import javax.management.MXBean;
+import java.util.Map;
+
+/**
+ * Statistics about the work that the validators of a RELAX NG schema have done with the
+ * derivatives that the schema memoizes, for finding out why a schema or document is slow to
+ * validate.  A large number of states, or a low ratio of memoized transitions, suggests that the
+ * documents lead to a state explosion.  An implementation is an MXBean, so it can be registered with
+ * an MBeanServer as it is, for example:
+ * <pre>
+ * ManagementFactory.getPlatformMBeanServer().registerMBean(statistics, new ObjectName("com.example:type=ValidationStatistics,name=mySchema"));
+ * </pre>
+ *
+ * @see RngProperty#STATISTICS
+ * @see RngProperty#COLLECT_STATISTICS
+ */
+@MXBean
+public interface ValidationStatistics {
+  /**
+   * Returns the number of derivative states currently memoized.
+   */
+  int getStates();
+
+  /**
+   * Returns the number of derivative states that have been created, including those that have
+   * been discarded.
+   */
+  long getStatesCreated();
+
+  /**
+   * Returns the number of derivative states that have been discarded because of the limit
+   * specified by <code>RngProperty.MAX_DERIVATIVE_STATES</code>.
+   */
+  long getStatesDiscarded();
+
+  /**
+   * Returns the number of patterns created for derivatives that are currently interned.
+   */
+  int getInternedPatterns();
+
+  /**
+   * Returns, for each kind of transition, the number of times the transition was found memoized.
+   */
+  Map<String, Long> getTransitionHits();
+
+  /**
+   * Returns, for each kind of transition, the number of times the transition had to be computed.
+   */
+  Map<String, Long> getTransitionMisses();
+
+  /**
+   * Returns the proportion of transitions of all kinds that were found memoized, or 0 if there
+   * have been none.
+   */
+  double getTransitionHitRatio();
+
+  /**
+   * Returns the number of text and attribute values that have been matched against the schema.
+   */
+  long getDataDerivatives();
+
+  /**
+   * Returns the total time in nanoseconds spent matching text and attribute values against the
+   * schema, including checking them against datatypes.
+   */
+  long getDataDerivativeNanos();
+
+  /**
+   * Returns the number of times a validator has recovered from an error, whether or not the
+   * error was reported.
+   */
+  long getErrorRecoveries();
+
+  /**
+   * Sets the counts to zero.
+   */
+  void reset();
+}
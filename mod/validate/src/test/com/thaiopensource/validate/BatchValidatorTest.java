@@ -0,0 +1,149 @@
+package com.thaiopensource.validate;
+
+import com.thaiopensource.util.PropertyMap;
+import com.thaiopensource.util.PropertyMapBuilder;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+import org.xml.sax.Attributes;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.DTDHandler;
+import org.xml.sax.ErrorHandler;
+import org.xml.sax.InputSource;
+import org.xml.sax.Locator;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXParseException;
+import org.xml.sax.helpers.DefaultHandler;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tests BatchValidator.
+ */
+public class BatchValidatorTest {
+  private static final String BASE_URI = "http://www.example.com/";
+
+  /**
+   * A schema whose validators report an error for each element named bad.
+   */
+  private static class BadElementSchema extends AbstractSchema {
+    public Validator createValidator(PropertyMap properties) {
+      final ErrorHandler eh = properties.get(ValidateProperty.ERROR_HANDLER);
+      final DefaultHandler handler = new DefaultHandler() {
+        private Locator locator;
+
+        public void setDocumentLocator(Locator locator) {
+          this.locator = locator;
+        }
+
+        public void startElement(String uri, String localName, String qName, Attributes attributes)
+                throws SAXException {
+          if (localName.equals("bad"))
+            eh.error(new SAXParseException("bad element", locator));
+        }
+      };
+      return new Validator() {
+        public ContentHandler getContentHandler() {
+          return handler;
+        }
+
+        public DTDHandler getDTDHandler() {
+          return null;
+        }
+
+        public void reset() {
+        }
+      };
+    }
+  }
+
+  /**
+   * Records the document of each error, prefixed by its kind.
+   */
+  private static class RecordingErrorHandler implements ErrorHandler {
+    private final List<String> errors = new ArrayList<String>();
+
+    public void warning(SAXParseException exception) {
+      errors.add("warning " + documentName(exception));
+    }
+
+    public void error(SAXParseException exception) {
+      errors.add("error " + documentName(exception));
+    }
+
+    public void fatalError(SAXParseException exception) {
+      errors.add("fatal " + documentName(exception));
+    }
+
+    private static String documentName(SAXParseException exception) {
+      return exception.getSystemId().substring(BASE_URI.length());
+    }
+  }
+
+  @Test
+  public void testOrder() throws IOException, SAXException {
+    RecordingErrorHandler eh = new RecordingErrorHandler();
+    List<InputSource> inputs = new ArrayList<InputSource>();
+    List<String> expected = new ArrayList<String>();
+    for (int i = 0; i < 40; i++) {
+      StringBuilder buf = new StringBuilder("<doc>");
+      // the earlier documents take longer, so that later ones are likely to be finished first
+      for (int j = 0; j < (40 - i) * 50; j++)
+        buf.append("<good/>");
+      if (i % 3 == 0) {
+        buf.append("<bad/><bad/>");
+        expected.add("error doc" + i);
+        expected.add("error doc" + i);
+      }
+      buf.append("</doc>");
+      inputs.add(input("doc" + i, buf.toString()));
+    }
+    Assert.assertFalse(new BatchValidator(new BadElementSchema(), properties(eh), 4).validate(inputs));
+    Assert.assertEquals(eh.errors, expected);
+  }
+
+  @Test
+  public void testValid() throws IOException, SAXException {
+    RecordingErrorHandler eh = new RecordingErrorHandler();
+    List<InputSource> inputs = new ArrayList<InputSource>();
+    for (int i = 0; i < 10; i++)
+      inputs.add(input("doc" + i, "<doc><good/></doc>"));
+    Assert.assertTrue(new BatchValidator(new BadElementSchema(), properties(eh), 3).validate(inputs));
+    Assert.assertTrue(eh.errors.isEmpty());
+  }
+
+  @Test
+  public void testFatalError() throws IOException {
+    RecordingErrorHandler eh = new RecordingErrorHandler();
+    List<InputSource> inputs = new ArrayList<InputSource>();
+    for (int i = 0; i < 20; i++)
+      inputs.add(input("doc" + i, i == 5 ? "<doc>" : "<doc><bad/></doc>"));
+    try {
+      new BatchValidator(new BadElementSchema(), properties(eh), 4).validate(inputs);
+      Assert.fail("no exception");
+    }
+    catch (SAXException e) {
+      // expected
+    }
+    List<String> expected = new ArrayList<String>();
+    for (int i = 0; i < 5; i++)
+      expected.add("error doc" + i);
+    expected.add("fatal doc5");
+    // nothing after the document with the fatal error is reported
+    Assert.assertEquals(eh.errors, expected);
+  }
+
+  private static InputSource input(String systemId, String content) {
+    InputSource in = new InputSource(new StringReader(content));
+    in.setSystemId(BASE_URI + systemId);
+    return in;
+  }
+
+  private static PropertyMap properties(ErrorHandler eh) {
+    PropertyMapBuilder builder = new PropertyMapBuilder();
+    builder.put(ValidateProperty.ERROR_HANDLER, eh);
+    return builder.toPropertyMap();
+  }
+}
@@ -0,0 +1,170 @@
+package com.thaiopensource.validate;
+
+import com.thaiopensource.util.PropertyId;
+import com.thaiopensource.util.PropertyMap;
+import com.thaiopensource.util.PropertyMapBuilder;
+import com.thaiopensource.util.UriOrFile;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+import javax.xml.transform.sax.SAXSource;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Tests SchemaCache.
+ */
+public class SchemaCacheTest {
+  private static final PropertyId<String> STRING_PROPERTY = PropertyId.newInstance("STRING", String.class);
+  private static final PropertyId<Object> OBJECT_PROPERTY = PropertyId.newInstance("OBJECT", Object.class);
+
+  private CountingSchemaReader sr;
+  private File dir;
+
+  @BeforeMethod
+  public void setUp() throws IOException {
+    sr = new CountingSchemaReader();
+    dir = File.createTempFile("schemacache", "");
+    if (!dir.delete() || !dir.mkdir())
+      throw new IOException("could not create " + dir);
+  }
+
+  @AfterMethod
+  public void tearDown() {
+    File[] files = dir.listFiles();
+    if (files != null) {
+      for (File file : files)
+        file.delete();
+    }
+    dir.delete();
+  }
+
+  @Test
+  public void testHit() throws IOException, SAXException, IncorrectSchemaException {
+    SchemaCache cache = new SchemaCache();
+    String uri = writeSchema("a", "<a/>");
+    Schema schema = cache.getSchema(sr, new InputSource(uri), properties("x"));
+    Assert.assertSame(cache.getSchema(sr, new InputSource(uri), properties("x")), schema);
+    Assert.assertEquals(sr.count, 1);
+  }
+
+  @Test
+  public void testChanged() throws IOException, SAXException, IncorrectSchemaException {
+    SchemaCache cache = new SchemaCache();
+    String uri = writeSchema("a", "<a/>");
+    Schema schema = cache.getSchema(sr, new InputSource(uri), properties("x"));
+    writeSchema("a", "<b/>");
+    File file = new File(dir, "a");
+    file.setLastModified(file.lastModified() - 10000);
+    Assert.assertNotSame(cache.getSchema(sr, new InputSource(uri), properties("x")), schema);
+    Assert.assertEquals(sr.count, 2);
+  }
+
+  @Test
+  public void testProperties() throws IOException, SAXException, IncorrectSchemaException {
+    SchemaCache cache = new SchemaCache();
+    String uri = writeSchema("a", "<a/>");
+    Schema schema = cache.getSchema(sr, new InputSource(uri), properties("x"));
+    Assert.assertNotSame(cache.getSchema(sr, new InputSource(uri), properties("y")), schema);
+    // a different error handler does not matter
+    PropertyMapBuilder builder = new PropertyMapBuilder(properties("x"));
+    builder.put(ValidateProperty.ERROR_HANDLER, new DefaultHandler());
+    Assert.assertSame(cache.getSchema(sr, new InputSource(uri), builder.toPropertyMap()), schema);
+    Assert.assertEquals(sr.count, 2);
+  }
+
+  @Test
+  public void testUncomparableProperty() throws IOException, SAXException, IncorrectSchemaException {
+    SchemaCache cache = new SchemaCache();
+    String uri = writeSchema("a", "<a/>");
+    PropertyMapBuilder builder = new PropertyMapBuilder();
+    builder.put(OBJECT_PROPERTY, new Object());
+    PropertyMap properties = builder.toPropertyMap();
+    Schema schema = cache.getSchema(sr, new InputSource(uri), properties);
+    Assert.assertNotSame(cache.getSchema(sr, new InputSource(uri), properties), schema);
+    Assert.assertEquals(sr.count, 2);
+  }
+
+  @Test
+  public void testEviction() throws IOException, SAXException, IncorrectSchemaException {
+    SchemaCache cache = new SchemaCache(2);
+    String a = writeSchema("a", "<a/>");
+    String b = writeSchema("b", "<b/>");
+    String c = writeSchema("c", "<c/>");
+    Schema schemaA = cache.getSchema(sr, new InputSource(a), properties("x"));
+    Schema schemaB = cache.getSchema(sr, new InputSource(b), properties("x"));
+    Assert.assertSame(cache.getSchema(sr, new InputSource(a), properties("x")), schemaA);
+    cache.getSchema(sr, new InputSource(c), properties("x"));
+    Assert.assertEquals(sr.count, 3);
+    // b is the least recently used
+    Assert.assertSame(cache.getSchema(sr, new InputSource(a), properties("x")), schemaA);
+    Assert.assertEquals(sr.count, 3);
+    Assert.assertNotSame(cache.getSchema(sr, new InputSource(b), properties("x")), schemaB);
+    Assert.assertEquals(sr.count, 4);
+  }
+
+  @Test
+  public void testIncorrectNotKept() throws IOException, SAXException, IncorrectSchemaException {
+    SchemaCache cache = new SchemaCache(1);
+    String a = writeSchema("a", "<a/>");
+    String b = writeSchema("b", "<b/>");
+    Schema schemaA = cache.getSchema(sr, new InputSource(a), properties("x"));
+    sr.incorrect = true;
+    try {
+      cache.getSchema(sr, new InputSource(b), properties("x"));
+      Assert.fail();
+    }
+    catch (IncorrectSchemaException e) {
+      // expected
+    }
+    sr.incorrect = false;
+    // the failed load of b did not take the place of a
+    Assert.assertSame(cache.getSchema(sr, new InputSource(a), properties("x")), schemaA);
+    Assert.assertEquals(sr.count, 2);
+  }
+
+  private String writeSchema(String name, String content) throws IOException {
+    File file = new File(dir, name);
+    OutputStream out = new FileOutputStream(file);
+    try {
+      out.write(content.getBytes("UTF-8"));
+    }
+    finally {
+      out.close();
+    }
+    return UriOrFile.fileToUri(file);
+  }
+
+  private static PropertyMap properties(String value) {
+    PropertyMapBuilder builder = new PropertyMapBuilder();
+    builder.put(STRING_PROPERTY, value);
+    return builder.toPropertyMap();
+  }
+
+  private static class CountingSchemaReader extends AbstractSchemaReader {
+    private int count = 0;
+    private boolean incorrect = false;
+
+    public Schema createSchema(SAXSource source, PropertyMap properties) throws IncorrectSchemaException {
+      count++;
+      if (incorrect)
+        throw new IncorrectSchemaException();
+      return new AbstractSchema(properties) {
+        public Validator createValidator(PropertyMap properties) {
+          throw new UnsupportedOperationException();
+        }
+      };
+    }
+
+    public Option getOption(String uri) {
+      return null;
+    }
+  }
+}
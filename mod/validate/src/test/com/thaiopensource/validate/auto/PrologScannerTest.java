@@ -0,0 +1,82 @@
+package com.thaiopensource.validate.auto;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.UnsupportedEncodingException;
+
+/**
+ * Tests PrologScanner.
+ */
+public class PrologScannerTest {
+  @Test
+  public void testDefaultNamespace() throws UnsupportedEncodingException {
+    Assert.assertEquals(scan("<root xmlns=\"urn:a\">", "UTF-8"), "urn:a");
+    Assert.assertEquals(scan("<root\n  xmlns='urn:a'\n  a='1'/>", "UTF-8"), "urn:a");
+    Assert.assertEquals(scan("\n<root a=\"1\">", "UTF-8"), "");
+  }
+
+  @Test
+  public void testPrefixedRoot() throws UnsupportedEncodingException {
+    Assert.assertEquals(scan("<x:root xmlns=\"urn:d\" xmlns:x=\"urn:x\">", "UTF-8"), "urn:x");
+    // the prefix is not declared on the root, so the parser will report an error
+    Assert.assertNull(scan("<x:root xmlns=\"urn:d\">", "UTF-8"));
+  }
+
+  @Test
+  public void testXmlDeclaration() throws UnsupportedEncodingException {
+    Assert.assertEquals(scan("<?xml version=\"1.0\"?>\n<root xmlns=\"urn:a\"/>", "UTF-8"), "urn:a");
+  }
+
+  @Test
+  public void testByteOrderMark() throws UnsupportedEncodingException {
+    Assert.assertEquals(scan("\uFEFF<root xmlns=\"urn:a\"/>", "UTF-8"), "urn:a");
+    Assert.assertEquals(scan("\uFEFF<?xml version=\"1.0\"?><root xmlns=\"urn:a\"/>", "UTF-16LE"), "urn:a");
+    Assert.assertEquals(scan("\uFEFF<root xmlns=\"urn:a\"/>", "UTF-16BE"), "urn:a");
+    // without a byte order mark, UTF-16 is detected from the first character
+    Assert.assertEquals(scan("<root xmlns=\"urn:a\"/>", "UTF-16LE"), "urn:a");
+    Assert.assertEquals(scan("<root xmlns=\"urn:a\"/>", "UTF-16BE"), "urn:a");
+  }
+
+  @Test
+  public void testEncodingDeclaration() throws UnsupportedEncodingException {
+    String doc = "<?xml version=\"1.0\" encoding=\"ISO-8859-1\"?><root xmlns=\"urn:\u00E9\"/>";
+    Assert.assertEquals(scan(doc, "ISO-8859-1"), "urn:\u00E9");
+    // an encoding specified outside the document overrides the declaration
+    byte[] buf = doc.getBytes("UTF-8");
+    Assert.assertEquals(PrologScanner.getRootNamespace(buf, buf.length, "UTF-8"), "urn:\u00E9");
+  }
+
+  @Test
+  public void testCharacters() {
+    char[] buf = "<?xml version=\"1.0\"?><root xmlns=\"urn:a\"/>".toCharArray();
+    Assert.assertEquals(PrologScanner.getRootNamespace(buf, buf.length), "urn:a");
+  }
+
+  @Test
+  public void testGiveUp() throws UnsupportedEncodingException {
+    Assert.assertNull(scan("<!DOCTYPE root><root xmlns=\"urn:a\"/>", "UTF-8"));
+    Assert.assertNull(scan("<!-- comment --><root xmlns=\"urn:a\"/>", "UTF-8"));
+    Assert.assertNull(scan("<?xml-stylesheet href=\"a.xsl\"?><root xmlns=\"urn:a\"/>", "UTF-8"));
+    Assert.assertNull(scan("<?xml version=\"1.0\"?><?pi?><root xmlns=\"urn:a\"/>", "UTF-8"));
+    Assert.assertNull(scan("<root xmlns=\"urn:&amp;\"/>", "UTF-8"));
+    Assert.assertNull(scan("<root xmlns=\"urn:a\"", "UTF-8"));
+  }
+
+  @Test
+  public void testRootBeyondLimit() throws UnsupportedEncodingException {
+    StringBuilder doc = new StringBuilder();
+    while (doc.length() < PrologScanner.MAX_PROLOG_LENGTH)
+      doc.append('\n');
+    doc.append("<root xmlns=\"urn:a\"/>");
+    byte[] buf = doc.toString().getBytes("UTF-8");
+    Assert.assertNull(PrologScanner.getRootNamespace(buf, PrologScanner.MAX_PROLOG_LENGTH, null));
+    char[] chars = doc.toString().toCharArray();
+    Assert.assertNull(PrologScanner.getRootNamespace(chars, PrologScanner.MAX_PROLOG_LENGTH));
+  }
+
+  private static String scan(String doc, String encoding) throws UnsupportedEncodingException {
+    byte[] buf = doc.getBytes(encoding);
+    return PrologScanner.getRootNamespace(buf, buf.length, null);
+  }
+}
@@ -1,5 +1,6 @@
 package com.thaiopensource.datatype.xsd;
 
+import org.relaxng.datatype.DatatypeException;
 import org.relaxng.datatype.ValidationContext;
 
 class Base64BinaryDatatype extends BinaryDatatype {
@@ -18,48 +19,87 @@ class Base64BinaryDatatype extends BinaryDatatype {
   }
 
   private static int byteCount(String str) {
-    int nChars = 0;
-    int nPadding = 0;
-    int lastCharWeight = -1;
-    for (int i = 0, len = str.length(); i < len; i++) {
-      char c = str.charAt(i);
-      if (c >= 128)
+    ByteCounter counter = new ByteCounter();
+    for (int i = 0, len = str.length(); i < len; i++)
+      if (!counter.add(str.charAt(i)))
         return -1;
+    return counter.getByteCount();
+  }
+
+  /**
+   * Counts the bytes encoded by a sequence of characters that is given one character at a time.
+   */
+  static private class ByteCounter {
+    private int nChars = 0;
+    private int nPadding = 0;
+    private int lastCharWeight = -1;
+
+    /* Returns false if the characters added so far cannot start a base64Binary. */
+    boolean add(char c) {
+      if (c >= 128)
+        return false;
       int w = weightTable[c];
       switch (w) {
       case WHITESPACE:
         break;
       case PADDING:
         if (++nPadding > 2)
-          return -1;
+          return false;
         break;
       case INVALID:
-        return -1;
+        return false;
       default:
         if (nPadding > 0)
-          return -1;
+          return false;
         lastCharWeight = w;
         nChars++;
         break;
       }
+      return true;
     }
-    if (((nChars + nPadding) & 0x3) != 0)
-      return -1;
-    switch (nPadding) {
-    case 1:
-      // 1 padding char; last quartet specifies 2 bytes = 16 bits = 6 + 6 + 4 bits
-      // lastChar must have 6 - 4 = 2 unused bits
-      if ((lastCharWeight & 0x3) != 0)
-        return -1;
-      break;
-    case 2:
-      // 2 padding chars; last quartet specifies 1 byte = 8 bits = 6 + 2 bits
-      // lastChar must have 6 - 2 = 4 unused bits
-      if ((lastCharWeight & 0xF) != 0)
+
+    /* Returns -1 if the characters added are not a base64Binary. */
+    int getByteCount() {
+      if (((nChars + nPadding) & 0x3) != 0)
         return -1;
-      break;
+      switch (nPadding) {
+      case 1:
+        // 1 padding char; last quartet specifies 2 bytes = 16 bits = 6 + 6 + 4 bits
+        // lastChar must have 6 - 4 = 2 unused bits
+        if ((lastCharWeight & 0x3) != 0)
+          return -1;
+        break;
+      case 2:
+        // 2 padding chars; last quartet specifies 1 byte = 8 bits = 6 + 2 bits
+        // lastChar must have 6 - 2 = 4 unused bits
+        if ((lastCharWeight & 0xF) != 0)
+          return -1;
+        break;
+      }
+      return ((nChars + nPadding) >> 2)*3 - nPadding;
     }
-    return ((nChars + nPadding) >> 2)*3 - nPadding;
+  }
+
+  ChunkedValidator createChunkedValidator(ValidationContext vc) {
+    return new ChunkedValidator() {
+      private final ByteCounter counter = new ByteCounter();
+      private boolean invalid = false;
+
+      public void addCharacters(char[] buf, int start, int len) {
+        for (int i = start, end = start + len; i < end && !invalid; i++)
+          if (!counter.add(buf[i]))
+            invalid = true;
+      }
+
+      public void checkValid() throws DatatypeException {
+        if (invalid || counter.getByteCount() < 0)
+          throw createLexicallyInvalidException();
+      }
+
+      int getLength() {
+        return counter.getByteCount();
+      }
+    };
   }
 
   Object getValue(String str, ValidationContext vc) {
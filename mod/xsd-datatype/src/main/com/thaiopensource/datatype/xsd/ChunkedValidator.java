@@ -0,0 +1,23 @@
+package com.thaiopensource.datatype.xsd;
+
+import org.relaxng.datatype.DatatypeException;
+import org.relaxng.datatype.DatatypeStreamingValidator;
+
+/**
+ * A DatatypeStreamingValidator that checks each chunk as it is added, keeping a bounded
+ * amount of state rather than the accumulated string.
+ */
+abstract class ChunkedValidator implements DatatypeStreamingValidator {
+  public boolean isValid() {
+    try {
+      checkValid();
+      return true;
+    }
+    catch (DatatypeException e) {
+      return false;
+    }
+  }
+
+  /* Requires checkValid to succeed. Returns the length of the value as given by the Measure of the datatype. */
+  abstract int getLength();
+}
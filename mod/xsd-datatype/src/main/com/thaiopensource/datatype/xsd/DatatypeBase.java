@@ -197,9 +197,17 @@ abstract class DatatypeBase implements Datatype2 {
   }
 
   public DatatypeStreamingValidator createStreamingValidator(ValidationContext vc) {
+    DatatypeStreamingValidator validator = createChunkedValidator(vc);
+    if (validator != null)
+      return validator;
     return new StreamingValidatorImpl(this, vc);
   }
 
+  /* Returns null if checking the datatype needs the whole string. */
+  ChunkedValidator createChunkedValidator(ValidationContext vc) {
+    return null;
+  }
+
   protected static Localizer localizer() {
     return DatatypeBuilderImpl.localizer;
   }
@@ -1,5 +1,6 @@
 package com.thaiopensource.datatype.xsd;
 
+import org.relaxng.datatype.DatatypeException;
 import org.relaxng.datatype.ValidationContext;
 
 class HexBinaryDatatype extends BinaryDatatype {
@@ -37,6 +38,43 @@ class HexBinaryDatatype extends BinaryDatatype {
     return value;
   }
 
+  ChunkedValidator createChunkedValidator(ValidationContext vc) {
+    return new ChunkedValidator() {
+      private int nDigits = 0;
+      private boolean trailing = false;
+      private boolean invalid = false;
+
+      public void addCharacters(char[] buf, int start, int len) {
+        for (int i = start, end = start + len; i < end && !invalid; i++) {
+          switch (weight(buf[i])) {
+          case WHITESPACE:
+            if (nDigits > 0)
+              trailing = true;
+            break;
+          case INVALID:
+            invalid = true;
+            break;
+          default:
+            // digits must be contiguous
+            if (trailing)
+              invalid = true;
+            nDigits++;
+            break;
+          }
+        }
+      }
+
+      public void checkValid() throws DatatypeException {
+        if (invalid || (nDigits & 1) != 0)
+          throw createLexicallyInvalidException();
+      }
+
+      int getLength() {
+        return nDigits >> 1;
+      }
+    };
+  }
+
   static private int weight(char c) {
     switch (c) {
     case '0': case '1': case '2': case '3': case '4':
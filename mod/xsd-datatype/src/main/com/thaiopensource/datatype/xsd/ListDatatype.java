@@ -39,6 +39,65 @@ class ListDatatype extends DatatypeBase implements Measure {
     return true;
   }
 
+  ChunkedValidator createChunkedValidator(final ValidationContext vc) {
+    return new ChunkedValidator() {
+      // only the current token is kept
+      private final StringBuilder token = new StringBuilder();
+      private int length = 0;
+      private boolean lexicallyInvalid = false;
+      private DatatypeException valueException = null;
+
+      public void addCharacters(char[] buf, int start, int len) {
+        for (int i = start, end = start + len; i < end; i++) {
+          switch (buf[i]) {
+          case ' ':
+          case '\r':
+          case '\n':
+          case '\t':
+            endToken();
+            break;
+          default:
+            token.append(buf[i]);
+            break;
+          }
+        }
+      }
+
+      private void endToken() {
+        if (token.length() == 0)
+          return;
+        length++;
+        if (!lexicallyInvalid) {
+          String str = token.toString();
+          if (!itemType.lexicallyAllows(str))
+            lexicallyInvalid = true;
+          else if (valueException == null) {
+            try {
+              itemType.getValue(str, vc);
+            }
+            catch (DatatypeException e) {
+              valueException = e;
+            }
+          }
+        }
+        token.setLength(0);
+      }
+
+      // the lexical space is checked before the value space, as by checkValid(String, ValidationContext)
+      public void checkValid() throws DatatypeException {
+        endToken();
+        if (lexicallyInvalid)
+          throw createLexicallyInvalidException();
+        if (valueException != null)
+          throw valueException;
+      }
+
+      int getLength() {
+        return length;
+      }
+    };
+  }
+
   Measure getMeasure() {
     return this;
   }
@@ -0,0 +1,39 @@
+package com.thaiopensource.datatype.xsd;
+
+import org.relaxng.datatype.DatatypeException;
+import org.relaxng.datatype.ValidationContext;
+
+abstract class MeasureRestrictDatatype extends ValueRestrictDatatype {
+  private final Measure measure;
+
+  MeasureRestrictDatatype(DatatypeBase base) {
+    super(base);
+    this.measure = base.getMeasure();
+  }
+
+  void checkRestriction(Object obj) throws DatatypeException {
+    checkLength(measure.getLength(obj));
+  }
+
+  abstract void checkLength(int actualLength) throws DatatypeException;
+
+  ChunkedValidator createChunkedValidator(ValidationContext vc) {
+    final ChunkedValidator validator = base.createChunkedValidator(vc);
+    if (validator == null)
+      return null;
+    return new ChunkedValidator() {
+      public void addCharacters(char[] buf, int start, int len) {
+        validator.addCharacters(buf, start, len);
+      }
+
+      public void checkValid() throws DatatypeException {
+        validator.checkValid();
+        checkLength(validator.getLength());
+      }
+
+      int getLength() {
+        return validator.getLength();
+      }
+    };
+  }
+}
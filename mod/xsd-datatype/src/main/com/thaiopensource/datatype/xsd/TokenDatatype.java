@@ -31,6 +31,48 @@ class TokenDatatype extends DatatypeBase implements Measure {
     return this;
   }
 
+  ChunkedValidator createChunkedValidator(ValidationContext vc) {
+    // subclasses that restrict the lexical space are not always valid
+    if (!alwaysValid())
+      return null;
+    final boolean collapse = getWhiteSpace() == WHITE_SPACE_COLLAPSE;
+    return new ChunkedValidator() {
+      private int length = 0;
+      private boolean started = false;
+      private boolean pendingSpace = false;
+
+      public void addCharacters(char[] buf, int start, int len) {
+        for (int i = start, end = start + len; i < end; i++) {
+          char c = buf[i];
+          if (collapse) {
+            switch (c) {
+            case ' ':
+            case '\r':
+            case '\n':
+            case '\t':
+              if (started)
+                pendingSpace = true;
+              continue;
+            }
+            if (pendingSpace) {
+              length++;
+              pendingSpace = false;
+            }
+            started = true;
+          }
+          if (!Utf16.isSurrogate1(c))
+            length++;
+        }
+      }
+
+      public void checkValid() { }
+
+      int getLength() {
+        return length;
+      }
+    };
+  }
+
   public int getLength(Object obj) {
     String str = (String)obj;
     int len = str.length();
@@ -5,6 +5,7 @@ import org.relaxng.datatype.Datatype;
 import org.relaxng.datatype.DatatypeBuilder;
 import org.relaxng.datatype.DatatypeException;
 import org.relaxng.datatype.DatatypeLibrary;
+import org.relaxng.datatype.DatatypeStreamingValidator;
 import org.testng.Assert;
 import org.testng.annotations.Test;
 
@@ -79,4 +80,58 @@ public class DatatypeLibraryImplTest {
       Assert.assertTrue(message.contains("4"));      
     }
   }
+
+  @Test
+  public void testStreamingValidator() throws DatatypeException {
+    checkStreaming(lib.createDatatype("base64Binary"),
+                   "", "QUJD", " QU JD\n", "QUI=", "QQ==", "QUJ", "QU=D", "QR==", "QUJD$");
+    checkStreaming(lib.createDatatype("hexBinary"), "", " 0aFf ", "0a f0", "0a0", "0g");
+    checkStreaming(lib.createDatatype("NMTOKENS"), "", " a  b ", "a b\t", "a b!", "!");
+    checkStreaming(lib.createDatatype("IDREFS"), "a1 b2", "1a");
+    DatatypeBuilder dtb = lib.createDatatypeBuilder("token");
+    dtb.addParameter("minLength", "3", null);
+    dtb.addParameter("maxLength", "4", null);
+    checkStreaming(dtb.createDatatype(), "  ab ", " a  b ", "a b c", "  abcd  ", "ab  c  d", "\uD800\uDC00ab");
+    dtb = lib.createDatatypeBuilder("string");
+    dtb.addParameter("length", "3", null);
+    checkStreaming(dtb.createDatatype(), " a ", "a  b", "\uD800\uDC00ab", "abc");
+    dtb = lib.createDatatypeBuilder("base64Binary");
+    dtb.addParameter("length", "2", null);
+    checkStreaming(dtb.createDatatype(), "QUI=", "QUJD");
+    dtb = lib.createDatatypeBuilder("string");
+    dtb.addParameter("pattern", "a+", null);
+    Assert.assertFalse(dtb.createDatatype().createStreamingValidator(null) instanceof ChunkedValidator);
+  }
+
+  private static void checkStreaming(Datatype dt, String... values) {
+    Assert.assertTrue(dt.createStreamingValidator(null) instanceof ChunkedValidator);
+    for (String value : values) {
+      DatatypeStreamingValidator validator = dt.createStreamingValidator(null);
+      char[] chars = value.toCharArray();
+      for (int i = 0; i < chars.length; i++)
+        validator.addCharacters(chars, i, 1);
+      Assert.assertEquals(validator.isValid(), dt.isValid(value, null), value);
+      Assert.assertEquals(checkValidMessage(validator), checkValidMessage(dt, value), value);
+    }
+  }
+
+  private static String checkValidMessage(DatatypeStreamingValidator validator) {
+    try {
+      validator.checkValid();
+      return null;
+    }
+    catch (DatatypeException e) {
+      return e.getMessage();
+    }
+  }
+
+  private static String checkValidMessage(Datatype dt, String value) {
+    try {
+      dt.checkValid(value, null);
+      return null;
+    }
+    catch (DatatypeException e) {
+      return e.getMessage();
+    }
+  }
 }